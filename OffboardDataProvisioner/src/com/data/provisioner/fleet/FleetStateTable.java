@@ -0,0 +1,104 @@
+package com.data.provisioner.fleet;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+
+/**
+ * In-memory state of the fleet, aggregated from the status heartbeats of the trains.
+ * <p>
+ * Every heartbeat replaces the state of its train, so the table holds one immutable {@link TrainState} per train
+ * and a train is looked up in constant time. The table must be attached to a consumer of the status topic,
+ * it's read by any thread.
+ */
+public class FleetStateTable implements MessageListener {
+	
+	/**
+	 * The logger.
+	 */
+	private static final Logger LOGGER = Logger.getLogger(FleetStateTable.class.getName());
+	
+	/**
+	 * Initial capacity, sized for a fleet of 2,000 trains without rehashing.
+	 */
+	private static final int INITIAL_CAPACITY = 4096;
+	
+	private final Map<String, TrainState> trainStates = new ConcurrentHashMap<>(FleetStateTable.INITIAL_CAPACITY);
+	
+	@Override
+	public void onMessage(final Message message) {
+		try {
+			final TrainState trainState = TrainState.of(message, System.currentTimeMillis());
+			if (trainState == null) {
+				FleetStateTable.LOGGER.log(Level.FINE, "Skipping status heartbeat {0} without train id.", message.getJMSMessageID());
+				return;
+			}
+			if (this.trainStates.put(trainState.getTrainId(), trainState) == null) {
+				FleetStateTable.LOGGER.log(Level.INFO, "Train {0}", trainState.getTrainId() + " reported its status for the first time.");
+			}
+		} catch (JMSException exception) {
+			FleetStateTable.LOGGER.log(Level.WARNING, "Status heartbeat can't be read. Reason: {0}", exception.toString());
+		}
+	}
+	
+	/**
+	 * @return the state of the train, null when it hasn't reported yet.
+	 */
+	public TrainState get(final String trainId) {
+		return this.trainStates.get(trainId);
+	}
+	
+	/**
+	 * @return number of the trains which have reported.
+	 */
+	public int size() {
+		return this.trainStates.size();
+	}
+	
+	/**
+	 * @param filter selects the trains.
+	 * @return the states of the selected trains ordered by train id.
+	 */
+	public List<TrainState> select(final Predicate<TrainState> filter) {
+		final List<TrainState> selected = new ArrayList<>();
+		for (final TrainState trainState : this.trainStates.values()) {
+			if (filter.test(trainState)) {
+				selected.add(trainState);
+			}
+		}
+		selected.sort(Comparator.comparing(TrainState::getTrainId));
+		return selected;
+	}
+	
+	/**
+	 * @param now the current time (in milliseconds).
+	 * @return the trains which stopped reporting, ordered by train id.
+	 */
+	public List<TrainState> stragglers(final long now) {
+		return this.select(trainState -> trainState.isStale(now));
+	}
+	
+	/**
+	 * Selects the targets of a delta archive - the trains reporting the content version the delta was computed against.
+	 * @param contentVersion the content version.
+	 * @return ids of the trains with the content version, ordered by train id.
+	 */
+	public List<String> trainsWithContentVersion(final String contentVersion) {
+		final List<String> trainIds = new ArrayList<>();
+		for (final TrainState trainState : this.select(state -> Objects.equals(contentVersion, state.getContentVersion()))) {
+			trainIds.add(trainState.getTrainId());
+		}
+		return trainIds;
+	}
+	
+}
@@ -0,0 +1,169 @@
+package com.data.provisioner.fleet;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+
+/**
+ * Immutable state of a train, read from its last status heartbeat (see {@link TrainStatus}).
+ */
+public final class TrainState {
+	
+	/**
+	 * Number of the missed heartbeats after which the train is stale.
+	 */
+	static final int MISSED_HEARTBEATS = 3;
+	
+	private final String trainId;
+	
+	private final List<String> trainGroups;
+	
+	private final long receivedAt;
+	
+	private final long interval;
+	
+	private final long contentGeneration;
+	
+	private final String contentVersion;
+	
+	private final String gtfsVersion;
+	
+	private final long realtimeEpoch;
+	
+	private final long realtimeSequence;
+	
+	private final long realtimeLag;
+	
+	private final long contentErrors;
+	
+	private final long messagesErrors;
+	
+	private final long realtimeErrors;
+	
+	private final long gtfsErrors;
+	
+	private final long reconnects;
+	
+	private TrainState(final Message heartbeat, final long receivedAt) throws JMSException {
+		final String trainGroups = heartbeat.getStringProperty(TrainStatus.TRAIN_GROUPS);
+		this.trainId = heartbeat.getStringProperty(TrainStatus.TRAIN_ID);
+		this.trainGroups = trainGroups == null || trainGroups.isEmpty() ? Collections.emptyList() : Collections.unmodifiableList(Arrays.asList(trainGroups.split(",")));
+		this.receivedAt = receivedAt;
+		this.interval = TrainState.longProperty(heartbeat, TrainStatus.INTERVAL, 0L);
+		this.contentGeneration = TrainState.longProperty(heartbeat, TrainStatus.CONTENT_GENERATION, 0L);
+		this.contentVersion = heartbeat.getStringProperty(TrainStatus.CONTENT_VERSION);
+		this.gtfsVersion = heartbeat.getStringProperty(TrainStatus.GTFS_VERSION);
+		this.realtimeEpoch = TrainState.longProperty(heartbeat, TrainStatus.REALTIME_EPOCH, 0L);
+		this.realtimeSequence = TrainState.longProperty(heartbeat, TrainStatus.REALTIME_SEQUENCE, 0L);
+		this.realtimeLag = TrainState.longProperty(heartbeat, TrainStatus.REALTIME_LAG, -1L);
+		this.contentErrors = TrainState.longProperty(heartbeat, TrainStatus.CONTENT_ERRORS, 0L);
+		this.messagesErrors = TrainState.longProperty(heartbeat, TrainStatus.MESSAGES_ERRORS, 0L);
+		this.realtimeErrors = TrainState.longProperty(heartbeat, TrainStatus.REALTIME_ERRORS, 0L);
+		this.gtfsErrors = TrainState.longProperty(heartbeat, TrainStatus.GTFS_ERRORS, 0L);
+		this.reconnects = TrainState.longProperty(heartbeat, TrainStatus.RECONNECTS, 0L);
+	}
+	
+	/**
+	 * @param heartbeat the status heartbeat.
+	 * @param receivedAt time (in milliseconds) the heartbeat was received.
+	 * @return the state, null when the heartbeat has no train id.
+	 * @throws JMSException when a property can't be read or has another type.
+	 */
+	static TrainState of(final Message heartbeat, final long receivedAt) throws JMSException {
+		return heartbeat.getStringProperty(TrainStatus.TRAIN_ID) == null ? null : new TrainState(heartbeat, receivedAt);
+	}
+	
+	public String getTrainId() {
+		return this.trainId;
+	}
+	
+	public List<String> getTrainGroups() {
+		return this.trainGroups;
+	}
+	
+	/**
+	 * @return time (in milliseconds) the heartbeat was received.
+	 */
+	public long getReceivedAt() {
+		return this.receivedAt;
+	}
+	
+	/**
+	 * @return time (in milliseconds) between the heartbeats of the train.
+	 */
+	public long getInterval() {
+		return this.interval;
+	}
+	
+	/**
+	 * @return number of the current content generation, 0 when there is none.
+	 */
+	public long getContentGeneration() {
+		return this.contentGeneration;
+	}
+	
+	/**
+	 * @return version of the current content, null when it's unknown.
+	 */
+	public String getContentVersion() {
+		return this.contentVersion;
+	}
+	
+	/**
+	 * @return version of the current GTFS feed, null when it's unknown.
+	 */
+	public String getGtfsVersion() {
+		return this.gtfsVersion;
+	}
+	
+	public long getRealtimeEpoch() {
+		return this.realtimeEpoch;
+	}
+	
+	public long getRealtimeSequence() {
+		return this.realtimeSequence;
+	}
+	
+	/**
+	 * @return age (in milliseconds) of the realtime feed applied by the train, -1 when it applied none.
+	 */
+	public long getRealtimeLag() {
+		return this.realtimeLag;
+	}
+	
+	public long getContentErrors() {
+		return this.contentErrors;
+	}
+	
+	public long getMessagesErrors() {
+		return this.messagesErrors;
+	}
+	
+	public long getRealtimeErrors() {
+		return this.realtimeErrors;
+	}
+	
+	public long getGtfsErrors() {
+		return this.gtfsErrors;
+	}
+	
+	public long getReconnects() {
+		return this.reconnects;
+	}
+	
+	/**
+	 * @param now the current time (in milliseconds).
+	 * @return true when the train missed {@link #MISSED_HEARTBEATS} heartbeats.
+	 */
+	public boolean isStale(final long now) {
+		return now - this.receivedAt > this.interval * TrainState.MISSED_HEARTBEATS;
+	}
+	
+	private static long longProperty(final Message heartbeat, final String name, final long defaultValue) throws JMSException {
+		return heartbeat.propertyExists(name) ? heartbeat.getLongProperty(name) : defaultValue;
+	}
+	
+}
@@ -0,0 +1,64 @@
+package com.data.provisioner.publisher;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the rate (in bytes per second) the publishers sharing the budget send to the broker, as a token bucket.
+ * The bucket holds at most one second of the rate, so an idle period allows a burst of that size only.
+ * <p>
+ * The budget applies to the published bytes. The broker sends a part once to every train it's addressed to,
+ * so the traffic of the train connections is the budget multiplied by the number of addressed trains.
+ */
+public final class BandwidthBudget {
+	
+	private final long bytesPerSecond;
+	
+	/**
+	 * Bytes which can be sent without waiting, negative when the sent bytes were borrowed from the future.
+	 */
+	private double available;
+	
+	private long refilledAt = System.nanoTime();
+	
+	/**
+	 * @param bytesPerSecond the rate, positive.
+	 */
+	public BandwidthBudget(final long bytesPerSecond) {
+		if (bytesPerSecond <= 0L) {
+			throw new IllegalArgumentException("Bandwidth must be positive, but was " + bytesPerSecond + ".");
+		}
+		this.bytesPerSecond = bytesPerSecond;
+		this.available = bytesPerSecond;
+	}
+	
+	/**
+	 * Takes the bytes from the budget, waits until the rate allows sending them. A part larger than the bucket
+	 * is sent at once and the following parts wait for its time.
+	 * @param bytes the number of bytes about to be sent.
+	 * @throws InterruptedIOException when the thread is interrupted while waiting.
+	 */
+	public void acquire(final int bytes) throws InterruptedIOException {
+		final long waitNanos;
+		synchronized (this) {
+			final long now = System.nanoTime();
+			this.available = Math.min(this.bytesPerSecond, this.available + (now - this.refilledAt) * (double) this.bytesPerSecond / TimeUnit.SECONDS.toNanos(1L));
+			this.refilledAt = now;
+			waitNanos = this.available >= 0.0 ? 0L : (long) (-this.available * TimeUnit.SECONDS.toNanos(1L) / this.bytesPerSecond);
+			this.available -= bytes;
+		}
+		if (waitNanos > 0L) {
+			try {
+				TimeUnit.NANOSECONDS.sleep(waitNanos);
+			} catch (InterruptedException exception) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for the bandwidth budget.");
+			}
+		}
+	}
+	
+	public long getBytesPerSecond() {
+		return this.bytesPerSecond;
+	}
+	
+}
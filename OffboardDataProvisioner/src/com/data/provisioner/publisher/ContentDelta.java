@@ -0,0 +1,130 @@
+package com.data.provisioner.publisher;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Computes delta archives between two versions of a content archive.
+ * <p>
+ * Entries are compared by the CRC-32 and the size recorded in the central directory, so unchanged entries are never decompressed.
+ * The delta carries the changed and added entries, a manifest with the base and the new version and a list of the removed entry names.
+ * The names of the manifest and the list are reserved and must be kept in sync with the onboard side.
+ */
+public class ContentDelta {
+	
+	/**
+	 * Delta manifest entry (properties).
+	 */
+	public static final String MANIFEST_ENTRY = "META-INF/content-delta.properties";
+	
+	/**
+	 * Removed entries list (UTF-8, one name per line).
+	 */
+	public static final String REMOVED_ENTRY = "META-INF/content-delta.removed";
+	
+	/**
+	 * Manifest key of the version the delta was computed against.
+	 */
+	public static final String BASE_VERSION = "baseVersion";
+	
+	/**
+	 * Manifest key of the version the delta produces.
+	 */
+	public static final String VERSION = "version";
+	
+	/**
+	 * The reusable copy buffer.
+	 */
+	private final byte[] buffer;
+	
+	public ContentDelta(final int bufferSize) {
+		this.buffer = new byte[bufferSize];
+	}
+	
+	/**
+	 * Builds the delta.
+	 * @param base the archive the train has.
+	 * @param baseVersion version of the base archive.
+	 * @param target the archive the train should have.
+	 * @param version version of the target archive.
+	 * @param delta where the delta archive is written.
+	 * @return the number of changed, added and removed entries.
+	 * @throws IOException when the archives can't be read or written.
+	 */
+	public int build(final Path base, final String baseVersion, final Path target, final String version, final Path delta) throws IOException {
+		int differences = 0;
+		try (
+			final ZipFile baseZip = new ZipFile(base.toFile());
+			final ZipFile targetZip = new ZipFile(target.toFile());
+			final ZipOutputStream output = new ZipOutputStream(Files.newOutputStream(delta));
+		) {
+			final Map<String, ZipEntry> baseEntries = new HashMap<>();
+			final Enumeration<? extends ZipEntry> baseEnumeration = baseZip.entries();
+			while (baseEnumeration.hasMoreElements()) {
+				final ZipEntry entry = baseEnumeration.nextElement();
+				baseEntries.put(entry.getName(), entry);
+			}
+			
+			final Enumeration<? extends ZipEntry> targetEnumeration = targetZip.entries();
+			while (targetEnumeration.hasMoreElements()) {
+				final ZipEntry entry = targetEnumeration.nextElement();
+				final ZipEntry baseEntry = baseEntries.remove(entry.getName());
+				if (baseEntry == null || baseEntry.getCrc() != entry.getCrc() || baseEntry.getSize() != entry.getSize()) {
+					this.copy(targetZip, entry, output);
+					differences++;
+				}
+			}
+			
+			final StringBuilder removed = new StringBuilder();
+			for (final String name : baseEntries.keySet()) {
+				removed.append(name).append('\n');
+				differences++;
+			}
+			output.putNextEntry(new ZipEntry(ContentDelta.REMOVED_ENTRY));
+			output.write(removed.toString().getBytes(StandardCharsets.UTF_8));
+			output.closeEntry();
+			
+			final Properties manifest = new Properties();
+			manifest.setProperty(ContentDelta.BASE_VERSION, baseVersion);
+			manifest.setProperty(ContentDelta.VERSION, version);
+			output.putNextEntry(new ZipEntry(ContentDelta.MANIFEST_ENTRY));
+			manifest.store(output, null);
+			output.closeEntry();
+		}
+		return differences;
+	}
+	
+	/**
+	 * Copies the entry keeping its name, method, time and comment. Deflated entries are compressed again.
+	 */
+	private void copy(final ZipFile source, final ZipEntry entry, final ZipOutputStream output) throws IOException {
+		final ZipEntry copy = new ZipEntry(entry.getName());
+		copy.setMethod(entry.getMethod());
+		copy.setTime(entry.getTime());
+		copy.setComment(entry.getComment());
+		if (entry.getMethod() == ZipEntry.STORED) {
+			copy.setSize(entry.getSize());
+			copy.setCompressedSize(entry.getSize());
+			copy.setCrc(entry.getCrc());
+		}
+		output.putNextEntry(copy);
+		try (final InputStream inputStream = source.getInputStream(entry)) {
+			int read;
+			while ((read = inputStream.read(this.buffer)) != -1) {
+				output.write(this.buffer, 0, read);
+			}
+		}
+		output.closeEntry();
+	}
+	
+}
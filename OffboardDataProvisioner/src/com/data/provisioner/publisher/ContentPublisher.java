@@ -0,0 +1,288 @@
+package com.data.provisioner.publisher;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.zip.CRC32;
+
+import javax.jms.BytesMessage;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+/**
+ * Publishes content archives using the multi-part content transfer protocol (see {@link ContentTransfer}).
+ * Every part is stamped by the {@link MessageSequence} of the topic and optionally compressed by a {@link PayloadEncoder}.
+ * The part checksum is computed before the compression.
+ * <p>
+ * The parts can be addressed to selected trains and groups and limited by a {@link BandwidthBudget} shared with
+ * other publishers. They are always sent with the default message priority, a broker dispatching a part before the ones
+ * stamped earlier would make the trains drop them (see {@link MessageSequence}).
+ * <p>
+ * Not thread safe - the publisher uses the session it was created with.
+ */
+public class ContentPublisher implements AutoCloseable {
+	
+	/**
+	 * Default part size (in bytes) - 256 KiB.
+	 */
+	public static final int DEFAULT_PART_SIZE = 256 * 1024;
+	
+	private final Session session;
+	
+	private final MessageProducer producer;
+	
+	private final int partSize;
+	
+	/**
+	 * The reusable part buffer.
+	 */
+	private final byte[] part;
+	
+	private final CRC32 checksum = new CRC32();
+	
+	private final MessageSequence messageSequence;
+	
+	/**
+	 * Compresses the parts, null when they are sent as they are.
+	 */
+	private final PayloadEncoder payloadEncoder;
+	
+	/**
+	 * Limits the rate of the sent parts, null when it's unlimited.
+	 */
+	private BandwidthBudget bandwidthBudget = null;
+	
+	/**
+	 * The {@link ContentTransfer#TARGETS} of the sent parts, null when they are addressed to the whole fleet.
+	 */
+	private String targets = null;
+	
+	/**
+	 * Creates publisher with its own message sequence, for a topic without other publishers.
+	 * @param session the session used for creating the messages.
+	 * @param destination the content topic.
+	 * @param partSize the nominal part size (in bytes).
+	 * @throws JMSException when the producer can't be created.
+	 */
+	public ContentPublisher(final Session session, final Destination destination, final int partSize) throws JMSException {
+		this(session, destination, partSize, new MessageSequence());
+	}
+	
+	/**
+	 * @param session the session used for creating the messages.
+	 * @param destination the content topic.
+	 * @param partSize the nominal part size (in bytes).
+	 * @param messageSequence the sequence shared by the publishers of the topic.
+	 * @throws JMSException when the producer can't be created.
+	 */
+	public ContentPublisher(final Session session, final Destination destination, final int partSize, final MessageSequence messageSequence) throws JMSException {
+		this(session, destination, partSize, messageSequence, null);
+	}
+	
+	/**
+	 * @param session the session used for creating the messages.
+	 * @param destination the content topic.
+	 * @param partSize the nominal part size (in bytes).
+	 * @param messageSequence the sequence shared by the publishers of the topic.
+	 * @param payloadEncoder the encoder of the {@link PayloadEncoder.PayloadType#ARCHIVE} parts, null to send them
+	 * as they are. It's not closed with the publisher.
+	 * @throws JMSException when the producer can't be created.
+	 */
+	public ContentPublisher(
+		final Session session, final Destination destination, final int partSize, final MessageSequence messageSequence, final PayloadEncoder payloadEncoder
+	) throws JMSException {
+		if (partSize <= 0) {
+			throw new IllegalArgumentException("Part size must be positive, but was " + partSize + ".");
+		}
+		this.session = session;
+		this.producer = session.createProducer(destination);
+		this.partSize = partSize;
+		this.part = new byte[partSize];
+		this.messageSequence = messageSequence;
+		this.payloadEncoder = payloadEncoder;
+	}
+	
+	/**
+	 * Publishes all parts of the archive.
+	 * @param archive the archive.
+	 * @param transferId unique id of the transfer.
+	 * @return the number of published parts.
+	 * @throws IOException when the archive can't be read.
+	 * @throws JMSException when a part can't be sent.
+	 */
+	public int publish(final Path archive, final String transferId) throws IOException, JMSException {
+		return this.publish(archive, transferId, null, null, null);
+	}
+	
+	/**
+	 * Publishes all parts of the archive with its content version.
+	 * @param archive the archive.
+	 * @param transferId unique id of the transfer.
+	 * @param version the content version, null when it's unknown.
+	 * @param baseVersion the version a delta archive was computed against, null for a full archive.
+	 * @return the number of published parts.
+	 * @throws IOException when the archive can't be read.
+	 * @throws JMSException when a part can't be sent.
+	 */
+	public int publish(final Path archive, final String transferId, final String version, final String baseVersion) throws IOException, JMSException {
+		return this.publish(archive, transferId, null, version, baseVersion);
+	}
+	
+	/**
+	 * Addresses the parts sent from now on to the trains and groups.
+	 * @param targets the train ids and the group names prefixed with {@link ContentTransfer#GROUP_PREFIX},
+	 * null to address the whole fleet.
+	 * @throws IllegalArgumentException when a target is empty or contains a comma.
+	 */
+	public void setTargets(final Collection<String> targets) {
+		this.targets = targets == null ? null : ContentTransfer.formatTargets(targets);
+	}
+	
+	/**
+	 * Limits the rate of the parts sent from now on.
+	 * @param bandwidthBudget the budget, null for an unlimited rate.
+	 */
+	public void setBandwidthBudget(final BandwidthBudget bandwidthBudget) {
+		this.bandwidthBudget = bandwidthBudget;
+	}
+	
+	/**
+	 * Publishes the selected parts of the archive, for example the ones a train requested again. The parts carry
+	 * the versions of the transfer like the ones published first, the train may complete the transfer with any of them.
+	 * @param archive the archive.
+	 * @param transferId unique id of the transfer.
+	 * @param parts the parts to publish, null for all of them. Parts out of range are ignored.
+	 * @param version the content version, null when it's unknown.
+	 * @param baseVersion the version a delta archive was computed against, null for a full archive.
+	 * @return the number of published parts.
+	 * @throws IOException when the archive can't be read.
+	 * @throws JMSException when a part can't be sent.
+	 */
+	public int publish(
+		final Path archive, final String transferId, final BitSet parts, final String version, final String baseVersion
+	) throws IOException, JMSException {
+		int published = 0;
+		try (final FileChannel channel = FileChannel.open(archive, StandardOpenOption.READ)) {
+			final long totalSize = channel.size();
+			final int partCount = (int) Math.max(1L, (totalSize + this.partSize - 1) / this.partSize);
+			for (int partIndex = 0; partIndex < partCount; partIndex++) {
+				if (parts == null || parts.get(partIndex)) {
+					this.publishPart(channel, transferId, partIndex, partCount, totalSize, version, baseVersion);
+					published++;
+				}
+			}
+		}
+		return published;
+	}
+	
+	/**
+	 * Publishes the archive while it's read from the stream, e.g. an upload. Only one part is held in memory.
+	 * @param inputStream the archive. It's not closed by this method.
+	 * @param totalSize the archive size (in bytes), the stream must provide exactly that many bytes.
+	 * @param transferId unique id of the transfer.
+	 * @param version the content version, null when it's unknown.
+	 * @param baseVersion the version a delta archive was computed against, null for a full archive.
+	 * @param copy receives the archive as it's published, e.g. the file kept for the resend requests. Null when
+	 * no copy is kept.
+	 * @return the number of published parts.
+	 * @throws IOException when the stream doesn't provide the size or the copy can't be written.
+	 * @throws JMSException when a part can't be sent.
+	 */
+	public int publish(
+		final InputStream inputStream, final long totalSize, final String transferId, final String version, final String baseVersion, final WritableByteChannel copy
+	) throws IOException, JMSException {
+		if (totalSize < 0L) {
+			throw new IllegalArgumentException("Archive size must not be negative, but was " + totalSize + ".");
+		}
+		final int partCount = (int) Math.max(1L, (totalSize + this.partSize - 1) / this.partSize);
+		for (int partIndex = 0; partIndex < partCount; partIndex++) {
+			final int length = (int) Math.min(this.partSize, totalSize - (long) partIndex * this.partSize);
+			for (int position = 0; position < length;) {
+				final int read = inputStream.read(this.part, position, length - position);
+				if (read < 0) {
+					throw new EOFException("Archive of transfer " + transferId + " ends before its size " + totalSize + ".");
+				}
+				position += read;
+			}
+			if (copy != null) {
+				final ByteBuffer buffer = ByteBuffer.wrap(this.part, 0, length);
+				while (buffer.hasRemaining()) {
+					copy.write(buffer);
+				}
+			}
+			this.sendPart(transferId, partIndex, partCount, totalSize, length, version, baseVersion);
+		}
+		if (inputStream.read() >= 0) {
+			throw new IOException("Archive of transfer " + transferId + " is longer than its size " + totalSize + ".");
+		}
+		return partCount;
+	}
+	
+	@Override
+	public void close() throws JMSException {
+		this.producer.close();
+	}
+	
+	private void publishPart(
+		final FileChannel channel, final String transferId, final int partIndex, final int partCount, final long totalSize, final String version, final String baseVersion
+	) throws IOException, JMSException {
+		final long offset = (long) partIndex * this.partSize;
+		final int length = (int) Math.min(this.partSize, totalSize - offset);
+		final ByteBuffer buffer = ByteBuffer.wrap(this.part, 0, length);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, offset + buffer.position()) < 0) {
+				throw new IOException("Unexpected end of archive at part " + partIndex + " of transfer " + transferId + ".");
+			}
+		}
+		this.sendPart(transferId, partIndex, partCount, totalSize, length, version, baseVersion);
+	}
+	
+	/**
+	 * Sends the part held in the part buffer once the bandwidth budget allows it.
+	 */
+	private void sendPart(
+		final String transferId, final int partIndex, final int partCount, final long totalSize, final int length, final String version, final String baseVersion
+	) throws IOException, JMSException {
+		if (this.bandwidthBudget != null) {
+			this.bandwidthBudget.acquire(length);
+		}
+		this.checksum.reset();
+		this.checksum.update(this.part, 0, length);
+		
+		final BytesMessage message = this.session.createBytesMessage();
+		if (this.payloadEncoder == null) {
+			message.writeBytes(this.part, 0, length);
+		} else {
+			this.payloadEncoder.write(message, this.part, 0, length);
+		}
+		message.setStringProperty(ContentTransfer.TRANSFER_ID, transferId);
+		message.setIntProperty(ContentTransfer.PART_INDEX, partIndex);
+		message.setIntProperty(ContentTransfer.PART_COUNT, partCount);
+		message.setIntProperty(ContentTransfer.PART_SIZE, this.partSize);
+		message.setLongProperty(ContentTransfer.TOTAL_SIZE, totalSize);
+		message.setLongProperty(ContentTransfer.PART_CHECKSUM, this.checksum.getValue());
+		if (version != null) {
+			message.setStringProperty(ContentTransfer.CONTENT_VERSION, version);
+		}
+		if (baseVersion != null) {
+			message.setStringProperty(ContentTransfer.CONTENT_BASE_VERSION, baseVersion);
+		}
+		if (this.targets != null) {
+			message.setStringProperty(ContentTransfer.TARGETS, this.targets);
+		}
+		synchronized (this.messageSequence) {
+			this.messageSequence.stamp(message);
+			this.producer.send(message);
+		}
+	}
+	
+}
@@ -0,0 +1,82 @@
+package com.data.provisioner.publisher;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+
+/**
+ * Publishes the full current content to the trains which rejected a delta.
+ * A train rejects a delta computed against another version than its current content, for example because it was
+ * offline when the base version was published, and it would reject every following delta too. The full archive is
+ * addressed to the rejecting train only, the rest of the fleet doesn't receive it.
+ * <p>
+ * The publisher must be created with the session of the consumer this listener is attached to.
+ */
+public class ContentRejectionListener implements MessageListener {
+	
+	/**
+	 * The logger.
+	 */
+	private static final Logger LOGGER = Logger.getLogger(ContentRejectionListener.class.getName());
+	
+	private final ContentPublisher contentPublisher;
+	
+	/**
+	 * Resolves the content published under the given transfer id, returns null for unknown transfers.
+	 */
+	private final Function<String, PublishedContent> contents;
+	
+	/**
+	 * Returns the full content archive published last, null until the first one.
+	 */
+	private final Supplier<PublishedContent> currentContent;
+	
+	public ContentRejectionListener(
+		final ContentPublisher contentPublisher, final Function<String, PublishedContent> contents, final Supplier<PublishedContent> currentContent
+	) {
+		this.contentPublisher = contentPublisher;
+		this.contents = contents;
+		this.currentContent = currentContent;
+	}
+	
+	@Override
+	public void onMessage(final Message message) {
+		try {
+			if (!ContentTransfer.STATUS_REJECTED.equals(message.getStringProperty(ContentTransfer.STATUS))) {
+				return;
+			}
+			final String trainId = message.getStringProperty(ContentTransfer.TRAIN_ID);
+			final String transferId = message.getStringProperty(ContentTransfer.TRANSFER_ID);
+			if (trainId == null || transferId == null) {
+				return;
+			}
+			
+			final PublishedContent rejected = this.contents.apply(transferId);
+			if (rejected == null || rejected.getBaseVersion() == null) {
+				return;
+			}
+			final PublishedContent content = this.currentContent.get();
+			if (content == null || !Files.isReadable(content.getArchive())) {
+				ContentRejectionListener.LOGGER.log(Level.WARNING, "Train {0}", trainId + " rejected delta " + transferId + ", but there is no full content to publish.");
+				return;
+			}
+			this.contentPublisher.setTargets(Collections.singletonList(trainId));
+			final int published = this.contentPublisher.publish(content.getArchive(), content.getTransferId(), content.getVersion(), null);
+			ContentRejectionListener.LOGGER.log(
+				Level.INFO, "Published {0}", published + " parts of full transfer " + content.getTransferId() + " (version " + content.getVersion()
+					+ ") to train " + trainId + ", which rejected delta " + transferId + " against version " + rejected.getBaseVersion() + "."
+			);
+		} catch (IOException | JMSException | RuntimeException exception) {
+			ContentRejectionListener.LOGGER.log(Level.SEVERE, "Rejected content transfer can't be processed. Reason: {0}", exception.toString());
+		}
+	}
+	
+}
@@ -0,0 +1,66 @@
+package com.data.provisioner.publisher;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+
+/**
+ * Publishes again the content parts requested by trains after a lost connection.
+ * The parts are addressed to the requesting train only, the rest of the fleet doesn't receive them. They carry the versions
+ * of the transfer, so a resent part completing a delta is applied as a delta.
+ * <p>
+ * The publisher must be created with the session of the consumer this listener is attached to.
+ */
+public class ContentResendListener implements MessageListener {
+	
+	/**
+	 * The logger.
+	 */
+	private static final Logger LOGGER = Logger.getLogger(ContentResendListener.class.getName());
+	
+	private final ContentPublisher contentPublisher;
+	
+	/**
+	 * Resolves the content published under the given transfer id, returns null for unknown transfers.
+	 */
+	private final Function<String, PublishedContent> contents;
+	
+	public ContentResendListener(final ContentPublisher contentPublisher, final Function<String, PublishedContent> contents) {
+		this.contentPublisher = contentPublisher;
+		this.contents = contents;
+	}
+	
+	@Override
+	public void onMessage(final Message message) {
+		try {
+			final String trainId = message.getStringProperty(ContentTransfer.TRAIN_ID);
+			final String transferId = message.getStringProperty(ContentTransfer.TRANSFER_ID);
+			final String missingParts = message.getStringProperty(ContentTransfer.MISSING_PARTS);
+			if (transferId == null || missingParts == null) {
+				ContentResendListener.LOGGER.log(Level.WARNING, "Skipping incomplete resend request from train {0}", trainId);
+				return;
+			}
+			
+			final PublishedContent content = this.contents.apply(transferId);
+			if (content == null || !Files.isReadable(content.getArchive())) {
+				ContentResendListener.LOGGER.log(Level.WARNING, "Train {0}", trainId + " requested parts of unknown transfer " + transferId + ".");
+				return;
+			}
+			this.contentPublisher.setTargets(trainId == null ? null : Collections.singletonList(trainId));
+			final int published = this.contentPublisher.publish(
+				content.getArchive(), transferId, ContentTransfer.parseRanges(missingParts), content.getVersion(), content.getBaseVersion()
+			);
+			ContentResendListener.LOGGER.log(Level.INFO, "Published {0}", published + " missing parts of transfer " + transferId + " requested by train " + trainId + ".");
+		} catch (IOException | JMSException | RuntimeException exception) {
+			ContentResendListener.LOGGER.log(Level.SEVERE, "Content resend request can't be processed. Reason: {0}", exception.toString());
+		}
+	}
+	
+}
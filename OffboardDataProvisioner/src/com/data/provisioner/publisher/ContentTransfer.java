@@ -0,0 +1,161 @@
+package com.data.provisioner.publisher;
+
+import java.util.BitSet;
+import java.util.Collection;
+
+/**
+ * Message properties of the multi-part content transfer protocol.
+ * <p>
+ * Every part of an archive is sent as a separate message carrying the transfer id, its sequence number,
+ * the total number of parts, the nominal part size, the archive size and the CRC-32 of the part.
+ * Parts can arrive in any order and a part received twice is simply written again.
+ * Every part also carries the content version properties of the archive.
+ * <p>
+ * The same names are used by the onboard assembler, so they must be kept in sync.
+ */
+public final class ContentTransfer {
+	
+	/**
+	 * Unique id of the transfer (String).
+	 */
+	public static final String TRANSFER_ID = "transferId";
+	
+	/**
+	 * Zero based sequence number of the part (int).
+	 */
+	public static final String PART_INDEX = "partIndex";
+	
+	/**
+	 * Total number of parts in the transfer (int).
+	 */
+	public static final String PART_COUNT = "partCount";
+	
+	/**
+	 * Nominal size of a part (in bytes). Only the last part can be shorter (int).
+	 */
+	public static final String PART_SIZE = "partSize";
+	
+	/**
+	 * Size of the whole archive (in bytes) (long).
+	 */
+	public static final String TOTAL_SIZE = "totalSize";
+	
+	/**
+	 * CRC-32 of the part (long).
+	 */
+	public static final String PART_CHECKSUM = "partChecksum";
+	
+	/**
+	 * Version of the content the archive represents (String). Optional for full archives.
+	 */
+	public static final String CONTENT_VERSION = "contentVersion";
+	
+	/**
+	 * Version of the content a delta archive was computed against (String). Present only on delta archives,
+	 * which carry the changed and added entries plus a manifest (see {@code ContentDelta}).
+	 */
+	public static final String CONTENT_BASE_VERSION = "contentBaseVersion";
+	
+	/**
+	 * Parts requested again by the train, formatted as ranges - "0-3,7,9-12" (String).
+	 */
+	public static final String MISSING_PARTS = "missingParts";
+	
+	/**
+	 * Id of the train requesting parts again or acknowledging the transfer (String).
+	 */
+	public static final String TRAIN_ID = "trainId";
+	
+	/**
+	 * Trains and train groups the part is addressed to, formatted as ",Northern-001,@north," (String).
+	 * Parts without it are addressed to the whole fleet. The trains select the parts addressed to them on the broker,
+	 * so the other trains don't receive them at all.
+	 */
+	public static final String TARGETS = "contentTargets";
+	
+	/**
+	 * Prefix of the train group names in the {@link #TARGETS}.
+	 */
+	public static final String GROUP_PREFIX = "@";
+	
+	/**
+	 * Outcome of the transfer acknowledged by the train - {@link #STATUS_COMMITTED} or {@link #STATUS_REJECTED} (String).
+	 */
+	public static final String STATUS = "contentStatus";
+	
+	/**
+	 * The train switched to the content of the transfer.
+	 */
+	public static final String STATUS_COMMITTED = "committed";
+	
+	/**
+	 * The train received the transfer, but discarded it - an invalid archive or a delta computed against another version.
+	 */
+	public static final String STATUS_REJECTED = "rejected";
+	
+	private ContentTransfer() {
+		
+	}
+	
+	/**
+	 * Formats the set parts as ranges.
+	 * @param parts the parts.
+	 * @return the ranges, for example "0-3,7,9-12". Empty string when no parts are set.
+	 */
+	public static String formatRanges(final BitSet parts) {
+		final StringBuilder ranges = new StringBuilder();
+		int start = parts.nextSetBit(0);
+		while (start >= 0) {
+			final int end = parts.nextClearBit(start) - 1;
+			if (ranges.length() > 0) {
+				ranges.append(',');
+			}
+			ranges.append(start);
+			if (end > start) {
+				ranges.append('-').append(end);
+			}
+			start = parts.nextSetBit(end + 1);
+		}
+		return ranges.toString();
+	}
+	
+	/**
+	 * Formats the trains and train groups as the {@link #TARGETS} of a part.
+	 * @param targets the train ids and the group names prefixed with {@link #GROUP_PREFIX}.
+	 * @return the targets, for example ",Northern-001,@north,".
+	 * @throws IllegalArgumentException when a target is empty or contains a comma.
+	 */
+	public static String formatTargets(final Collection<String> targets) {
+		final StringBuilder formatted = new StringBuilder(",");
+		for (final String target : targets) {
+			if (target.isEmpty() || target.indexOf(',') >= 0) {
+				throw new IllegalArgumentException("Invalid target \"" + target + "\".");
+			}
+			formatted.append(target).append(',');
+		}
+		return formatted.toString();
+	}
+	
+	/**
+	 * Parses ranges formatted with {@link #formatRanges(BitSet)}.
+	 * @param ranges the ranges.
+	 * @return the parts.
+	 */
+	public static BitSet parseRanges(final String ranges) {
+		final BitSet parts = new BitSet();
+		for (final String range : ranges.split(",")) {
+			final String trimmed = range.trim();
+			if (trimmed.isEmpty()) {
+				continue;
+			}
+			final int separator = trimmed.indexOf('-');
+			if (separator < 0) {
+				parts.set(Integer.parseInt(trimmed));
+			} else {
+				parts.set(Integer.parseInt(trimmed.substring(0, separator)), Integer.parseInt(trimmed.substring(separator + 1)) + 1);
+			}
+		}
+		return parts;
+	}
+	
+}
@@ -0,0 +1,60 @@
+package com.data.provisioner.publisher;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+
+/**
+ * Stamps the messages published to a topic with the publisher epoch and a sequence number.
+ * <p>
+ * The trains keep the highest received (epoch, sequence) per topic and drop the messages at or below it, so that
+ * messages delivered again after a reconnect of a durable subscription aren't processed twice. The epoch is the
+ * start time of the publisher, a restarted publisher continues above the previous one.
+ * <p>
+ * One sequence is shared by all producers of a topic and the messages must be sent in the order they were stamped,
+ * otherwise the trains drop the overtaken ones. Producers sharing the sequence stamp and send while holding its lock.
+ * <p>
+ * The same names are used by the onboard tracker, so they must be kept in sync.
+ */
+public final class MessageSequence {
+	
+	/**
+	 * Start time (in milliseconds) of the publisher (long).
+	 */
+	public static final String PUBLISHER_EPOCH = "publisherEpoch";
+	
+	/**
+	 * Sequence number of the message within the publisher epoch, starting from 1 (long).
+	 */
+	public static final String SEQUENCE = "sequence";
+	
+	private final long epoch;
+	
+	private long sequence = 0L;
+	
+	public MessageSequence() {
+		this(System.currentTimeMillis());
+	}
+	
+	/**
+	 * @param epoch the publisher epoch, higher than the epoch of any previous publisher of the topic.
+	 */
+	public MessageSequence(final long epoch) {
+		this.epoch = epoch;
+	}
+	
+	/**
+	 * Sets the epoch and the next sequence number on the message.
+	 * @param message the message, sent before any message stamped later.
+	 * @throws JMSException when the properties can't be set.
+	 */
+	public synchronized void stamp(final Message message) throws JMSException {
+		this.sequence++;
+		message.setLongProperty(MessageSequence.PUBLISHER_EPOCH, this.epoch);
+		message.setLongProperty(MessageSequence.SEQUENCE, this.sequence);
+	}
+	
+	public long getEpoch() {
+		return this.epoch;
+	}
+	
+}
@@ -0,0 +1,43 @@
+package com.data.provisioner.publisher;
+
+/**
+ * Codec of a message payload, carried in the message properties. A message without the codec property is not encoded.
+ * <p>
+ * Deflated payloads are zlib streams. They can be compressed with a preset dictionary, which the stream identifies
+ * by its Adler-32, so the trains pick the dictionary without any other property.
+ * <p>
+ * The same names are used by the onboard decoder, so they must be kept in sync.
+ */
+public enum PayloadCodec {
+	
+	/**
+	 * The payload is carried as it is.
+	 */
+	NONE("none"),
+	
+	/**
+	 * The payload is a zlib stream, optionally compressed with a preset dictionary.
+	 */
+	DEFLATE("deflate");
+	
+	/**
+	 * Id of the codec (String).
+	 */
+	public static final String CODEC = "payloadCodec";
+	
+	/**
+	 * Size of the decoded payload (in bytes) (int).
+	 */
+	public static final String DECODED_SIZE = "payloadSize";
+	
+	private final String id;
+	
+	private PayloadCodec(final String id) {
+		this.id = id;
+	}
+	
+	public String getId() {
+		return this.id;
+	}
+	
+}
@@ -0,0 +1,158 @@
+package com.data.provisioner.publisher;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Adler32;
+
+/**
+ * Trains the preset dictionary of the small payloads from a corpus of published payloads.
+ * <p>
+ * Small payloads compress poorly on their own, because zlib has seen nothing to refer back to. With a preset dictionary
+ * holding the strings the payloads share (field names, trip and stop ids), their first occurrences are referred to
+ * in the dictionary instead. The dictionary is built the way zstd builds its dictionaries: the corpus is split into
+ * epochs, one segment per epoch is picked - the one whose 8-byte strings are the most frequent in the whole corpus -
+ * and its strings don't count for the later picks. zlib refers back at most 32 KiB, so the dictionary is not larger.
+ * <p>
+ * The dictionary is trained by {@link #main(String[])} from the sample files. It must be installed on the trains
+ * (in their {@code conf/dictionaries} directory) before the publisher starts to use it (the {@code publishDictionary}
+ * parameter of the {@link PublishingService}). It's identified by its {@link #id(byte[])}.
+ */
+public final class PayloadDictionary {
+	
+	/**
+	 * Maximum dictionary size (in bytes) zlib can refer to - 32 KiB.
+	 */
+	public static final int MAX_SIZE = 32 * 1024;
+	
+	/**
+	 * Length (in bytes) of the counted strings, packed into a long.
+	 */
+	private static final int STRING_LENGTH = 8;
+	
+	/**
+	 * Length (in bytes) of the picked segments.
+	 */
+	private static final int SEGMENT_LENGTH = 64;
+	
+	private PayloadDictionary() {
+		
+	}
+	
+	/**
+	 * Trains the dictionary from the sample files and writes it.
+	 * @param arguments the dictionary file, the dictionary size (in bytes) and the sample files.
+	 * @throws IOException when a sample can't be read or the dictionary written.
+	 */
+	public static void main(final String[] arguments) throws IOException {
+		if (arguments.length < 3) {
+			System.err.println("Usage: PayloadDictionary <dictionary file> <size> <sample file>...");
+			System.exit(1);
+		}
+		final List<byte[]> samples = new ArrayList<>();
+		for (int index = 2; index < arguments.length; index++) {
+			samples.add(Files.readAllBytes(Paths.get(arguments[index])));
+		}
+		final byte[] dictionary = PayloadDictionary.train(samples, Integer.parseInt(arguments[1]));
+		Files.write(Paths.get(arguments[0]), dictionary);
+		System.out.println("Dictionary " + Integer.toHexString(PayloadDictionary.id(dictionary)) + " of " + dictionary.length + " bytes written to " + arguments[0] + ".");
+	}
+	
+	/**
+	 * @param samples the published payloads, the more the better.
+	 * @param size the dictionary size (in bytes), at most {@link #MAX_SIZE}.
+	 * @return the dictionary, smaller than the size when the corpus is too small.
+	 */
+	public static byte[] train(final List<byte[]> samples, final int size) {
+		if (size <= 0 || size > PayloadDictionary.MAX_SIZE) {
+			throw new IllegalArgumentException("Dictionary size must be between 1 and " + PayloadDictionary.MAX_SIZE + ", but was " + size + ".");
+		}
+		int corpusSize = 0;
+		for (final byte[] sample : samples) {
+			corpusSize += sample.length;
+		}
+		final byte[] corpus = new byte[corpusSize];
+		final boolean[] counted = new boolean[corpusSize];
+		final Map<Long, Integer> frequencies = new HashMap<>();
+		int position = 0;
+		for (final byte[] sample : samples) {
+			System.arraycopy(sample, 0, corpus, position, sample.length);
+			for (int index = 0; index + PayloadDictionary.STRING_LENGTH <= sample.length; index++) {
+				counted[position + index] = true;
+				frequencies.merge(PayloadDictionary.string(corpus, position + index), 1, Integer::sum);
+			}
+			position += sample.length;
+		}
+		
+		final byte[] dictionary = new byte[Math.min(size, corpusSize)];
+		int dictionaryStart = dictionary.length;
+		final int epochs = Math.max(1, dictionary.length / PayloadDictionary.SEGMENT_LENGTH);
+		final int epochSize = corpusSize / epochs;
+		for (int epoch = 0; epoch < epochs && dictionaryStart > 0 && epochSize >= PayloadDictionary.SEGMENT_LENGTH; epoch++) {
+			final int segment = PayloadDictionary.bestSegment(corpus, counted, frequencies, epoch * epochSize, epoch * epochSize + epochSize);
+			if (segment < 0) {
+				continue;
+			}
+			for (int index = segment; index + PayloadDictionary.STRING_LENGTH <= segment + PayloadDictionary.SEGMENT_LENGTH; index++) {
+				if (counted[index]) {
+					frequencies.put(PayloadDictionary.string(corpus, index), 0);
+				}
+			}
+			final int length = Math.min(PayloadDictionary.SEGMENT_LENGTH, dictionaryStart);
+			dictionaryStart -= length;
+			System.arraycopy(corpus, segment, dictionary, dictionaryStart, length);
+		}
+		final byte[] trained = new byte[dictionary.length - dictionaryStart];
+		System.arraycopy(dictionary, dictionaryStart, trained, 0, trained.length);
+		return trained;
+	}
+	
+	/**
+	 * @param dictionary the dictionary.
+	 * @return id of the dictionary as recorded in the zlib streams compressed with it, its Adler-32.
+	 */
+	public static int id(final byte[] dictionary) {
+		final Adler32 adler = new Adler32();
+		adler.update(dictionary, 0, dictionary.length);
+		return (int) adler.getValue();
+	}
+	
+	/**
+	 * @return start of the segment of the epoch with the most frequent strings, -1 when none of them occurs twice.
+	 */
+	private static int bestSegment(final byte[] corpus, final boolean[] counted, final Map<Long, Integer> frequencies, final int start, final int end) {
+		final int strings = PayloadDictionary.SEGMENT_LENGTH - PayloadDictionary.STRING_LENGTH + 1;
+		final int[] scores = new int[end - start];
+		for (int index = start; index < end; index++) {
+			scores[index - start] = counted[index] ? Math.max(0, frequencies.get(PayloadDictionary.string(corpus, index)) - 1) : 0;
+		}
+		long score = 0L;
+		long bestScore = 0L;
+		int best = -1;
+		for (int index = 0; index < scores.length; index++) {
+			score += scores[index];
+			if (index >= strings) {
+				score -= scores[index - strings];
+			}
+			final int segment = index - strings + 1;
+			if (segment >= 0 && segment + PayloadDictionary.SEGMENT_LENGTH <= scores.length && score > bestScore) {
+				bestScore = score;
+				best = start + segment;
+			}
+		}
+		return best;
+	}
+	
+	private static long string(final byte[] corpus, final int offset) {
+		long string = 0L;
+		for (int index = 0; index < PayloadDictionary.STRING_LENGTH; index++) {
+			string = string << 8 | corpus[offset + index] & 0xFF;
+		}
+		return string;
+	}
+	
+}
@@ -0,0 +1,134 @@
+package com.data.provisioner.publisher;
+
+import java.util.zip.Deflater;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+
+/**
+ * Writes the payloads into the messages, compressed with the codec picked for the payload type (see {@link PayloadCodec}).
+ * <p>
+ * A payload is sent compressed only when that saves at least {@link #MINIMUM_SAVING} of its size. Content archives
+ * with stored entries compress well, while the deflated ones would only grow and cost the trains the decoding.
+ * <p>
+ * Not thread safe - the encoder reuses its deflater and output buffer. One encoder per publisher is the intended usage.
+ */
+public class PayloadEncoder implements AutoCloseable {
+	
+	/**
+	 * Payloads smaller than this (in bytes) are sent as they are, the zlib header and checksum would outweigh the saving.
+	 */
+	public static final int MINIMUM_SIZE = 128;
+	
+	/**
+	 * Part of the payload size the compression must save.
+	 */
+	public static final double MINIMUM_SAVING = 0.05;
+	
+	/**
+	 * Kinds of the published payloads and their compression.
+	 */
+	public enum PayloadType {
+		
+		/**
+		 * Content and GTFS archives, published rarely and received over hours - compressed as much as possible.
+		 * A dictionary wouldn't help the large payloads.
+		 */
+		ARCHIVE(Deflater.BEST_COMPRESSION, false),
+		
+		/**
+		 * Short JSON messages - most of their bytes are the field names shared with the dictionary.
+		 */
+		MESSAGE(Deflater.DEFAULT_COMPRESSION, true),
+		
+		/**
+		 * GTFS-Realtime feeds, published every few seconds - compressed fast, with the dictionary of the trip and stop ids.
+		 */
+		REALTIME(Deflater.BEST_SPEED, true);
+		
+		private final int level;
+		
+		private final boolean dictionary;
+		
+		private PayloadType(final int level, final boolean dictionary) {
+			this.level = level;
+			this.dictionary = dictionary;
+		}
+		
+	}
+	
+	private final Deflater deflater;
+	
+	/**
+	 * Preset dictionary, null when the payloads are compressed without one.
+	 */
+	private final byte[] dictionary;
+	
+	private byte[] output = new byte[8 * 1024];
+	
+	public PayloadEncoder(final PayloadType payloadType) {
+		this(payloadType, null);
+	}
+	
+	/**
+	 * @param payloadType the type of the encoded payloads.
+	 * @param dictionary the preset dictionary (see {@link PayloadDictionary}), used only for the types which benefit
+	 * from it. The trains must have the same dictionary. Null to compress without one.
+	 */
+	public PayloadEncoder(final PayloadType payloadType, final byte[] dictionary) {
+		this.deflater = new Deflater(payloadType.level);
+		this.dictionary = payloadType.dictionary && dictionary != null ? dictionary.clone() : null;
+	}
+	
+	/**
+	 * Writes the payload into the message body and sets the codec properties when it's compressed.
+	 * @param message the new message.
+	 * @param payload the buffer with the payload.
+	 * @param offset offset of the payload in the buffer.
+	 * @param length length of the payload.
+	 * @return the number of bytes written into the body.
+	 * @throws JMSException when the body or the properties can't be written.
+	 */
+	public int write(final BytesMessage message, final byte[] payload, final int offset, final int length) throws JMSException {
+		final int compressedLength = length < PayloadEncoder.MINIMUM_SIZE ? -1 : this.compress(payload, offset, length);
+		if (compressedLength < 0 || compressedLength > length * (1.0 - PayloadEncoder.MINIMUM_SAVING)) {
+			message.writeBytes(payload, offset, length);
+			return length;
+		}
+		message.setStringProperty(PayloadCodec.CODEC, PayloadCodec.DEFLATE.getId());
+		message.setIntProperty(PayloadCodec.DECODED_SIZE, length);
+		message.writeBytes(this.output, 0, compressedLength);
+		return compressedLength;
+	}
+	
+	@Override
+	public void close() {
+		this.deflater.end();
+	}
+	
+	/**
+	 * Deflates the payload into the output buffer.
+	 * @return the compressed length, -1 when the compression doesn't save the minimum.
+	 */
+	private int compress(final byte[] payload, final int offset, final int length) {
+		final int limit = (int) (length * (1.0 - PayloadEncoder.MINIMUM_SAVING));
+		if (this.output.length < limit + 1) {
+			this.output = new byte[limit + 1];
+		}
+		this.deflater.reset();
+		if (this.dictionary != null) {
+			this.deflater.setDictionary(this.dictionary);
+		}
+		this.deflater.setInput(payload, offset, length);
+		this.deflater.finish();
+		int compressedLength = 0;
+		while (!this.deflater.finished()) {
+			if (compressedLength > limit) {
+				return -1;
+			}
+			compressedLength += this.deflater.deflate(this.output, compressedLength, this.output.length - compressedLength);
+		}
+		return compressedLength;
+	}
+	
+}
@@ -0,0 +1,54 @@
+package com.data.provisioner.publisher;
+
+import java.nio.file.Path;
+
+/**
+ * Content archive kept in the archive directory for the resend requests and the downloads, with its versions.
+ * The full content archive published last to the whole fleet is the one the trains pull when the content topic fails.
+ */
+public final class PublishedContent {
+	
+	private final String transferId;
+	
+	private final Path archive;
+	
+	private final String version;
+	
+	private final String baseVersion;
+	
+	PublishedContent(final String transferId, final Path archive, final String version, final String baseVersion) {
+		this.transferId = transferId;
+		this.archive = archive;
+		this.version = version;
+		this.baseVersion = baseVersion;
+	}
+	
+	/**
+	 * @return the transfer id of the archive.
+	 */
+	public String getTransferId() {
+		return this.transferId;
+	}
+	
+	/**
+	 * @return the kept archive.
+	 */
+	public Path getArchive() {
+		return this.archive;
+	}
+	
+	/**
+	 * @return the content version, null when it's unknown.
+	 */
+	public String getVersion() {
+		return this.version;
+	}
+	
+	/**
+	 * @return the version a delta archive was computed against, null for a full archive.
+	 */
+	public String getBaseVersion() {
+		return this.baseVersion;
+	}
+	
+}
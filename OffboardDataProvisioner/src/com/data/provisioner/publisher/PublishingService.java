@@ -0,0 +1,789 @@
+package com.data.provisioner.publisher;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.jms.BytesMessage;
+import javax.jms.Connection;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.ActiveMQSession;
+
+import com.data.provisioner.fleet.FleetStateTable;
+
+/**
+ * Publishes the uploaded content archives, GTFS feeds and messages to the train topics over one broker connection.
+ * <p>
+ * Uploads are streamed to the broker while they are received, the heap holds at most one content part per upload:
+ * <ul>
+ * <li>content archives are published with the multi-part content transfer protocol and copied to the archive
+ * directory while they are published, so that the parts the trains request again can be resent. A new version
+ * of the current content is kept first and published as a {@link ContentDelta} against the current content when
+ * the delta is small enough. A train rejecting the delta, because it doesn't have the current content, receives
+ * the full archive from the {@link ContentRejectionListener};</li>
+ * <li>GTFS feeds are published as blob messages, which ActiveMQ streams to the blob server configured
+ * in the connection address ({@code jms.blobTransferPolicy.uploadUrl});</li>
+ * <li>messages are published as bytes messages, they are small and limited to {@link #MAXIMUM_MESSAGE_SIZE}.</li>
+ * </ul>
+ * The content parts and the messages are compressed by a {@link PayloadEncoder} unless the compression is disabled,
+ * the messages with the preset dictionary trained by {@link PayloadDictionary} when one is configured.
+ * Every upload uses its own session, the message sequence of a topic is shared by all of them. The uploads run on
+ * a bounded pool, so a burst of operators can't exhaust the threads and the heap of the shared servlet container.
+ * <p>
+ * A content archive can also be kept and rolled out to the fleet in waves by the {@link RolloutScheduler}, which
+ * follows the acknowledgements of the trains. The resent parts share the bandwidth budget of the rollouts.
+ * The status heartbeats of the trains are aggregated in the {@link FleetStateTable}.
+ * <p>
+ * Every kept archive is a {@link PublishedContent}, its versions are recorded next to it, so the resent parts carry them.
+ * The full content archive published last is the one the trains pull over HTTP when the content topic fails.
+ * It's recorded in the archive directory, so it survives a restart, and it's never pruned.
+ */
+public class PublishingService implements AutoCloseable {
+	
+	/**
+	 * The logger.
+	 */
+	private static final Logger LOGGER = Logger.getLogger(PublishingService.class.getName());
+	
+	/**
+	 * Name of the servlet context attribute holding the service.
+	 */
+	public static final String ATTRIBUTE = PublishingService.class.getName();
+	
+	/**
+	 * Maximum size (in bytes) of a published message - 1 MiB.
+	 */
+	public static final int MAXIMUM_MESSAGE_SIZE = 1024 * 1024;
+	
+	private static final String ARCHIVE_SUFFIX = ".zip";
+	
+	private static final String TEMPORARY_SUFFIX = ".tmp";
+	
+	/**
+	 * Suffix of the file recording the versions of a kept archive.
+	 */
+	private static final String VERSIONS_SUFFIX = ".properties";
+	
+	/**
+	 * File in the archive directory recording the {@link #currentContent}.
+	 */
+	private static final String CURRENT_CONTENT = "current.properties";
+	
+	private static final String TRANSFER_ID_KEY = "transferId";
+	
+	private static final String VERSION_KEY = "version";
+	
+	private static final String BASE_VERSION_KEY = "baseVersion";
+	
+	private final Connection connection;
+	
+	private final String contentTopic;
+	
+	private final String gtfsTopic;
+	
+	private final String messagesTopic;
+	
+	private final Path archiveDirectory;
+	
+	private final int archivesToKeep;
+	
+	private final int partSize;
+	
+	/**
+	 * Largest size (in percent of the full archive) of a published delta, 0 when deltas aren't published.
+	 */
+	private final int deltaRatio;
+	
+	/**
+	 * Whether the content parts and the messages are compressed.
+	 */
+	private final boolean compression;
+	
+	/**
+	 * Compresses the messages, null when they are sent as they are. It's shared by the uploads and used under its own lock.
+	 */
+	private final PayloadEncoder messageEncoder;
+	
+	/**
+	 * Compresses the resent parts, null when they are sent as they are or resend requests are disabled.
+	 */
+	private PayloadEncoder resendEncoder = null;
+	
+	/**
+	 * Compresses the full archives published to the trains which rejected a delta, null when they are sent as they are
+	 * or acknowledgements are disabled.
+	 */
+	private PayloadEncoder rejectionEncoder = null;
+	
+	private final long uploadTimeout;
+	
+	private final long downloadTimeout;
+	
+	private final ThreadPoolExecutor executor;
+	
+	/**
+	 * Limits the rate of the rollouts and the resent parts, null when it's unlimited.
+	 */
+	private final BandwidthBudget bandwidthBudget;
+	
+	private final RolloutScheduler rolloutScheduler;
+	
+	private final FleetStateTable fleetStateTable = new FleetStateTable();
+	
+	/**
+	 * The full content archive published last, null until the first one.
+	 */
+	private volatile PublishedContent currentContent = null;
+	
+	/**
+	 * The sequences of the topics, shared by all the publishers of a topic.
+	 */
+	private final Map<String, MessageSequence> messageSequences = new ConcurrentHashMap<>();
+	
+	/**
+	 * Session of the resend requests consumer, null when resend requests are disabled.
+	 */
+	private Session resendSession = null;
+	
+	/**
+	 * Session of the acknowledgements consumer, null when acknowledgements are disabled.
+	 */
+	private Session acknowledgementSession = null;
+	
+	/**
+	 * Session of the consumer of the acknowledgements rejecting a delta, null when acknowledgements are disabled.
+	 */
+	private Session rejectionSession = null;
+	
+	/**
+	 * Session of the status heartbeats consumer, null when the fleet state isn't followed.
+	 */
+	private Session statusSession = null;
+	
+	/**
+	 * Connects to the broker and starts listening for the resend requests.
+	 * <ul>
+	 * <li>mqConnectionAddress - the broker address.</li>
+	 * <li>mqTopicContent, mqTopicGTFS, mqTopicMessages - the topics, named the same as in the train configuration.</li>
+	 * <li>mqTopicContentResend - topic of the resend requests of the trains. Optional.</li>
+	 * <li>mqTopicContentAck - topic of the content acknowledgements of the trains. Optional, without it every wave
+	 * of a rollout lasts the wave timeout, a rollout is halted after its first wave naming trains and a train rejecting
+	 * a delta gets the full archive only by pulling it over HTTP.</li>
+	 * <li>mqTopicStatus - topic of the status heartbeats of the trains. Optional, without it the fleet state table stays empty.</li>
+	 * <li>publishDirectory - directory of the published archives. Default "publish" in the working directory.</li>
+	 * <li>publishArchivesToKeep - number of published archives kept for the resend requests. Default 3.</li>
+	 * <li>publishPartSize - content part size (in bytes). Default 256 KiB.</li>
+	 * <li>publishDeltaRatio - largest size (in percent of the full archive) of a delta published instead of a new version
+	 * of the current content, 0 to always publish the full archive. Default 50.</li>
+	 * <li>publishCompression - whether the content parts and the messages are compressed. Default true.</li>
+	 * <li>publishDictionary - file with the preset dictionary of the messages (see {@link PayloadDictionary}), it must be
+	 * installed on the trains first. Optional, without it the messages are compressed without a dictionary.</li>
+	 * <li>publishConcurrency - number of uploads published at once, the uploads over it wait. Default 2.</li>
+	 * <li>publishQueueSize - number of waiting uploads, the uploads over it are refused. Default 8.</li>
+	 * <li>publishTimeout - time (in seconds) an upload may take. Default 1800.</li>
+	 * <li>downloadTimeout - time (in seconds) a download of a published archive may take. Default 3600.</li>
+	 * <li>rolloutConcurrency - number of rollouts published at once, the rollouts over it wait by their priority. Default 1.</li>
+	 * <li>rolloutBandwidth - rate (in bytes per second) of all rollouts and resent parts, 0 for unlimited. Default 1048576.</li>
+	 * <li>rolloutWaveTimeout - time (in seconds) a wave waits for the acknowledgements. Default 1800.</li>
+	 * <li>rolloutMaximumFailures - share (in percent) of the trains named in a wave which may reject the transfer
+	 * or not acknowledge it before the rollout is halted. Default 10.</li>
+	 * </ul>
+	 * @param parameters returns the value of the parameter, null when it's not set.
+	 * @return the started service.
+	 * @throws JMSException when the broker can't be connected.
+	 * @throws IOException when the archive directory can't be created.
+	 * @throws NullPointerException when a required parameter is missing.
+	 * @throws IllegalArgumentException when a numeric parameter is invalid.
+	 */
+	public static PublishingService of(final Function<String, String> parameters) throws JMSException, IOException {
+		final Function<String, String> values = parameter -> {
+			final String value = parameters.apply(parameter);
+			return value == null || value.trim().isEmpty() ? null : value.trim();
+		};
+		final String connectionAddress = Objects.requireNonNull(values.apply("mqConnectionAddress"), "MQ Connection address is missing.");
+		final String contentTopic = Objects.requireNonNull(values.apply("mqTopicContent"), "MQ topic for content is missing.");
+		final String gtfsTopic = Objects.requireNonNull(values.apply("mqTopicGTFS"), "MQ topic for GTFS is missing.");
+		final String messagesTopic = Objects.requireNonNull(values.apply("mqTopicMessages"), "MQ topic for messages is missing.");
+		final Path archiveDirectory = Paths.get(Objects.toString(values.apply("publishDirectory"), "publish"));
+		final int archivesToKeep = Integer.parseInt(Objects.toString(values.apply("publishArchivesToKeep"), "3"));
+		final int partSize = Integer.parseInt(Objects.toString(values.apply("publishPartSize"), String.valueOf(ContentPublisher.DEFAULT_PART_SIZE)));
+		final int deltaRatio = Integer.parseInt(Objects.toString(values.apply("publishDeltaRatio"), "50"));
+		final boolean compression = Boolean.parseBoolean(Objects.toString(values.apply("publishCompression"), "true"));
+		final String dictionaryFile = values.apply("publishDictionary");
+		final byte[] dictionary = dictionaryFile == null ? null : Files.readAllBytes(Paths.get(dictionaryFile));
+		final int concurrency = Integer.parseInt(Objects.toString(values.apply("publishConcurrency"), "2"));
+		final int queueSize = Integer.parseInt(Objects.toString(values.apply("publishQueueSize"), "8"));
+		final long uploadTimeout = Long.parseLong(Objects.toString(values.apply("publishTimeout"), "1800"));
+		final long downloadTimeout = Long.parseLong(Objects.toString(values.apply("downloadTimeout"), "3600"));
+		final int rolloutConcurrency = Integer.parseInt(Objects.toString(values.apply("rolloutConcurrency"), "1"));
+		final long rolloutBandwidth = Long.parseLong(Objects.toString(values.apply("rolloutBandwidth"), "1048576"));
+		final long rolloutWaveTimeout = Long.parseLong(Objects.toString(values.apply("rolloutWaveTimeout"), "1800"));
+		final int rolloutMaximumFailures = Integer.parseInt(Objects.toString(values.apply("rolloutMaximumFailures"), "10"));
+		if (dictionary != null && (dictionary.length == 0 || dictionary.length > PayloadDictionary.MAX_SIZE)) {
+			throw new IllegalArgumentException("Payload dictionary must have 1 to " + PayloadDictionary.MAX_SIZE + " bytes, but has " + dictionary.length + " bytes.");
+		}
+		if (archivesToKeep < 1 || partSize <= 0 || deltaRatio < 0 || deltaRatio > 100 || concurrency < 1 || queueSize < 1 || uploadTimeout <= 0L || downloadTimeout <= 0L
+			|| rolloutConcurrency < 1 || rolloutBandwidth < 0L || rolloutWaveTimeout <= 0L || rolloutMaximumFailures < 0 || rolloutMaximumFailures > 100) {
+			throw new IllegalArgumentException("Invalid publishing limits.");
+		}
+		
+		final PublishingService publishingService = new PublishingService(
+			new ActiveMQConnectionFactory(connectionAddress).createConnection(), contentTopic, gtfsTopic, messagesTopic, archiveDirectory,
+			archivesToKeep, partSize, deltaRatio, compression, dictionary, concurrency, queueSize, uploadTimeout, downloadTimeout,
+			rolloutConcurrency, rolloutBandwidth == 0L ? null : new BandwidthBudget(rolloutBandwidth), rolloutWaveTimeout, rolloutMaximumFailures
+		);
+		try {
+			publishingService.start(values.apply("mqTopicContentResend"), values.apply("mqTopicContentAck"), values.apply("mqTopicStatus"));
+		} catch (JMSException | IOException | RuntimeException exception) {
+			publishingService.close();
+			throw exception;
+		}
+		return publishingService;
+	}
+	
+	private PublishingService(
+		final Connection connection, final String contentTopic, final String gtfsTopic, final String messagesTopic, final Path archiveDirectory,
+		final int archivesToKeep, final int partSize, final int deltaRatio, final boolean compression, final byte[] dictionary,
+		final int concurrency, final int queueSize, final long uploadTimeout, final long downloadTimeout, final int rolloutConcurrency, final BandwidthBudget bandwidthBudget, final long rolloutWaveTimeout, final int rolloutMaximumFailures
+	) {
+		this.connection = connection;
+		this.contentTopic = contentTopic;
+		this.gtfsTopic = gtfsTopic;
+		this.messagesTopic = messagesTopic;
+		this.archiveDirectory = archiveDirectory;
+		this.archivesToKeep = archivesToKeep;
+		this.partSize = partSize;
+		this.deltaRatio = deltaRatio;
+		this.compression = compression;
+		this.messageEncoder = compression ? new PayloadEncoder(PayloadEncoder.PayloadType.MESSAGE, dictionary) : null;
+		this.uploadTimeout = TimeUnit.SECONDS.toMillis(uploadTimeout);
+		this.downloadTimeout = TimeUnit.SECONDS.toMillis(downloadTimeout);
+		final AtomicInteger threads = new AtomicInteger();
+		this.executor = new ThreadPoolExecutor(concurrency, concurrency, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize), runnable -> {
+			final Thread thread = new Thread(runnable, "publisher-" + threads.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.bandwidthBudget = bandwidthBudget;
+		this.rolloutScheduler = new RolloutScheduler(
+			connection, contentTopic, this.messageSequence(contentTopic), partSize, compression, rolloutConcurrency, bandwidthBudget,
+			TimeUnit.SECONDS.toMillis(rolloutWaveTimeout), rolloutMaximumFailures
+		);
+	}
+	
+	private void start(final String resendTopic, final String acknowledgementTopic, final String statusTopic) throws JMSException, IOException {
+		Files.createDirectories(this.archiveDirectory);
+		this.currentContent = this.loadCurrentContent();
+		if (resendTopic != null) {
+			this.resendSession = this.connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+			this.resendEncoder = this.contentEncoder();
+			final ContentPublisher resendPublisher = new ContentPublisher(
+				this.resendSession, this.resendSession.createTopic(this.contentTopic), this.partSize, this.messageSequence(this.contentTopic), this.resendEncoder
+			);
+			resendPublisher.setBandwidthBudget(this.bandwidthBudget);
+			this.resendSession.createConsumer(this.resendSession.createTopic(resendTopic)).setMessageListener(
+				new ContentResendListener(resendPublisher, this::publishedContent)
+			);
+		}
+		if (acknowledgementTopic != null) {
+			this.acknowledgementSession = this.connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+			this.acknowledgementSession.createConsumer(this.acknowledgementSession.createTopic(acknowledgementTopic)).setMessageListener(this.rolloutScheduler);
+			this.rejectionSession = this.connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+			this.rejectionEncoder = this.contentEncoder();
+			final ContentPublisher rejectionPublisher = new ContentPublisher(
+				this.rejectionSession, this.rejectionSession.createTopic(this.contentTopic), this.partSize, this.messageSequence(this.contentTopic), this.rejectionEncoder
+			);
+			rejectionPublisher.setBandwidthBudget(this.bandwidthBudget);
+			this.rejectionSession.createConsumer(this.rejectionSession.createTopic(acknowledgementTopic)).setMessageListener(
+				new ContentRejectionListener(rejectionPublisher, this::publishedContent, this::getCurrentContent)
+			);
+		}
+		if (statusTopic != null) {
+			this.statusSession = this.connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+			this.statusSession.createConsumer(this.statusSession.createTopic(statusTopic)).setMessageListener(this.fleetStateTable);
+		}
+		this.connection.start();
+		PublishingService.LOGGER.log(Level.INFO, "Publishing to {0}", this.contentTopic + ", " + this.gtfsTopic + " and " + this.messagesTopic + ".");
+	}
+	
+	/**
+	 * Runs the upload on the publishing pool.
+	 * @param upload the upload.
+	 * @throws java.util.concurrent.RejectedExecutionException when too many uploads are waiting.
+	 */
+	public void execute(final Runnable upload) {
+		this.executor.execute(upload);
+	}
+	
+	/**
+	 * @return time (in milliseconds) an upload may take.
+	 */
+	public long getUploadTimeout() {
+		return this.uploadTimeout;
+	}
+	
+	/**
+	 * @return time (in milliseconds) a download of a published archive may take.
+	 */
+	public long getDownloadTimeout() {
+		return this.downloadTimeout;
+	}
+	
+	/**
+	 * Publishes the content archive and keeps it for the resend requests. A full archive of another version than
+	 * the current content is published as a delta against the current content when the delta is small enough, the trains
+	 * without the current content reject it and receive the full archive addressed to them.
+	 * @param inputStream the archive. It's not closed by this method.
+	 * @param size the archive size (in bytes).
+	 * @param version the content version, null when it's unknown.
+	 * @param baseVersion the version a delta archive was computed against, null for a full archive.
+	 * @return the transfer id.
+	 * @throws IOException when the archive can't be read or kept.
+	 * @throws JMSException when a part can't be sent.
+	 */
+	public String publishContent(final InputStream inputStream, final long size, final String version, final String baseVersion) throws IOException, JMSException {
+		final PublishedContent currentContent = this.currentContent;
+		if (PublishingService.isDeltaCandidate(this.deltaRatio, version, baseVersion, currentContent)) {
+			return this.publishContentAsDelta(inputStream, size, version, currentContent);
+		}
+		final String transferId = UUID.randomUUID().toString();
+		final Path temporaryPath = this.archiveDirectory.resolve(transferId + PublishingService.ARCHIVE_SUFFIX + PublishingService.TEMPORARY_SUFFIX);
+		this.recordVersions(transferId, version, baseVersion);
+		boolean published = false;
+		final Session session = this.connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+		try {
+			final int parts;
+			try (
+				final FileChannel copy = FileChannel.open(temporaryPath, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+				final PayloadEncoder payloadEncoder = this.contentEncoder();
+				final ContentPublisher contentPublisher = new ContentPublisher(
+					session, session.createTopic(this.contentTopic), this.partSize, this.messageSequence(this.contentTopic), payloadEncoder
+				)
+			) {
+				parts = contentPublisher.publish(inputStream, size, transferId, version, baseVersion, copy);
+			}
+			final Path archive = this.archiveDirectory.resolve(transferId + PublishingService.ARCHIVE_SUFFIX);
+			Files.move(temporaryPath, archive, StandardCopyOption.ATOMIC_MOVE);
+			published = true;
+			PublishingService.LOGGER.log(Level.INFO, "Published content transfer {0}", transferId + " (" + parts + " parts, " + size + " bytes, version " + version + ").");
+			if (baseVersion == null) {
+				this.setCurrentContent(new PublishedContent(transferId, archive, version, null));
+			}
+		} finally {
+			session.close();
+			Files.deleteIfExists(temporaryPath);
+			if (!published) {
+				Files.deleteIfExists(this.versionsPath(transferId));
+			}
+		}
+		this.pruneArchives();
+		return transferId;
+	}
+	
+	/**
+	 * @param deltaRatio largest size (in percent of the full archive) of a published delta, 0 when deltas aren't published.
+	 * @param version the version of the uploaded archive, null when it's unknown.
+	 * @param baseVersion the version an uploaded delta was computed against, null for a full archive.
+	 * @param currentContent the full content archive published last, null until the first one.
+	 * @return true when the uploaded full archive is a new version of the current content, which may be published as a delta.
+	 */
+	static boolean isDeltaCandidate(final int deltaRatio, final String version, final String baseVersion, final PublishedContent currentContent) {
+		return deltaRatio > 0 && baseVersion == null && version != null && currentContent != null
+			&& currentContent.getVersion() != null && !currentContent.getVersion().equals(version);
+	}
+	
+	/**
+	 * Keeps the full archive as the current content and publishes the delta against the base content instead of it,
+	 * unless the delta is larger than the {@link #deltaRatio}.
+	 * @return the id of the published transfer.
+	 */
+	private String publishContentAsDelta(
+		final InputStream inputStream, final long size, final String version, final PublishedContent baseContent
+	) throws IOException, JMSException {
+		final String transferId = UUID.randomUUID().toString();
+		final Path archive = this.archiveDirectory.resolve(transferId + PublishingService.ARCHIVE_SUFFIX);
+		final Path temporaryPath = this.archiveDirectory.resolve(transferId + PublishingService.ARCHIVE_SUFFIX + PublishingService.TEMPORARY_SUFFIX);
+		final String deltaTransferId = UUID.randomUUID().toString();
+		final Path deltaArchive = this.archiveDirectory.resolve(deltaTransferId + PublishingService.ARCHIVE_SUFFIX);
+		final Path deltaTemporaryPath = this.archiveDirectory.resolve(deltaTransferId + PublishingService.ARCHIVE_SUFFIX + PublishingService.TEMPORARY_SUFFIX);
+		try {
+			final long copied = Files.copy(inputStream, temporaryPath);
+			if (copied != size) {
+				throw new IOException("Archive of transfer " + transferId + " has " + copied + " bytes instead of its size " + size + ".");
+			}
+			this.recordVersions(transferId, version, null);
+			Files.move(temporaryPath, archive, StandardCopyOption.ATOMIC_MOVE);
+			
+			boolean delta = false;
+			try {
+				final int differences = new ContentDelta(this.partSize).build(baseContent.getArchive(), baseContent.getVersion(), archive, version, deltaTemporaryPath);
+				delta = Files.size(deltaTemporaryPath) * 100L <= size * this.deltaRatio;
+				PublishingService.LOGGER.log(
+					Level.INFO, "Delta of version {0}", version + " against " + baseContent.getVersion() + " has " + differences + " differences and "
+						+ Files.size(deltaTemporaryPath) + " of " + size + " bytes" + (delta ? "." : ", the full archive is published.")
+				);
+			} catch (IOException exception) {
+				PublishingService.LOGGER.log(Level.WARNING, "Delta of version {0}", version + " can't be built, the full archive is published. Reason: " + exception.toString());
+			}
+			
+			final String publishedTransferId;
+			final Session session = this.connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+			try (
+				final PayloadEncoder payloadEncoder = this.contentEncoder();
+				final ContentPublisher contentPublisher = new ContentPublisher(
+					session, session.createTopic(this.contentTopic), this.partSize, this.messageSequence(this.contentTopic), payloadEncoder
+				)
+			) {
+				if (delta) {
+					this.recordVersions(deltaTransferId, version, baseContent.getVersion());
+					Files.move(deltaTemporaryPath, deltaArchive, StandardCopyOption.ATOMIC_MOVE);
+					final int parts = contentPublisher.publish(deltaArchive, deltaTransferId, version, baseContent.getVersion());
+					PublishingService.LOGGER.log(Level.INFO, "Published content delta {0}", deltaTransferId + " (" + parts + " parts, version " + version + ").");
+					publishedTransferId = deltaTransferId;
+				} else {
+					final int parts = contentPublisher.publish(archive, transferId, version, null);
+					PublishingService.LOGGER.log(Level.INFO, "Published content transfer {0}", transferId + " (" + parts + " parts, " + size + " bytes, version " + version + ").");
+					publishedTransferId = transferId;
+				}
+			} finally {
+				session.close();
+			}
+			this.setCurrentContent(new PublishedContent(transferId, archive, version, null));
+			this.pruneArchives();
+			return publishedTransferId;
+		} catch (IOException | JMSException | RuntimeException exception) {
+			Files.deleteIfExists(archive);
+			Files.deleteIfExists(this.versionsPath(transferId));
+			Files.deleteIfExists(deltaArchive);
+			Files.deleteIfExists(this.versionsPath(deltaTransferId));
+			throw exception;
+		} finally {
+			Files.deleteIfExists(temporaryPath);
+			Files.deleteIfExists(deltaTemporaryPath);
+		}
+	}
+	
+	/**
+	 * Keeps the content archive and schedules its rollout.
+	 * @param inputStream the archive. It's not closed by this method.
+	 * @param size the archive size (in bytes).
+	 * @param version the content version, null when it's unknown.
+	 * @param baseVersion the version a delta archive was computed against, null for a full archive.
+	 * @param waves the targets of the waves - train ids and group names prefixed with {@link ContentTransfer#GROUP_PREFIX}.
+	 * @param priority the priority, 0 (lowest) to 9 (highest).
+	 * @return the scheduled rollout.
+	 * @throws IOException when the archive can't be read or kept.
+	 * @throws IllegalArgumentException when a wave or a target is empty, a target contains a comma or the priority is out of range.
+	 */
+	public Rollout scheduleRollout(
+		final InputStream inputStream, final long size, final String version, final String baseVersion, final List<List<String>> waves, final int priority
+	) throws IOException {
+		final String transferId = UUID.randomUUID().toString();
+		final Path archive = this.archiveDirectory.resolve(transferId + PublishingService.ARCHIVE_SUFFIX);
+		final Path temporaryPath = this.archiveDirectory.resolve(transferId + PublishingService.ARCHIVE_SUFFIX + PublishingService.TEMPORARY_SUFFIX);
+		final Rollout rollout;
+		try {
+			final long copied = Files.copy(inputStream, temporaryPath);
+			if (copied != size) {
+				throw new IOException("Archive of rollout " + transferId + " has " + copied + " bytes instead of its size " + size + ".");
+			}
+			this.recordVersions(transferId, version, baseVersion);
+			Files.move(temporaryPath, archive, StandardCopyOption.ATOMIC_MOVE);
+			rollout = this.rolloutScheduler.schedule(transferId, archive, version, baseVersion, waves, priority);
+		} catch (IOException | RuntimeException exception) {
+			Files.deleteIfExists(archive);
+			Files.deleteIfExists(this.versionsPath(transferId));
+			throw exception;
+		} finally {
+			Files.deleteIfExists(temporaryPath);
+		}
+		this.pruneArchives();
+		return rollout;
+	}
+	
+	/**
+	 * @return the rollout of the transfer, null when it's unknown.
+	 */
+	public Rollout getRollout(final String transferId) {
+		return this.rolloutScheduler.getRollout(transferId);
+	}
+	
+	/**
+	 * @return the full content archive published last, null when none was published.
+	 */
+	public PublishedContent getCurrentContent() {
+		return this.currentContent;
+	}
+	
+	/**
+	 * @return the state of the fleet reported by the trains.
+	 */
+	public FleetStateTable getFleetStateTable() {
+		return this.fleetStateTable;
+	}
+	
+	/**
+	 * Publishes the GTFS feed as a blob message.
+	 * @param inputStream the feed archive. It's read until its end while the message is sent.
+	 * @param version the feed version, null when it's unknown.
+	 * @return the message id.
+	 * @throws JMSException when the feed can't be uploaded or the message sent.
+	 */
+	public String publishGtfs(final InputStream inputStream, final String version) throws JMSException {
+		final Session session = this.connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+		try {
+			final Message message = ((ActiveMQSession) session).createBlobMessage(inputStream);
+			if (version != null) {
+				message.setStringProperty(ContentTransfer.CONTENT_VERSION, version);
+			}
+			this.send(session, this.gtfsTopic, message);
+			PublishingService.LOGGER.log(Level.INFO, "Published GTFS feed {0}", message.getJMSMessageID() + " (version " + version + ").");
+			return message.getJMSMessageID();
+		} finally {
+			session.close();
+		}
+	}
+	
+	/**
+	 * Publishes the message.
+	 * @param body the message body.
+	 * @param length the length of the body.
+	 * @return the message id.
+	 * @throws JMSException when the message can't be sent.
+	 */
+	public String publishMessage(final byte[] body, final int length) throws JMSException {
+		if (length > PublishingService.MAXIMUM_MESSAGE_SIZE) {
+			throw new IllegalArgumentException("Message of " + length + " bytes is larger than " + PublishingService.MAXIMUM_MESSAGE_SIZE + " bytes.");
+		}
+		final Session session = this.connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+		try {
+			final BytesMessage message = session.createBytesMessage();
+			if (this.messageEncoder == null) {
+				message.writeBytes(body, 0, length);
+			} else {
+				synchronized (this.messageEncoder) {
+					this.messageEncoder.write(message, body, 0, length);
+				}
+			}
+			this.send(session, this.messagesTopic, message);
+			return message.getJMSMessageID();
+		} finally {
+			session.close();
+		}
+	}
+	
+	/**
+	 * Stops accepting uploads and closes the connection, the uploads in progress fail.
+	 */
+	@Override
+	public void close() {
+		this.executor.shutdownNow();
+		this.rolloutScheduler.close();
+		try {
+			this.connection.close();
+		} catch (JMSException exception) {
+			PublishingService.LOGGER.log(Level.WARNING, "Publishing connection can't be closed. Reason: {0}", exception.toString());
+		}
+		if (this.messageEncoder != null) {
+			synchronized (this.messageEncoder) {
+				this.messageEncoder.close();
+			}
+		}
+		if (this.resendEncoder != null) {
+			this.resendEncoder.close();
+		}
+		if (this.rejectionEncoder != null) {
+			this.rejectionEncoder.close();
+		}
+	}
+	
+	/**
+	 * @return new encoder of the content parts, null when they are sent as they are. It's closed by the caller.
+	 */
+	private PayloadEncoder contentEncoder() {
+		return this.compression ? new PayloadEncoder(PayloadEncoder.PayloadType.ARCHIVE) : null;
+	}
+	
+	/**
+	 * Stamps the message with the sequence of the topic and sends it.
+	 */
+	private void send(final Session session, final String topic, final Message message) throws JMSException {
+		final MessageProducer producer = session.createProducer(session.createTopic(topic));
+		try {
+			final MessageSequence messageSequence = this.messageSequence(topic);
+			synchronized (messageSequence) {
+				messageSequence.stamp(message);
+				producer.send(message);
+			}
+		} finally {
+			producer.close();
+		}
+	}
+	
+	private MessageSequence messageSequence(final String topic) {
+		return this.messageSequences.computeIfAbsent(topic, key -> new MessageSequence());
+	}
+	
+	/**
+	 * @param transferId the transfer id.
+	 * @return the kept archive of the transfer, null for unknown transfers and the pruned archives.
+	 */
+	public Path publishedArchive(final String transferId) {
+		try {
+			final Path archive = this.archiveDirectory.resolve(UUID.fromString(transferId) + PublishingService.ARCHIVE_SUFFIX);
+			return Files.exists(archive) ? archive : null;
+		} catch (IllegalArgumentException exception) {
+			return null;
+		}
+	}
+	
+	/**
+	 * @param transferId the transfer id.
+	 * @return the kept content of the transfer, null for unknown transfers and the pruned archives. The versions
+	 *         of an archive kept without them are null.
+	 */
+	public PublishedContent publishedContent(final String transferId) {
+		final Path archive = this.publishedArchive(transferId);
+		if (archive == null) {
+			return null;
+		}
+		final Properties properties = new Properties();
+		final Path versionsPath = this.versionsPath(transferId);
+		if (Files.exists(versionsPath)) {
+			try (final InputStream inputStream = Files.newInputStream(versionsPath)) {
+				properties.load(inputStream);
+			} catch (IOException exception) {
+				PublishingService.LOGGER.log(Level.WARNING, "Versions of transfer {0}", transferId + " can't be read. Reason: " + exception.toString());
+			}
+		}
+		return new PublishedContent(
+			transferId, archive, properties.getProperty(PublishingService.VERSION_KEY), properties.getProperty(PublishingService.BASE_VERSION_KEY)
+		);
+	}
+	
+	/**
+	 * Removes the oldest published archives over the number kept. The archives of the active rollouts and the current
+	 * content are kept regardless and don't count.
+	 */
+	private synchronized void pruneArchives() {
+		final List<Path> archives = new ArrayList<>();
+		try (final DirectoryStream<Path> paths = Files.newDirectoryStream(this.archiveDirectory, "*" + PublishingService.ARCHIVE_SUFFIX)) {
+			for (final Path path : paths) {
+				final String fileName = path.getFileName().toString();
+				final String transferId = fileName.substring(0, fileName.length() - PublishingService.ARCHIVE_SUFFIX.length());
+				final PublishedContent currentContent = this.currentContent;
+				if (!this.rolloutScheduler.isActive(transferId) && (currentContent == null || !currentContent.getTransferId().equals(transferId))) {
+					archives.add(path);
+				}
+			}
+			archives.sort(Comparator.comparing(PublishingService::lastModified));
+			for (int index = 0; index < archives.size() - this.archivesToKeep; index++) {
+				final String fileName = archives.get(index).getFileName().toString();
+				Files.deleteIfExists(archives.get(index));
+				Files.deleteIfExists(this.versionsPath(fileName.substring(0, fileName.length() - PublishingService.ARCHIVE_SUFFIX.length())));
+			}
+		} catch (IOException exception) {
+			PublishingService.LOGGER.log(Level.WARNING, "Published archives can't be pruned. Reason: {0}", exception.toString());
+		}
+	}
+	
+	/**
+	 * Records the current content in the archive directory. The current content stays in memory when it can't be recorded.
+	 */
+	private void setCurrentContent(final PublishedContent currentContent) {
+		this.currentContent = currentContent;
+		final Properties properties = new Properties();
+		properties.setProperty(PublishingService.TRANSFER_ID_KEY, currentContent.getTransferId());
+		if (currentContent.getVersion() != null) {
+			properties.setProperty(PublishingService.VERSION_KEY, currentContent.getVersion());
+		}
+		try {
+			this.store(properties, this.archiveDirectory.resolve(PublishingService.CURRENT_CONTENT));
+		} catch (IOException exception) {
+			PublishingService.LOGGER.log(Level.WARNING, "Current content {0}", currentContent.getTransferId() + " can't be recorded. Reason: " + exception.toString());
+		}
+	}
+	
+	/**
+	 * Records the versions of the archive kept for the transfer.
+	 */
+	private void recordVersions(final String transferId, final String version, final String baseVersion) throws IOException {
+		final Properties properties = new Properties();
+		if (version != null) {
+			properties.setProperty(PublishingService.VERSION_KEY, version);
+		}
+		if (baseVersion != null) {
+			properties.setProperty(PublishingService.BASE_VERSION_KEY, baseVersion);
+		}
+		this.store(properties, this.versionsPath(transferId));
+	}
+	
+	private Path versionsPath(final String transferId) {
+		return this.archiveDirectory.resolve(transferId + PublishingService.VERSIONS_SUFFIX);
+	}
+	
+	/**
+	 * Writes the properties to a temporary file and moves it over the file.
+	 */
+	private void store(final Properties properties, final Path path) throws IOException {
+		final Path temporaryPath = path.resolveSibling(path.getFileName() + PublishingService.TEMPORARY_SUFFIX);
+		try (final OutputStream outputStream = Files.newOutputStream(temporaryPath)) {
+			properties.store(outputStream, null);
+		}
+		Files.move(temporaryPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	}
+	
+	/**
+	 * @return the recorded current content, null when none is recorded or its archive is missing.
+	 */
+	private PublishedContent loadCurrentContent() throws IOException {
+		final Path path = this.archiveDirectory.resolve(PublishingService.CURRENT_CONTENT);
+		if (!Files.exists(path)) {
+			return null;
+		}
+		final Properties properties = new Properties();
+		try (final InputStream inputStream = Files.newInputStream(path)) {
+			properties.load(inputStream);
+		}
+		final String transferId = properties.getProperty(PublishingService.TRANSFER_ID_KEY);
+		final Path archive = transferId == null ? null : this.publishedArchive(transferId);
+		return archive == null ? null : new PublishedContent(transferId, archive, properties.getProperty(PublishingService.VERSION_KEY), null);
+	}
+	
+	private static FileTime lastModified(final Path path) {
+		try {
+			return Files.getLastModifiedTime(path);
+		} catch (IOException exception) {
+			return FileTime.fromMillis(0L);
+		}
+	}
+	
+}
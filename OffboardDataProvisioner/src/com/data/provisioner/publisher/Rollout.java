@@ -0,0 +1,229 @@
+package com.data.provisioner.publisher;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Content archive published to the fleet in waves by the {@link RolloutScheduler}, with the acknowledgements
+ * of the trains.
+ * <p>
+ * Every wave addresses its trains and groups (see {@link ContentTransfer#TARGETS}). The next wave starts once all
+ * trains named in the wave acknowledged the transfer or the wave timeout elapsed. The members of a group aren't known
+ * offboard, so a wave of groups only lasts the wave timeout, their acknowledgements are recorded regardless.
+ */
+public final class Rollout {
+	
+	/**
+	 * State of the rollout.
+	 */
+	public enum State {
+		
+		/**
+		 * Waits for a free rollout worker.
+		 */
+		QUEUED,
+		
+		/**
+		 * Publishes a wave or waits for its acknowledgements.
+		 */
+		RUNNING,
+		
+		/**
+		 * All waves were published.
+		 */
+		COMPLETED,
+		
+		/**
+		 * Stopped after a wave with too many rejected or unacknowledged transfers.
+		 */
+		HALTED,
+		
+		/**
+		 * Stopped, because the archive couldn't be published.
+		 */
+		FAILED
+		
+	}
+	
+	/**
+	 * Orders the rollouts by priority, the higher first, and then by the order they were scheduled.
+	 */
+	static final Comparator<Rollout> ORDER = Comparator.comparingInt(Rollout::getPriority).reversed().thenComparingLong(rollout -> rollout.sequence);
+	
+	private final String id;
+	
+	private final Path archive;
+	
+	private final String version;
+	
+	private final String baseVersion;
+	
+	private final List<List<String>> waves;
+	
+	private final int priority;
+	
+	/**
+	 * Order of the rollout among the rollouts of the same priority.
+	 */
+	private final long sequence;
+	
+	private volatile State state = State.QUEUED;
+	
+	/**
+	 * Index of the current wave, -1 before the first one.
+	 */
+	private volatile int wave = -1;
+	
+	/**
+	 * Statuses acknowledged by the trains, by train id. Guarded by this.
+	 */
+	private final Map<String, String> acknowledgements = new LinkedHashMap<>();
+	
+	/**
+	 * @param id the transfer id of the archive.
+	 * @param archive the archive.
+	 * @param version the content version, null when it's unknown.
+	 * @param baseVersion the version a delta archive was computed against, null for a full archive.
+	 * @param waves the targets of the waves - train ids and group names prefixed with {@link ContentTransfer#GROUP_PREFIX}.
+	 * @param priority the priority among the waiting rollouts, 0 (lowest) to 9 (highest).
+	 * @param sequence order of the rollout among the rollouts of the same priority.
+	 */
+	Rollout(
+		final String id, final Path archive, final String version, final String baseVersion, final List<List<String>> waves, final int priority, final long sequence
+	) {
+		if (priority < 0 || priority > 9) {
+			throw new IllegalArgumentException("Priority must be 0 to 9, but was " + priority + ".");
+		}
+		if (waves.isEmpty()) {
+			throw new IllegalArgumentException("Rollout has no wave.");
+		}
+		final List<List<String>> copies = new ArrayList<>();
+		for (final List<String> targets : waves) {
+			if (targets.isEmpty()) {
+				throw new IllegalArgumentException("Wave " + copies.size() + " has no target.");
+			}
+			ContentTransfer.formatTargets(targets);
+			copies.add(Collections.unmodifiableList(new ArrayList<>(targets)));
+		}
+		this.id = id;
+		this.archive = archive;
+		this.version = version;
+		this.baseVersion = baseVersion;
+		this.waves = Collections.unmodifiableList(copies);
+		this.priority = priority;
+		this.sequence = sequence;
+	}
+	
+	public String getId() {
+		return this.id;
+	}
+	
+	public Path getArchive() {
+		return this.archive;
+	}
+	
+	public String getVersion() {
+		return this.version;
+	}
+	
+	public String getBaseVersion() {
+		return this.baseVersion;
+	}
+	
+	public List<List<String>> getWaves() {
+		return this.waves;
+	}
+	
+	public int getPriority() {
+		return this.priority;
+	}
+	
+	public State getState() {
+		return this.state;
+	}
+	
+	/**
+	 * @return index of the current wave, -1 before the first one.
+	 */
+	public int getWave() {
+		return this.wave;
+	}
+	
+	/**
+	 * @return copy of the statuses acknowledged by the trains, by train id in the order they arrived.
+	 */
+	public synchronized Map<String, String> getAcknowledgements() {
+		return new LinkedHashMap<>(this.acknowledgements);
+	}
+	
+	/**
+	 * @return true while the rollout is queued or running.
+	 */
+	public boolean isActive() {
+		return this.state == State.QUEUED || this.state == State.RUNNING;
+	}
+	
+	@Override
+	public String toString() {
+		return this.id + " (version " + this.version + ", " + this.state + ", wave " + (this.wave + 1) + "/" + this.waves.size() + ")";
+	}
+	
+	void setState(final State state) {
+		this.state = state;
+	}
+	
+	void setWave(final int wave) {
+		this.wave = wave;
+	}
+	
+	/**
+	 * Records the status of the train, the last one wins.
+	 */
+	synchronized void acknowledge(final String trainId, final String status) {
+		this.acknowledgements.put(trainId, status);
+		this.notifyAll();
+	}
+	
+	/**
+	 * Waits until all trains named in the wave acknowledged the transfer or the deadline passed.
+	 * @param wave index of the wave.
+	 * @param deadline the deadline (in milliseconds since the epoch).
+	 * @return the number of trains named in the wave, which rejected the transfer or didn't acknowledge it.
+	 * @throws InterruptedException when the thread is interrupted while waiting.
+	 */
+	synchronized int awaitWave(final int wave, final long deadline) throws InterruptedException {
+		final List<String> trains = this.trains(wave);
+		for (long remaining = deadline - System.currentTimeMillis(); remaining > 0L; remaining = deadline - System.currentTimeMillis()) {
+			if (!trains.isEmpty() && this.acknowledgements.keySet().containsAll(trains)) {
+				break;
+			}
+			this.wait(remaining);
+		}
+		int failures = 0;
+		for (final String train : trains) {
+			if (!ContentTransfer.STATUS_COMMITTED.equals(this.acknowledgements.get(train))) {
+				failures++;
+			}
+		}
+		return failures;
+	}
+	
+	/**
+	 * @return the trains named in the wave, without the groups.
+	 */
+	List<String> trains(final int wave) {
+		final List<String> trains = new ArrayList<>();
+		for (final String target : this.waves.get(wave)) {
+			if (!target.startsWith(ContentTransfer.GROUP_PREFIX)) {
+				trains.add(target);
+			}
+		}
+		return trains;
+	}
+	
+}
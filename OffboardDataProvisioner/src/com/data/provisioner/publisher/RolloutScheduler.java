@@ -0,0 +1,265 @@
+package com.data.provisioner.publisher;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.jms.Connection;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import javax.jms.Session;
+
+/**
+ * Publishes content archives to the fleet in waves instead of to all trains at once (see {@link Rollout}).
+ * <p>
+ * A wave is published once, addressed to its trains and groups, the broker sends the parts to the addressed trains only.
+ * Waves of a rollout follow each other, so that a faulty archive reaches a few trains first, and a rollout stops
+ * when a wave ends with more than the allowed share of rejected or unacknowledged transfers. The number of rollouts
+ * published at once is limited, the waiting ones start by their priority. The priority only orders the queue,
+ * the parts of all rollouts are sent with the same message priority and reach the trains in the order of the topic
+ * sequence. All rollouts share one {@link BandwidthBudget}, so the broker holds a bounded amount of parts
+ * whatever the size of the fleet.
+ * <p>
+ * The scheduler listens for the acknowledgements of the trains, it must be attached to a consumer of the acknowledgement topic.
+ */
+public class RolloutScheduler implements MessageListener, AutoCloseable {
+	
+	/**
+	 * The logger.
+	 */
+	private static final Logger LOGGER = Logger.getLogger(RolloutScheduler.class.getName());
+	
+	/**
+	 * Maximum number of finished rollouts kept for the status requests.
+	 */
+	static final int FINISHED_ROLLOUTS_TO_KEEP = 64;
+	
+	private final Connection connection;
+	
+	private final String contentTopic;
+	
+	private final MessageSequence messageSequence;
+	
+	private final int partSize;
+	
+	/**
+	 * Whether the parts are compressed.
+	 */
+	private final boolean compression;
+	
+	/**
+	 * Limits the rate of all rollouts, null when it's unlimited.
+	 */
+	private final BandwidthBudget bandwidthBudget;
+	
+	/**
+	 * Time (in milliseconds) a wave waits for the acknowledgements.
+	 */
+	private final long waveTimeout;
+	
+	/**
+	 * Share (in percent) of the trains named in a wave which may reject the transfer or not acknowledge it.
+	 */
+	private final int maximumFailures;
+	
+	private final PriorityBlockingQueue<Rollout> queue = new PriorityBlockingQueue<>(11, Rollout.ORDER);
+	
+	/**
+	 * The rollouts by transfer id in the order they were scheduled. Guarded by itself.
+	 */
+	private final Map<String, Rollout> rollouts = new LinkedHashMap<>();
+	
+	private final AtomicLong sequence = new AtomicLong();
+	
+	private final ExecutorService workers;
+	
+	/**
+	 * Starts the rollout workers.
+	 * @param connection the broker connection, every worker uses its own session.
+	 * @param contentTopic the content topic.
+	 * @param messageSequence the sequence shared by the publishers of the content topic.
+	 * @param partSize the nominal part size (in bytes).
+	 * @param compression whether the parts are compressed (see {@link PayloadEncoder}).
+	 * @param concurrency number of rollouts published at once.
+	 * @param bandwidthBudget the budget shared by the rollouts, null for an unlimited rate.
+	 * @param waveTimeout time (in milliseconds) a wave waits for the acknowledgements.
+	 * @param maximumFailures share (in percent) of the trains named in a wave which may reject the transfer
+	 * or not acknowledge it before the rollout is halted.
+	 */
+	public RolloutScheduler(
+		final Connection connection, final String contentTopic, final MessageSequence messageSequence, final int partSize, final boolean compression,
+		final int concurrency, final BandwidthBudget bandwidthBudget, final long waveTimeout, final int maximumFailures
+	) {
+		if (partSize <= 0 || concurrency < 1 || waveTimeout <= 0L || maximumFailures < 0 || maximumFailures > 100) {
+			throw new IllegalArgumentException("Invalid rollout limits.");
+		}
+		this.connection = connection;
+		this.contentTopic = contentTopic;
+		this.messageSequence = messageSequence;
+		this.partSize = partSize;
+		this.compression = compression;
+		this.bandwidthBudget = bandwidthBudget;
+		this.waveTimeout = waveTimeout;
+		this.maximumFailures = maximumFailures;
+		final AtomicInteger threads = new AtomicInteger();
+		this.workers = new ThreadPoolExecutor(concurrency, concurrency, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), runnable -> {
+			final Thread thread = new Thread(runnable, "rollout-" + threads.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		for (int worker = 0; worker < concurrency; worker++) {
+			this.workers.execute(this::work);
+		}
+	}
+	
+	/**
+	 * Queues the rollout of the archive.
+	 * @param transferId the transfer id, unique for the archive.
+	 * @param archive the archive, kept until the rollout finishes.
+	 * @param version the content version, null when it's unknown.
+	 * @param baseVersion the version a delta archive was computed against, null for a full archive.
+	 * @param waves the targets of the waves - train ids and group names prefixed with {@link ContentTransfer#GROUP_PREFIX}.
+	 * @param priority the priority, 0 (lowest) to 9 (highest).
+	 * @return the queued rollout.
+	 * @throws IllegalArgumentException when a wave or a target is empty, a target contains a comma or the priority is out of range.
+	 */
+	public Rollout schedule(
+		final String transferId, final Path archive, final String version, final String baseVersion, final List<List<String>> waves, final int priority
+	) {
+		final Rollout rollout = new Rollout(transferId, archive, version, baseVersion, waves, priority, this.sequence.incrementAndGet());
+		synchronized (this.rollouts) {
+			this.rollouts.put(transferId, rollout);
+			int finished = 0;
+			for (final Rollout kept : this.rollouts.values()) {
+				finished += kept.isActive() ? 0 : 1;
+			}
+			for (final Iterator<Rollout> iterator = this.rollouts.values().iterator(); finished > RolloutScheduler.FINISHED_ROLLOUTS_TO_KEEP && iterator.hasNext();) {
+				if (!iterator.next().isActive()) {
+					iterator.remove();
+					finished--;
+				}
+			}
+		}
+		this.queue.add(rollout);
+		RolloutScheduler.LOGGER.log(Level.INFO, "Scheduled rollout {0}", rollout + " with priority " + priority + ".");
+		return rollout;
+	}
+	
+	/**
+	 * @return the rollout of the transfer, null when it's unknown.
+	 */
+	public Rollout getRollout(final String transferId) {
+		synchronized (this.rollouts) {
+			return this.rollouts.get(transferId);
+		}
+	}
+	
+	/**
+	 * @return true while the rollout of the transfer is queued or running.
+	 */
+	public boolean isActive(final String transferId) {
+		final Rollout rollout = this.getRollout(transferId);
+		return rollout != null && rollout.isActive();
+	}
+	
+	/**
+	 * Records the acknowledgement of a train.
+	 */
+	@Override
+	public void onMessage(final Message message) {
+		try {
+			final String trainId = message.getStringProperty(ContentTransfer.TRAIN_ID);
+			final String transferId = message.getStringProperty(ContentTransfer.TRANSFER_ID);
+			final String status = message.getStringProperty(ContentTransfer.STATUS);
+			final Rollout rollout = transferId == null ? null : this.getRollout(transferId);
+			if (trainId == null || status == null || rollout == null) {
+				RolloutScheduler.LOGGER.log(Level.FINE, "Skipping acknowledgement of transfer {0}", transferId + " from train " + trainId + ".");
+				return;
+			}
+			rollout.acknowledge(trainId, status);
+			RolloutScheduler.LOGGER.log(
+				ContentTransfer.STATUS_COMMITTED.equals(status) ? Level.FINE : Level.WARNING,
+				"Train {0}", trainId + " " + status + " transfer " + transferId + " (version " + message.getStringProperty(ContentTransfer.CONTENT_VERSION) + ")."
+			);
+		} catch (JMSException exception) {
+			RolloutScheduler.LOGGER.log(Level.WARNING, "Acknowledgement can't be read. Reason: {0}", exception.toString());
+		}
+	}
+	
+	/**
+	 * Stops the workers, the running rollouts fail.
+	 */
+	@Override
+	public void close() {
+		this.workers.shutdownNow();
+	}
+	
+	/**
+	 * Runs the queued rollouts until the worker is interrupted.
+	 */
+	private void work() {
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				this.run(this.queue.take());
+			}
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * Publishes the waves of the rollout one after another.
+	 */
+	private void run(final Rollout rollout) throws InterruptedException {
+		rollout.setState(Rollout.State.RUNNING);
+		try {
+			final Session session = this.connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+			try (
+				final PayloadEncoder payloadEncoder = this.compression ? new PayloadEncoder(PayloadEncoder.PayloadType.ARCHIVE) : null;
+				final ContentPublisher contentPublisher = new ContentPublisher(
+					session, session.createTopic(this.contentTopic), this.partSize, this.messageSequence, payloadEncoder
+				)
+			) {
+				contentPublisher.setBandwidthBudget(this.bandwidthBudget);
+				for (int wave = 0; wave < rollout.getWaves().size(); wave++) {
+					rollout.setWave(wave);
+					contentPublisher.setTargets(rollout.getWaves().get(wave));
+					final int parts = contentPublisher.publish(rollout.getArchive(), rollout.getId(), rollout.getVersion(), rollout.getBaseVersion());
+					RolloutScheduler.LOGGER.log(Level.INFO, "Published wave {0}", (wave + 1) + " of rollout " + rollout + " (" + parts + " parts).");
+					
+					final int trains = rollout.trains(wave).size();
+					final int failures = rollout.awaitWave(wave, System.currentTimeMillis() + this.waveTimeout);
+					if (failures * 100L > (long) this.maximumFailures * trains) {
+						rollout.setState(Rollout.State.HALTED);
+						RolloutScheduler.LOGGER.log(Level.WARNING, "Halted rollout {0}", rollout + ", " + failures + " of " + trains + " trains rejected or didn't acknowledge the transfer.");
+						return;
+					}
+				}
+			} finally {
+				session.close();
+			}
+			rollout.setState(Rollout.State.COMPLETED);
+			RolloutScheduler.LOGGER.log(Level.INFO, "Completed rollout {0}", rollout);
+		} catch (IOException | JMSException | RuntimeException exception) {
+			rollout.setState(Rollout.State.FAILED);
+			RolloutScheduler.LOGGER.log(Level.SEVERE, "Rollout {0}", rollout + " failed. Reason: " + exception.toString());
+		} catch (InterruptedException exception) {
+			rollout.setState(Rollout.State.FAILED);
+			throw exception;
+		}
+	}
+	
+}
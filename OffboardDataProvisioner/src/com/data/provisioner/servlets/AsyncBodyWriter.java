@@ -0,0 +1,128 @@
+package com.data.provisioner.servlets;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+
+/**
+ * Writes a response body with the non-blocking output of the container.
+ * <p>
+ * The body is written only while the output accepts it without blocking. A slow client doesn't hold a container
+ * thread, the writer continues when the container reports the output ready again. The source is closed
+ * when the request completes, also on an error or timeout.
+ */
+final class AsyncBodyWriter implements WriteListener, AsyncListener {
+	
+	/**
+	 * The logger.
+	 */
+	private static final Logger LOGGER = Logger.getLogger(AsyncBodyWriter.class.getName());
+	
+	/**
+	 * Size (in bytes) of the chunks written - 64 KiB.
+	 */
+	private static final int BUFFER_SIZE = 64 * 1024;
+	
+	private final AsyncContext asyncContext;
+	
+	private final ServletOutputStream outputStream;
+	
+	private final ReadableByteChannel source;
+	
+	private final byte[] buffer;
+	
+	private long remaining;
+	
+	private AsyncBodyWriter(final AsyncContext asyncContext, final ServletOutputStream outputStream, final ReadableByteChannel source, final long length) {
+		this.asyncContext = asyncContext;
+		this.outputStream = outputStream;
+		this.source = source;
+		this.buffer = new byte[(int) Math.min(AsyncBodyWriter.BUFFER_SIZE, Math.max(length, 1L))];
+		this.remaining = length;
+	}
+	
+	/**
+	 * Starts writing the body, the request is completed after its last byte.
+	 * @param asyncContext the started asynchronous request. The status and headers must be already set.
+	 * @param source the body. It's closed by the writer.
+	 * @param length number of the bytes written from the source.
+	 * @throws IOException when the output can't be obtained.
+	 */
+	static void write(final AsyncContext asyncContext, final ReadableByteChannel source, final long length) throws IOException {
+		try {
+			asyncContext.getResponse().setContentLengthLong(length);
+			final ServletOutputStream outputStream = asyncContext.getResponse().getOutputStream();
+			final AsyncBodyWriter asyncBodyWriter = new AsyncBodyWriter(asyncContext, outputStream, source, length);
+			asyncContext.addListener(asyncBodyWriter);
+			outputStream.setWriteListener(asyncBodyWriter);
+		} catch (IOException | RuntimeException exception) {
+			source.close();
+			throw exception;
+		}
+	}
+	
+	/**
+	 * Starts writing the body, the request is completed after its last byte.
+	 * @param asyncContext the started asynchronous request. The status and headers must be already set.
+	 * @param body the body.
+	 * @throws IOException when the output can't be obtained.
+	 */
+	static void write(final AsyncContext asyncContext, final byte[] body) throws IOException {
+		AsyncBodyWriter.write(asyncContext, Channels.newChannel(new ByteArrayInputStream(body)), body.length);
+	}
+	
+	@Override
+	public void onWritePossible() throws IOException {
+		while (this.outputStream.isReady()) {
+			if (this.remaining == 0L) {
+				this.asyncContext.complete();
+				return;
+			}
+			final int read = this.source.read(ByteBuffer.wrap(this.buffer, 0, (int) Math.min(this.buffer.length, this.remaining)));
+			if (read < 0) {
+				throw new EOFException("Response body ended " + this.remaining + " bytes early.");
+			}
+			this.outputStream.write(this.buffer, 0, read);
+			this.remaining -= read;
+		}
+	}
+	
+	@Override
+	public void onError(final Throwable throwable) {
+		AsyncBodyWriter.LOGGER.log(Level.FINE, "Response body can't be written. Reason: {0}", throwable.toString());
+		this.asyncContext.complete();
+	}
+	
+	@Override
+	public void onComplete(final AsyncEvent event) throws IOException {
+		this.source.close();
+	}
+	
+	@Override
+	public void onTimeout(final AsyncEvent event) throws IOException {
+		AsyncBodyWriter.LOGGER.log(Level.FINE, "Response body wasn't written in time, {0}", this.remaining + " bytes remain.");
+		this.asyncContext.complete();
+	}
+	
+	@Override
+	public void onError(final AsyncEvent event) throws IOException {
+		// The request is completed by the container.
+	}
+	
+	@Override
+	public void onStartAsync(final AsyncEvent event) throws IOException {
+		// The writer isn't reused.
+	}
+	
+}
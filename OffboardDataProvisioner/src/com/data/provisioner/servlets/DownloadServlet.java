@@ -0,0 +1,175 @@
+package com.data.provisioner.servlets;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.data.provisioner.publisher.PublishedContent;
+import com.data.provisioner.publisher.PublishingService;
+
+/**
+ * Download of the published content archives: {@code GET /download/<transferId>} returns the archive kept
+ * for the transfer.
+ * <p>
+ * The archive of a transfer never changes, so the transfer id is its ETag. A request with a matching
+ * {@code If-None-Match} is answered 304 without the body, a single byte range in the {@code Range} header is answered
+ * 206 with the part of the archive, so a download interrupted by the train is resumed instead of repeated.
+ * <p>
+ * {@code GET /download/current} returns the full content archive published last, the archive the trains pull when
+ * the content topic fails. Its version is sent in the {@value #CONTENT_VERSION_HEADER} header. The weak entity tag
+ * of the version matches it as well, so a train which received the same content over the content topic gets 304 with its
+ * version in {@code If-None-Match}. {@code If-Range} must carry the transfer id, a resumed download never mixes two
+ * archives of the same version.
+ * <p>
+ * The archive is written with the non-blocking output of the container, a slow client doesn't hold a container thread
+ * while the archive is sent.
+ */
+@WebServlet(urlPatterns = "/download/*", asyncSupported = true)
+public class DownloadServlet extends HttpServlet {
+	
+	private static final long serialVersionUID = 1L;
+	
+	/**
+	 * Response header with the version of the current content.
+	 */
+	static final String CONTENT_VERSION_HEADER = "X-Content-Version";
+	
+	private static final String CURRENT = "current";
+	
+	private static final String BYTES_UNIT = "bytes=";
+	
+	@Override
+	protected void doGet(final HttpServletRequest request, final HttpServletResponse response) throws ServletException, IOException {
+		final PublishingService publishingService = (PublishingService) this.getServletContext().getAttribute(PublishingService.ATTRIBUTE);
+		if (publishingService == null) {
+			response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Publishing service isn't available.");
+			return;
+		}
+		final String target = request.getPathInfo() == null ? "" : request.getPathInfo().substring(1);
+		final PublishedContent currentContent = DownloadServlet.CURRENT.equals(target) ? publishingService.getCurrentContent() : null;
+		if (DownloadServlet.CURRENT.equals(target) && currentContent == null) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND, "No content was published yet.");
+			return;
+		}
+		final String transferId = currentContent == null ? target : currentContent.getTransferId();
+		final Path archive = publishingService.publishedArchive(transferId);
+		if (archive == null) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND, "Unknown transfer " + transferId + ".");
+			return;
+		}
+		final String entityTag = "\"" + transferId + "\"";
+		final String version = currentContent == null ? null : currentContent.getVersion();
+		response.setHeader("ETag", entityTag);
+		response.setHeader("Accept-Ranges", "bytes");
+		if (currentContent != null) {
+			response.setHeader("Cache-Control", "no-cache");
+			if (version != null) {
+				response.setHeader(DownloadServlet.CONTENT_VERSION_HEADER, version);
+			}
+		}
+		final String ifNoneMatch = request.getHeader("If-None-Match");
+		if (DownloadServlet.matches(ifNoneMatch, entityTag) || version != null && DownloadServlet.matches(ifNoneMatch, "\"" + version + "\"")) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+		final FileChannel channel;
+		try {
+			channel = FileChannel.open(archive, StandardOpenOption.READ);
+		} catch (NoSuchFileException exception) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND, "Archive of transfer " + transferId + " was removed.");
+			return;
+		}
+		try {
+			final long size = channel.size();
+			final String ifRange = request.getHeader("If-Range");
+			final long[] range = ifRange == null || ifRange.equals(entityTag) ? DownloadServlet.byteRange(request.getHeader("Range"), size) : null;
+			if (range != null && range.length == 0) {
+				response.setHeader("Content-Range", "bytes */" + size);
+				response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+				channel.close();
+				return;
+			}
+			final long length;
+			if (range != null) {
+				response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+				response.setHeader("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + size);
+				channel.position(range[0]);
+				length = range[1] - range[0] + 1L;
+			} else {
+				length = size;
+			}
+			response.setContentType("application/zip");
+			if ("HEAD".equals(request.getMethod())) {
+				response.setContentLengthLong(length);
+				channel.close();
+				return;
+			}
+			final AsyncContext asyncContext = request.startAsync();
+			asyncContext.setTimeout(publishingService.getDownloadTimeout());
+			AsyncBodyWriter.write(asyncContext, channel, length);
+		} catch (IOException | RuntimeException exception) {
+			channel.close();
+			throw exception;
+		}
+	}
+	
+	/**
+	 * @param ifNoneMatch the If-None-Match header, null when it's missing.
+	 * @return true when the header lists the entity tag or "*".
+	 */
+	static boolean matches(final String ifNoneMatch, final String entityTag) {
+		if (ifNoneMatch == null) {
+			return false;
+		}
+		for (final String listed : ifNoneMatch.split(",")) {
+			final String candidate = listed.trim();
+			if ("*".equals(candidate) || entityTag.equals(candidate.startsWith("W/") ? candidate.substring(2) : candidate)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * @param range the Range header, null when it's missing.
+	 * @param size the archive size (in bytes).
+	 * @return the first and the last byte of the range, null when the header isn't a single byte range and the whole
+	 *         archive is sent, an empty array when the range starts after the archive.
+	 */
+	static long[] byteRange(final String range, final long size) {
+		if (range == null || !range.startsWith(DownloadServlet.BYTES_UNIT) || range.indexOf(',') >= 0) {
+			return null;
+		}
+		final String bounds = range.substring(DownloadServlet.BYTES_UNIT.length()).trim();
+		final int separator = bounds.indexOf('-');
+		if (separator < 0) {
+			return null;
+		}
+		try {
+			final String first = bounds.substring(0, separator).trim();
+			final String last = bounds.substring(separator + 1).trim();
+			if (first.isEmpty()) {
+				final long suffix = Long.parseLong(last);
+				return suffix <= 0L || size == 0L ? new long[0] : new long[] {Math.max(0L, size - suffix), size - 1L};
+			}
+			final long firstByte = Long.parseLong(first);
+			final long lastByte = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+			if (firstByte < 0L || lastByte < firstByte) {
+				return null;
+			}
+			return firstByte >= size ? new long[0] : new long[] {firstByte, Math.min(lastByte, size - 1L)};
+		} catch (NumberFormatException exception) {
+			return null;
+		}
+	}
+	
+}
@@ -0,0 +1,104 @@
+package com.data.provisioner.servlets;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Predicate;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.data.provisioner.fleet.FleetStateTable;
+import com.data.provisioner.fleet.TrainState;
+import com.data.provisioner.publisher.PublishingService;
+
+/**
+ * View of the fleet state reported by the trains: {@code GET /fleet} lists the trains as JSON, {@code GET /fleet/<trainId>}
+ * returns one train.
+ * <p>
+ * The list can be narrowed by the parameters {@code stale=true} to the trains which stopped reporting,
+ * {@code contentVersion} and {@code gtfsVersion} to the trains reporting the version, and {@code group} to the members
+ * of the group.
+ * <p>
+ * The response is written with the non-blocking output of the container, a slow client doesn't hold a container thread.
+ */
+@WebServlet(urlPatterns = {"/fleet", "/fleet/*"}, asyncSupported = true)
+public class FleetServlet extends HttpServlet {
+	
+	private static final long serialVersionUID = 1L;
+	
+	@Override
+	protected void doGet(final HttpServletRequest request, final HttpServletResponse response) throws ServletException, IOException {
+		final PublishingService publishingService = (PublishingService) this.getServletContext().getAttribute(PublishingService.ATTRIBUTE);
+		if (publishingService == null) {
+			response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Publishing service isn't available.");
+			return;
+		}
+		final FleetStateTable fleetStateTable = publishingService.getFleetStateTable();
+		final long now = System.currentTimeMillis();
+		final String trainId = request.getPathInfo() == null || "/".equals(request.getPathInfo()) ? null : request.getPathInfo().substring(1);
+		final StringBuilder json = new StringBuilder();
+		if (trainId != null) {
+			final TrainState trainState = fleetStateTable.get(trainId);
+			if (trainState == null) {
+				response.sendError(HttpServletResponse.SC_NOT_FOUND, "Train " + trainId + " hasn't reported its status.");
+				return;
+			}
+			FleetServlet.append(json, trainState, now);
+		} else {
+			final List<TrainState> trainStates = fleetStateTable.select(FleetServlet.filter(request, now));
+			json.append("{\"trains\":").append(fleetStateTable.size()).append(",\"selected\":").append(trainStates.size()).append(",\"states\":[");
+			for (int index = 0; index < trainStates.size(); index++) {
+				FleetServlet.append(json.append(index == 0 ? "" : ","), trainStates.get(index), now);
+			}
+			json.append("]}");
+		}
+		response.setContentType("application/json");
+		response.setCharacterEncoding("UTF-8");
+		response.setHeader("Cache-Control", "no-store");
+		AsyncBodyWriter.write(request.startAsync(), json.toString().getBytes(StandardCharsets.UTF_8));
+	}
+	
+	/**
+	 * @return the filter of the request parameters.
+	 */
+	private static Predicate<TrainState> filter(final HttpServletRequest request, final long now) {
+		final boolean stale = Boolean.parseBoolean(request.getParameter("stale"));
+		final String contentVersion = request.getParameter("contentVersion");
+		final String gtfsVersion = request.getParameter("gtfsVersion");
+		final String group = request.getParameter("group");
+		return trainState -> (!stale || trainState.isStale(now))
+			&& (contentVersion == null || Objects.equals(contentVersion, trainState.getContentVersion()))
+			&& (gtfsVersion == null || Objects.equals(gtfsVersion, trainState.getGtfsVersion()))
+			&& (group == null || trainState.getTrainGroups().contains(group));
+	}
+	
+	private static void append(final StringBuilder json, final TrainState trainState, final long now) {
+		json.append("{\"trainId\":").append(PublishServlet.quote(trainState.getTrainId()))
+			.append(",\"trainGroups\":[");
+		final List<String> trainGroups = trainState.getTrainGroups();
+		for (int index = 0; index < trainGroups.size(); index++) {
+			json.append(index == 0 ? "" : ",").append(PublishServlet.quote(trainGroups.get(index)));
+		}
+		json.append("],\"lastSeenMillis\":").append(now - trainState.getReceivedAt())
+			.append(",\"stale\":").append(trainState.isStale(now))
+			.append(",\"contentGeneration\":").append(trainState.getContentGeneration())
+			.append(",\"contentVersion\":").append(PublishServlet.quote(trainState.getContentVersion()))
+			.append(",\"gtfsVersion\":").append(PublishServlet.quote(trainState.getGtfsVersion()))
+			.append(",\"realtimeEpoch\":").append(trainState.getRealtimeEpoch())
+			.append(",\"realtimeSequence\":").append(trainState.getRealtimeSequence())
+			.append(",\"realtimeLagMillis\":").append(trainState.getRealtimeLag())
+			.append(",\"contentErrors\":").append(trainState.getContentErrors())
+			.append(",\"messagesErrors\":").append(trainState.getMessagesErrors())
+			.append(",\"realtimeErrors\":").append(trainState.getRealtimeErrors())
+			.append(",\"gtfsErrors\":").append(trainState.getGtfsErrors())
+			.append(",\"reconnects\":").append(trainState.getReconnects())
+			.append('}');
+	}
+	
+}
@@ -0,0 +1,315 @@
+package com.data.provisioner.servlets;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.jms.JMSException;
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletException;
+import javax.servlet.annotation.MultipartConfig;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.Part;
+
+import com.data.provisioner.publisher.PublishingService;
+import com.data.provisioner.publisher.Rollout;
+
+/**
+ * Publishing endpoint of the operators: {@code POST /publish/content}, {@code /publish/gtfs}, {@code /publish/messages}
+ * and {@code /publish/rollout}.
+ * <p>
+ * The upload is either the raw request body or the file fields of a multipart form. A raw content archive must declare
+ * its Content-Length, because every part carries the archive size. The container writes the multipart files over
+ * {@link #FILE_SIZE_THRESHOLD} to disk before the servlet reads them. The optional {@code version} parameter sets
+ * the content version, {@code baseVersion} marks a delta archive.
+ * <p>
+ * A rollout archive is published to the fleet in waves instead of at once. The required {@code waves} parameter
+ * lists the waves separated by semicolons, each wave lists its train ids and group names prefixed with "@" separated
+ * by commas - "Northern-001,Northern-002;@northern;@southern". A delta archive may omit the waves, it's then rolled out
+ * to the trains reporting its {@code baseVersion} in the fleet state table, in waves of {@code waveSize} trains
+ * (default {@link #DEFAULT_WAVE_SIZE}). The optional {@code priority} parameter, 0 to 9, orders
+ * the waiting rollouts, default {@link #DEFAULT_PRIORITY}. {@code GET /publish/rollout/<id>} returns the state of the rollout
+ * with the acknowledgements of the trains, written with the non-blocking output of the container.
+ * <p>
+ * Only the operators with the {@link #ROLE} may publish. The security constraint of the deployment descriptor makes
+ * the container authenticate them, the servlet refuses the other requests itself too, so that it isn't left open
+ * when it's deployed without the constraint.
+ * <p>
+ * The request is processed asynchronously on the pool of the {@link PublishingService}, the container thread is released
+ * at once. The response lists the transfer ids of the content archives and the message ids of the other uploads as JSON.
+ */
+@WebServlet(urlPatterns = "/publish/*", asyncSupported = true)
+@MultipartConfig(fileSizeThreshold = PublishServlet.FILE_SIZE_THRESHOLD)
+public class PublishServlet extends HttpServlet {
+	
+	private static final long serialVersionUID = 1L;
+	
+	/**
+	 * The logger.
+	 */
+	private static final Logger LOGGER = Logger.getLogger(PublishServlet.class.getName());
+	
+	/**
+	 * Size (in bytes) of the multipart files kept in memory by the container, the larger ones are written to disk - 1 MiB.
+	 */
+	static final int FILE_SIZE_THRESHOLD = 1024 * 1024;
+	
+	/**
+	 * Priority of a rollout without the priority parameter, in the middle of the range like the JMS default priority.
+	 */
+	static final int DEFAULT_PRIORITY = 4;
+	
+	/**
+	 * Number of the trains in a wave of a delta rollout without the waves parameter.
+	 */
+	static final int DEFAULT_WAVE_SIZE = 100;
+	
+	/**
+	 * Role of the operators allowed to publish and to read the rollouts.
+	 */
+	public static final String ROLE = "provisioner-publisher";
+	
+	private static final String ROLLOUT_PREFIX = "/rollout/";
+	
+	@Override
+	protected void doGet(final HttpServletRequest request, final HttpServletResponse response) throws ServletException, IOException {
+		if (!request.isUserInRole(PublishServlet.ROLE)) {
+			response.sendError(HttpServletResponse.SC_FORBIDDEN, "Reading rollouts requires the " + PublishServlet.ROLE + " role.");
+			return;
+		}
+		final PublishingService publishingService = (PublishingService) this.getServletContext().getAttribute(PublishingService.ATTRIBUTE);
+		if (publishingService == null) {
+			response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Publishing service isn't available.");
+			return;
+		}
+		final String target = request.getPathInfo();
+		final Rollout rollout = target != null && target.startsWith(PublishServlet.ROLLOUT_PREFIX)
+			? publishingService.getRollout(target.substring(PublishServlet.ROLLOUT_PREFIX.length()))
+			: null;
+		if (rollout == null) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND, "Unknown rollout " + target + ".");
+			return;
+		}
+		final StringBuilder json = new StringBuilder("{\"id\":").append(PublishServlet.quote(rollout.getId()))
+			.append(",\"version\":").append(PublishServlet.quote(rollout.getVersion()))
+			.append(",\"priority\":").append(rollout.getPriority())
+			.append(",\"state\":\"").append(rollout.getState())
+			.append("\",\"wave\":").append(rollout.getWave() + 1)
+			.append(",\"waves\":[");
+		for (int wave = 0; wave < rollout.getWaves().size(); wave++) {
+			final List<String> waveTargets = rollout.getWaves().get(wave);
+			json.append(wave == 0 ? "[" : ",[");
+			for (int index = 0; index < waveTargets.size(); index++) {
+				json.append(index == 0 ? "" : ",").append(PublishServlet.quote(waveTargets.get(index)));
+			}
+			json.append(']');
+		}
+		json.append("],\"acknowledgements\":{");
+		String separator = "";
+		for (final Map.Entry<String, String> acknowledgement : rollout.getAcknowledgements().entrySet()) {
+			json.append(separator).append(PublishServlet.quote(acknowledgement.getKey())).append(':').append(PublishServlet.quote(acknowledgement.getValue()));
+			separator = ",";
+		}
+		json.append("}}");
+		response.setContentType("application/json");
+		response.setCharacterEncoding("UTF-8");
+		AsyncBodyWriter.write(request.startAsync(), json.toString().getBytes(StandardCharsets.UTF_8));
+	}
+	
+	@Override
+	protected void doPost(final HttpServletRequest request, final HttpServletResponse response) throws ServletException, IOException {
+		if (!request.isUserInRole(PublishServlet.ROLE)) {
+			response.sendError(HttpServletResponse.SC_FORBIDDEN, "Publishing requires the " + PublishServlet.ROLE + " role.");
+			return;
+		}
+		final PublishingService publishingService = (PublishingService) this.getServletContext().getAttribute(PublishingService.ATTRIBUTE);
+		if (publishingService == null) {
+			response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Publishing service isn't available.");
+			return;
+		}
+		final String target = request.getPathInfo();
+		if (!"/content".equals(target) && !"/gtfs".equals(target) && !"/messages".equals(target) && !"/rollout".equals(target)) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND, "Unknown publishing target " + target + ".");
+			return;
+		}
+		final AsyncContext asyncContext = request.startAsync();
+		asyncContext.setTimeout(publishingService.getUploadTimeout());
+		try {
+			publishingService.execute(() -> this.publish(publishingService, target, asyncContext));
+		} catch (RejectedExecutionException exception) {
+			response.setHeader("Retry-After", "60");
+			response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Too many uploads in progress.");
+			asyncContext.complete();
+		}
+	}
+	
+	/**
+	 * Publishes the upload, runs on the publishing pool.
+	 */
+	private void publish(final PublishingService publishingService, final String target, final AsyncContext asyncContext) {
+		final HttpServletRequest request = (HttpServletRequest) asyncContext.getRequest();
+		final HttpServletResponse response = (HttpServletResponse) asyncContext.getResponse();
+		try {
+			final List<String> published = new ArrayList<>();
+			final String contentType = request.getContentType();
+			if (contentType != null && contentType.toLowerCase(Locale.ROOT).startsWith("multipart/form-data")) {
+				for (final Part part : request.getParts()) {
+					if (part.getSubmittedFileName() == null) {
+						continue;
+					}
+					try (final InputStream inputStream = part.getInputStream()) {
+						published.add(this.publish(publishingService, target, request, inputStream, part.getSize()));
+					} finally {
+						part.delete();
+					}
+				}
+			} else {
+				try (final InputStream inputStream = request.getInputStream()) {
+					published.add(this.publish(publishingService, target, request, inputStream, request.getContentLengthLong()));
+				}
+			}
+			if (published.isEmpty()) {
+				response.sendError(HttpServletResponse.SC_BAD_REQUEST, "The form has no file.");
+				return;
+			}
+			response.setContentType("application/json");
+			response.setCharacterEncoding("UTF-8");
+			response.getWriter().append("{\"published\":[\"").append(String.join("\",\"", published)).append("\"]}");
+		} catch (RequestException exception) {
+			PublishServlet.sendError(response, exception.getStatus(), exception.getMessage());
+		} catch (IllegalArgumentException exception) {
+			PublishServlet.sendError(response, HttpServletResponse.SC_BAD_REQUEST, exception.getMessage());
+		} catch (IOException | ServletException | JMSException | RuntimeException exception) {
+			PublishServlet.LOGGER.log(Level.SEVERE, "Upload to {0}", target + " can't be published. Reason: " + exception.toString());
+			PublishServlet.sendError(response, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Upload can't be published.");
+		} finally {
+			asyncContext.complete();
+		}
+	}
+	
+	/**
+	 * @param size the upload size (in bytes), -1 when it's unknown.
+	 * @return the transfer id or the message id.
+	 */
+	private String publish(
+		final PublishingService publishingService, final String target, final HttpServletRequest request, final InputStream inputStream, final long size
+	) throws IOException, JMSException {
+		switch (target) {
+			case "/content":
+				if (size < 0L) {
+					throw new RequestException(HttpServletResponse.SC_LENGTH_REQUIRED, "Content archive must declare its Content-Length.");
+				}
+				return publishingService.publishContent(inputStream, size, request.getParameter("version"), request.getParameter("baseVersion"));
+			case "/rollout":
+				if (size < 0L) {
+					throw new RequestException(HttpServletResponse.SC_LENGTH_REQUIRED, "Content archive must declare its Content-Length.");
+				}
+				final String waves = request.getParameter("waves");
+				final String baseVersion = request.getParameter("baseVersion");
+				final List<List<String>> targets = new ArrayList<>();
+				if (waves != null) {
+					for (final String wave : waves.split(";")) {
+						targets.add(Arrays.asList(wave.trim().split("\\s*,\\s*")));
+					}
+				} else if (baseVersion != null) {
+					final List<String> trainIds = publishingService.getFleetStateTable().trainsWithContentVersion(baseVersion);
+					if (trainIds.isEmpty()) {
+						throw new RequestException(HttpServletResponse.SC_CONFLICT, "No train reports the base version " + baseVersion + ".");
+					}
+					final String waveSize = request.getParameter("waveSize");
+					final int trainsPerWave = waveSize == null ? PublishServlet.DEFAULT_WAVE_SIZE : Integer.parseInt(waveSize.trim());
+					if (trainsPerWave < 1) {
+						throw new IllegalArgumentException("Wave size must be positive, but was " + trainsPerWave + ".");
+					}
+					for (int index = 0; index < trainIds.size(); index += trainsPerWave) {
+						targets.add(trainIds.subList(index, Math.min(trainIds.size(), index + trainsPerWave)));
+					}
+				} else {
+					throw new RequestException(HttpServletResponse.SC_BAD_REQUEST, "Rollout waves are missing.");
+				}
+				final String priority = request.getParameter("priority");
+				return publishingService.scheduleRollout(
+					inputStream, size, request.getParameter("version"), baseVersion,
+					targets, priority == null ? PublishServlet.DEFAULT_PRIORITY : Integer.parseInt(priority.trim())
+				).getId();
+			case "/gtfs":
+				return publishingService.publishGtfs(inputStream, request.getParameter("version"));
+			default:
+				if (size > PublishingService.MAXIMUM_MESSAGE_SIZE) {
+					throw new RequestException(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, "Message is larger than " + PublishingService.MAXIMUM_MESSAGE_SIZE + " bytes.");
+				}
+				final byte[] body = new byte[size < 0L ? PublishingService.MAXIMUM_MESSAGE_SIZE : (int) size];
+				int length = 0;
+				for (int read = 0; read >= 0 && length < body.length; read = inputStream.read(body, length, body.length - length)) {
+					length += read;
+				}
+				if (size < 0L && length == body.length && inputStream.read() >= 0) {
+					throw new RequestException(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, "Message is larger than " + PublishingService.MAXIMUM_MESSAGE_SIZE + " bytes.");
+				}
+				return publishingService.publishMessage(body, length);
+		}
+	}
+	
+	private static void sendError(final HttpServletResponse response, final int status, final String message) {
+		try {
+			if (!response.isCommitted()) {
+				response.sendError(status, message);
+			}
+		} catch (IOException exception) {
+			PublishServlet.LOGGER.log(Level.FINE, "Error response can't be sent. Reason: {0}", exception.toString());
+		}
+	}
+	
+	/**
+	 * @return the JSON string, null as the JSON null.
+	 */
+	static String quote(final String value) {
+		if (value == null) {
+			return "null";
+		}
+		final StringBuilder quoted = new StringBuilder("\"");
+		for (int index = 0; index < value.length(); index++) {
+			final char character = value.charAt(index);
+			if (character == '"' || character == '\\') {
+				quoted.append('\\').append(character);
+			} else if (character < ' ') {
+				quoted.append(String.format("\\u%04x", (int) character));
+			} else {
+				quoted.append(character);
+			}
+		}
+		return quoted.append('"').toString();
+	}
+	
+	/**
+	 * The upload is refused with the status.
+	 */
+	private static final class RequestException extends IOException {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final int status;
+		
+		RequestException(final int status, final String message) {
+			super(message);
+			this.status = status;
+		}
+		
+		int getStatus() {
+			return this.status;
+		}
+		
+	}
+	
+}
@@ -0,0 +1,40 @@
+package com.data.provisioner.servlets;
+
+import java.io.IOException;
+
+import javax.jms.JMSException;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import javax.servlet.annotation.WebListener;
+
+import com.data.provisioner.publisher.PublishingService;
+
+/**
+ * Starts the {@link PublishingService} with the webapp, configured by the context parameters in web.xml,
+ * and closes it with the webapp. The webapp runs without publishing when the broker can't be connected.
+ */
+@WebListener
+public class PublishingContextListener implements ServletContextListener {
+	
+	@Override
+	public void contextInitialized(final ServletContextEvent event) {
+		final ServletContext context = event.getServletContext();
+		try {
+			context.setAttribute(PublishingService.ATTRIBUTE, PublishingService.of(context::getInitParameter));
+		} catch (JMSException | IOException | RuntimeException exception) {
+			context.log("Publishing service can't be started, uploads are refused. Reason: " + exception.toString(), exception);
+		}
+	}
+	
+	@Override
+	public void contextDestroyed(final ServletContextEvent event) {
+		final ServletContext context = event.getServletContext();
+		final Object publishingService = context.getAttribute(PublishingService.ATTRIBUTE);
+		if (publishingService instanceof PublishingService) {
+			context.removeAttribute(PublishingService.ATTRIBUTE);
+			((PublishingService) publishingService).close();
+		}
+	}
+	
+}
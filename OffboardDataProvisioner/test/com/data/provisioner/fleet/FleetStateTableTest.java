@@ -0,0 +1,70 @@
+package com.data.provisioner.fleet;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+
+import org.apache.activemq.command.ActiveMQMessage;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for {@link FleetStateTable}.
+ */
+public class FleetStateTableTest extends TestCase {
+	
+	public void testKeepsLastHeartbeatOfEveryTrain() throws JMSException {
+		final FleetStateTable table = new FleetStateTable();
+		table.onMessage(this.heartbeat("train-2", "6"));
+		table.onMessage(this.heartbeat("train-1", "6"));
+		table.onMessage(this.heartbeat("train-2", "7"));
+		
+		assertEquals(2, table.size());
+		assertEquals("7", table.get("train-2").getContentVersion());
+		assertEquals(Arrays.asList("north", "depot"), table.get("train-2").getTrainGroups());
+		assertEquals(60000L, table.get("train-2").getInterval());
+		assertEquals(-1L, table.get("train-2").getRealtimeLag());
+		assertNull(table.get("train-3"));
+	}
+	
+	public void testSkipsHeartbeatWithoutTrainId() throws JMSException {
+		final FleetStateTable table = new FleetStateTable();
+		final Message heartbeat = new ActiveMQMessage();
+		heartbeat.setLongProperty(TrainStatus.INTERVAL, 60000L);
+		table.onMessage(heartbeat);
+		assertEquals(0, table.size());
+	}
+	
+	public void testSelectsTrainsOrderedByTrainId() throws JMSException {
+		final FleetStateTable table = new FleetStateTable();
+		table.onMessage(this.heartbeat("train-3", "7"));
+		table.onMessage(this.heartbeat("train-1", "7"));
+		table.onMessage(this.heartbeat("train-2", "6"));
+		
+		assertEquals(Arrays.asList("train-1", "train-3"), table.trainsWithContentVersion("7"));
+		assertEquals(Collections.singletonList("train-2"), table.trainsWithContentVersion("6"));
+		assertEquals(Collections.emptyList(), table.trainsWithContentVersion("5"));
+	}
+	
+	public void testReportsTrainsWhichStoppedReporting() throws JMSException {
+		final FleetStateTable table = new FleetStateTable();
+		table.onMessage(this.heartbeat("train-1", "7"));
+		final long now = System.currentTimeMillis();
+		assertEquals(Collections.emptyList(), table.stragglers(now));
+		assertEquals(
+			"train-1", table.stragglers(now + 60000L * TrainState.MISSED_HEARTBEATS + 1000L).get(0).getTrainId()
+		);
+	}
+	
+	private Message heartbeat(final String trainId, final String contentVersion) throws JMSException {
+		final Message heartbeat = new ActiveMQMessage();
+		heartbeat.setStringProperty(TrainStatus.TRAIN_ID, trainId);
+		heartbeat.setStringProperty(TrainStatus.TRAIN_GROUPS, "north,depot");
+		heartbeat.setLongProperty(TrainStatus.INTERVAL, 60000L);
+		heartbeat.setStringProperty(TrainStatus.CONTENT_VERSION, contentVersion);
+		return heartbeat;
+	}
+	
+}
@@ -0,0 +1,58 @@
+package com.data.provisioner.publisher;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for {@link BandwidthBudget}.
+ */
+public class BandwidthBudgetTest extends TestCase {
+	
+	public void testSendsOneSecondOfTheRateAtOnce() throws InterruptedIOException {
+		final BandwidthBudget budget = new BandwidthBudget(10000L);
+		final long started = System.nanoTime();
+		budget.acquire(5000);
+		budget.acquire(5000);
+		assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) < 500L);
+	}
+	
+	public void testWaitsForTheBorrowedBytes() throws InterruptedIOException {
+		final BandwidthBudget budget = new BandwidthBudget(10000L);
+		budget.acquire(10000);
+		budget.acquire(2000);
+		final long started = System.nanoTime();
+		budget.acquire(1);
+		assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) >= 150L);
+	}
+	
+	public void testSendsLargerPartAtOnce() throws InterruptedIOException {
+		final BandwidthBudget budget = new BandwidthBudget(1000L);
+		final long started = System.nanoTime();
+		budget.acquire(100000);
+		assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) < 500L);
+	}
+	
+	public void testInterruptEndsTheWait() throws InterruptedIOException {
+		final BandwidthBudget budget = new BandwidthBudget(1000L);
+		budget.acquire(100000);
+		Thread.currentThread().interrupt();
+		try {
+			budget.acquire(1);
+			fail("Interrupted wait must fail.");
+		} catch (InterruptedIOException exception) {
+			assertTrue(Thread.interrupted());
+		}
+	}
+	
+	public void testRefusesRateWhichIsNotPositive() {
+		try {
+			new BandwidthBudget(0L);
+			fail("Zero rate must be refused.");
+		} catch (IllegalArgumentException exception) {
+			// expected
+		}
+	}
+	
+}
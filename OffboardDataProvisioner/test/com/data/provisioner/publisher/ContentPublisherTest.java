@@ -0,0 +1,115 @@
+package com.data.provisioner.publisher;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+import org.apache.activemq.command.ActiveMQBytesMessage;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for {@link ContentPublisher}.
+ */
+public class ContentPublisherTest extends TestCase {
+	
+	private static final byte[] ARCHIVE = {0, 1, 2, 3, 4, 5, 6, 7, 8, 9};
+	
+	private final List<Message> sent = new ArrayList<>();
+	
+	private ContentPublisher publisher;
+	
+	@Override
+	protected void setUp() throws JMSException {
+		final MessageProducer producer = (MessageProducer) Proxy.newProxyInstance(
+			MessageProducer.class.getClassLoader(), new Class<?>[] {MessageProducer.class}, (proxy, method, arguments) -> {
+				if ("send".equals(method.getName())) {
+					this.sent.add((Message) arguments[0]);
+				}
+				return null;
+			}
+		);
+		final Session session = (Session) Proxy.newProxyInstance(
+			Session.class.getClassLoader(), new Class<?>[] {Session.class}, (proxy, method, arguments) -> {
+				if ("createProducer".equals(method.getName())) {
+					return producer;
+				}
+				return "createBytesMessage".equals(method.getName()) ? new ActiveMQBytesMessage() : null;
+			}
+		);
+		this.publisher = new ContentPublisher(session, null, 4);
+	}
+	
+	public void testSplitsStreamIntoStampedParts() throws IOException, JMSException {
+		final ByteArrayOutputStream copy = new ByteArrayOutputStream();
+		assertEquals(3, this.publisher.publish(new ByteArrayInputStream(ContentPublisherTest.ARCHIVE), 10L, "transfer-1", "7", null, Channels.newChannel(copy)));
+		
+		assertEquals(3, this.sent.size());
+		for (int partIndex = 0; partIndex < 3; partIndex++) {
+			final BytesMessage part = (BytesMessage) this.sent.get(partIndex);
+			final byte[] expected = Arrays.copyOfRange(ContentPublisherTest.ARCHIVE, partIndex * 4, Math.min(10, partIndex * 4 + 4));
+			assertEquals("transfer-1", part.getStringProperty(ContentTransfer.TRANSFER_ID));
+			assertEquals(partIndex, part.getIntProperty(ContentTransfer.PART_INDEX));
+			assertEquals(3, part.getIntProperty(ContentTransfer.PART_COUNT));
+			assertEquals(10L, part.getLongProperty(ContentTransfer.TOTAL_SIZE));
+			assertEquals("7", part.getStringProperty(ContentTransfer.CONTENT_VERSION));
+			assertFalse(part.propertyExists(ContentTransfer.TARGETS));
+			assertEquals(partIndex + 1L, part.getLongProperty(MessageSequence.SEQUENCE));
+			final CRC32 checksum = new CRC32();
+			checksum.update(expected, 0, expected.length);
+			assertEquals(checksum.getValue(), part.getLongProperty(ContentTransfer.PART_CHECKSUM));
+			part.reset();
+			final byte[] payload = new byte[(int) part.getBodyLength()];
+			part.readBytes(payload);
+			assertTrue(Arrays.equals(expected, payload));
+		}
+		assertTrue(Arrays.equals(ContentPublisherTest.ARCHIVE, copy.toByteArray()));
+	}
+	
+	public void testRefusesStreamShorterThanItsSize() throws IOException, JMSException {
+		try {
+			this.publisher.publish(new ByteArrayInputStream(ContentPublisherTest.ARCHIVE), 12L, "transfer-1", null, null, null);
+			fail("Short stream must be refused.");
+		} catch (EOFException exception) {
+			// expected
+		}
+	}
+	
+	public void testPublishesSelectedPartsToTargets() throws IOException, JMSException {
+		final Path archive = Files.createTempFile("transfer-1", ".zip");
+		try {
+			Files.write(archive, ContentPublisherTest.ARCHIVE);
+			final BitSet parts = new BitSet();
+			parts.set(1);
+			parts.set(5);
+			this.publisher.setTargets(Arrays.asList("train-1", ContentTransfer.GROUP_PREFIX + "depot"));
+			assertEquals(1, this.publisher.publish(archive, "transfer-1", parts, "7", "6"));
+		} finally {
+			Files.delete(archive);
+		}
+		
+		assertEquals(1, this.sent.size());
+		final Message part = this.sent.get(0);
+		assertEquals(1, part.getIntProperty(ContentTransfer.PART_INDEX));
+		assertEquals(3, part.getIntProperty(ContentTransfer.PART_COUNT));
+		assertEquals("6", part.getStringProperty(ContentTransfer.CONTENT_BASE_VERSION));
+		assertEquals(ContentTransfer.formatTargets(Arrays.asList("train-1", ContentTransfer.GROUP_PREFIX + "depot")), part.getStringProperty(ContentTransfer.TARGETS));
+	}
+	
+}
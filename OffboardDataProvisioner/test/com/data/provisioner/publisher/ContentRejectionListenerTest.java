@@ -0,0 +1,100 @@
+package com.data.provisioner.publisher;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+import org.apache.activemq.command.ActiveMQBytesMessage;
+import org.apache.activemq.command.ActiveMQMessage;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for {@link ContentRejectionListener}.
+ */
+public class ContentRejectionListenerTest extends TestCase {
+	
+	private Path directory;
+	
+	private final List<Message> sent = new ArrayList<>();
+	
+	private final Map<String, PublishedContent> contents = new HashMap<>();
+	
+	private ContentRejectionListener listener;
+	
+	@Override
+	protected void setUp() throws IOException, JMSException {
+		this.directory = Files.createTempDirectory("publish");
+		final Path full = Files.write(this.directory.resolve("full-3.zip"), new byte[10]);
+		final Path delta = Files.write(this.directory.resolve("delta-3.zip"), new byte[4]);
+		this.contents.put("full-3", new PublishedContent("full-3", full, "3", null));
+		this.contents.put("delta-3", new PublishedContent("delta-3", delta, "3", "2"));
+		final MessageProducer producer = (MessageProducer) Proxy.newProxyInstance(
+			MessageProducer.class.getClassLoader(), new Class<?>[] {MessageProducer.class}, (proxy, method, arguments) -> {
+				if ("send".equals(method.getName())) {
+					this.sent.add((Message) arguments[0]);
+				}
+				return null;
+			}
+		);
+		final Session session = (Session) Proxy.newProxyInstance(
+			Session.class.getClassLoader(), new Class<?>[] {Session.class}, (proxy, method, arguments) -> {
+				if ("createProducer".equals(method.getName())) {
+					return producer;
+				}
+				return "createBytesMessage".equals(method.getName()) ? new ActiveMQBytesMessage() : null;
+			}
+		);
+		this.listener = new ContentRejectionListener(
+			new ContentPublisher(session, null, 4), this.contents::get, () -> this.contents.get("full-3")
+		);
+	}
+	
+	@Override
+	protected void tearDown() throws IOException {
+		Files.walk(this.directory).sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+	}
+	
+	public void testPublishesFullContentToTrainRejectingDelta() throws JMSException {
+		this.listener.onMessage(this.acknowledgement("train-1", "delta-3", ContentTransfer.STATUS_REJECTED));
+		
+		assertEquals(3, this.sent.size());
+		for (final Message part : this.sent) {
+			assertEquals("full-3", part.getStringProperty(ContentTransfer.TRANSFER_ID));
+			assertEquals("3", part.getStringProperty(ContentTransfer.CONTENT_VERSION));
+			assertNull(part.getStringProperty(ContentTransfer.CONTENT_BASE_VERSION));
+			assertEquals(ContentTransfer.formatTargets(Collections.singletonList("train-1")), part.getStringProperty(ContentTransfer.TARGETS));
+		}
+	}
+	
+	public void testIgnoresOtherAcknowledgements() throws JMSException {
+		this.listener.onMessage(this.acknowledgement("train-1", "delta-3", ContentTransfer.STATUS_COMMITTED));
+		this.listener.onMessage(this.acknowledgement("train-1", "full-3", ContentTransfer.STATUS_REJECTED));
+		this.listener.onMessage(this.acknowledgement("train-1", "unknown", ContentTransfer.STATUS_REJECTED));
+		this.listener.onMessage(this.acknowledgement(null, "delta-3", ContentTransfer.STATUS_REJECTED));
+		assertEquals(0, this.sent.size());
+	}
+	
+	private Message acknowledgement(final String trainId, final String transferId, final String status) throws JMSException {
+		final Message acknowledgement = new ActiveMQMessage();
+		if (trainId != null) {
+			acknowledgement.setStringProperty(ContentTransfer.TRAIN_ID, trainId);
+		}
+		acknowledgement.setStringProperty(ContentTransfer.TRANSFER_ID, transferId);
+		acknowledgement.setStringProperty(ContentTransfer.STATUS, status);
+		return acknowledgement;
+	}
+	
+}
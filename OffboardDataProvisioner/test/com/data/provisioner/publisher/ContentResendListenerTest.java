@@ -0,0 +1,100 @@
+package com.data.provisioner.publisher;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+import org.apache.activemq.command.ActiveMQBytesMessage;
+import org.apache.activemq.command.ActiveMQMessage;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for {@link ContentResendListener}.
+ */
+public class ContentResendListenerTest extends TestCase {
+	
+	private Path directory;
+	
+	private final List<Message> sent = new ArrayList<>();
+	
+	private final Map<String, PublishedContent> contents = new HashMap<>();
+	
+	private ContentResendListener listener;
+	
+	@Override
+	protected void setUp() throws IOException, JMSException {
+		this.directory = Files.createTempDirectory("publish");
+		final Path delta = Files.write(this.directory.resolve("delta-3.zip"), new byte[10]);
+		this.contents.put("delta-3", new PublishedContent("delta-3", delta, "3", "2"));
+		final MessageProducer producer = (MessageProducer) Proxy.newProxyInstance(
+			MessageProducer.class.getClassLoader(), new Class<?>[] {MessageProducer.class}, (proxy, method, arguments) -> {
+				if ("send".equals(method.getName())) {
+					this.sent.add((Message) arguments[0]);
+				}
+				return null;
+			}
+		);
+		final Session session = (Session) Proxy.newProxyInstance(
+			Session.class.getClassLoader(), new Class<?>[] {Session.class}, (proxy, method, arguments) -> {
+				if ("createProducer".equals(method.getName())) {
+					return producer;
+				}
+				return "createBytesMessage".equals(method.getName()) ? new ActiveMQBytesMessage() : null;
+			}
+		);
+		this.listener = new ContentResendListener(new ContentPublisher(session, null, 4), this.contents::get);
+	}
+	
+	@Override
+	protected void tearDown() throws IOException {
+		Files.walk(this.directory).sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+	}
+	
+	public void testResendsMissingPartsToTheRequestingTrain() throws JMSException {
+		final BitSet missingParts = new BitSet();
+		missingParts.set(0);
+		missingParts.set(2);
+		this.listener.onMessage(this.request("train-1", "delta-3", ContentTransfer.formatRanges(missingParts)));
+		
+		assertEquals(2, this.sent.size());
+		assertEquals(0, this.sent.get(0).getIntProperty(ContentTransfer.PART_INDEX));
+		assertEquals(2, this.sent.get(1).getIntProperty(ContentTransfer.PART_INDEX));
+		for (final Message part : this.sent) {
+			assertEquals("delta-3", part.getStringProperty(ContentTransfer.TRANSFER_ID));
+			assertEquals("3", part.getStringProperty(ContentTransfer.CONTENT_VERSION));
+			assertEquals("2", part.getStringProperty(ContentTransfer.CONTENT_BASE_VERSION));
+			assertEquals(ContentTransfer.formatTargets(Collections.singletonList("train-1")), part.getStringProperty(ContentTransfer.TARGETS));
+		}
+	}
+	
+	public void testSkipsIncompleteAndUnknownRequests() throws JMSException {
+		this.listener.onMessage(this.request("train-1", "delta-3", null));
+		this.listener.onMessage(this.request("train-1", "unknown", "0"));
+		assertEquals(0, this.sent.size());
+	}
+	
+	private Message request(final String trainId, final String transferId, final String missingParts) throws JMSException {
+		final Message request = new ActiveMQMessage();
+		request.setStringProperty(ContentTransfer.TRAIN_ID, trainId);
+		request.setStringProperty(ContentTransfer.TRANSFER_ID, transferId);
+		if (missingParts != null) {
+			request.setStringProperty(ContentTransfer.MISSING_PARTS, missingParts);
+		}
+		return request;
+	}
+	
+}
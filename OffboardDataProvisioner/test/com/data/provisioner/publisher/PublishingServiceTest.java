@@ -0,0 +1,27 @@
+package com.data.provisioner.publisher;
+
+import java.nio.file.Paths;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for the selection of the uploads {@link PublishingService} publishes as a delta.
+ */
+public class PublishingServiceTest extends TestCase {
+	
+	private final PublishedContent currentContent = new PublishedContent("transfer-6", Paths.get("transfer-6.zip"), "6", null);
+	
+	public void testPublishesNewVersionOfCurrentContentAsDelta() {
+		assertTrue(PublishingService.isDeltaCandidate(50, "7", null, this.currentContent));
+	}
+	
+	public void testPublishesOtherUploadsAsTheyAre() {
+		assertFalse(PublishingService.isDeltaCandidate(0, "7", null, this.currentContent));
+		assertFalse(PublishingService.isDeltaCandidate(50, "7", "6", this.currentContent));
+		assertFalse(PublishingService.isDeltaCandidate(50, null, null, this.currentContent));
+		assertFalse(PublishingService.isDeltaCandidate(50, "6", null, this.currentContent));
+		assertFalse(PublishingService.isDeltaCandidate(50, "7", null, null));
+		assertFalse(PublishingService.isDeltaCandidate(50, "7", null, new PublishedContent("transfer-5", Paths.get("transfer-5.zip"), null, null)));
+	}
+	
+}
@@ -0,0 +1,64 @@
+package com.data.provisioner.publisher;
+
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for the wave accounting of {@link Rollout}.
+ */
+public class RolloutTest extends TestCase {
+	
+	public void testCountsRejectedAndMissingAcknowledgements() throws InterruptedException {
+		final Rollout rollout = this.rollout(Arrays.asList("train-1", "train-2", "train-3", ContentTransfer.GROUP_PREFIX + "depot"));
+		rollout.acknowledge("train-1", ContentTransfer.STATUS_COMMITTED);
+		rollout.acknowledge("train-2", ContentTransfer.STATUS_REJECTED);
+		assertEquals(2, rollout.awaitWave(0, System.currentTimeMillis() + 50L));
+		
+		rollout.acknowledge("train-3", ContentTransfer.STATUS_COMMITTED);
+		rollout.acknowledge("train-2", ContentTransfer.STATUS_COMMITTED);
+		assertEquals(0, rollout.awaitWave(0, System.currentTimeMillis() + 50L));
+	}
+	
+	public void testReturnsOnceAllTrainsAcknowledged() throws InterruptedException {
+		final Rollout rollout = this.rollout(Arrays.asList("train-1", "train-2"));
+		rollout.acknowledge("train-1", ContentTransfer.STATUS_COMMITTED);
+		final Thread acknowledging = new Thread(() -> {
+			try {
+				Thread.sleep(50L);
+			} catch (InterruptedException exception) {
+				Thread.currentThread().interrupt();
+			}
+			rollout.acknowledge("train-2", ContentTransfer.STATUS_REJECTED);
+		});
+		acknowledging.start();
+		final long started = System.currentTimeMillis();
+		assertEquals(1, rollout.awaitWave(0, started + 30000L));
+		assertTrue(System.currentTimeMillis() - started < 10000L);
+		acknowledging.join();
+	}
+	
+	public void testWaitsForTheTimeoutOfGroupWave() throws InterruptedException {
+		final Rollout rollout = this.rollout(Collections.singletonList(ContentTransfer.GROUP_PREFIX + "depot"));
+		final long started = System.currentTimeMillis();
+		assertEquals(0, rollout.awaitWave(0, started + 100L));
+		assertTrue(System.currentTimeMillis() - started >= 100L);
+	}
+	
+	public void testIgnoresTrainsOfOtherWaves() throws InterruptedException {
+		final Rollout rollout = new Rollout(
+			"transfer-1", Paths.get("transfer-1.zip"), "7", null, Arrays.asList(Arrays.asList("train-1"), Arrays.asList("train-2")), 4, 0L
+		);
+		rollout.acknowledge("train-1", ContentTransfer.STATUS_COMMITTED);
+		assertEquals(0, rollout.awaitWave(0, System.currentTimeMillis() + 50L));
+		assertEquals(1, rollout.awaitWave(1, System.currentTimeMillis() + 50L));
+	}
+	
+	private Rollout rollout(final List<String> wave) {
+		return new Rollout("transfer-1", Paths.get("transfer-1.zip"), "7", null, Collections.singletonList(wave), 4, 0L);
+	}
+	
+}
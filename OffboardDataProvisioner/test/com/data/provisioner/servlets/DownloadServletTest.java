@@ -0,0 +1,50 @@
+package com.data.provisioner.servlets;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for the Range and If-None-Match handling of {@link DownloadServlet}.
+ */
+public class DownloadServletTest extends TestCase {
+	
+	private static final long SIZE = 1000L;
+	
+	public void testSendsPartOfTheArchiveForSingleRange() {
+		DownloadServletTest.assertRange(0L, 99L, DownloadServlet.byteRange("bytes=0-99", DownloadServletTest.SIZE));
+		DownloadServletTest.assertRange(100L, 999L, DownloadServlet.byteRange("bytes=100-", DownloadServletTest.SIZE));
+		DownloadServletTest.assertRange(990L, 999L, DownloadServlet.byteRange("bytes=990-2000", DownloadServletTest.SIZE));
+		DownloadServletTest.assertRange(900L, 999L, DownloadServlet.byteRange("bytes=-100", DownloadServletTest.SIZE));
+		DownloadServletTest.assertRange(0L, 999L, DownloadServlet.byteRange("bytes=-5000", DownloadServletTest.SIZE));
+	}
+	
+	public void testRefusesRangeAfterTheArchive() {
+		assertEquals(0, DownloadServlet.byteRange("bytes=1000-", DownloadServletTest.SIZE).length);
+		assertEquals(0, DownloadServlet.byteRange("bytes=2000-2100", DownloadServletTest.SIZE).length);
+		assertEquals(0, DownloadServlet.byteRange("bytes=-0", DownloadServletTest.SIZE).length);
+		assertEquals(0, DownloadServlet.byteRange("bytes=-10", 0L).length);
+	}
+	
+	public void testSendsWholeArchiveForOtherRanges() {
+		assertNull(DownloadServlet.byteRange(null, DownloadServletTest.SIZE));
+		assertNull(DownloadServlet.byteRange("items=0-99", DownloadServletTest.SIZE));
+		assertNull(DownloadServlet.byteRange("bytes=0-9,20-29", DownloadServletTest.SIZE));
+		assertNull(DownloadServlet.byteRange("bytes=99-0", DownloadServletTest.SIZE));
+		assertNull(DownloadServlet.byteRange("bytes=10", DownloadServletTest.SIZE));
+		assertNull(DownloadServlet.byteRange("bytes=ten-", DownloadServletTest.SIZE));
+	}
+	
+	public void testMatchesListedEntityTags() {
+		assertFalse(DownloadServlet.matches(null, "\"transfer-1\""));
+		assertTrue(DownloadServlet.matches("\"transfer-1\"", "\"transfer-1\""));
+		assertTrue(DownloadServlet.matches("\"transfer-0\", W/\"transfer-1\"", "\"transfer-1\""));
+		assertTrue(DownloadServlet.matches("*", "\"transfer-1\""));
+		assertFalse(DownloadServlet.matches("\"transfer-0\", W/\"7\"", "\"transfer-1\""));
+	}
+	
+	private static void assertRange(final long first, final long last, final long[] range) {
+		assertTrue(Arrays.toString(range), Arrays.equals(new long[] {first, last}, range));
+	}
+	
+}
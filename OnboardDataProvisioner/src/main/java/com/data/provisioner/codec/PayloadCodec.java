@@ -0,0 +1,66 @@
+package com.data.provisioner.codec;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageFormatException;
+
+/**
+ * Codec of a message payload, carried in the message properties. A message without the codec property is not encoded.
+ * <p>
+ * Deflated payloads are zlib streams. The publisher can compress them with a preset dictionary, which the stream
+ * identifies by its Adler-32 - the decoder picks the dictionary by that id, so no other property is needed.
+ * <p>
+ * The same names are used by the offboard encoder, so they must be kept in sync.
+ */
+public enum PayloadCodec {
+	
+	/**
+	 * The payload is carried as it is.
+	 */
+	NONE("none"),
+	
+	/**
+	 * The payload is a zlib stream, optionally compressed with a preset dictionary.
+	 */
+	DEFLATE("deflate");
+	
+	/**
+	 * Id of the codec (String).
+	 */
+	public static final String CODEC = "payloadCodec";
+	
+	/**
+	 * Size of the decoded payload (in bytes) (int).
+	 */
+	public static final String DECODED_SIZE = "payloadSize";
+	
+	private final String id;
+	
+	private PayloadCodec(final String id) {
+		this.id = id;
+	}
+	
+	public String getId() {
+		return this.id;
+	}
+	
+	/**
+	 * @param message the received message.
+	 * @return the codec of the message payload.
+	 * @throws MessageFormatException when the codec isn't supported.
+	 * @throws JMSException when the property can't be read.
+	 */
+	public static PayloadCodec of(final Message message) throws JMSException {
+		final String id = message.getStringProperty(PayloadCodec.CODEC);
+		if (id == null) {
+			return PayloadCodec.NONE;
+		}
+		for (final PayloadCodec codec : PayloadCodec.values()) {
+			if (codec.id.equals(id)) {
+				return codec;
+			}
+		}
+		throw new MessageFormatException("Payload codec " + id + " of message " + message.getJMSMessageID() + " isn't supported.");
+	}
+	
+}
@@ -0,0 +1,274 @@
+package com.data.provisioner.codec;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import javax.jms.MessageFormatException;
+
+import org.apache.activemq.command.ActiveMQBytesMessage;
+import org.apache.activemq.util.ByteSequence;
+
+/**
+ * Decodes the message payloads encoded by the offboard publisher (see {@link PayloadCodec}).
+ * <p>
+ * An {@link Inflater} holds about 40 KiB of native memory, which is released only when it's ended. The decoder keeps
+ * a small pool of them, so decoding a message neither allocates nor waits for the finalization of the previous one.
+ * The decoder is thread safe and meant to be shared by all the topics.
+ */
+public final class PayloadDecoder {
+	
+	/**
+	 * Maximum number of idle inflaters kept in the pool.
+	 */
+	private static final int POOL_SIZE = 8;
+	
+	/**
+	 * Maximum decoded size (in bytes) of a payload decoded whole - 64 MiB. Larger payloads must be streamed.
+	 */
+	static final int MAX_DECODED_SIZE = 64 * 1024 * 1024;
+	
+	/**
+	 * Size (in bytes) of the buffer the compressed stream is read with.
+	 */
+	private static final int INPUT_BUFFER_SIZE = 16 * 1024;
+	
+	private final BlockingQueue<Inflater> inflaters = new ArrayBlockingQueue<>(PayloadDecoder.POOL_SIZE);
+	
+	/**
+	 * Preset dictionaries by their Adler-32.
+	 */
+	private final Map<Integer, byte[]> dictionaries = new ConcurrentHashMap<>();
+	
+	/**
+	 * Adds the preset dictionary the publisher compresses with.
+	 * @param dictionary the dictionary.
+	 * @return id of the dictionary, its Adler-32.
+	 */
+	public int addDictionary(final byte[] dictionary) {
+		final Adler32 adler = new Adler32();
+		adler.update(dictionary, 0, dictionary.length);
+		final int id = (int) adler.getValue();
+		this.dictionaries.put(id, dictionary.clone());
+		return id;
+	}
+	
+	/**
+	 * Adds all the {@code .dict} files of the directory as preset dictionaries.
+	 * @param directory the directory, nothing is added when it doesn't exist.
+	 * @return the number of added dictionaries.
+	 * @throws IOException when a dictionary can't be read.
+	 */
+	public int loadDictionaries(final Path directory) throws IOException {
+		if (!Files.isDirectory(directory)) {
+			return 0;
+		}
+		int loaded = 0;
+		try (final DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.dict")) {
+			for (final Path file : files) {
+				this.addDictionary(Files.readAllBytes(file));
+				loaded++;
+			}
+		}
+		return loaded;
+	}
+	
+	/**
+	 * Returns the decoded payload of the message. A payload which isn't encoded is returned without a copy.
+	 * @param message the received message.
+	 * @return the decoded payload.
+	 * @throws MessageFormatException when the codec isn't supported or the declared size is invalid.
+	 * @throws JMSException when the message can't be read.
+	 * @throws IOException when the payload isn't valid.
+	 */
+	public ByteSequence payload(final ActiveMQBytesMessage message) throws JMSException, IOException {
+		if (PayloadCodec.of(message) == PayloadCodec.NONE) {
+			return message.getContent();
+		}
+		return new ByteSequence(this.decode(message));
+	}
+	
+	/**
+	 * Reads the body of the message and decodes it whole.
+	 * @param message the received message.
+	 * @return the decoded payload.
+	 * @throws MessageFormatException when the codec isn't supported or the declared size is invalid.
+	 * @throws JMSException when the message can't be read.
+	 * @throws IOException when the payload isn't valid.
+	 */
+	public byte[] decode(final BytesMessage message) throws JMSException, IOException {
+		final PayloadCodec codec = PayloadCodec.of(message);
+		final byte[] body;
+		int offset = 0;
+		int length;
+		if (message instanceof ActiveMQBytesMessage) {
+			final ByteSequence content = ((ActiveMQBytesMessage) message).getContent();
+			body = content.getData();
+			offset = content.getOffset();
+			length = content.getLength();
+		} else {
+			if (message.getBodyLength() > PayloadDecoder.MAX_DECODED_SIZE) {
+				throw new MessageFormatException("Payload of message " + message.getJMSMessageID() + " is too large to be decoded whole.");
+			}
+			body = new byte[(int) message.getBodyLength()];
+			length = body.length == 0 ? 0 : message.readBytes(body);
+		}
+		if (codec == PayloadCodec.NONE) {
+			final byte[] payload = new byte[length];
+			System.arraycopy(body, offset, payload, 0, length);
+			return payload;
+		}
+		final int decodedSize = message.propertyExists(PayloadCodec.DECODED_SIZE) ? message.getIntProperty(PayloadCodec.DECODED_SIZE) : -1;
+		if (decodedSize < 0 || decodedSize > PayloadDecoder.MAX_DECODED_SIZE) {
+			throw new MessageFormatException("Decoded size " + decodedSize + " of message " + message.getJMSMessageID() + " is invalid.");
+		}
+		return this.decode(body, offset, length, decodedSize);
+	}
+	
+	/**
+	 * Inflates the whole payload.
+	 * @param payload the buffer with the zlib stream.
+	 * @param offset offset of the stream in the buffer.
+	 * @param length length of the stream.
+	 * @param decodedSize the declared size of the decoded payload.
+	 * @return the decoded payload.
+	 * @throws IOException when the stream isn't valid, needs an unknown dictionary or doesn't match the declared size.
+	 */
+	public byte[] decode(final byte[] payload, final int offset, final int length, final int decodedSize) throws IOException {
+		final byte[] decoded = new byte[decodedSize];
+		final Inflater inflater = this.acquire();
+		try {
+			inflater.setInput(payload, offset, length);
+			int position = 0;
+			while (!inflater.finished()) {
+				final int inflated = this.inflate(inflater, decoded, position, decoded.length - position);
+				if (inflated == 0 && !inflater.finished()) {
+					throw new IOException(inflater.needsInput()
+						? "Payload ends before its end of stream."
+						: "Payload is larger than its declared size of " + decodedSize + " bytes.");
+				}
+				position += inflated;
+			}
+			if (position != decodedSize) {
+				throw new IOException("Payload of " + position + " bytes doesn't match its declared size of " + decodedSize + " bytes.");
+			}
+			return decoded;
+		} finally {
+			this.release(inflater);
+		}
+	}
+	
+	/**
+	 * Wraps the stream of an encoded payload, so that the payload is decoded while it's read. It's meant for the payloads
+	 * too large to be decoded whole, like the content archives.
+	 * @param codec the codec of the payload.
+	 * @param payload the encoded payload, closed with the returned stream.
+	 * @return the stream of the decoded payload.
+	 */
+	public InputStream decodingStream(final PayloadCodec codec, final InputStream payload) {
+		return codec == PayloadCodec.NONE ? payload : new InflatingStream(payload, this.acquire());
+	}
+	
+	/**
+	 * Inflates into the buffer, setting the preset dictionary when the stream asks for it.
+	 * @return the number of inflated bytes, 0 when the inflater needs input or is finished.
+	 */
+	private int inflate(final Inflater inflater, final byte[] buffer, final int offset, final int length) throws IOException {
+		try {
+			int inflated;
+			while ((inflated = inflater.inflate(buffer, offset, length)) == 0 && inflater.needsDictionary()) {
+				final byte[] dictionary = this.dictionaries.get(inflater.getAdler());
+				if (dictionary == null) {
+					throw new IOException("Payload dictionary " + Integer.toHexString(inflater.getAdler()) + " is unknown.");
+				}
+				inflater.setDictionary(dictionary);
+			}
+			return inflated;
+		} catch (DataFormatException exception) {
+			throw new IOException("Payload isn't a valid zlib stream.", exception);
+		}
+	}
+	
+	private Inflater acquire() {
+		final Inflater inflater = this.inflaters.poll();
+		return inflater == null ? new Inflater() : inflater;
+	}
+	
+	private void release(final Inflater inflater) {
+		inflater.reset();
+		if (!this.inflaters.offer(inflater)) {
+			inflater.end();
+		}
+	}
+	
+	/**
+	 * Inflates the payload while it's read. The inflater goes back to the pool when the stream is closed.
+	 */
+	private final class InflatingStream extends InputStream {
+		
+		private final InputStream payload;
+		
+		private final byte[] input = new byte[PayloadDecoder.INPUT_BUFFER_SIZE];
+		
+		private final byte[] single = new byte[1];
+		
+		private Inflater inflater;
+		
+		InflatingStream(final InputStream payload, final Inflater inflater) {
+			this.payload = payload;
+			this.inflater = inflater;
+		}
+		
+		@Override
+		public int read() throws IOException {
+			return this.read(this.single, 0, 1) < 0 ? -1 : this.single[0] & 0xFF;
+		}
+		
+		@Override
+		public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+			if (this.inflater == null) {
+				throw new IOException("Payload stream is closed.");
+			}
+			if (length == 0) {
+				return 0;
+			}
+			while (true) {
+				final int inflated = PayloadDecoder.this.inflate(this.inflater, buffer, offset, length);
+				if (inflated > 0) {
+					return inflated;
+				}
+				if (this.inflater.finished()) {
+					return -1;
+				}
+				final int read = this.payload.read(this.input);
+				if (read < 0) {
+					throw new EOFException("Payload ends before its end of stream.");
+				}
+				this.inflater.setInput(this.input, 0, read);
+			}
+		}
+		
+		@Override
+		public void close() throws IOException {
+			if (this.inflater != null) {
+				PayloadDecoder.this.release(this.inflater);
+				this.inflater = null;
+			}
+			this.payload.close();
+		}
+		
+	}
+	
+}
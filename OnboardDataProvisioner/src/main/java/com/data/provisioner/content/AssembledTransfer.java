@@ -0,0 +1,53 @@
+package com.data.provisioner.content;
+
+import java.nio.file.Path;
+
+/**
+ * Multi-part transfer assembled by the {@link ContentAssembler}, with the versions recorded when its first part arrived.
+ */
+public final class AssembledTransfer {
+	
+	private final String transferId;
+	
+	private final Path archive;
+	
+	private final String version;
+	
+	private final String baseVersion;
+	
+	AssembledTransfer(final String transferId, final Path archive, final String version, final String baseVersion) {
+		this.transferId = transferId;
+		this.archive = archive;
+		this.version = version;
+		this.baseVersion = baseVersion;
+	}
+	
+	/**
+	 * @return the transfer id.
+	 */
+	public String getTransferId() {
+		return this.transferId;
+	}
+	
+	/**
+	 * @return the assembled archive.
+	 */
+	public Path getArchive() {
+		return this.archive;
+	}
+	
+	/**
+	 * @return the content version, null when it's unknown.
+	 */
+	public String getVersion() {
+		return this.version;
+	}
+	
+	/**
+	 * @return the version a delta archive was computed against, null for a full archive.
+	 */
+	public String getBaseVersion() {
+		return this.baseVersion;
+	}
+	
+}
@@ -0,0 +1,596 @@
+package com.data.provisioner.content;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageFormatException;
+
+/**
+ * Reassembles multi-part content transfers (see {@link ContentTransfer}) into sparse files on disk.
+ * <p>
+ * Every received part is written at its own offset and recorded in a bitmap next to the partial file.
+ * Both survive a reconnect or a restart of the train, so only the missing parts have to be sent again.
+ * The content versions of the transfer are recorded with the first part, the parts sent again may arrive last.
+ * A part is written only within its own region, a longer body is discarded before it reaches the next part.
+ * <p>
+ * Up to {@link #MAX_TRANSFERS} transfers are assembled at once, each in its own slot, so parts of concurrent transfers
+ * and resent parts of an older transfer don't abandon each other. A new transfer takes the slot of the transfer
+ * begun first when all slots are taken. A completed transfer abandons the transfers begun before it, their content
+ * is older than the one just completed.
+ * <p>
+ * The partial files and the bitmaps are flushed every {@link #FLUSH_INTERVAL} parts instead of after every part,
+ * the data first, so the bitmap on disk never claims a part that isn't. A power cut loses at most the parts received
+ * since the last flush, they are requested again.
+ * <p>
+ * Not thread safe - parts are expected to be delivered by a single consumer session.
+ */
+public class ContentAssembler implements Closeable {
+	
+	/**
+	 * The logger.
+	 */
+	private static final Logger LOGGER = Logger.getLogger(ContentAssembler.class.getName());
+	
+	/**
+	 * Marks the beginning of a state file ("DPA2").
+	 */
+	private static final int STATE_MAGIC = 0x44504132;
+	
+	/**
+	 * Number of the transfers assembled at once.
+	 */
+	public static final int MAX_TRANSFERS = 4;
+	
+	/**
+	 * Number of the parts received between the flushes of a partial archive and its bitmap.
+	 */
+	static final int FLUSH_INTERVAL = 16;
+	
+	/**
+	 * Where the partial archives and their state are kept.
+	 */
+	private final Path directory;
+	
+	/**
+	 * The archive file name, the slot number is appended to it.
+	 */
+	private final String name;
+	
+	/**
+	 * Streams part bodies to disk.
+	 */
+	private final ContentStreamer contentStreamer;
+	
+	/**
+	 * Checksum of the part being written.
+	 */
+	private final CRC32 checksum = new CRC32();
+	
+	/**
+	 * The transfers in progress by their ids, in the order they began.
+	 */
+	private final Map<String, PartialTransfer> transfers = new LinkedHashMap<>();
+	
+	/**
+	 * Creates assembler for the given archive and resumes the transfers left in the directory, if any.
+	 * @param directory where the partial archives and their state are kept.
+	 * @param name the archive file name.
+	 * @param contentStreamer streams part bodies to disk.
+	 * @throws IOException when the existing state can't be read.
+	 */
+	public ContentAssembler(final Path directory, final String name, final ContentStreamer contentStreamer) throws IOException {
+		this.directory = directory;
+		this.name = name;
+		this.contentStreamer = contentStreamer;
+		Files.createDirectories(directory);
+		this.loadState();
+	}
+	
+	/**
+	 * Checks if the message is a part of a multi-part transfer.
+	 * @param message the received message.
+	 * @return true when the message carries the part headers.
+	 * @throws JMSException
+	 */
+	public static boolean isPart(final Message message) throws JMSException {
+		return message.propertyExists(ContentTransfer.PART_COUNT);
+	}
+	
+	/**
+	 * Writes the part to the partial archive of its transfer.
+	 * @param message a part of a transfer.
+	 * @return the assembled transfer when the part completed it, null otherwise.
+	 * The caller must move the archive away before the next part is accepted.
+	 * @throws JMSException when the part headers are invalid or the body can't be read.
+	 * @throws IOException when the partial archive can't be written.
+	 */
+	public AssembledTransfer accept(final Message message) throws JMSException, IOException {
+		final String partTransferId = message.getStringProperty(ContentTransfer.TRANSFER_ID);
+		final int partIndex = message.getIntProperty(ContentTransfer.PART_INDEX);
+		final int partsInTransfer = message.getIntProperty(ContentTransfer.PART_COUNT);
+		final int nominalPartSize = message.getIntProperty(ContentTransfer.PART_SIZE);
+		final long archiveSize = message.getLongProperty(ContentTransfer.TOTAL_SIZE);
+		final long partChecksum = message.getLongProperty(ContentTransfer.PART_CHECKSUM);
+		final String version = message.getStringProperty(ContentTransfer.CONTENT_VERSION);
+		final String baseVersion = message.getStringProperty(ContentTransfer.CONTENT_BASE_VERSION);
+		if (partTransferId == null || partsInTransfer <= 0 || nominalPartSize <= 0 || archiveSize < 0L
+				|| (long) partsInTransfer * nominalPartSize < archiveSize || partIndex < 0 || partIndex >= partsInTransfer) {
+			throw new MessageFormatException("Invalid content part " + partIndex + "/" + partsInTransfer + " of transfer " + partTransferId + ".");
+		}
+		
+		PartialTransfer transfer = this.transfers.get(partTransferId);
+		if (transfer == null) {
+			transfer = this.begin(partTransferId, partsInTransfer, nominalPartSize, archiveSize, version, baseVersion);
+		} else if (partsInTransfer != transfer.partCount || nominalPartSize != transfer.partSize || archiveSize != transfer.totalSize) {
+			throw new MessageFormatException("Content part " + partIndex + " doesn't match the layout of transfer " + partTransferId + ".");
+		}
+		
+		if (transfer.receivedParts.get(partIndex)) {
+			// A duplicate, rewriting the region could only damage the part on disk.
+			return null;
+		}
+		
+		final long offset = (long) partIndex * transfer.partSize;
+		final long expectedLength = Math.min(transfer.partSize, transfer.totalSize - offset);
+		this.checksum.reset();
+		transfer.partialChannel.position(offset);
+		final long written;
+		try {
+			written = this.contentStreamer.transfer(message, new PartChannel(transfer.partialChannel, this.checksum, expectedLength));
+		} catch (PartOverflowException exception) {
+			ContentAssembler.LOGGER.log(Level.WARNING, "Discarding oversized part {0}", partIndex + " of transfer " + partTransferId + ".");
+			return null;
+		}
+		if (written != expectedLength || this.checksum.getValue() != partChecksum) {
+			ContentAssembler.LOGGER.log(Level.WARNING, "Discarding corrupted part {0}", partIndex + " of transfer " + partTransferId + ".");
+			return null;
+		}
+		transfer.markReceived(partIndex);
+		
+		if (transfer.receivedParts.cardinality() < transfer.partCount) {
+			return null;
+		}
+		transfer.partialChannel.force(true);
+		this.transfers.remove(partTransferId);
+		transfer.discardState();
+		
+		final Iterator<PartialTransfer> others = this.transfers.values().iterator();
+		while (others.hasNext()) {
+			final PartialTransfer other = others.next();
+			if (other.started < transfer.started) {
+				ContentAssembler.LOGGER.log(Level.INFO, "Abandoning incomplete transfer {0}", other.transferId + " begun before the completed " + partTransferId + ".");
+				others.remove();
+				other.abandon();
+			}
+		}
+		return new AssembledTransfer(partTransferId, transfer.partialPath, transfer.version, transfer.baseVersion);
+	}
+	
+	/**
+	 * @return ids of the transfers in progress, in the order they began.
+	 */
+	public Set<String> getTransferIds() {
+		return Collections.unmodifiableSet(this.transfers.keySet());
+	}
+	
+	/**
+	 * @param transferId id of a transfer in progress.
+	 * @return the parts of the transfer that weren't received yet, none when the transfer isn't in progress.
+	 */
+	public BitSet getMissingParts(final String transferId) {
+		final PartialTransfer transfer = this.transfers.get(transferId);
+		final BitSet missingParts = new BitSet();
+		if (transfer != null) {
+			missingParts.set(0, transfer.partCount);
+			missingParts.andNot(transfer.receivedParts);
+		}
+		return missingParts;
+	}
+	
+	/**
+	 * Flushes and closes the open files. The state of the transfers in progress stays on disk.
+	 */
+	@Override
+	public void close() throws IOException {
+		IOException failure = null;
+		for (final PartialTransfer transfer : this.transfers.values()) {
+			try {
+				transfer.close();
+			} catch (IOException exception) {
+				failure = exception;
+			}
+		}
+		this.transfers.clear();
+		if (failure != null) {
+			throw failure;
+		}
+	}
+	
+	/**
+	 * Starts a new transfer in a free slot, abandoning the transfer begun first when there is none.
+	 */
+	private PartialTransfer begin(
+		final String newTransferId, final int newPartCount, final int newPartSize, final long newTotalSize, final String newVersion, final String newBaseVersion
+	) throws IOException {
+		if (this.transfers.size() >= ContentAssembler.MAX_TRANSFERS) {
+			final PartialTransfer first = this.transfers.values().iterator().next();
+			ContentAssembler.LOGGER.log(Level.INFO, "Abandoning incomplete transfer {0}", first.transferId + " in favour of " + newTransferId + ".");
+			this.transfers.remove(first.transferId);
+			first.abandon();
+		}
+		int slot = 0;
+		while (this.isTaken(slot)) {
+			slot++;
+		}
+		long started = System.currentTimeMillis();
+		for (final PartialTransfer transfer : this.transfers.values()) {
+			started = Math.max(started, transfer.started + 1L);
+		}
+		final PartialTransfer transfer = new PartialTransfer(this.partialPath(slot), this.statePath(slot), slot);
+		try {
+			transfer.begin(newTransferId, newPartCount, newPartSize, newTotalSize, newVersion, newBaseVersion, started);
+		} catch (IOException exception) {
+			transfer.abandon();
+			throw exception;
+		}
+		this.transfers.put(newTransferId, transfer);
+		return transfer;
+	}
+	
+	private boolean isTaken(final int slot) {
+		for (final PartialTransfer transfer : this.transfers.values()) {
+			if (transfer.slot == slot) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private Path partialPath(final int slot) {
+		return this.directory.resolve(this.name + "." + slot + ".part");
+	}
+	
+	private Path statePath(final int slot) {
+		return this.directory.resolve(this.name + "." + slot + ".parts");
+	}
+	
+	/**
+	 * Loads the transfers left by a previous run. Unreadable state is discarded and its transfer starts over.
+	 */
+	private void loadState() throws IOException {
+		final List<PartialTransfer> loaded = new ArrayList<>();
+		for (int slot = 0; slot < ContentAssembler.MAX_TRANSFERS; slot++) {
+			final PartialTransfer transfer = new PartialTransfer(this.partialPath(slot), this.statePath(slot), slot);
+			if (!Files.exists(transfer.statePath) || !Files.exists(transfer.partialPath)) {
+				transfer.abandon();
+				continue;
+			}
+			try {
+				transfer.load();
+				loaded.add(transfer);
+				ContentAssembler.LOGGER.log(Level.INFO, "Resuming transfer {0}", transfer.transferId + " with " + transfer.receivedParts.cardinality() + "/" + transfer.partCount + " parts received.");
+			} catch (IOException | RuntimeException exception) {
+				ContentAssembler.LOGGER.log(Level.WARNING, "Discarding unreadable transfer state. Reason: {0}", exception.toString());
+				transfer.abandon();
+			}
+		}
+		loaded.sort((first, second) -> Long.compare(first.started, second.started));
+		for (final PartialTransfer transfer : loaded) {
+			final PartialTransfer duplicate = this.transfers.put(transfer.transferId, transfer);
+			if (duplicate != null) {
+				duplicate.abandon();
+			}
+		}
+	}
+	
+	/**
+	 * A transfer in progress, assembled in its own slot.
+	 */
+	private static final class PartialTransfer {
+		
+		/**
+		 * The partially assembled archive.
+		 */
+		private final Path partialPath;
+		
+		/**
+		 * The state (transfer header and bitmap of the received parts) of the partial archive.
+		 */
+		private final Path statePath;
+		
+		private final int slot;
+		
+		private String transferId = null;
+		
+		private int partCount = 0;
+		
+		private int partSize = 0;
+		
+		private long totalSize = 0L;
+		
+		/**
+		 * The content version, null when it's unknown.
+		 */
+		private String version = null;
+		
+		/**
+		 * The version a delta archive was computed against, null for a full archive.
+		 */
+		private String baseVersion = null;
+		
+		/**
+		 * When (in milliseconds since the epoch) the first part was received, unique among the transfers in progress.
+		 */
+		private long started = 0L;
+		
+		/**
+		 * The parts written to the partial archive so far.
+		 */
+		private BitSet receivedParts = new BitSet();
+		
+		/**
+		 * Position of the bitmap in the state file.
+		 */
+		private long bitmapOffset = 0L;
+		
+		/**
+		 * Number of the parts received since the last flush.
+		 */
+		private int unflushedParts = 0;
+		
+		private FileChannel partialChannel = null;
+		
+		private FileChannel stateChannel = null;
+		
+		PartialTransfer(final Path partialPath, final Path statePath, final int slot) {
+			this.partialPath = partialPath;
+			this.statePath = statePath;
+			this.slot = slot;
+		}
+		
+		/**
+		 * Creates the sparse partial archive and the state with an empty bitmap.
+		 */
+		void begin(
+			final String newTransferId, final int newPartCount, final int newPartSize, final long newTotalSize,
+			final String newVersion, final String newBaseVersion, final long newStarted
+		) throws IOException {
+			this.partialChannel = FileChannel.open(this.partialPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+			if (newTotalSize > 0L) {
+				// Extending the file with a single byte at the end leaves the rest of it sparse.
+				this.partialChannel.write(ByteBuffer.allocate(1), newTotalSize - 1L);
+			}
+			
+			final byte[] id = newTransferId.getBytes(StandardCharsets.UTF_8);
+			final byte[] versionBytes = newVersion == null ? null : newVersion.getBytes(StandardCharsets.UTF_8);
+			final byte[] baseVersionBytes = newBaseVersion == null ? null : newBaseVersion.getBytes(StandardCharsets.UTF_8);
+			final ByteBuffer header = ByteBuffer.allocate(
+				4 + 4 + id.length + 4 + 4 + 8 + 8 + 4 + (versionBytes == null ? 0 : versionBytes.length) + 4 + (baseVersionBytes == null ? 0 : baseVersionBytes.length)
+			);
+			header.putInt(ContentAssembler.STATE_MAGIC).putInt(id.length).put(id).putInt(newPartCount).putInt(newPartSize).putLong(newTotalSize).putLong(newStarted);
+			PartialTransfer.putString(header, versionBytes);
+			PartialTransfer.putString(header, baseVersionBytes);
+			header.flip();
+			this.stateChannel = FileChannel.open(this.statePath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+			while (header.hasRemaining()) {
+				this.stateChannel.write(header);
+			}
+			this.stateChannel.write(ByteBuffer.allocate((newPartCount + 7) / 8));
+			this.stateChannel.force(true);
+			
+			this.transferId = newTransferId;
+			this.partCount = newPartCount;
+			this.partSize = newPartSize;
+			this.totalSize = newTotalSize;
+			this.version = newVersion;
+			this.baseVersion = newBaseVersion;
+			this.started = newStarted;
+			this.receivedParts = new BitSet(newPartCount);
+			this.bitmapOffset = header.capacity();
+		}
+		
+		/**
+		 * Reads the state left by a previous run and opens the files.
+		 */
+		void load() throws IOException {
+			final ByteBuffer state = ByteBuffer.wrap(Files.readAllBytes(this.statePath));
+			if (state.getInt() != ContentAssembler.STATE_MAGIC) {
+				throw new IOException("Unknown state file format.");
+			}
+			final byte[] id = new byte[state.getInt()];
+			state.get(id);
+			final int storedPartCount = state.getInt();
+			final int storedPartSize = state.getInt();
+			final long storedTotalSize = state.getLong();
+			final long storedStarted = state.getLong();
+			final String storedVersion = PartialTransfer.getString(state);
+			final String storedBaseVersion = PartialTransfer.getString(state);
+			final int storedBitmapOffset = state.position();
+			final byte[] bitmap = new byte[(storedPartCount + 7) / 8];
+			state.get(bitmap);
+			
+			this.partialChannel = FileChannel.open(this.partialPath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			this.stateChannel = FileChannel.open(this.statePath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			this.transferId = new String(id, StandardCharsets.UTF_8);
+			this.partCount = storedPartCount;
+			this.partSize = storedPartSize;
+			this.totalSize = storedTotalSize;
+			this.version = storedVersion;
+			this.baseVersion = storedBaseVersion;
+			this.started = storedStarted;
+			this.receivedParts = BitSet.valueOf(bitmap);
+			this.bitmapOffset = storedBitmapOffset;
+		}
+		
+		/**
+		 * Records the part in the bitmap, flushing every {@link ContentAssembler#FLUSH_INTERVAL} parts.
+		 */
+		void markReceived(final int partIndex) throws IOException {
+			this.receivedParts.set(partIndex);
+			if (++this.unflushedParts >= ContentAssembler.FLUSH_INTERVAL && this.receivedParts.cardinality() < this.partCount) {
+				this.flush();
+			}
+		}
+		
+		/**
+		 * Writes the bitmap to the state file. The part data is flushed first, so the bitmap never claims a part that isn't on disk.
+		 */
+		private void flush() throws IOException {
+			this.partialChannel.force(false);
+			final ByteBuffer bitmap = ByteBuffer.allocate((this.partCount + 7) / 8);
+			bitmap.put(this.receivedParts.toByteArray());
+			bitmap.clear();
+			long position = this.bitmapOffset;
+			while (bitmap.hasRemaining()) {
+				position += this.stateChannel.write(bitmap, position);
+			}
+			this.stateChannel.force(false);
+			this.unflushedParts = 0;
+		}
+		
+		/**
+		 * Flushes and closes the files.
+		 */
+		void close() throws IOException {
+			try {
+				if (this.unflushedParts > 0 && this.partialChannel != null && this.stateChannel != null) {
+					this.flush();
+				}
+			} finally {
+				this.closeChannels();
+			}
+		}
+		
+		/**
+		 * Closes the files and deletes the state, the assembled archive is left to the caller.
+		 */
+		void discardState() throws IOException {
+			this.closeChannels();
+			Files.deleteIfExists(this.statePath);
+		}
+		
+		/**
+		 * Closes the files and deletes both the state and the partial archive.
+		 */
+		void abandon() throws IOException {
+			this.discardState();
+			Files.deleteIfExists(this.partialPath);
+		}
+		
+		/**
+		 * Writes the length of the string (-1 for null) and its bytes.
+		 */
+		private static void putString(final ByteBuffer buffer, final byte[] bytes) {
+			if (bytes == null) {
+				buffer.putInt(-1);
+			} else {
+				buffer.putInt(bytes.length).put(bytes);
+			}
+		}
+		
+		/**
+		 * Reads a string written by {@link #putString(ByteBuffer, byte[])}.
+		 */
+		private static String getString(final ByteBuffer buffer) {
+			final int length = buffer.getInt();
+			if (length < 0) {
+				return null;
+			}
+			final byte[] bytes = new byte[length];
+			buffer.get(bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+		
+		private void closeChannels() throws IOException {
+			this.unflushedParts = 0;
+			try {
+				if (this.partialChannel != null) {
+					this.partialChannel.close();
+				}
+			} finally {
+				this.partialChannel = null;
+				if (this.stateChannel != null) {
+					this.stateChannel.close();
+				}
+				this.stateChannel = null;
+			}
+		}
+		
+	}
+	
+	/**
+	 * Writes a part to the underlying channel, updating the checksum with everything written. Refuses to write past
+	 * the length of the part.
+	 */
+	private static final class PartChannel implements WritableByteChannel {
+		
+		private final WritableByteChannel channel;
+		
+		private final CRC32 checksum;
+		
+		/**
+		 * Number of the bytes the part may still write.
+		 */
+		private long remaining;
+		
+		PartChannel(final WritableByteChannel channel, final CRC32 checksum, final long length) {
+			this.channel = channel;
+			this.checksum = checksum;
+			this.remaining = length;
+		}
+		
+		@Override
+		public int write(final ByteBuffer source) throws IOException {
+			if (source.remaining() > this.remaining) {
+				throw new PartOverflowException();
+			}
+			final ByteBuffer written = source.duplicate();
+			final int count = this.channel.write(source);
+			written.limit(written.position() + count);
+			this.checksum.update(written);
+			this.remaining -= count;
+			return count;
+		}
+		
+		@Override
+		public boolean isOpen() {
+			return this.channel.isOpen();
+		}
+		
+		@Override
+		public void close() throws IOException {
+			this.channel.close();
+		}
+		
+	}
+	
+	/**
+	 * The part body is longer than the part.
+	 */
+	private static final class PartOverflowException extends IOException {
+		
+		private static final long serialVersionUID = 1L;
+		
+	}
+	
+}
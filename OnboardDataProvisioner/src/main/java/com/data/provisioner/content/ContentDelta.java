@@ -0,0 +1,165 @@
+package com.data.provisioner.content;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Applies delta archives computed by the offboard side against a content archive.
+ * <p>
+ * A delta archive is a zip with the changed and added entries of the new version, a manifest with the base and the new
+ * version and a list of the removed entry names. The names of the manifest and the list are reserved and must be kept in sync
+ * with the offboard publisher.
+ * <p>
+ * A zip can't be patched safely in place, because its central directory is at the end of the file.
+ * The patched archive is therefore written next to the base one entry by entry, copying only what the delta doesn't replace.
+ */
+public class ContentDelta {
+	
+	/**
+	 * Delta manifest entry (properties).
+	 */
+	public static final String MANIFEST_ENTRY = "META-INF/content-delta.properties";
+	
+	/**
+	 * Removed entries list (UTF-8, one name per line).
+	 */
+	public static final String REMOVED_ENTRY = "META-INF/content-delta.removed";
+	
+	/**
+	 * Manifest key of the version the delta was computed against.
+	 */
+	public static final String BASE_VERSION = "baseVersion";
+	
+	/**
+	 * Manifest key of the version the delta produces.
+	 */
+	public static final String VERSION = "version";
+	
+	/**
+	 * The reusable copy buffer.
+	 */
+	private final byte[] buffer;
+	
+	public ContentDelta(final int bufferSize) {
+		this.buffer = new byte[bufferSize];
+	}
+	
+	/**
+	 * Applies the delta.
+	 * @param base the archive the delta was computed against.
+	 * @param baseVersion version of the base archive.
+	 * @param delta the delta archive.
+	 * @param target where the patched archive is written.
+	 * @return the version of the patched archive.
+	 * @throws IOException when the delta doesn't belong to the base version or the archives can't be read or written.
+	 */
+	public String apply(final Path base, final String baseVersion, final Path delta, final Path target) throws IOException {
+		try (
+			final ZipFile baseZip = new ZipFile(base.toFile());
+			final ZipFile deltaZip = new ZipFile(delta.toFile());
+		) {
+			final Properties manifest = this.readManifest(deltaZip);
+			if (!manifest.getProperty(ContentDelta.BASE_VERSION, "").equals(baseVersion)) {
+				throw new IOException("Delta was computed against version " + manifest.getProperty(ContentDelta.BASE_VERSION) + ", but the content is at version " + baseVersion + ".");
+			}
+			final Set<String> removed = this.readRemoved(deltaZip);
+			
+			final Map<String, ZipEntry> replacements = new LinkedHashMap<>();
+			final Enumeration<? extends ZipEntry> deltaEntries = deltaZip.entries();
+			while (deltaEntries.hasMoreElements()) {
+				final ZipEntry entry = deltaEntries.nextElement();
+				if (!ContentDelta.MANIFEST_ENTRY.equals(entry.getName()) && !ContentDelta.REMOVED_ENTRY.equals(entry.getName())) {
+					replacements.put(entry.getName(), entry);
+				}
+			}
+			
+			try (final ZipOutputStream output = new ZipOutputStream(Files.newOutputStream(target))) {
+				final Enumeration<? extends ZipEntry> baseEntries = baseZip.entries();
+				while (baseEntries.hasMoreElements()) {
+					final ZipEntry entry = baseEntries.nextElement();
+					final ZipEntry replacement = replacements.remove(entry.getName());
+					if (replacement != null) {
+						this.copy(deltaZip, replacement, output);
+					} else if (!removed.contains(entry.getName())) {
+						this.copy(baseZip, entry, output);
+					}
+				}
+				for (final ZipEntry added : replacements.values()) {
+					this.copy(deltaZip, added, output);
+				}
+			}
+			return manifest.getProperty(ContentDelta.VERSION);
+		}
+	}
+	
+	private Properties readManifest(final ZipFile deltaZip) throws IOException {
+		final ZipEntry manifestEntry = deltaZip.getEntry(ContentDelta.MANIFEST_ENTRY);
+		if (manifestEntry == null) {
+			throw new IOException("Delta archive has no manifest.");
+		}
+		final Properties manifest = new Properties();
+		try (final InputStream inputStream = deltaZip.getInputStream(manifestEntry)) {
+			manifest.load(inputStream);
+		}
+		return manifest;
+	}
+	
+	private Set<String> readRemoved(final ZipFile deltaZip) throws IOException {
+		final Set<String> removed = new HashSet<>();
+		final ZipEntry removedEntry = deltaZip.getEntry(ContentDelta.REMOVED_ENTRY);
+		if (removedEntry != null) {
+			try (final BufferedReader reader = new BufferedReader(new InputStreamReader(deltaZip.getInputStream(removedEntry), StandardCharsets.UTF_8))) {
+				String name;
+				while ((name = reader.readLine()) != null) {
+					if (!name.isEmpty()) {
+						removed.add(name);
+					}
+				}
+			}
+		}
+		return removed;
+	}
+	
+	/**
+	 * Copies the entry keeping its name, method, time and comment. Deflated entries are compressed again.
+	 */
+	private void copy(final ZipFile source, final ZipEntry entry, final ZipOutputStream output) throws IOException {
+		final ZipEntry copy = new ZipEntry(entry.getName());
+		copy.setMethod(entry.getMethod());
+		copy.setTime(entry.getTime());
+		copy.setComment(entry.getComment());
+		if (entry.getMethod() == ZipEntry.STORED) {
+			copy.setSize(entry.getSize());
+			copy.setCompressedSize(entry.getSize());
+			copy.setCrc(entry.getCrc());
+		}
+		output.putNextEntry(copy);
+		try (final InputStream inputStream = source.getInputStream(entry)) {
+			this.copy(inputStream, output);
+		}
+		output.closeEntry();
+	}
+	
+	private void copy(final InputStream inputStream, final OutputStream outputStream) throws IOException {
+		int read;
+		while ((read = inputStream.read(this.buffer)) != -1) {
+			outputStream.write(this.buffer, 0, read);
+		}
+	}
+	
+}
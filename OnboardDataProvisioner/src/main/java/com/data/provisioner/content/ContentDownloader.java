@@ -0,0 +1,208 @@
+package com.data.provisioner.content;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pulls the current content archive from the offboard provisioner over HTTP, the fallback of the content topic.
+ * <p>
+ * The request carries the version of the current generation and the entity tag of the archive pulled last
+ * in {@code If-None-Match}, so unchanged content costs one request answered 304 without a body. The archive is downloaded
+ * to a partial file in the store directory, its entity tag is written next to it before the body. A download interrupted
+ * by a lost connection or a restart is resumed with a {@code Range} request from the end of the partial file, guarded by
+ * {@code If-Range}, so the whole archive is sent again when the content changed in the meantime. The body is
+ * read at most at the configured rate, so a bulk sync of many trains doesn't saturate the depot network.
+ */
+public class ContentDownloader {
+	
+	/**
+	 * Default download rate (in bytes per second) - 1 MiB/s.
+	 */
+	public static final long DEFAULT_RATE = 1024L * 1024L;
+	
+	/**
+	 * Response header with the version of the current content.
+	 */
+	static final String CONTENT_VERSION_HEADER = "X-Content-Version";
+	
+	/**
+	 * Time (in milliseconds) to connect and to wait for the next bytes of the response. A pull blocked on the network
+	 * fails after it, an interrupt doesn't end a blocked read.
+	 */
+	public static final int TIMEOUT = 30000;
+	
+	/**
+	 * Status of a range starting after the archive, HttpURLConnection has no constant for it.
+	 */
+	private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+	
+	private static final String PARTIAL_FILE = "download.part";
+	
+	private static final String PARTIAL_ENTITY_TAG_FILE = "download.etag";
+	
+	private static final String PULLED_ENTITY_TAG_FILE = "pulled.etag";
+	
+	private final URL url;
+	
+	private final long rate;
+	
+	private final int chunkSize;
+	
+	/**
+	 * @param url address of the current content archive.
+	 * @param rate maximum download rate (in bytes per second), 0 for unlimited.
+	 * @param chunkSize size (in bytes) of the chunks read from the response.
+	 */
+	public ContentDownloader(final URL url, final long rate, final int chunkSize) {
+		if (rate < 0L || chunkSize <= 0) {
+			throw new IllegalArgumentException("Invalid download rate " + rate + " or chunk size " + chunkSize + ".");
+		}
+		this.url = url;
+		this.rate = rate;
+		this.chunkSize = chunkSize;
+	}
+	
+	/**
+	 * Downloads the current content archive, unless it's unchanged, and commits it as the new generation.
+	 * @param contentStore the store.
+	 * @return the committed generation, null when the content is unchanged.
+	 * @throws IOException when the archive can't be downloaded or committed. The downloaded part is kept for resuming
+	 *         unless the archive is invalid.
+	 */
+	public ContentGeneration pull(final ContentStore contentStore) throws IOException {
+		final Path partialFile = contentStore.getDirectory().resolve(ContentDownloader.PARTIAL_FILE);
+		final Path partialEntityTagFile = contentStore.getDirectory().resolve(ContentDownloader.PARTIAL_ENTITY_TAG_FILE);
+		final Path pulledEntityTagFile = contentStore.getDirectory().resolve(ContentDownloader.PULLED_ENTITY_TAG_FILE);
+		final String partialEntityTag = Files.exists(partialFile) ? ContentDownloader.readEntityTag(partialEntityTagFile) : null;
+		final long offset = partialEntityTag == null ? 0L : Files.size(partialFile);
+		
+		final HttpURLConnection connection = (HttpURLConnection) this.url.openConnection();
+		try {
+			connection.setConnectTimeout(ContentDownloader.TIMEOUT);
+			connection.setReadTimeout(ContentDownloader.TIMEOUT);
+			connection.setUseCaches(false);
+			connection.setRequestProperty("Accept-Encoding", "identity");
+			final String ifNoneMatch = ContentDownloader.ifNoneMatch(ContentDownloader.readEntityTag(pulledEntityTagFile), contentStore.getCurrentVersion());
+			if (ifNoneMatch != null) {
+				connection.setRequestProperty("If-None-Match", ifNoneMatch);
+			}
+			if (offset > 0L) {
+				connection.setRequestProperty("Range", "bytes=" + offset + "-");
+				connection.setRequestProperty("If-Range", partialEntityTag);
+			}
+			final int status = connection.getResponseCode();
+			if (status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+				Files.deleteIfExists(partialFile);
+				Files.deleteIfExists(partialEntityTagFile);
+				return null;
+			}
+			final boolean resumed = status == HttpURLConnection.HTTP_PARTIAL && offset > 0L
+				&& String.valueOf(connection.getHeaderField("Content-Range")).startsWith("bytes " + offset + "-");
+			if (status != HttpURLConnection.HTTP_OK && !resumed) {
+				if (status == ContentDownloader.HTTP_RANGE_NOT_SATISFIABLE || status == HttpURLConnection.HTTP_PARTIAL) {
+					// The partial file doesn't fit the archive, the next pull starts over.
+					Files.deleteIfExists(partialEntityTagFile);
+				}
+				throw new IOException("Content download from " + this.url + " failed with status " + status + ".");
+			}
+			final String entityTag = connection.getHeaderField("ETag");
+			if (!resumed) {
+				if (entityTag == null) {
+					Files.deleteIfExists(partialEntityTagFile);
+				} else {
+					Files.write(partialEntityTagFile, entityTag.getBytes(StandardCharsets.UTF_8));
+				}
+			}
+			
+			final long length = connection.getContentLengthLong();
+			final long downloaded;
+			try (
+				final InputStream inputStream = connection.getInputStream();
+				final FileChannel channel = resumed
+					? FileChannel.open(partialFile, StandardOpenOption.WRITE, StandardOpenOption.APPEND)
+					: FileChannel.open(partialFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)
+			) {
+				downloaded = this.copy(inputStream, channel);
+			}
+			if (length >= 0L && downloaded != length) {
+				throw new IOException("Content download from " + this.url + " ended after " + downloaded + " of " + length + " bytes.");
+			}
+			
+			Files.deleteIfExists(partialEntityTagFile);
+			final ContentGeneration generation = contentStore.commit(partialFile, connection.getHeaderField(ContentDownloader.CONTENT_VERSION_HEADER));
+			if (entityTag == null) {
+				Files.deleteIfExists(pulledEntityTagFile);
+			} else {
+				Files.write(pulledEntityTagFile, entityTag.getBytes(StandardCharsets.UTF_8));
+			}
+			return generation;
+		} finally {
+			connection.disconnect();
+		}
+	}
+	
+	/**
+	 * Copies the body to the channel, sleeping whenever it gets ahead of the rate.
+	 * @return number of the bytes copied.
+	 */
+	private long copy(final InputStream inputStream, final FileChannel channel) throws IOException {
+		final byte[] buffer = new byte[this.chunkSize];
+		final long started = System.nanoTime();
+		long copied = 0L;
+		for (int read = inputStream.read(buffer); read >= 0; read = inputStream.read(buffer)) {
+			channel.write(ByteBuffer.wrap(buffer, 0, read));
+			copied += read;
+			if (Thread.currentThread().isInterrupted()) {
+				throw new InterruptedIOException("Content download was interrupted after " + copied + " bytes.");
+			}
+			if (this.rate > 0L) {
+				final long ahead = (long) (copied * (double) TimeUnit.SECONDS.toNanos(1L) / this.rate) - (System.nanoTime() - started);
+				if (ahead > 0L) {
+					try {
+						TimeUnit.NANOSECONDS.sleep(ahead);
+					} catch (InterruptedException exception) {
+						Thread.currentThread().interrupt();
+						throw new InterruptedIOException("Content download was interrupted after " + copied + " bytes.");
+					}
+				}
+			}
+		}
+		return copied;
+	}
+	
+	/**
+	 * @return the If-None-Match header of the entity tag and the weak entity tag of the version, null when both are unknown.
+	 */
+	static String ifNoneMatch(final String entityTag, final String version) {
+		final StringBuilder ifNoneMatch = new StringBuilder();
+		if (entityTag != null) {
+			ifNoneMatch.append(entityTag);
+		}
+		if (version != null && !version.isEmpty() && version.indexOf('"') < 0 && version.indexOf(',') < 0) {
+			ifNoneMatch.append(ifNoneMatch.length() == 0 ? "" : ", ").append("W/\"").append(version).append('"');
+		}
+		return ifNoneMatch.length() == 0 ? null : ifNoneMatch.toString();
+	}
+	
+	/**
+	 * @return the entity tag written in the file, null when there is none.
+	 */
+	private static String readEntityTag(final Path path) throws IOException {
+		if (!Files.exists(path)) {
+			return null;
+		}
+		final String entityTag = new String(Files.readAllBytes(path), StandardCharsets.UTF_8).trim();
+		return entityTag.isEmpty() ? null : entityTag;
+	}
+	
+}
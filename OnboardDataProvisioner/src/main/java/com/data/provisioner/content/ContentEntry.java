@@ -0,0 +1,79 @@
+package com.data.provisioner.content;
+
+import java.util.zip.ZipEntry;
+
+/**
+ * Entry of a content archive as recorded in its {@link ContentIndex}.
+ */
+public final class ContentEntry {
+	
+	private final String name;
+	
+	private final int method;
+	
+	private final long dataOffset;
+	
+	private final long compressedSize;
+	
+	private final long size;
+	
+	private final int crc;
+	
+	ContentEntry(final String name, final int method, final long dataOffset, final long compressedSize, final long size, final int crc) {
+		this.name = name;
+		this.method = method;
+		this.dataOffset = dataOffset;
+		this.compressedSize = compressedSize;
+		this.size = size;
+		this.crc = crc;
+	}
+	
+	public String getName() {
+		return this.name;
+	}
+	
+	/**
+	 * @return the compression method, {@link ZipEntry#STORED} or {@link ZipEntry#DEFLATED}.
+	 */
+	public int getMethod() {
+		return this.method;
+	}
+	
+	/**
+	 * @return whether the entry is stored without compression, so that it can be read in place.
+	 */
+	public boolean isStored() {
+		return this.method == ZipEntry.STORED;
+	}
+	
+	/**
+	 * @return position of the entry data in the archive.
+	 */
+	public long getDataOffset() {
+		return this.dataOffset;
+	}
+	
+	public long getCompressedSize() {
+		return this.compressedSize;
+	}
+	
+	/**
+	 * @return the uncompressed size (in bytes).
+	 */
+	public long getSize() {
+		return this.size;
+	}
+	
+	/**
+	 * @return CRC-32 of the uncompressed data.
+	 */
+	public int getCrc() {
+		return this.crc;
+	}
+	
+	@Override
+	public String toString() {
+		return this.name + " (" + this.size + " bytes)";
+	}
+	
+}
@@ -0,0 +1,48 @@
+package com.data.provisioner.content;
+
+import java.nio.file.Path;
+
+/**
+ * Immutable snapshot of a committed content archive. The archive of a generation is never modified after the commit.
+ */
+public final class ContentGeneration {
+	
+	private final long number;
+	
+	private final Path archive;
+	
+	private final String version;
+	
+	ContentGeneration(final long number, final Path archive, final String version) {
+		this.number = number;
+		this.archive = archive;
+		this.version = version;
+	}
+	
+	/**
+	 * @return the generation number, increasing with every commit.
+	 */
+	public long getNumber() {
+		return this.number;
+	}
+	
+	/**
+	 * @return the content archive.
+	 */
+	public Path getArchive() {
+		return this.archive;
+	}
+	
+	/**
+	 * @return the content version, empty string when it's unknown.
+	 */
+	public String getVersion() {
+		return this.version;
+	}
+	
+	@Override
+	public String toString() {
+		return "generation " + this.number + (this.version.isEmpty() ? "" : " (version " + this.version + ")");
+	}
+	
+}
@@ -0,0 +1,515 @@
+package com.data.provisioner.content;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+
+/**
+ * Index of the entries of a content archive, built once per generation and persisted next to the archive.
+ * <p>
+ * The index file is {@code [header][hash table][entries][names]}: the header holds the magic, the format version,
+ * the archive size and the numbers of entries and hash slots. The open-addressing hash table maps the hash of an entry
+ * name to the entry, which records the data offset, the sizes, the CRC-32, the compression method and the UTF-8 name.
+ * Both the index and the archive are memory-mapped, so finding an entry is a few reads of mapped memory whatever
+ * the number of entries, and a stored entry is read in place without a copy. Deflated entries are inflated from
+ * the mapping.
+ * <p>
+ * The index is thread safe. The mappings are released when the index is garbage collected, a reader holding
+ * the index of an older generation keeps reading it after the generation is pruned.
+ */
+public final class ContentIndex {
+	
+	private static final int MAGIC = 0x43494458;
+	
+	private static final int VERSION = 1;
+	
+	private static final int HEADER_SIZE = 24;
+	
+	private static final int SLOT_SIZE = 4;
+	
+	private static final int ENTRY_SIZE = 40;
+	
+	/**
+	 * Size (in bytes) of the regions the archive is mapped in - 1 GiB. A single mapping is limited to 2 GiB.
+	 */
+	private static final long REGION_SIZE = 1L << 30;
+	
+	private static final int END_OF_CENTRAL_DIRECTORY = 0x06054B50;
+	
+	private static final int ZIP64_END_LOCATOR = 0x07064B50;
+	
+	private static final int ZIP64_END_OF_CENTRAL_DIRECTORY = 0x06064B50;
+	
+	private static final int CENTRAL_HEADER = 0x02014B50;
+	
+	private static final int LOCAL_HEADER = 0x04034B50;
+	
+	private static final int ZIP64_EXTRA_FIELD = 0x0001;
+	
+	private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+	
+	private static final int CENTRAL_HEADER_SIZE = 46;
+	
+	private static final int LOCAL_HEADER_SIZE = 30;
+	
+	private static final long ZIP64_MARKER = 0xFFFFFFFFL;
+	
+	private final Path archive;
+	
+	private final MappedByteBuffer index;
+	
+	private final MappedByteBuffer[] regions;
+	
+	private final long archiveSize;
+	
+	private final int entryCount;
+	
+	private final int slotMask;
+	
+	private final int entriesStart;
+	
+	private final int namesStart;
+	
+	private ContentIndex(final Path archive, final MappedByteBuffer index, final MappedByteBuffer[] regions, final long archiveSize) throws IOException {
+		this.archive = archive;
+		this.index = index;
+		this.regions = regions;
+		this.archiveSize = archiveSize;
+		this.entryCount = index.getInt(16);
+		final int slotCount = index.getInt(20);
+		this.slotMask = slotCount - 1;
+		this.entriesStart = ContentIndex.HEADER_SIZE + slotCount * ContentIndex.SLOT_SIZE;
+		this.namesStart = this.entriesStart + this.entryCount * ContentIndex.ENTRY_SIZE;
+		if (Integer.bitCount(slotCount) != 1 || this.namesStart > index.capacity()) {
+			throw new IOException("Content index of " + archive + " is corrupted.");
+		}
+	}
+	
+	/**
+	 * Maps the index and the archive. The index is written first when it's missing or doesn't belong to the archive.
+	 * @param archive the archive.
+	 * @param indexPath the index file.
+	 * @return the index.
+	 * @throws IOException when the archive isn't a valid zip or the files can't be mapped.
+	 */
+	public static ContentIndex open(final Path archive, final Path indexPath) throws IOException {
+		final long archiveSize = Files.size(archive);
+		if (!ContentIndex.belongsTo(indexPath, archiveSize)) {
+			ContentIndex.write(archive, indexPath);
+		}
+		final MappedByteBuffer index;
+		try (final FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.READ)) {
+			index = channel.map(FileChannel.MapMode.READ_ONLY, 0L, channel.size());
+		}
+		final MappedByteBuffer[] regions = new MappedByteBuffer[(int) ((archiveSize + ContentIndex.REGION_SIZE - 1) / ContentIndex.REGION_SIZE)];
+		try (final FileChannel channel = FileChannel.open(archive, StandardOpenOption.READ)) {
+			for (int region = 0; region < regions.length; region++) {
+				final long start = region * ContentIndex.REGION_SIZE;
+				regions[region] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(ContentIndex.REGION_SIZE, archiveSize - start));
+			}
+		}
+		return new ContentIndex(archive, index, regions, archiveSize);
+	}
+	
+	/**
+	 * Reads the central directory of the archive and writes the index file atomically.
+	 * @param archive the archive.
+	 * @param indexPath the index file.
+	 * @throws IOException when the archive isn't a valid zip or the index can't be written.
+	 */
+	public static void write(final Path archive, final Path indexPath) throws IOException {
+		final long archiveSize;
+		final List<ContentEntry> entries;
+		try (final FileChannel channel = FileChannel.open(archive, StandardOpenOption.READ)) {
+			archiveSize = channel.size();
+			entries = ContentIndex.readCentralDirectory(channel);
+		}
+		int slotCount = 2;
+		while (slotCount < entries.size() * 2) {
+			slotCount <<= 1;
+		}
+		final List<byte[]> names = new ArrayList<>(entries.size());
+		int namesSize = 0;
+		for (final ContentEntry entry : entries) {
+			final byte[] name = entry.getName().getBytes(StandardCharsets.UTF_8);
+			names.add(name);
+			namesSize += name.length;
+		}
+		final int entriesStart = ContentIndex.HEADER_SIZE + slotCount * ContentIndex.SLOT_SIZE;
+		final int namesStart = entriesStart + entries.size() * ContentIndex.ENTRY_SIZE;
+		final ByteBuffer buffer = ByteBuffer.allocate(namesStart + namesSize);
+		buffer.putInt(0, ContentIndex.MAGIC);
+		buffer.putInt(4, ContentIndex.VERSION);
+		buffer.putLong(8, archiveSize);
+		buffer.putInt(16, entries.size());
+		buffer.putInt(20, slotCount);
+		int nameOffset = 0;
+		for (int entryIndex = 0; entryIndex < entries.size(); entryIndex++) {
+			final ContentEntry entry = entries.get(entryIndex);
+			final byte[] name = names.get(entryIndex);
+			final int hash = entry.getName().hashCode();
+			final int position = entriesStart + entryIndex * ContentIndex.ENTRY_SIZE;
+			buffer.putLong(position, entry.getDataOffset());
+			buffer.putLong(position + 8, entry.getCompressedSize());
+			buffer.putLong(position + 16, entry.getSize());
+			buffer.putInt(position + 24, entry.getCrc());
+			buffer.putInt(position + 28, hash);
+			buffer.putInt(position + 32, nameOffset);
+			buffer.putShort(position + 36, (short) entry.getMethod());
+			buffer.putShort(position + 38, (short) name.length);
+			for (int index = 0; index < name.length; index++) {
+				buffer.put(namesStart + nameOffset + index, name[index]);
+			}
+			nameOffset += name.length;
+			
+			// A name repeated in the archive keeps its first entry.
+			for (int slot = ContentIndex.spread(hash) & (slotCount - 1); ; slot = (slot + 1) & (slotCount - 1)) {
+				final int slotted = buffer.getInt(ContentIndex.HEADER_SIZE + slot * ContentIndex.SLOT_SIZE) - 1;
+				if (slotted < 0) {
+					buffer.putInt(ContentIndex.HEADER_SIZE + slot * ContentIndex.SLOT_SIZE, entryIndex + 1);
+					break;
+				}
+				if (entries.get(slotted).getName().equals(entry.getName())) {
+					break;
+				}
+			}
+		}
+		
+		final Path temporaryPath = indexPath.resolveSibling(indexPath.getFileName() + ".tmp");
+		try (final FileChannel channel = FileChannel.open(temporaryPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			channel.force(true);
+		}
+		Files.move(temporaryPath, indexPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	}
+	
+	/**
+	 * @return the indexed archive.
+	 */
+	public Path getArchive() {
+		return this.archive;
+	}
+	
+	public int getEntryCount() {
+		return this.entryCount;
+	}
+	
+	/**
+	 * @param name the entry name.
+	 * @return the entry, null when the archive has no entry of the name.
+	 */
+	public ContentEntry find(final String name) {
+		final int hash = name.hashCode();
+		byte[] nameBytes = null;
+		for (int slot = ContentIndex.spread(hash) & this.slotMask; ; slot = (slot + 1) & this.slotMask) {
+			final int entryIndex = this.index.getInt(ContentIndex.HEADER_SIZE + slot * ContentIndex.SLOT_SIZE) - 1;
+			if (entryIndex < 0) {
+				return null;
+			}
+			final int position = this.entriesStart + entryIndex * ContentIndex.ENTRY_SIZE;
+			if (this.index.getInt(position + 28) == hash) {
+				if (nameBytes == null) {
+					nameBytes = name.getBytes(StandardCharsets.UTF_8);
+				}
+				if (this.nameEquals(position, nameBytes)) {
+					return new ContentEntry(
+						name, this.index.getShort(position + 36) & 0xFFFF, this.index.getLong(position), this.index.getLong(position + 8),
+						this.index.getLong(position + 16), this.index.getInt(position + 24)
+					);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Reads the whole entry. A stored entry is returned as a read-only view of the mapped archive, without a copy.
+	 * @param entry the entry of the archive.
+	 * @return the uncompressed data.
+	 * @throws IOException when the entry can't be read or inflated.
+	 */
+	public ByteBuffer read(final ContentEntry entry) throws IOException {
+		if (entry.isStored()) {
+			return this.slice(entry.getDataOffset(), entry.getSize());
+		}
+		if (entry.getSize() > Integer.MAX_VALUE) {
+			throw new IOException("Content entry " + entry + " is too large to be read whole.");
+		}
+		final byte[] data = new byte[(int) entry.getSize()];
+		try (final InputStream inputStream = this.openStream(entry)) {
+			int position = 0;
+			while (position < data.length) {
+				final int read = inputStream.read(data, position, data.length - position);
+				if (read < 0) {
+					throw new EOFException("Content entry " + entry + " ends after " + position + " bytes.");
+				}
+				position += read;
+			}
+		}
+		return ByteBuffer.wrap(data).asReadOnlyBuffer();
+	}
+	
+	/**
+	 * @param entry the entry of the archive.
+	 * @return stream of the uncompressed data.
+	 * @throws IOException when the entry lies outside the archive or uses an unsupported compression method.
+	 */
+	public InputStream openStream(final ContentEntry entry) throws IOException {
+		if (entry.isStored()) {
+			return new BufferInputStream(this.slice(entry.getDataOffset(), entry.getSize()), false);
+		}
+		if (entry.getMethod() != ZipEntry.DEFLATED) {
+			throw new IOException("Content entry " + entry + " uses unsupported compression method " + entry.getMethod() + ".");
+		}
+		final Inflater inflater = new Inflater(true);
+		return new InflaterInputStream(new BufferInputStream(this.slice(entry.getDataOffset(), entry.getCompressedSize()), true), inflater) {
+			
+			@Override
+			public void close() throws IOException {
+				super.close();
+				inflater.end();
+			}
+			
+		};
+	}
+	
+	@Override
+	public String toString() {
+		return "index of " + this.archive + " (" + this.entryCount + " entries)";
+	}
+	
+	/**
+	 * @return read-only view of the archive range.
+	 */
+	private ByteBuffer slice(final long offset, final long length) throws IOException {
+		if (offset < 0L || length < 0L || length > Integer.MAX_VALUE || offset + length > this.archiveSize) {
+			throw new IOException("Content range " + offset + "+" + length + " lies outside the archive " + this.archive + ".");
+		}
+		if (length == 0L) {
+			return ByteBuffer.allocate(0).asReadOnlyBuffer();
+		}
+		final int region = (int) (offset / ContentIndex.REGION_SIZE);
+		final long regionStart = region * ContentIndex.REGION_SIZE;
+		if (offset + length <= regionStart + this.regions[region].capacity()) {
+			final ByteBuffer view = this.regions[region].duplicate();
+			view.position((int) (offset - regionStart));
+			view.limit((int) (offset - regionStart + length));
+			return view.slice();
+		}
+		// The rare entry crossing the border of two regions gets its own mapping.
+		try (final FileChannel channel = FileChannel.open(this.archive, StandardOpenOption.READ)) {
+			return channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+		}
+	}
+	
+	private boolean nameEquals(final int position, final byte[] name) {
+		if ((this.index.getShort(position + 38) & 0xFFFF) != name.length) {
+			return false;
+		}
+		final int nameStart = this.namesStart + this.index.getInt(position + 32);
+		for (int index = 0; index < name.length; index++) {
+			if (this.index.get(nameStart + index) != name[index]) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private static int spread(final int hash) {
+		return hash ^ (hash >>> 16);
+	}
+	
+	/**
+	 * @return whether the index file exists and was written for an archive of the size.
+	 */
+	private static boolean belongsTo(final Path indexPath, final long archiveSize) throws IOException {
+		if (!Files.exists(indexPath)) {
+			return false;
+		}
+		try (final FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.READ)) {
+			final ByteBuffer header = ByteBuffer.allocate(ContentIndex.HEADER_SIZE);
+			while (header.hasRemaining() && channel.read(header) >= 0) {
+				// Reads the whole header.
+			}
+			return !header.hasRemaining() && header.getInt(0) == ContentIndex.MAGIC && header.getInt(4) == ContentIndex.VERSION
+				&& header.getLong(8) == archiveSize;
+		}
+	}
+	
+	/**
+	 * Reads the entries from the central directory, including the Zip64 extensions, and resolves the data offsets
+	 * from the local headers.
+	 */
+	private static List<ContentEntry> readCentralDirectory(final FileChannel channel) throws IOException {
+		final long archiveSize = channel.size();
+		final int tailSize = (int) Math.min(archiveSize, ContentIndex.END_OF_CENTRAL_DIRECTORY_SIZE + 0xFFFF);
+		final ByteBuffer tail = ContentIndex.read(channel, archiveSize - tailSize, tailSize);
+		int end = -1;
+		for (int position = tailSize - ContentIndex.END_OF_CENTRAL_DIRECTORY_SIZE; position >= 0; position--) {
+			if (tail.getInt(position) == ContentIndex.END_OF_CENTRAL_DIRECTORY) {
+				end = position;
+				break;
+			}
+		}
+		if (end < 0) {
+			throw new IOException("Content archive has no central directory.");
+		}
+		long entryCount = tail.getShort(end + 10) & 0xFFFF;
+		long directorySize = tail.getInt(end + 12) & ContentIndex.ZIP64_MARKER;
+		long directoryOffset = tail.getInt(end + 16) & ContentIndex.ZIP64_MARKER;
+		if (end >= 20 && tail.getInt(end - 20) == ContentIndex.ZIP64_END_LOCATOR) {
+			final ByteBuffer zip64End = ContentIndex.read(channel, tail.getLong(end - 20 + 8), 56);
+			if (zip64End.getInt(0) != ContentIndex.ZIP64_END_OF_CENTRAL_DIRECTORY) {
+				throw new IOException("Zip64 central directory of the content archive is missing.");
+			}
+			entryCount = zip64End.getLong(32);
+			directorySize = zip64End.getLong(40);
+			directoryOffset = zip64End.getLong(48);
+		}
+		if (directorySize > Integer.MAX_VALUE || directoryOffset + directorySize > archiveSize
+				|| entryCount * ContentIndex.CENTRAL_HEADER_SIZE > directorySize) {
+			throw new IOException("Central directory of the content archive is invalid.");
+		}
+		
+		final ByteBuffer directory = ContentIndex.read(channel, directoryOffset, (int) directorySize);
+		final ByteBuffer localHeader = ByteBuffer.allocate(ContentIndex.LOCAL_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		final List<ContentEntry> entries = new ArrayList<>((int) entryCount);
+		int position = 0;
+		for (long entryIndex = 0L; entryIndex < entryCount; entryIndex++) {
+			if (position + ContentIndex.CENTRAL_HEADER_SIZE > directory.limit() || directory.getInt(position) != ContentIndex.CENTRAL_HEADER) {
+				throw new IOException("Central directory of the content archive is corrupted at entry " + entryIndex + ".");
+			}
+			final int method = directory.getShort(position + 10) & 0xFFFF;
+			final int crc = directory.getInt(position + 16);
+			long compressedSize = directory.getInt(position + 20) & ContentIndex.ZIP64_MARKER;
+			long size = directory.getInt(position + 24) & ContentIndex.ZIP64_MARKER;
+			final int nameLength = directory.getShort(position + 28) & 0xFFFF;
+			final int extraLength = directory.getShort(position + 30) & 0xFFFF;
+			final int commentLength = directory.getShort(position + 32) & 0xFFFF;
+			long localOffset = directory.getInt(position + 42) & ContentIndex.ZIP64_MARKER;
+			final int extraEnd = position + ContentIndex.CENTRAL_HEADER_SIZE + nameLength + extraLength;
+			if (extraEnd + commentLength > directory.limit()) {
+				throw new IOException("Central directory of the content archive is corrupted at entry " + entryIndex + ".");
+			}
+			final byte[] name = new byte[nameLength];
+			for (int index = 0; index < nameLength; index++) {
+				name[index] = directory.get(position + ContentIndex.CENTRAL_HEADER_SIZE + index);
+			}
+			for (int extra = position + ContentIndex.CENTRAL_HEADER_SIZE + nameLength; extra + 4 <= extraEnd; extra += 4 + (directory.getShort(extra + 2) & 0xFFFF)) {
+				if ((directory.getShort(extra) & 0xFFFF) == ContentIndex.ZIP64_EXTRA_FIELD) {
+					int field = extra + 4;
+					if (size == ContentIndex.ZIP64_MARKER) {
+						size = directory.getLong(field);
+						field += 8;
+					}
+					if (compressedSize == ContentIndex.ZIP64_MARKER) {
+						compressedSize = directory.getLong(field);
+						field += 8;
+					}
+					if (localOffset == ContentIndex.ZIP64_MARKER) {
+						localOffset = directory.getLong(field);
+					}
+				}
+			}
+			
+			localHeader.clear();
+			while (localHeader.hasRemaining()) {
+				if (channel.read(localHeader, localOffset + localHeader.position()) < 0) {
+					throw new EOFException("Local header of content entry " + new String(name, StandardCharsets.UTF_8) + " is truncated.");
+				}
+			}
+			if (localHeader.getInt(0) != ContentIndex.LOCAL_HEADER) {
+				throw new IOException("Local header of content entry " + new String(name, StandardCharsets.UTF_8) + " is missing.");
+			}
+			final long dataOffset = localOffset + ContentIndex.LOCAL_HEADER_SIZE + (localHeader.getShort(26) & 0xFFFF) + (localHeader.getShort(28) & 0xFFFF);
+			if (dataOffset + compressedSize > archiveSize) {
+				throw new IOException("Content entry " + new String(name, StandardCharsets.UTF_8) + " lies outside the archive.");
+			}
+			entries.add(new ContentEntry(new String(name, StandardCharsets.UTF_8), method, dataOffset, compressedSize, size, crc));
+			position = extraEnd + commentLength;
+		}
+		return entries;
+	}
+	
+	/**
+	 * @return little-endian buffer with the range of the archive.
+	 */
+	private static ByteBuffer read(final FileChannel channel, final long offset, final int length) throws IOException {
+		final ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, offset + buffer.position()) < 0) {
+				throw new EOFException("Content archive ends at " + (offset + buffer.position()) + ".");
+			}
+		}
+		buffer.clear();
+		return buffer;
+	}
+	
+	/**
+	 * Stream over a buffer. The raw deflate data is followed by a dummy byte, which the inflater needs
+	 * to recognize the end of the stream.
+	 */
+	private static final class BufferInputStream extends InputStream {
+		
+		private final ByteBuffer buffer;
+		
+		private boolean dummy;
+		
+		BufferInputStream(final ByteBuffer buffer, final boolean dummy) {
+			this.buffer = buffer;
+			this.dummy = dummy;
+		}
+		
+		@Override
+		public int read() {
+			if (this.buffer.hasRemaining()) {
+				return this.buffer.get() & 0xFF;
+			}
+			if (this.dummy) {
+				this.dummy = false;
+				return 0;
+			}
+			return -1;
+		}
+		
+		@Override
+		public int read(final byte[] bytes, final int offset, final int length) {
+			if (length == 0) {
+				return 0;
+			}
+			if (!this.buffer.hasRemaining()) {
+				final int read = this.read();
+				if (read < 0) {
+					return -1;
+				}
+				bytes[offset] = (byte) read;
+				return 1;
+			}
+			final int read = Math.min(length, this.buffer.remaining());
+			this.buffer.get(bytes, offset, read);
+			return read;
+		}
+		
+		@Override
+		public int available() {
+			return this.buffer.remaining() + (this.dummy ? 1 : 0);
+		}
+		
+	}
+	
+}
@@ -0,0 +1,880 @@
+package com.data.provisioner.content;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.data.provisioner.metrics.Counter;
+import com.data.provisioner.metrics.MetricsRegistry;
+
+/**
+ * HTTP/1.1 server of the current content generation for the passenger devices, e.g. the Wi-Fi portal.
+ * <p>
+ * A request for {@code /path} is answered with the entry {@code path} of the current archive, a path ending with
+ * a slash with its {@code index.html}. One selector thread serves all the connections, which suits a few hundred
+ * devices on a low-power CPU. The entry data is sent with {@link FileChannel#transferTo}, so the kernel moves
+ * it from the page cache to the socket without passing through the JVM:
+ * <ul>
+ * <li>a stored entry is sent as it is, range requests are supported;</li>
+ * <li>a stored {@code path.br} or {@code path.gz} entry is sent instead of the entry to a client accepting
+ * the encoding;</li>
+ * <li>a deflated entry is sent to a client accepting gzip as its raw deflate data framed by a gzip header and trailer,
+ * without being inflated. Only the other clients get it inflated.</li>
+ * </ul>
+ * The strong ETags are derived from the CRC-32 and the size of the entries, so a device revalidating its cache
+ * gets 304 until the entry changes in a new generation. Connections are kept alive and closed after the idle timeout.
+ */
+public final class ContentServer implements Closeable {
+	
+	/**
+	 * The logger.
+	 */
+	private static final Logger LOGGER = Logger.getLogger(ContentServer.class.getName());
+	
+	/**
+	 * Default maximum number of open connections, the connections over it are closed at once.
+	 */
+	public static final int DEFAULT_MAXIMUM_CONNECTIONS = 512;
+	
+	/**
+	 * Default time (in seconds) an idle connection is kept open.
+	 */
+	public static final long DEFAULT_IDLE_TIMEOUT = 15L;
+	
+	/**
+	 * Maximum size (in bytes) of the request line and headers.
+	 */
+	private static final int MAXIMUM_REQUEST_HEAD = 8192;
+	
+	private static final int STREAM_BUFFER_SIZE = 16384;
+	
+	private static final String INDEX_ENTRY = "index.html";
+	
+	private static final byte[] GZIP_HEADER = {0x1F, (byte) 0x8B, 8, 0, 0, 0, 0, 0, 0, (byte) 0xFF};
+	
+	private static final Map<String, String> CONTENT_TYPES = new HashMap<>();
+	
+	static {
+		ContentServer.CONTENT_TYPES.put("html", "text/html; charset=utf-8");
+		ContentServer.CONTENT_TYPES.put("htm", "text/html; charset=utf-8");
+		ContentServer.CONTENT_TYPES.put("css", "text/css; charset=utf-8");
+		ContentServer.CONTENT_TYPES.put("js", "application/javascript; charset=utf-8");
+		ContentServer.CONTENT_TYPES.put("json", "application/json");
+		ContentServer.CONTENT_TYPES.put("xml", "application/xml");
+		ContentServer.CONTENT_TYPES.put("txt", "text/plain; charset=utf-8");
+		ContentServer.CONTENT_TYPES.put("svg", "image/svg+xml");
+		ContentServer.CONTENT_TYPES.put("png", "image/png");
+		ContentServer.CONTENT_TYPES.put("jpg", "image/jpeg");
+		ContentServer.CONTENT_TYPES.put("jpeg", "image/jpeg");
+		ContentServer.CONTENT_TYPES.put("gif", "image/gif");
+		ContentServer.CONTENT_TYPES.put("webp", "image/webp");
+		ContentServer.CONTENT_TYPES.put("ico", "image/x-icon");
+		ContentServer.CONTENT_TYPES.put("woff", "font/woff");
+		ContentServer.CONTENT_TYPES.put("woff2", "font/woff2");
+		ContentServer.CONTENT_TYPES.put("pdf", "application/pdf");
+		ContentServer.CONTENT_TYPES.put("mp4", "video/mp4");
+		ContentServer.CONTENT_TYPES.put("webm", "video/webm");
+		ContentServer.CONTENT_TYPES.put("mp3", "audio/mpeg");
+	}
+	
+	private final Supplier<ContentStore> contentStore;
+	
+	private final int maximumConnections;
+	
+	private final long idleTimeout;
+	
+	private final Counter requests;
+	
+	private final Counter notModified;
+	
+	private final Counter bytesSent;
+	
+	private final Selector selector;
+	
+	private final ServerSocketChannel serverChannel;
+	
+	private final Thread thread;
+	
+	/**
+	 * Channel of the archive of the current generation, used only by the selector thread.
+	 */
+	private ArchiveChannel currentArchive = null;
+	
+	private volatile boolean running = true;
+	
+	/**
+	 * Starts the server.
+	 * @param contentStore supplies the content store, null while the content storage is unavailable.
+	 * @param address the bound address.
+	 * @param maximumConnections maximum number of open connections.
+	 * @param idleTimeout time (in seconds) an idle connection is kept open.
+	 * @param metricsRegistry registry of the request counters.
+	 * @throws IOException when the address can't be bound.
+	 */
+	public ContentServer(final Supplier<ContentStore> contentStore, final InetSocketAddress address, final int maximumConnections, final long idleTimeout, final MetricsRegistry metricsRegistry) throws IOException {
+		if (maximumConnections < 1 || idleTimeout < 1L) {
+			throw new IllegalArgumentException("Invalid content server limits " + maximumConnections + " and " + idleTimeout + ".");
+		}
+		this.contentStore = contentStore;
+		this.maximumConnections = maximumConnections;
+		this.idleTimeout = TimeUnit.SECONDS.toNanos(idleTimeout);
+		this.requests = metricsRegistry.counter("content.server.requests");
+		this.notModified = metricsRegistry.counter("content.server.notModified");
+		this.bytesSent = metricsRegistry.counter("content.server.bytes");
+		this.selector = Selector.open();
+		this.serverChannel = ServerSocketChannel.open();
+		try {
+			this.serverChannel.bind(address, 128);
+			this.serverChannel.configureBlocking(false);
+			this.serverChannel.register(this.selector, SelectionKey.OP_ACCEPT);
+		} catch (IOException exception) {
+			ContentServer.closeQuietly(this.serverChannel);
+			ContentServer.closeQuietly(this.selector);
+			throw exception;
+		}
+		this.thread = new Thread(this::run, "content-server");
+		this.thread.setDaemon(true);
+		this.thread.start();
+		ContentServer.LOGGER.log(Level.INFO, "Content is served on {0}", "http://" + address.getHostString() + ":" + this.getPort() + "/");
+	}
+	
+	/**
+	 * @return the bound port.
+	 */
+	public int getPort() {
+		return this.serverChannel.socket().getLocalPort();
+	}
+	
+	/**
+	 * Stops the server, the responses in progress are cut off.
+	 */
+	@Override
+	public void close() {
+		this.running = false;
+		this.selector.wakeup();
+		try {
+			this.thread.join(TimeUnit.SECONDS.toMillis(1L));
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	private void run() {
+		try {
+			while (this.running) {
+				this.selector.select(TimeUnit.SECONDS.toMillis(1L));
+				for (final Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator(); keys.hasNext();) {
+					final SelectionKey key = keys.next();
+					keys.remove();
+					if (!key.isValid()) {
+						continue;
+					}
+					if (key.isAcceptable()) {
+						this.accept();
+						continue;
+					}
+					final Connection connection = (Connection) key.attachment();
+					try {
+						if (key.isReadable()) {
+							connection.read();
+						} else if (key.isWritable()) {
+							connection.write();
+						}
+					} catch (IOException | RuntimeException exception) {
+						ContentServer.LOGGER.log(Level.FINE, "Content connection closed. Reason: {0}", exception.toString());
+						connection.close();
+					}
+				}
+				this.closeIdleConnections();
+			}
+		} catch (IOException exception) {
+			ContentServer.LOGGER.log(Level.SEVERE, "Content server failed. Reason: {0}", exception.toString());
+		} finally {
+			for (final SelectionKey key : this.selector.keys()) {
+				if (key.attachment() instanceof Connection) {
+					((Connection) key.attachment()).close();
+				}
+			}
+			ContentServer.closeQuietly(this.serverChannel);
+			ContentServer.closeQuietly(this.selector);
+			if (this.currentArchive != null) {
+				this.currentArchive.current = false;
+				this.currentArchive.closeIfUnused();
+			}
+		}
+	}
+	
+	private void accept() throws IOException {
+		for (SocketChannel channel = this.serverChannel.accept(); channel != null; channel = this.serverChannel.accept()) {
+			if (this.selector.keys().size() > this.maximumConnections) {
+				ContentServer.closeQuietly(channel);
+				continue;
+			}
+			channel.configureBlocking(false);
+			channel.socket().setTcpNoDelay(true);
+			final SelectionKey key = channel.register(this.selector, SelectionKey.OP_READ);
+			key.attach(new Connection(channel, key));
+		}
+	}
+	
+	private void closeIdleConnections() {
+		final long now = System.nanoTime();
+		for (final SelectionKey key : this.selector.keys()) {
+			if (key.isValid() && key.attachment() instanceof Connection && now - ((Connection) key.attachment()).lastActive > this.idleTimeout) {
+				((Connection) key.attachment()).close();
+			}
+		}
+	}
+	
+	/**
+	 * @return the response to the request.
+	 */
+	private Response respond(final Request request) {
+		final boolean head = "HEAD".equals(request.method);
+		if (!head && !"GET".equals(request.method)) {
+			final Response response = this.error(405, request, "Only GET and HEAD are supported.");
+			response.header("Allow", "GET, HEAD");
+			response.close = true;
+			return response;
+		}
+		final String name = ContentServer.entryName(request.target);
+		if (name == null) {
+			return this.error(400, request, "Invalid path.");
+		}
+		final ContentStore store = this.contentStore.get();
+		final ContentIndex index;
+		try {
+			index = store == null ? null : store.getCurrentIndex();
+		} catch (IOException exception) {
+			ContentServer.LOGGER.log(Level.WARNING, "Content index can't be opened. Reason: {0}", exception.toString());
+			return this.error(503, request, "Content is not available.");
+		}
+		if (index == null) {
+			return this.error(503, request, "Content is not available.");
+		}
+		final ContentEntry entry = index.find(name);
+		if (entry == null) {
+			return this.error(404, request, "Not found.");
+		}
+		
+		// The representation: a precompressed variant, the deflate data framed as gzip or the entry itself.
+		final String acceptEncoding = request.header("accept-encoding");
+		ContentEntry sent = entry;
+		String encoding = null;
+		if (ContentServer.accepts(acceptEncoding, "br")) {
+			final ContentEntry variant = index.find(name + ".br");
+			if (variant != null && variant.isStored()) {
+				sent = variant;
+				encoding = "br";
+			}
+		}
+		if (encoding == null && ContentServer.accepts(acceptEncoding, "gzip")) {
+			final ContentEntry variant = index.find(name + ".gz");
+			if (variant != null && variant.isStored()) {
+				sent = variant;
+				encoding = "gzip";
+			} else if (!entry.isStored()) {
+				encoding = "gzip";
+			}
+		}
+		final String entityTag = "\"" + Integer.toHexString(sent.getCrc()) + "-" + Long.toHexString(sent.getSize()) + (encoding == null ? "" : "-" + encoding) + "\"";
+		
+		final Response response = new Response(request);
+		response.header("ETag", entityTag);
+		response.header("Vary", "Accept-Encoding");
+		response.header("Cache-Control", "no-cache");
+		final String ifNoneMatch = request.header("if-none-match");
+		if (ifNoneMatch != null && ContentServer.matches(ifNoneMatch, entityTag)) {
+			this.notModified.increment();
+			response.status = 304;
+			return response;
+		}
+		response.header("Content-Type", ContentServer.contentType(name));
+		if (encoding != null) {
+			response.header("Content-Encoding", encoding);
+		}
+		
+		try {
+			if (encoding == null || sent != entry) {
+				response.header("Accept-Ranges", "bytes");
+				final String ifRange = request.header("if-range");
+				final long[] range = ifRange == null || ifRange.equals(entityTag) ? ContentServer.range(request.header("range"), sent.getSize()) : null;
+				long start = 0L;
+				long length = sent.getSize();
+				if (range != null && range.length == 0) {
+					final Response unsatisfiable = this.error(416, request, "Range not satisfiable.");
+					unsatisfiable.header("Content-Range", "bytes */" + sent.getSize());
+					return unsatisfiable;
+				}
+				if (range != null) {
+					start = range[0];
+					length = range[1] - range[0] + 1L;
+					response.status = 206;
+					response.header("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + sent.getSize());
+				}
+				response.contentLength = length;
+				if (!head) {
+					if (sent.isStored()) {
+						response.transfer(this.acquireArchive(index), sent.getDataOffset() + start, length);
+					} else {
+						response.stream(index.openStream(sent), start);
+					}
+				}
+			} else {
+				response.contentLength = ContentServer.GZIP_HEADER.length + entry.getCompressedSize() + 8L;
+				if (!head) {
+					final ByteBuffer trailer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+					trailer.putInt(entry.getCrc());
+					trailer.putInt((int) entry.getSize());
+					trailer.flip();
+					response.prefix = ByteBuffer.wrap(ContentServer.GZIP_HEADER);
+					response.transfer(this.acquireArchive(index), entry.getDataOffset(), entry.getCompressedSize());
+					response.trailer = trailer;
+				}
+			}
+		} catch (IOException exception) {
+			response.release();
+			ContentServer.LOGGER.log(Level.WARNING, "Content entry {0}", name + " can't be read. Reason: " + exception.toString());
+			return this.error(500, request, "Content entry can't be read.");
+		}
+		return response;
+	}
+	
+	private Response error(final int status, final Request request, final String message) {
+		final Response response = new Response(request);
+		response.status = status;
+		response.header("Content-Type", "text/plain; charset=utf-8");
+		response.body = ByteBuffer.wrap((message + "\n").getBytes(StandardCharsets.UTF_8));
+		response.contentLength = response.body.remaining();
+		if (request != null && "HEAD".equals(request.method)) {
+			response.body = null;
+		}
+		return response;
+	}
+	
+	/**
+	 * @return the channel of the indexed archive, opened when the index belongs to a new generation.
+	 */
+	private ArchiveChannel acquireArchive(final ContentIndex index) throws IOException {
+		if (this.currentArchive == null || !this.currentArchive.archive.equals(index.getArchive())) {
+			final ArchiveChannel archive = new ArchiveChannel(index.getArchive());
+			if (this.currentArchive != null) {
+				this.currentArchive.current = false;
+				this.currentArchive.closeIfUnused();
+			}
+			this.currentArchive = archive;
+		}
+		this.currentArchive.references++;
+		return this.currentArchive;
+	}
+	
+	/**
+	 * @param target the request target.
+	 * @return the entry name, null when the target isn't a valid absolute path.
+	 */
+	static String entryName(final String target) {
+		int end = target.length();
+		for (int index = 0; index < target.length(); index++) {
+			if (target.charAt(index) == '?' || target.charAt(index) == '#') {
+				end = index;
+				break;
+			}
+		}
+		if (end == 0 || target.charAt(0) != '/') {
+			return null;
+		}
+		final ByteArrayOutputStream name = new ByteArrayOutputStream(end);
+		for (int index = 1; index < end; index++) {
+			final char character = target.charAt(index);
+			if (character == '%') {
+				if (index + 2 >= end) {
+					return null;
+				}
+				final int high = Character.digit(target.charAt(index + 1), 16);
+				final int low = Character.digit(target.charAt(index + 2), 16);
+				if (high < 0 || low < 0) {
+					return null;
+				}
+				name.write(high << 4 | low);
+				index += 2;
+			} else if (character < 0x80) {
+				name.write(character);
+			} else {
+				return null;
+			}
+		}
+		final String decoded = new String(name.toByteArray(), StandardCharsets.UTF_8);
+		return decoded.isEmpty() || decoded.endsWith("/") ? decoded + ContentServer.INDEX_ENTRY : decoded;
+	}
+	
+	/**
+	 * @param range the Range header, null when there is none.
+	 * @param size the size of the representation.
+	 * @return the first and the last byte of the single byte range, an empty array when the range can't be satisfied,
+	 * null when the whole representation is sent. Multiple and invalid ranges are ignored.
+	 */
+	static long[] range(final String range, final long size) {
+		if (range == null || !range.startsWith("bytes=") || range.indexOf(',') >= 0) {
+			return null;
+		}
+		final String spec = range.substring("bytes=".length()).trim();
+		final int dash = spec.indexOf('-');
+		if (dash < 0) {
+			return null;
+		}
+		final String first = spec.substring(0, dash).trim();
+		final String last = spec.substring(dash + 1).trim();
+		try {
+			if (first.isEmpty()) {
+				final long suffix = Long.parseLong(last);
+				if (suffix < 0L) {
+					return null;
+				}
+				return suffix == 0L || size == 0L ? new long[0] : new long[] {Math.max(0L, size - suffix), size - 1L};
+			}
+			final long firstByte = Long.parseLong(first);
+			final long lastByte = last.isEmpty() ? size - 1L : Long.parseLong(last);
+			if (firstByte < 0L || (!last.isEmpty() && lastByte < firstByte)) {
+				return null;
+			}
+			return firstByte >= size ? new long[0] : new long[] {firstByte, Math.min(lastByte, size - 1L)};
+		} catch (NumberFormatException exception) {
+			return null;
+		}
+	}
+	
+	/**
+	 * @return whether the Accept-Encoding header accepts the encoding with a non-zero quality.
+	 */
+	static boolean accepts(final String acceptEncoding, final String encoding) {
+		if (acceptEncoding == null) {
+			return false;
+		}
+		for (final String coding : acceptEncoding.split(",")) {
+			final String[] parameters = coding.split(";");
+			if (parameters[0].trim().equalsIgnoreCase(encoding)) {
+				for (int index = 1; index < parameters.length; index++) {
+					final String parameter = parameters[index].trim();
+					if (parameter.startsWith("q=")) {
+						try {
+							return Double.parseDouble(parameter.substring(2)) > 0.0;
+						} catch (NumberFormatException exception) {
+							return false;
+						}
+					}
+				}
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private static boolean matches(final String ifNoneMatch, final String entityTag) {
+		for (final String tag : ifNoneMatch.split(",")) {
+			final String trimmed = tag.trim();
+			if ("*".equals(trimmed) || trimmed.equals(entityTag) || trimmed.equals("W/" + entityTag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private static String contentType(final String name) {
+		final int dot = name.lastIndexOf('.');
+		final String contentType = dot < 0 ? null : ContentServer.CONTENT_TYPES.get(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+		return contentType == null ? "application/octet-stream" : contentType;
+	}
+	
+	private static String reason(final int status) {
+		switch (status) {
+			case 200:
+				return "OK";
+			case 206:
+				return "Partial Content";
+			case 304:
+				return "Not Modified";
+			case 400:
+				return "Bad Request";
+			case 404:
+				return "Not Found";
+			case 405:
+				return "Method Not Allowed";
+			case 416:
+				return "Range Not Satisfiable";
+			case 431:
+				return "Request Header Fields Too Large";
+			case 503:
+				return "Service Unavailable";
+			default:
+				return "Internal Server Error";
+		}
+	}
+	
+	private static void closeQuietly(final Closeable closeable) {
+		try {
+			closeable.close();
+		} catch (IOException exception) {
+			ContentServer.LOGGER.log(Level.FINE, "Content server resource can't be closed. Reason: {0}", exception.toString());
+		}
+	}
+	
+	/**
+	 * Open archive shared by the responses sending its entries. It's closed when it's no longer current and the last
+	 * response is sent, the pruning of the generation doesn't cut off the responses in progress.
+	 */
+	private static final class ArchiveChannel {
+		
+		private final Path archive;
+		
+		private final FileChannel channel;
+		
+		private int references = 0;
+		
+		private boolean current = true;
+		
+		ArchiveChannel(final Path archive) throws IOException {
+			this.archive = archive;
+			this.channel = FileChannel.open(archive, StandardOpenOption.READ);
+		}
+		
+		void release() {
+			this.references--;
+			this.closeIfUnused();
+		}
+		
+		void closeIfUnused() {
+			if (this.references == 0 && !this.current) {
+				ContentServer.closeQuietly(this.channel);
+			}
+		}
+		
+	}
+	
+	/**
+	 * Request line and headers. The header names are lower case.
+	 */
+	private static final class Request {
+		
+		private final String method;
+		
+		private final String target;
+		
+		private final String version;
+		
+		private final Map<String, String> headers = new HashMap<>();
+		
+		Request(final String method, final String target, final String version) {
+			this.method = method;
+			this.target = target;
+			this.version = version;
+		}
+		
+		/**
+		 * @return the request, null when the head is malformed.
+		 */
+		static Request parse(final String head) {
+			final String[] lines = head.split("\r\n");
+			final String[] requestLine = lines[0].split(" ");
+			if (requestLine.length != 3 || !requestLine[2].startsWith("HTTP/1.")) {
+				return null;
+			}
+			final Request request = new Request(requestLine[0], requestLine[1], requestLine[2]);
+			for (int index = 1; index < lines.length; index++) {
+				final int colon = lines[index].indexOf(':');
+				if (colon <= 0) {
+					return null;
+				}
+				request.headers.put(lines[index].substring(0, colon).trim().toLowerCase(Locale.ROOT), lines[index].substring(colon + 1).trim());
+			}
+			return request;
+		}
+		
+		String header(final String name) {
+			return this.headers.get(name);
+		}
+		
+		/**
+		 * @return whether the connection stays open after the response.
+		 */
+		boolean keepAlive() {
+			final String connection = this.header("connection");
+			if ("HTTP/1.0".equals(this.version)) {
+				return connection != null && connection.equalsIgnoreCase("keep-alive");
+			}
+			return connection == null || !connection.equalsIgnoreCase("close");
+		}
+		
+		boolean hasBody() {
+			final String contentLength = this.header("content-length");
+			return this.header("transfer-encoding") != null || (contentLength != null && !"0".equals(contentLength));
+		}
+		
+	}
+	
+	/**
+	 * Response written in parts: the head, an optional prefix, the body from the archive, a stream or a buffer
+	 * and an optional trailer.
+	 */
+	private final class Response {
+		
+		private final Request request;
+		
+		private final StringBuilder headers = new StringBuilder(256);
+		
+		private int status = 200;
+		
+		private long contentLength = 0L;
+		
+		private boolean close;
+		
+		private ByteBuffer head = null;
+		
+		private ByteBuffer prefix = null;
+		
+		private ArchiveChannel archive = null;
+		
+		private long position;
+		
+		private long remaining;
+		
+		private InputStream stream = null;
+		
+		private ByteBuffer streamBuffer = null;
+		
+		private ByteBuffer body = null;
+		
+		private ByteBuffer trailer = null;
+		
+		Response(final Request request) {
+			this.request = request;
+			this.close = request == null || !request.keepAlive() || request.hasBody();
+		}
+		
+		void header(final String name, final String value) {
+			this.headers.append(name).append(": ").append(value).append("\r\n");
+		}
+		
+		void transfer(final ArchiveChannel archive, final long position, final long length) {
+			this.archive = archive;
+			this.position = position;
+			this.remaining = length;
+		}
+		
+		void stream(final InputStream stream, final long skip) throws IOException {
+			this.stream = stream;
+			for (long skipped = 0L; skipped < skip;) {
+				final long count = stream.skip(skip - skipped);
+				if (count <= 0L) {
+					throw new IOException("Content entry ends before the range.");
+				}
+				skipped += count;
+			}
+			this.streamBuffer = ByteBuffer.allocate(ContentServer.STREAM_BUFFER_SIZE);
+			this.streamBuffer.limit(0);
+			this.remaining = this.contentLength;
+		}
+		
+		/**
+		 * @return whether the whole response was written.
+		 */
+		boolean write(final SocketChannel channel) throws IOException {
+			if (this.head == null) {
+				final StringBuilder text = new StringBuilder(this.headers.length() + 128);
+				text.append("HTTP/1.1 ").append(this.status).append(' ').append(ContentServer.reason(this.status)).append("\r\n");
+				text.append("Date: ").append(DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC))).append("\r\n");
+				text.append(this.headers);
+				if (this.status != 304) {
+					text.append("Content-Length: ").append(this.contentLength).append("\r\n");
+				}
+				text.append(this.close ? "Connection: close\r\n" : "").append("\r\n");
+				this.head = ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.ISO_8859_1));
+			}
+			if (!this.writeBuffer(channel, this.head) || !this.writeBuffer(channel, this.prefix)) {
+				return false;
+			}
+			while (this.archive != null && this.remaining > 0L) {
+				final long sent = this.archive.channel.transferTo(this.position, this.remaining, channel);
+				if (sent <= 0L) {
+					return false;
+				}
+				ContentServer.this.bytesSent.add(sent);
+				this.position += sent;
+				this.remaining -= sent;
+			}
+			while (this.stream != null) {
+				if (!this.writeBuffer(channel, this.streamBuffer)) {
+					return false;
+				}
+				if (this.remaining == 0L) {
+					this.stream.close();
+					this.stream = null;
+					break;
+				}
+				final int read = this.stream.read(this.streamBuffer.array(), 0, (int) Math.min(this.streamBuffer.capacity(), this.remaining));
+				if (read < 0) {
+					throw new IOException("Content entry ends before its size.");
+				}
+				this.streamBuffer.clear();
+				this.streamBuffer.limit(read);
+				this.remaining -= read;
+			}
+			return this.writeBuffer(channel, this.body) && this.writeBuffer(channel, this.trailer);
+		}
+		
+		private boolean writeBuffer(final SocketChannel channel, final ByteBuffer buffer) throws IOException {
+			if (buffer == null) {
+				return true;
+			}
+			while (buffer.hasRemaining()) {
+				final int written = channel.write(buffer);
+				if (written == 0) {
+					return false;
+				}
+				ContentServer.this.bytesSent.add(written);
+			}
+			return true;
+		}
+		
+		void release() {
+			if (this.archive != null) {
+				this.archive.release();
+				this.archive = null;
+			}
+			if (this.stream != null) {
+				ContentServer.closeQuietly(this.stream);
+				this.stream = null;
+			}
+		}
+		
+	}
+	
+	/**
+	 * Connection of a device: reads a request head, writes its response and waits for the next request.
+	 */
+	private final class Connection {
+		
+		private final SocketChannel channel;
+		
+		private final SelectionKey key;
+		
+		private final ByteBuffer input = ByteBuffer.allocate(ContentServer.MAXIMUM_REQUEST_HEAD);
+		
+		private Response response = null;
+		
+		private long lastActive = System.nanoTime();
+		
+		Connection(final SocketChannel channel, final SelectionKey key) {
+			this.channel = channel;
+			this.key = key;
+		}
+		
+		void read() throws IOException {
+			if (this.channel.read(this.input) < 0) {
+				this.close();
+				return;
+			}
+			this.lastActive = System.nanoTime();
+			this.process();
+		}
+		
+		void write() throws IOException {
+			this.lastActive = System.nanoTime();
+			if (this.complete()) {
+				this.process();
+			}
+		}
+		
+		/**
+		 * Answers the requests read so far, pipelined requests one after another.
+		 */
+		private void process() throws IOException {
+			while (this.response == null && this.key.isValid()) {
+				final int end = this.headEnd();
+				if (end < 0) {
+					if (!this.input.hasRemaining()) {
+						this.response = ContentServer.this.error(431, null, "Request head is too large.");
+						this.key.interestOps(SelectionKey.OP_WRITE);
+						this.complete();
+					}
+					return;
+				}
+				final Request request = Request.parse(new String(this.input.array(), 0, end, StandardCharsets.ISO_8859_1));
+				this.input.flip();
+				this.input.position(end + 4);
+				this.input.compact();
+				ContentServer.this.requests.increment();
+				this.response = request == null ? ContentServer.this.error(400, null, "Malformed request.") : ContentServer.this.respond(request);
+				this.key.interestOps(SelectionKey.OP_WRITE);
+				if (!this.complete()) {
+					return;
+				}
+			}
+		}
+		
+		/**
+		 * Writes the rest of the response.
+		 * @return whether it was written completely and the connection waits for the next request.
+		 */
+		private boolean complete() throws IOException {
+			if (!this.response.write(this.channel)) {
+				return false;
+			}
+			final boolean close = this.response.close;
+			this.response.release();
+			this.response = null;
+			if (close) {
+				this.close();
+				return false;
+			}
+			this.key.interestOps(SelectionKey.OP_READ);
+			return true;
+		}
+		
+		/**
+		 * @return position of the blank line ending the request head, -1 when it wasn't read yet.
+		 */
+		private int headEnd() {
+			final byte[] bytes = this.input.array();
+			for (int index = 0; index + 3 < this.input.position(); index++) {
+				if (bytes[index] == '\r' && bytes[index + 1] == '\n' && bytes[index + 2] == '\r' && bytes[index + 3] == '\n') {
+					return index;
+				}
+			}
+			return -1;
+		}
+		
+		void close() {
+			if (this.response != null) {
+				this.response.release();
+				this.response = null;
+			}
+			this.key.cancel();
+			ContentServer.closeQuietly(this.channel);
+		}
+		
+	}
+	
+}
@@ -0,0 +1,326 @@
+package com.data.provisioner.content;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.ZipFile;
+
+/**
+ * Keeps the received content archives as numbered generations and points to the current one.
+ * <p>
+ * A new archive is written to a temporary file, flushed to disk, validated and only then renamed to its generation file,
+ * after which the {@code current} pointer is replaced atomically. A power cut at any point leaves either the previous
+ * or the new generation current, never a partial archive. The last few generations are kept for rollback.
+ * <p>
+ * Readers take {@link #getCurrent()} without locking. Generation archives are never written after the commit, so a reader
+ * holding an older generation keeps reading consistent data until it's done with it.
+ * <p>
+ * Every generation has a {@link ContentIndex} of its entries next to the archive, written at the commit.
+ */
+public class ContentStore {
+	
+	/**
+	 * The logger.
+	 */
+	private static final Logger LOGGER = Logger.getLogger(ContentStore.class.getName());
+	
+	/**
+	 * Default number of generations kept on disk, including the current one.
+	 */
+	public static final int DEFAULT_GENERATIONS_TO_KEEP = 3;
+	
+	private static final String GENERATION_PREFIX = "gen-";
+	
+	private static final String ARCHIVE_SUFFIX = ".zip";
+	
+	private static final String METADATA_SUFFIX = ".properties";
+	
+	private static final String INDEX_SUFFIX = ".idx";
+	
+	private static final String TEMPORARY_SUFFIX = ".tmp";
+	
+	private static final String CURRENT_POINTER = "current";
+	
+	private static final String VERSION_KEY = "version";
+	
+	private final Path directory;
+	
+	private final int generationsToKeep;
+	
+	/**
+	 * The current generation, null until the first commit.
+	 */
+	private volatile ContentGeneration current = null;
+	
+	/**
+	 * Index of the current generation, opened on the first lookup.
+	 */
+	private volatile ContentIndex currentIndex = null;
+	
+	/**
+	 * Opens the store, removing the leftovers of interrupted commits.
+	 * @param directory the store directory.
+	 * @param generationsToKeep number of generations kept on disk, including the current one.
+	 * @throws IOException when the directory can't be read.
+	 */
+	public ContentStore(final Path directory, final int generationsToKeep) throws IOException {
+		if (generationsToKeep < 1) {
+			throw new IllegalArgumentException("At least one generation must be kept, but was " + generationsToKeep + ".");
+		}
+		this.directory = directory;
+		this.generationsToKeep = generationsToKeep;
+		Files.createDirectories(directory);
+		
+		try (final DirectoryStream<Path> temporaryFiles = Files.newDirectoryStream(directory, "*" + ContentStore.TEMPORARY_SUFFIX)) {
+			for (final Path temporaryFile : temporaryFiles) {
+				Files.deleteIfExists(temporaryFile);
+			}
+		}
+		this.current = this.loadCurrent();
+	}
+	
+	/**
+	 * @return the store directory.
+	 */
+	public Path getDirectory() {
+		return this.directory;
+	}
+	
+	/**
+	 * @return the current generation, null when nothing was committed yet.
+	 */
+	public ContentGeneration getCurrent() {
+		return this.current;
+	}
+	
+	/**
+	 * @return version of the current generation, empty string when it's unknown or there is no generation.
+	 */
+	public String getCurrentVersion() {
+		final ContentGeneration generation = this.current;
+		return generation == null ? "" : generation.getVersion();
+	}
+	
+	/**
+	 * Opens the entry index of the current generation, writing it first for generations committed before the indexes.
+	 * The index is kept open until the current generation changes.
+	 * @return the index, null when nothing was committed yet.
+	 * @throws IOException when the index can't be written or mapped.
+	 */
+	public ContentIndex getCurrentIndex() throws IOException {
+		final ContentGeneration generation = this.current;
+		if (generation == null) {
+			return null;
+		}
+		final ContentIndex index = this.currentIndex;
+		if (index != null && index.getArchive().equals(generation.getArchive())) {
+			return index;
+		}
+		final ContentIndex opened = ContentIndex.open(generation.getArchive(), this.directory.resolve(ContentStore.generationName(generation.getNumber()) + ContentStore.INDEX_SUFFIX));
+		this.currentIndex = opened;
+		return opened;
+	}
+	
+	/**
+	 * Creates an empty temporary file for writing the next archive. It's removed on the next start if it's never committed.
+	 * @return the temporary file.
+	 * @throws IOException
+	 */
+	public Path createTemporaryFile() throws IOException {
+		return Files.createTempFile(this.directory, "incoming-", ContentStore.TEMPORARY_SUFFIX);
+	}
+	
+	/**
+	 * Makes the archive the current generation. The archive is moved into the store.
+	 * @param archive the completely written archive in the store directory.
+	 * @param version the content version, null or empty when it's unknown.
+	 * @return the committed generation.
+	 * @throws IOException when the archive isn't a valid zip or can't be committed. The current generation stays unchanged.
+	 */
+	public synchronized ContentGeneration commit(final Path archive, final String version) throws IOException {
+		try (final FileChannel channel = FileChannel.open(archive, StandardOpenOption.WRITE)) {
+			channel.force(true);
+		}
+		try (final ZipFile zipFile = new ZipFile(archive.toFile())) {
+			if (zipFile.size() == 0) {
+				throw new IOException("Content archive has no entries.");
+			}
+		} catch (IOException exception) {
+			Files.deleteIfExists(archive);
+			throw new IOException("Content archive is invalid. Reason: " + exception.toString(), exception);
+		}
+		
+		// Numbers continue after the newest generation on disk, which isn't the current one after a rollback.
+		final long number = this.highestGeneration() + 1L;
+		final String name = ContentStore.generationName(number);
+		final ContentGeneration generation = new ContentGeneration(number, this.directory.resolve(name + ContentStore.ARCHIVE_SUFFIX), version == null ? "" : version);
+		try {
+			ContentIndex.write(archive, this.directory.resolve(name + ContentStore.INDEX_SUFFIX));
+		} catch (IOException exception) {
+			Files.deleteIfExists(archive);
+			throw new IOException("Content archive is invalid. Reason: " + exception.toString(), exception);
+		}
+		
+		final Properties metadata = new Properties();
+		metadata.setProperty(ContentStore.VERSION_KEY, generation.getVersion());
+		final Path metadataTemporary = this.directory.resolve(name + ContentStore.METADATA_SUFFIX + ContentStore.TEMPORARY_SUFFIX);
+		try (final OutputStream outputStream = Files.newOutputStream(metadataTemporary)) {
+			metadata.store(outputStream, null);
+		}
+		this.forceAndMove(metadataTemporary, this.directory.resolve(name + ContentStore.METADATA_SUFFIX));
+		Files.move(archive, generation.getArchive(), StandardCopyOption.ATOMIC_MOVE);
+		this.point(generation);
+		this.prune();
+		return generation;
+	}
+	
+	/**
+	 * Makes the newest generation older than the current one current again.
+	 * @return the generation rolled back to.
+	 * @throws IOException when there is no older generation or the pointer can't be replaced.
+	 */
+	public synchronized ContentGeneration rollback() throws IOException {
+		final List<Long> numbers = this.generationNumbers();
+		final long currentNumber = this.current == null ? Long.MAX_VALUE : this.current.getNumber();
+		for (int index = numbers.size() - 1; index >= 0; index--) {
+			if (numbers.get(index) < currentNumber) {
+				final ContentGeneration generation = this.loadGeneration(numbers.get(index));
+				this.point(generation);
+				ContentStore.LOGGER.log(Level.INFO, "Content rolled back to {0}", generation);
+				return generation;
+			}
+		}
+		throw new IOException("There is no content generation to roll back to.");
+	}
+	
+	/**
+	 * Imports an archive written by a previous version of the provisioner as the first generation.
+	 * @param legacyArchive the archive, it's moved into the store.
+	 * @param version the content version, null or empty when it's unknown.
+	 * @throws IOException when the archive can't be committed.
+	 */
+	public synchronized void importLegacyArchive(final Path legacyArchive, final String version) throws IOException {
+		if (this.current != null || !Files.exists(legacyArchive)) {
+			return;
+		}
+		final Path temporary = this.createTemporaryFile();
+		Files.move(legacyArchive, temporary, StandardCopyOption.REPLACE_EXISTING);
+		ContentStore.LOGGER.log(Level.INFO, "Imported legacy content archive as {0}", this.commit(temporary, version));
+	}
+	
+	/**
+	 * Replaces the current pointer atomically.
+	 */
+	private void point(final ContentGeneration generation) throws IOException {
+		final Path pointerTemporary = this.directory.resolve(ContentStore.CURRENT_POINTER + ContentStore.TEMPORARY_SUFFIX);
+		Files.write(pointerTemporary, ContentStore.generationName(generation.getNumber()).getBytes(StandardCharsets.UTF_8));
+		this.forceAndMove(pointerTemporary, this.directory.resolve(ContentStore.CURRENT_POINTER));
+		this.current = generation;
+	}
+	
+	private void forceAndMove(final Path source, final Path target) throws IOException {
+		try (final FileChannel channel = FileChannel.open(source, StandardOpenOption.WRITE)) {
+			channel.force(true);
+		}
+		Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		try (final FileChannel directoryChannel = FileChannel.open(this.directory, StandardOpenOption.READ)) {
+			directoryChannel.force(true);
+		} catch (IOException exception) {
+			// Not every platform can flush a directory, the rename is still atomic there.
+		}
+	}
+	
+	/**
+	 * Removes the oldest generations, never the current one.
+	 */
+	private void prune() {
+		final List<Long> numbers = this.generationNumbers();
+		for (int index = 0; index < numbers.size() - this.generationsToKeep; index++) {
+			final long number = numbers.get(index);
+			if (this.current != null && number == this.current.getNumber()) {
+				continue;
+			}
+			final String name = ContentStore.generationName(number);
+			try {
+				Files.deleteIfExists(this.directory.resolve(name + ContentStore.ARCHIVE_SUFFIX));
+				Files.deleteIfExists(this.directory.resolve(name + ContentStore.METADATA_SUFFIX));
+				Files.deleteIfExists(this.directory.resolve(name + ContentStore.INDEX_SUFFIX));
+			} catch (IOException exception) {
+				ContentStore.LOGGER.log(Level.WARNING, "Content generation {0}", number + " can't be removed. Reason: " + exception.toString());
+			}
+		}
+	}
+	
+	private ContentGeneration loadCurrent() throws IOException {
+		final Path pointer = this.directory.resolve(ContentStore.CURRENT_POINTER);
+		if (Files.exists(pointer)) {
+			final String name = new String(Files.readAllBytes(pointer), StandardCharsets.UTF_8).trim();
+			try {
+				final ContentGeneration generation = this.loadGeneration(Long.parseLong(name.substring(ContentStore.GENERATION_PREFIX.length())));
+				if (Files.exists(generation.getArchive())) {
+					return generation;
+				}
+			} catch (NumberFormatException | IndexOutOfBoundsException exception) {
+				ContentStore.LOGGER.log(Level.WARNING, "Ignoring invalid content pointer {0}", name);
+			}
+		}
+		final long highest = this.highestGeneration();
+		return highest > 0L ? this.loadGeneration(highest) : null;
+	}
+	
+	private ContentGeneration loadGeneration(final long number) throws IOException {
+		final String name = ContentStore.generationName(number);
+		final Properties metadata = new Properties();
+		final Path metadataPath = this.directory.resolve(name + ContentStore.METADATA_SUFFIX);
+		if (Files.exists(metadataPath)) {
+			try (final InputStream inputStream = Files.newInputStream(metadataPath)) {
+				metadata.load(inputStream);
+			}
+		}
+		return new ContentGeneration(number, this.directory.resolve(name + ContentStore.ARCHIVE_SUFFIX), metadata.getProperty(ContentStore.VERSION_KEY, ""));
+	}
+	
+	private long highestGeneration() {
+		final List<Long> numbers = this.generationNumbers();
+		return numbers.isEmpty() ? 0L : numbers.get(numbers.size() - 1);
+	}
+	
+	/**
+	 * @return numbers of the generations on disk in ascending order.
+	 */
+	private List<Long> generationNumbers() {
+		final List<Long> numbers = new ArrayList<>();
+		try (final DirectoryStream<Path> archives = Files.newDirectoryStream(this.directory, ContentStore.GENERATION_PREFIX + "*" + ContentStore.ARCHIVE_SUFFIX)) {
+			for (final Path archive : archives) {
+				final String fileName = archive.getFileName().toString();
+				try {
+					numbers.add(Long.parseLong(fileName.substring(ContentStore.GENERATION_PREFIX.length(), fileName.length() - ContentStore.ARCHIVE_SUFFIX.length())));
+				} catch (NumberFormatException exception) {
+					// Not a generation archive.
+				}
+			}
+		} catch (IOException exception) {
+			ContentStore.LOGGER.log(Level.WARNING, "Content generations can't be listed. Reason: {0}", exception.toString());
+		}
+		Collections.sort(numbers);
+		return numbers;
+	}
+	
+	private static String generationName(final long number) {
+		return String.format("%s%010d", ContentStore.GENERATION_PREFIX, number);
+	}
+	
+}
@@ -0,0 +1,209 @@
+package com.data.provisioner.content;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageEOFException;
+import javax.jms.MessageFormatException;
+import javax.jms.StreamMessage;
+
+import org.apache.activemq.BlobMessage;
+
+import com.data.provisioner.codec.PayloadCodec;
+import com.data.provisioner.codec.PayloadDecoder;
+
+/**
+ * Copies the body of a content message to a channel in fixed-size chunks.
+ * <p>
+ * Only the body of a blob message is read from the blob server while it's copied, so the heap usage stays the same
+ * no matter how big the transferred archive is. ActiveMQ unmarshals the whole body of a bytes message, and of a stream
+ * message as well, into the message before it's delivered, so the heap still holds the full body. The chunks only
+ * avoid a second copy of it. Big archives must be sent as blobs or as multi-part transfers (see {@link ContentAssembler}).
+ * <p>
+ * An instance reuses its chunk buffer and therefore must not be shared between threads. One streamer
+ * per consumer session is the intended usage.
+ * <p>
+ * Encoded bodies of bytes and blob messages (see {@link PayloadCodec}) are decoded while they are streamed.
+ */
+public class ContentStreamer {
+	
+	/**
+	 * Default chunk size (in bytes) - 64 KiB.
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+	
+	/**
+	 * The reusable chunk.
+	 */
+	private final byte[] chunk;
+	
+	/**
+	 * Buffer view over the chunk, used for writing to the channel.
+	 */
+	private final ByteBuffer chunkBuffer;
+	
+	private final PayloadDecoder payloadDecoder;
+	
+	public ContentStreamer() {
+		this(ContentStreamer.DEFAULT_CHUNK_SIZE);
+	}
+	
+	public ContentStreamer(final int chunkSize) {
+		this(chunkSize, new PayloadDecoder());
+	}
+	
+	/**
+	 * @param chunkSize the chunk size (in bytes).
+	 * @param payloadDecoder the decoder of the encoded bodies.
+	 */
+	public ContentStreamer(final int chunkSize, final PayloadDecoder payloadDecoder) {
+		if (chunkSize <= 0) {
+			throw new IllegalArgumentException("Chunk size must be positive, but was " + chunkSize + ".");
+		}
+		this.chunk = new byte[chunkSize];
+		this.chunkBuffer = ByteBuffer.wrap(this.chunk);
+		this.payloadDecoder = payloadDecoder;
+	}
+	
+	/**
+	 * Checks if the body of the message can be streamed.
+	 * @param message the received message.
+	 * @return true for bytes, stream and blob messages.
+	 */
+	public static boolean isSupported(final Message message) {
+		return message instanceof BytesMessage || message instanceof StreamMessage || message instanceof BlobMessage;
+	}
+	
+	/**
+	 * Streams the message body into the channel.
+	 * @param message bytes, stream or blob message.
+	 * @param channel the destination channel.
+	 * @return the number of bytes written.
+	 * @throws JMSException when the message body can't be read.
+	 * @throws IOException when the channel can't be written.
+	 */
+	public long transfer(final Message message, final WritableByteChannel channel) throws JMSException, IOException {
+		final PayloadCodec codec = PayloadCodec.of(message);
+		if (codec != PayloadCodec.NONE) {
+			if (!(message instanceof BytesMessage) && !(message instanceof BlobMessage)) {
+				throw new MessageFormatException("Encoded body of message " + message.getJMSMessageID() + " can't be streamed.");
+			}
+			try (final InputStream inputStream = this.payloadDecoder.decodingStream(codec, ContentStreamer.bodyStream(message))) {
+				return this.transfer(inputStream, channel);
+			}
+		}
+		if (message instanceof BlobMessage) {
+			try (final InputStream inputStream = ((BlobMessage) message).getInputStream()) {
+				if (inputStream == null) {
+					throw new IOException("Blob message " + message.getJMSMessageID() + " has no content available.");
+				}
+				return this.transfer(inputStream, channel);
+			}
+		} else if (message instanceof BytesMessage) {
+			return this.transfer((BytesMessage) message, channel);
+		} else if (message instanceof StreamMessage) {
+			return this.transfer((StreamMessage) message, channel);
+		}
+		throw new MessageFormatException("Message " + message.getJMSMessageID() + " can't be streamed.");
+	}
+	
+	/**
+	 * Streams the input into the channel.
+	 * @param inputStream the source stream. It's not closed by this method.
+	 * @param channel the destination channel.
+	 * @return the number of bytes written.
+	 * @throws IOException when reading or writing fails.
+	 */
+	public long transfer(final InputStream inputStream, final WritableByteChannel channel) throws IOException {
+		long total = 0L;
+		int read;
+		while ((read = inputStream.read(this.chunk)) != -1) {
+			total += this.write(channel, read);
+		}
+		return total;
+	}
+	
+	/**
+	 * The body is already on the heap, it's copied out in chunks to avoid a second full-size array.
+	 */
+	private long transfer(final BytesMessage message, final WritableByteChannel channel) throws JMSException, IOException {
+		long total = 0L;
+		int read;
+		while ((read = message.readBytes(this.chunk)) != -1) {
+			total += this.write(channel, read);
+		}
+		return total;
+	}
+	
+	/**
+	 * Stream messages can carry the content as several byte array fields, so they are all read until the end of the stream.
+	 */
+	private long transfer(final StreamMessage message, final WritableByteChannel channel) throws JMSException, IOException {
+		long total = 0L;
+		try {
+			while (true) {
+				final int read = message.readBytes(this.chunk);
+				if (read > 0) {
+					total += this.write(channel, read);
+				}
+			}
+		} catch (MessageEOFException endOfStream) {
+			return total;
+		}
+	}
+	
+	/**
+	 * @return stream of the body of the bytes or blob message.
+	 */
+	private static InputStream bodyStream(final Message message) throws JMSException, IOException {
+		if (message instanceof BlobMessage) {
+			final InputStream inputStream = ((BlobMessage) message).getInputStream();
+			if (inputStream == null) {
+				throw new IOException("Blob message " + message.getJMSMessageID() + " has no content available.");
+			}
+			return inputStream;
+		}
+		final BytesMessage bytesMessage = (BytesMessage) message;
+		return new InputStream() {
+			
+			@Override
+			public int read() throws IOException {
+				final byte[] single = new byte[1];
+				return this.read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+			}
+			
+			@Override
+			public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+				try {
+					if (offset == 0) {
+						return bytesMessage.readBytes(buffer, length);
+					}
+					final byte[] part = new byte[length];
+					final int read = bytesMessage.readBytes(part, length);
+					if (read > 0) {
+						System.arraycopy(part, 0, buffer, offset, read);
+					}
+					return read;
+				} catch (JMSException exception) {
+					throw new IOException(exception);
+				}
+			}
+			
+		};
+	}
+	
+	private int write(final WritableByteChannel channel, final int length) throws IOException {
+		this.chunkBuffer.clear();
+		this.chunkBuffer.limit(length);
+		while (this.chunkBuffer.hasRemaining()) {
+			channel.write(this.chunkBuffer);
+		}
+		return length;
+	}
+	
+}
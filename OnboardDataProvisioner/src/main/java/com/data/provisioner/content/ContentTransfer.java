@@ -0,0 +1,178 @@
+package com.data.provisioner.content;
+
+import java.util.BitSet;
+import java.util.Collection;
+
+/**
+ * Message properties of the multi-part content transfer protocol.
+ * <p>
+ * Every part of an archive is sent as a separate message carrying the transfer id, its sequence number,
+ * the total number of parts, the nominal part size, the archive size and the CRC-32 of the part.
+ * Parts can arrive in any order and a part received twice is simply written again.
+ * Every part also carries the content version properties of the archive.
+ * <p>
+ * The same names are used by the offboard publisher, so they must be kept in sync.
+ */
+public final class ContentTransfer {
+	
+	/**
+	 * Unique id of the transfer (String).
+	 */
+	public static final String TRANSFER_ID = "transferId";
+	
+	/**
+	 * Zero based sequence number of the part (int).
+	 */
+	public static final String PART_INDEX = "partIndex";
+	
+	/**
+	 * Total number of parts in the transfer (int).
+	 */
+	public static final String PART_COUNT = "partCount";
+	
+	/**
+	 * Nominal size of a part (in bytes). Only the last part can be shorter (int).
+	 */
+	public static final String PART_SIZE = "partSize";
+	
+	/**
+	 * Size of the whole archive (in bytes) (long).
+	 */
+	public static final String TOTAL_SIZE = "totalSize";
+	
+	/**
+	 * CRC-32 of the part (long).
+	 */
+	public static final String PART_CHECKSUM = "partChecksum";
+	
+	/**
+	 * Version of the content the archive represents (String). Optional for full archives.
+	 */
+	public static final String CONTENT_VERSION = "contentVersion";
+	
+	/**
+	 * Version of the content a delta archive was computed against (String). Present only on delta archives,
+	 * which carry the changed and added entries plus a manifest (see {@code ContentDelta}).
+	 */
+	public static final String CONTENT_BASE_VERSION = "contentBaseVersion";
+	
+	/**
+	 * Parts requested again by the train, formatted as ranges - "0-3,7,9-12" (String).
+	 */
+	public static final String MISSING_PARTS = "missingParts";
+	
+	/**
+	 * Id of the train requesting parts again or acknowledging the transfer (String).
+	 */
+	public static final String TRAIN_ID = "trainId";
+	
+	/**
+	 * Trains and train groups the part is addressed to, formatted as ",Northern-001,@north," (String).
+	 * Parts without it are addressed to the whole fleet. The trains select the parts addressed to them on the broker,
+	 * so the other trains don't receive them at all.
+	 */
+	public static final String TARGETS = "contentTargets";
+	
+	/**
+	 * Prefix of the train group names in the {@link #TARGETS}.
+	 */
+	public static final String GROUP_PREFIX = "@";
+	
+	/**
+	 * Outcome of the transfer acknowledged by the train - {@link #STATUS_COMMITTED} or {@link #STATUS_REJECTED} (String).
+	 */
+	public static final String STATUS = "contentStatus";
+	
+	/**
+	 * The train switched to the content of the transfer.
+	 */
+	public static final String STATUS_COMMITTED = "committed";
+	
+	/**
+	 * The train received the transfer, but discarded it - an invalid archive or a delta computed against another version.
+	 */
+	public static final String STATUS_REJECTED = "rejected";
+	
+	private ContentTransfer() {
+		
+	}
+	
+	/**
+	 * Formats the set parts as ranges.
+	 * @param parts the parts.
+	 * @return the ranges, for example "0-3,7,9-12". Empty string when no parts are set.
+	 */
+	public static String formatRanges(final BitSet parts) {
+		final StringBuilder ranges = new StringBuilder();
+		int start = parts.nextSetBit(0);
+		while (start >= 0) {
+			final int end = parts.nextClearBit(start) - 1;
+			if (ranges.length() > 0) {
+				ranges.append(',');
+			}
+			ranges.append(start);
+			if (end > start) {
+				ranges.append('-').append(end);
+			}
+			start = parts.nextSetBit(end + 1);
+		}
+		return ranges.toString();
+	}
+	
+	/**
+	 * Builds the message selector of the parts addressed to the whole fleet, the train or one of its groups.
+	 * @param trainId the train id.
+	 * @param groups the groups of the train, without the {@link #GROUP_PREFIX}.
+	 * @return the selector.
+	 */
+	public static String targetSelector(final String trainId, final Collection<String> groups) {
+		final StringBuilder selector = new StringBuilder(ContentTransfer.TARGETS).append(" IS NULL");
+		ContentTransfer.appendTarget(selector, trainId);
+		for (final String group : groups) {
+			ContentTransfer.appendTarget(selector, ContentTransfer.GROUP_PREFIX + group);
+		}
+		return selector.toString();
+	}
+	
+	/**
+	 * Parses ranges formatted with {@link #formatRanges(BitSet)}.
+	 * @param ranges the ranges.
+	 * @return the parts.
+	 */
+	public static BitSet parseRanges(final String ranges) {
+		final BitSet parts = new BitSet();
+		for (final String range : ranges.split(",")) {
+			final String trimmed = range.trim();
+			if (trimmed.isEmpty()) {
+				continue;
+			}
+			final int separator = trimmed.indexOf('-');
+			if (separator < 0) {
+				parts.set(Integer.parseInt(trimmed));
+			} else {
+				parts.set(Integer.parseInt(trimmed.substring(0, separator)), Integer.parseInt(trimmed.substring(separator + 1)) + 1);
+			}
+		}
+		return parts;
+	}
+	
+	/**
+	 * Appends the LIKE condition of the target, escaping its quotes and wildcards.
+	 */
+	private static void appendTarget(final StringBuilder selector, final String target) {
+		selector.append(" OR ").append(ContentTransfer.TARGETS).append(" LIKE '%,");
+		for (int index = 0; index < target.length(); index++) {
+			final char character = target.charAt(index);
+			if (character == '\'') {
+				selector.append("''");
+			} else {
+				if (character == '%' || character == '_' || character == '\\') {
+					selector.append('\\');
+				}
+				selector.append(character);
+			}
+		}
+		selector.append(",%' ESCAPE '\\'");
+	}
+	
+}
@@ -0,0 +1,272 @@
+package com.data.provisioner.gtfs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import com.data.provisioner.util.ByteString;
+
+/**
+ * Reads the records of a GTFS text file (RFC 4180 CSV, UTF-8) without allocating per record.
+ * <p>
+ * The fields of the current record are kept as ranges of a reused byte array. The separators are ASCII, so splitting
+ * the UTF-8 bytes is safe. Values are taken by column index, the indexes are looked up once from the header.
+ */
+final class CsvReader implements Closeable {
+	
+	/**
+	 * Value returned for empty numeric and time fields.
+	 */
+	static final int MISSING = -1;
+	
+	private static final int BUFFER_SIZE = 64 * 1024;
+	
+	private final InputStream inputStream;
+	
+	private final byte[] buffer = new byte[CsvReader.BUFFER_SIZE];
+	
+	private int position = 0;
+	
+	private int limit = 0;
+	
+	private byte[] record = new byte[256];
+	
+	private int recordLength = 0;
+	
+	private int[] fieldStarts = new int[16];
+	
+	private int[] fieldEnds = new int[16];
+	
+	private int fieldCount = 0;
+	
+	private final String[] header;
+	
+	/**
+	 * Creates reader and reads the header record.
+	 * @param inputStream the file content, closed with the reader.
+	 * @throws IOException when the file is empty or can't be read.
+	 */
+	CsvReader(final InputStream inputStream) throws IOException {
+		this.inputStream = inputStream;
+		this.fill();
+		if (this.limit >= 3 && (this.buffer[0] & 0xFF) == 0xEF && (this.buffer[1] & 0xFF) == 0xBB && (this.buffer[2] & 0xFF) == 0xBF) {
+			this.position = 3;
+		}
+		if (!this.next()) {
+			throw new IOException("File has no header.");
+		}
+		this.header = new String[this.fieldCount];
+		for (int index = 0; index < this.fieldCount; index++) {
+			this.header[index] = this.getString(index).trim();
+		}
+	}
+	
+	/**
+	 * @param name the column name.
+	 * @return index of the column or -1 when the file doesn't have it.
+	 */
+	int column(final String name) {
+		for (int index = 0; index < this.header.length; index++) {
+			if (this.header[index].equals(name)) {
+				return index;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * @param name the column name.
+	 * @return index of the column.
+	 * @throws IOException when the file doesn't have the column.
+	 */
+	int requiredColumn(final String name) throws IOException {
+		final int column = this.column(name);
+		if (column < 0) {
+			throw new IOException("Required column " + name + " is missing.");
+		}
+		return column;
+	}
+	
+	/**
+	 * Reads the next record, skipping empty lines.
+	 * @return false at the end of the file.
+	 */
+	boolean next() throws IOException {
+		do {
+			if (!this.readRecord()) {
+				return false;
+			}
+		} while (this.fieldCount == 1 && this.fieldEnds[0] == this.fieldStarts[0]);
+		return true;
+	}
+	
+	private boolean readRecord() throws IOException {
+		this.recordLength = 0;
+		this.fieldCount = 0;
+		if (this.position == this.limit && !this.fill()) {
+			return false;
+		}
+		
+		boolean quoted = false;
+		int fieldStart = 0;
+		while (true) {
+			if (this.position == this.limit && !this.fill()) {
+				this.endField(fieldStart);
+				return true;
+			}
+			final byte value = this.buffer[this.position++];
+			if (quoted) {
+				if (value == '"') {
+					if (this.position == this.limit && !this.fill()) {
+						quoted = false;
+					} else if (this.buffer[this.position] == '"') {
+						this.position++;
+						this.append(value);
+					} else {
+						quoted = false;
+					}
+				} else {
+					this.append(value);
+				}
+			} else if (value == ',') {
+				this.endField(fieldStart);
+				fieldStart = this.recordLength;
+			} else if (value == '\n') {
+				this.endField(fieldStart);
+				return true;
+			} else if (value == '"' && this.recordLength == fieldStart) {
+				quoted = true;
+			} else if (value != '\r') {
+				this.append(value);
+			}
+		}
+	}
+	
+	private void append(final byte value) {
+		if (this.recordLength == this.record.length) {
+			this.record = Arrays.copyOf(this.record, this.record.length * 2);
+		}
+		this.record[this.recordLength++] = value;
+	}
+	
+	private void endField(final int fieldStart) {
+		if (this.fieldCount == this.fieldStarts.length) {
+			this.fieldStarts = Arrays.copyOf(this.fieldStarts, this.fieldCount * 2);
+			this.fieldEnds = Arrays.copyOf(this.fieldEnds, this.fieldCount * 2);
+		}
+		this.fieldStarts[this.fieldCount] = fieldStart;
+		this.fieldEnds[this.fieldCount] = this.recordLength;
+		this.fieldCount++;
+	}
+	
+	private boolean fill() throws IOException {
+		final int read = this.inputStream.read(this.buffer);
+		this.position = 0;
+		this.limit = Math.max(read, 0);
+		return read > 0;
+	}
+	
+	/**
+	 * @return true when the field is empty or the record is too short to have it.
+	 */
+	boolean isEmpty(final int column) {
+		return column < 0 || column >= this.fieldCount || this.fieldStarts[column] == this.fieldEnds[column];
+	}
+	
+	/**
+	 * Copies the field into the target, empty when the record doesn't have it.
+	 */
+	void get(final int column, final ByteString target) {
+		if (this.isEmpty(column)) {
+			target.clear();
+		} else {
+			target.set(this.record, this.fieldStarts[column], this.fieldEnds[column] - this.fieldStarts[column]);
+		}
+	}
+	
+	/**
+	 * @return the field decoded as string, empty when the record doesn't have it.
+	 */
+	String getString(final int column) {
+		if (this.isEmpty(column)) {
+			return "";
+		}
+		return new String(this.record, this.fieldStarts[column], this.fieldEnds[column] - this.fieldStarts[column], StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * @return the field as integer or {@link #MISSING} when it's empty.
+	 * @throws IOException when the field isn't a non-negative integer.
+	 */
+	int getInt(final int column) throws IOException {
+		if (this.isEmpty(column)) {
+			return CsvReader.MISSING;
+		}
+		int value = 0;
+		for (int index = this.fieldStarts[column]; index < this.fieldEnds[column]; index++) {
+			final int digit = this.record[index] - '0';
+			if (digit < 0 || digit > 9) {
+				if (this.record[index] == ' ') {
+					continue;
+				}
+				throw new IOException("Invalid number " + this.getString(column) + ".");
+			}
+			value = value * 10 + digit;
+		}
+		return value;
+	}
+	
+	/**
+	 * Parses a GTFS time, which is measured from noon minus 12 hours and may be over 24:00:00 for trips
+	 * running past midnight.
+	 * @return seconds since the start of the service day or {@link #MISSING} when the field is empty.
+	 * @throws IOException when the field isn't a H:MM:SS or HH:MM:SS time.
+	 */
+	int getTime(final int column) throws IOException {
+		if (this.isEmpty(column)) {
+			return CsvReader.MISSING;
+		}
+		int seconds = 0;
+		int component = 0;
+		int separators = 0;
+		for (int index = this.fieldStarts[column]; index < this.fieldEnds[column]; index++) {
+			final byte value = this.record[index];
+			if (value == ':') {
+				seconds = seconds * 60 + component;
+				component = 0;
+				separators++;
+			} else if (value >= '0' && value <= '9') {
+				component = component * 10 + value - '0';
+			} else if (value != ' ') {
+				throw new IOException("Invalid time " + this.getString(column) + ".");
+			}
+		}
+		if (separators != 2) {
+			throw new IOException("Invalid time " + this.getString(column) + ".");
+		}
+		return seconds * 60 + component;
+	}
+	
+	/**
+	 * @return the field as float or {@link Float#NaN} when it's empty.
+	 * @throws IOException when the field isn't a number.
+	 */
+	float getFloat(final int column) throws IOException {
+		if (this.isEmpty(column)) {
+			return Float.NaN;
+		}
+		try {
+			return Float.parseFloat(this.getString(column).trim());
+		} catch (NumberFormatException exception) {
+			throw new IOException("Invalid number " + this.getString(column) + ".", exception);
+		}
+	}
+	
+	@Override
+	public void close() throws IOException {
+		this.inputStream.close();
+	}
+	
+}
@@ -0,0 +1,566 @@
+package com.data.provisioner.gtfs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import com.data.provisioner.util.ByteString;
+
+/**
+ * Compiles static GTFS feed archive into the file read by {@link GtfsStore}.
+ * <p>
+ * Stops, routes and trips are small enough to be sorted in heap. stop_times.txt is read twice instead: the first pass
+ * counts the stop times of each trip, which gives every trip its range in the columns, and the second pass writes each
+ * row straight to its place in the memory-mapped columns. Heap use doesn't depend on the number of stop times and
+ * reading a row doesn't allocate.
+ * <p>
+ * The file is written next to the target and renamed over it once complete, so a store never sees a partial file.
+ */
+public final class GtfsCompiler {
+	
+	/**
+	 * The logger.
+	 */
+	private static final Logger LOGGER = Logger.getLogger(GtfsCompiler.class.getName());
+	
+	private static final String TEMPORARY_SUFFIX = ".tmp";
+	
+	/**
+	 * Stop times are addressed by int byte offsets within a column.
+	 */
+	private static final long MAX_STOP_TIMES = Integer.MAX_VALUE / Integer.BYTES;
+	
+	private static final Comparator<byte[]> UNSIGNED_ORDER = (first, second) -> {
+		final int common = Math.min(first.length, second.length);
+		for (int index = 0; index < common; index++) {
+			final int comparison = (first[index] & 0xFF) - (second[index] & 0xFF);
+			if (comparison != 0) {
+				return comparison;
+			}
+		}
+		return first.length - second.length;
+	};
+	
+	/**
+	 * Compiles the feed and opens the compiled file.
+	 * @param feed the GTFS archive.
+	 * @param version the feed version, the feed_version of feed_info.txt is used when it's null or empty.
+	 * @param target the compiled file, replaced when it exists.
+	 * @return the store reading the compiled file.
+	 * @throws IOException when the archive can't be read or misses a required file or column.
+	 */
+	public GtfsStore compile(final Path feed, final String version, final Path target) throws IOException {
+		final long start = System.nanoTime();
+		final Path temporaryPath = target.resolveSibling(target.getFileName() + GtfsCompiler.TEMPORARY_SUFFIX);
+		try (final ZipFile zipFile = new ZipFile(feed.toFile())) {
+			final Compilation compilation = new Compilation(zipFile);
+			compilation.readStops();
+			compilation.readRoutes();
+			compilation.readTrips();
+			final int versionString = compilation.strings.add(version != null && !version.isEmpty() ? version : compilation.readFeedVersion());
+			compilation.countStopTimes();
+			compilation.write(temporaryPath, versionString);
+		} catch (IOException | RuntimeException exception) {
+			Files.deleteIfExists(temporaryPath);
+			throw exception;
+		}
+		Files.move(temporaryPath, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		
+		final GtfsStore store = GtfsStore.open(target);
+		GtfsCompiler.LOGGER.log(Level.INFO, "GTFS feed compiled to {0}", store + " in " + (System.nanoTime() - start) / 1_000_000 + " ms.");
+		return store;
+	}
+	
+	/**
+	 * Strings of the feed, each distinct value stored once.
+	 */
+	private static final class StringTable {
+		
+		private final Map<ByteString, Integer> indexes = new HashMap<>();
+		
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		
+		private int[] offsets = new int[1024];
+		
+		private int count = 0;
+		
+		/**
+		 * @return index of the value, {@link GtfsStore#MISSING} for empty value.
+		 */
+		int add(final ByteString value) {
+			if (value.isEmpty()) {
+				return GtfsStore.MISSING;
+			}
+			final Integer existing = this.indexes.get(value);
+			if (existing != null) {
+				return existing;
+			}
+			final byte[] encoded = value.toByteArray();
+			if (this.count + 1 == this.offsets.length) {
+				this.offsets = Arrays.copyOf(this.offsets, this.offsets.length * 2);
+			}
+			this.offsets[this.count] = this.bytes.size();
+			this.bytes.write(encoded, 0, encoded.length);
+			this.indexes.put(value.copy(), this.count);
+			return this.count++;
+		}
+		
+		int add(final String value) {
+			return this.add(ByteString.of(value));
+		}
+		
+	}
+	
+	private static final class Stop {
+		
+		private final byte[] id;
+		
+		private final int idString;
+		
+		private final int name;
+		
+		private final ByteString parentStation;
+		
+		private final float latitude;
+		
+		private final float longitude;
+		
+		Stop(final byte[] id, final int idString, final int name, final ByteString parentStation, final float latitude, final float longitude) {
+			this.id = id;
+			this.idString = idString;
+			this.name = name;
+			this.parentStation = parentStation;
+			this.latitude = latitude;
+			this.longitude = longitude;
+		}
+		
+	}
+	
+	private static final class Route {
+		
+		private final byte[] id;
+		
+		private final int idString;
+		
+		private final int shortName;
+		
+		private final int longName;
+		
+		private final int type;
+		
+		Route(final byte[] id, final int idString, final int shortName, final int longName, final int type) {
+			this.id = id;
+			this.idString = idString;
+			this.shortName = shortName;
+			this.longName = longName;
+			this.type = type;
+		}
+		
+	}
+	
+	private static final class Trip {
+		
+		private final byte[] id;
+		
+		private final int idString;
+		
+		private final int route;
+		
+		private final int serviceId;
+		
+		private final int headsign;
+		
+		private final int direction;
+		
+		Trip(final byte[] id, final int idString, final int route, final int serviceId, final int headsign, final int direction) {
+			this.id = id;
+			this.idString = idString;
+			this.route = route;
+			this.serviceId = serviceId;
+			this.headsign = headsign;
+			this.direction = direction;
+		}
+		
+	}
+	
+	/**
+	 * State of a single compilation.
+	 */
+	private static final class Compilation {
+		
+		private final ZipFile zipFile;
+		
+		private final StringTable strings = new StringTable();
+		
+		private final ByteString value = new ByteString();
+		
+		private final List<Stop> stops = new ArrayList<>();
+		
+		private final Map<ByteString, Integer> stopIndexes = new HashMap<>();
+		
+		private final List<Route> routes = new ArrayList<>();
+		
+		private final Map<ByteString, Integer> routeIndexes = new HashMap<>();
+		
+		private final List<Trip> trips = new ArrayList<>();
+		
+		private final Map<ByteString, Integer> tripIndexes = new HashMap<>();
+		
+		/**
+		 * Index of the first stop time of each trip, followed by the stop time count.
+		 */
+		private int[] tripStopTimes;
+		
+		Compilation(final ZipFile zipFile) {
+			this.zipFile = zipFile;
+		}
+		
+		private CsvReader open(final String name, final boolean required) throws IOException {
+			final ZipEntry entry = this.zipFile.getEntry(name);
+			if (entry == null) {
+				if (required) {
+					throw new IOException("GTFS feed has no " + name + ".");
+				}
+				return null;
+			}
+			return new CsvReader(this.zipFile.getInputStream(entry));
+		}
+		
+		String readFeedVersion() throws IOException {
+			try (final CsvReader reader = this.open("feed_info.txt", false)) {
+				if (reader == null || !reader.next()) {
+					return "";
+				}
+				return reader.getString(reader.column("feed_version"));
+			}
+		}
+		
+		void readStops() throws IOException {
+			try (final CsvReader reader = this.open("stops.txt", true)) {
+				final int id = reader.requiredColumn("stop_id");
+				final int name = reader.column("stop_name");
+				final int parentStation = reader.column("parent_station");
+				final int latitude = reader.column("stop_lat");
+				final int longitude = reader.column("stop_lon");
+				while (reader.next()) {
+					reader.get(id, this.value);
+					if (this.value.isEmpty()) {
+						continue;
+					}
+					final int idString = this.strings.add(this.value);
+					final byte[] idBytes = this.value.toByteArray();
+					reader.get(name, this.value);
+					final int nameString = this.strings.add(this.value);
+					reader.get(parentStation, this.value);
+					this.stops.add(new Stop(idBytes, idString, nameString, this.value.isEmpty() ? null : this.value.copy(), reader.getFloat(latitude), reader.getFloat(longitude)));
+				}
+			}
+			this.stops.sort((first, second) -> GtfsCompiler.UNSIGNED_ORDER.compare(first.id, second.id));
+			for (int index = 0; index < this.stops.size(); index++) {
+				final byte[] id = this.stops.get(index).id;
+				final ByteString key = new ByteString();
+				key.set(id, 0, id.length);
+				this.stopIndexes.put(key, index);
+			}
+		}
+		
+		void readRoutes() throws IOException {
+			try (final CsvReader reader = this.open("routes.txt", true)) {
+				final int id = reader.requiredColumn("route_id");
+				final int shortName = reader.column("route_short_name");
+				final int longName = reader.column("route_long_name");
+				final int type = reader.column("route_type");
+				while (reader.next()) {
+					reader.get(id, this.value);
+					if (this.value.isEmpty()) {
+						continue;
+					}
+					final int idString = this.strings.add(this.value);
+					final byte[] idBytes = this.value.toByteArray();
+					reader.get(shortName, this.value);
+					final int shortNameString = this.strings.add(this.value);
+					reader.get(longName, this.value);
+					this.routes.add(new Route(idBytes, idString, shortNameString, this.strings.add(this.value), reader.getInt(type)));
+				}
+			}
+			this.routes.sort((first, second) -> GtfsCompiler.UNSIGNED_ORDER.compare(first.id, second.id));
+			for (int index = 0; index < this.routes.size(); index++) {
+				final byte[] id = this.routes.get(index).id;
+				final ByteString key = new ByteString();
+				key.set(id, 0, id.length);
+				this.routeIndexes.put(key, index);
+			}
+		}
+		
+		void readTrips() throws IOException {
+			int skipped = 0;
+			try (final CsvReader reader = this.open("trips.txt", true)) {
+				final int id = reader.requiredColumn("trip_id");
+				final int route = reader.requiredColumn("route_id");
+				final int serviceId = reader.column("service_id");
+				final int headsign = reader.column("trip_headsign");
+				final int direction = reader.column("direction_id");
+				while (reader.next()) {
+					reader.get(route, this.value);
+					final Integer routeIndex = this.routeIndexes.get(this.value);
+					if (routeIndex == null) {
+						skipped++;
+						continue;
+					}
+					reader.get(id, this.value);
+					if (this.value.isEmpty()) {
+						continue;
+					}
+					final int idString = this.strings.add(this.value);
+					final byte[] idBytes = this.value.toByteArray();
+					reader.get(serviceId, this.value);
+					final int serviceIdString = this.strings.add(this.value);
+					reader.get(headsign, this.value);
+					this.trips.add(new Trip(idBytes, idString, routeIndex, serviceIdString, this.strings.add(this.value), reader.getInt(direction)));
+				}
+			}
+			if (skipped > 0) {
+				GtfsCompiler.LOGGER.log(Level.WARNING, "{0} trips reference unknown routes and are skipped.", skipped);
+			}
+			this.trips.sort((first, second) -> first.route != second.route ? Integer.compare(first.route, second.route) : GtfsCompiler.UNSIGNED_ORDER.compare(first.id, second.id));
+			for (int index = 0; index < this.trips.size(); index++) {
+				final byte[] id = this.trips.get(index).id;
+				final ByteString key = new ByteString();
+				key.set(id, 0, id.length);
+				this.tripIndexes.put(key, index);
+			}
+		}
+		
+		/**
+		 * First pass over stop_times.txt, computes the range of each trip.
+		 */
+		void countStopTimes() throws IOException {
+			final int[] counts = new int[this.trips.size()];
+			long skipped = 0;
+			try (final CsvReader reader = this.open("stop_times.txt", true)) {
+				final int tripId = reader.requiredColumn("trip_id");
+				while (reader.next()) {
+					reader.get(tripId, this.value);
+					final Integer trip = this.tripIndexes.get(this.value);
+					if (trip == null) {
+						skipped++;
+					} else {
+						counts[trip]++;
+					}
+				}
+			}
+			if (skipped > 0) {
+				GtfsCompiler.LOGGER.log(Level.WARNING, "{0} stop times reference unknown trips and are skipped.", skipped);
+			}
+			
+			this.tripStopTimes = new int[counts.length + 1];
+			long total = 0;
+			for (int trip = 0; trip < counts.length; trip++) {
+				this.tripStopTimes[trip] = (int) total;
+				total += counts[trip];
+				if (total > GtfsCompiler.MAX_STOP_TIMES) {
+					throw new IOException("GTFS feed has more than " + GtfsCompiler.MAX_STOP_TIMES + " stop times.");
+				}
+			}
+			this.tripStopTimes[counts.length] = (int) total;
+		}
+		
+		/**
+		 * Writes the sections and the header, the stop times are read the second time straight into the mapped columns.
+		 */
+		void write(final Path path, final int versionString) throws IOException {
+			final byte[] stringBytes = this.strings.bytes.toByteArray();
+			this.strings.offsets[this.strings.count] = stringBytes.length;
+			final int stopTimeCount = this.tripStopTimes[this.trips.size()];
+			final long[] lengths = new long[GtfsStore.SECTION_COUNT];
+			lengths[GtfsStore.STRING_OFFSETS] = (this.strings.count + 1L) * Integer.BYTES;
+			lengths[GtfsStore.STRING_BYTES] = stringBytes.length;
+			lengths[GtfsStore.STOPS] = (long) this.stops.size() * GtfsStore.STOP_RECORD_SIZE;
+			lengths[GtfsStore.ROUTES] = (long) this.routes.size() * GtfsStore.ROUTE_RECORD_SIZE;
+			lengths[GtfsStore.TRIPS] = (long) this.trips.size() * GtfsStore.TRIP_RECORD_SIZE;
+			lengths[GtfsStore.TRIPS_BY_ID] = (long) this.trips.size() * Integer.BYTES;
+			lengths[GtfsStore.ROUTE_TRIPS] = (this.routes.size() + 1L) * Integer.BYTES;
+			lengths[GtfsStore.TRIP_STOP_TIMES] = (this.trips.size() + 1L) * Integer.BYTES;
+			for (final int column : new int[] {GtfsStore.ARRIVAL_TIMES, GtfsStore.DEPARTURE_TIMES, GtfsStore.STOP_INDEXES, GtfsStore.STOP_SEQUENCES}) {
+				lengths[column] = (long) stopTimeCount * Integer.BYTES;
+			}
+			final long[] offsets = new long[GtfsStore.SECTION_COUNT];
+			long offset = GtfsStore.HEADER_SIZE;
+			for (int section = 0; section < GtfsStore.SECTION_COUNT; section++) {
+				if (lengths[section] > Integer.MAX_VALUE) {
+					throw new IOException("GTFS feed is too large, section " + section + " has " + lengths[section] + " bytes.");
+				}
+				offsets[section] = offset;
+				offset += lengths[section];
+			}
+			
+			try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+				long largestSection = 0;
+				for (final int index : new int[] {GtfsStore.STRING_OFFSETS, GtfsStore.STOPS, GtfsStore.ROUTES, GtfsStore.TRIPS, GtfsStore.TRIPS_BY_ID, GtfsStore.ROUTE_TRIPS, GtfsStore.TRIP_STOP_TIMES}) {
+					largestSection = Math.max(largestSection, lengths[index]);
+				}
+				final ByteBuffer section = ByteBuffer.allocate((int) largestSection);
+				
+				section.clear();
+				for (int index = 0; index <= this.strings.count; index++) {
+					section.putInt(this.strings.offsets[index]);
+				}
+				section.flip();
+				Compilation.write(channel, section, offsets[GtfsStore.STRING_OFFSETS]);
+				Compilation.write(channel, ByteBuffer.wrap(stringBytes), offsets[GtfsStore.STRING_BYTES]);
+				
+				section.clear();
+				for (final Stop stop : this.stops) {
+					final Integer parentStation = stop.parentStation == null ? null : this.stopIndexes.get(stop.parentStation);
+					section.putInt(stop.idString).putInt(stop.name).putInt(parentStation == null ? GtfsStore.MISSING : parentStation);
+					section.putFloat(stop.latitude).putFloat(stop.longitude);
+				}
+				section.flip();
+				Compilation.write(channel, section, offsets[GtfsStore.STOPS]);
+				
+				section.clear();
+				for (final Route route : this.routes) {
+					section.putInt(route.idString).putInt(route.shortName).putInt(route.longName).putInt(route.type);
+				}
+				section.flip();
+				Compilation.write(channel, section, offsets[GtfsStore.ROUTES]);
+				
+				section.clear();
+				final int[] routeTrips = new int[this.routes.size() + 1];
+				for (final Trip trip : this.trips) {
+					section.putInt(trip.idString).putInt(trip.route).putInt(trip.serviceId).putInt(trip.headsign).putInt(trip.direction);
+					routeTrips[trip.route + 1]++;
+				}
+				section.flip();
+				Compilation.write(channel, section, offsets[GtfsStore.TRIPS]);
+				
+				section.clear();
+				final Integer[] tripsById = new Integer[this.trips.size()];
+				for (int index = 0; index < tripsById.length; index++) {
+					tripsById[index] = index;
+				}
+				Arrays.sort(tripsById, (first, second) -> GtfsCompiler.UNSIGNED_ORDER.compare(this.trips.get(first).id, this.trips.get(second).id));
+				for (final Integer trip : tripsById) {
+					section.putInt(trip);
+				}
+				section.flip();
+				Compilation.write(channel, section, offsets[GtfsStore.TRIPS_BY_ID]);
+				
+				section.clear();
+				for (int route = 0; route < this.routes.size(); route++) {
+					routeTrips[route + 1] += routeTrips[route];
+				}
+				for (final int first : routeTrips) {
+					section.putInt(first);
+				}
+				section.flip();
+				Compilation.write(channel, section, offsets[GtfsStore.ROUTE_TRIPS]);
+				
+				section.clear();
+				for (final int first : this.tripStopTimes) {
+					section.putInt(first);
+				}
+				section.flip();
+				Compilation.write(channel, section, offsets[GtfsStore.TRIP_STOP_TIMES]);
+				
+				this.writeStopTimes(channel, offsets);
+				
+				final ByteBuffer header = ByteBuffer.allocate(GtfsStore.HEADER_SIZE);
+				header.putInt(GtfsStore.MAGIC).putInt(GtfsStore.FORMAT_VERSION).putInt(versionString).putInt(GtfsStore.SECTION_COUNT);
+				for (int index = 0; index < GtfsStore.SECTION_COUNT; index++) {
+					header.putLong(offsets[index]).putLong(lengths[index]);
+				}
+				header.flip();
+				Compilation.write(channel, header, 0);
+				channel.force(true);
+			}
+		}
+		
+		/**
+		 * Second pass over stop_times.txt, each row is written to the next free place in the range of its trip.
+		 * The rows of a trip are then ordered by stop sequence, they are usually in order already.
+		 */
+		private void writeStopTimes(final FileChannel channel, final long[] offsets) throws IOException {
+			final int stopTimeCount = this.tripStopTimes[this.trips.size()];
+			final long columnLength = (long) stopTimeCount * Integer.BYTES;
+			final MappedByteBuffer arrivals = channel.map(FileChannel.MapMode.READ_WRITE, offsets[GtfsStore.ARRIVAL_TIMES], columnLength);
+			final MappedByteBuffer departures = channel.map(FileChannel.MapMode.READ_WRITE, offsets[GtfsStore.DEPARTURE_TIMES], columnLength);
+			final MappedByteBuffer stopIndexes = channel.map(FileChannel.MapMode.READ_WRITE, offsets[GtfsStore.STOP_INDEXES], columnLength);
+			final MappedByteBuffer sequences = channel.map(FileChannel.MapMode.READ_WRITE, offsets[GtfsStore.STOP_SEQUENCES], columnLength);
+			
+			final int[] written = new int[this.trips.size()];
+			long unknownStops = 0;
+			try (final CsvReader reader = this.open("stop_times.txt", true)) {
+				final int tripId = reader.requiredColumn("trip_id");
+				final int arrivalTime = reader.column("arrival_time");
+				final int departureTime = reader.column("departure_time");
+				final int stopId = reader.requiredColumn("stop_id");
+				final int stopSequence = reader.requiredColumn("stop_sequence");
+				while (reader.next()) {
+					reader.get(tripId, this.value);
+					final Integer trip = this.tripIndexes.get(this.value);
+					if (trip == null) {
+						continue;
+					}
+					final int position = (this.tripStopTimes[trip] + written[trip]++) * Integer.BYTES;
+					reader.get(stopId, this.value);
+					final Integer stop = this.stopIndexes.get(this.value);
+					if (stop == null) {
+						unknownStops++;
+					}
+					arrivals.putInt(position, reader.getTime(arrivalTime));
+					departures.putInt(position, reader.getTime(departureTime));
+					stopIndexes.putInt(position, stop == null ? GtfsStore.MISSING : stop);
+					sequences.putInt(position, reader.getInt(stopSequence));
+				}
+			}
+			if (unknownStops > 0) {
+				GtfsCompiler.LOGGER.log(Level.WARNING, "{0} stop times reference unknown stops.", unknownStops);
+			}
+			
+			for (int trip = 0; trip < this.trips.size(); trip++) {
+				final int first = this.tripStopTimes[trip];
+				final int last = this.tripStopTimes[trip + 1];
+				for (int index = first + 1; index < last; index++) {
+					for (int current = index; current > first && sequences.getInt((current - 1) * Integer.BYTES) > sequences.getInt(current * Integer.BYTES); current--) {
+						for (final MappedByteBuffer column : new MappedByteBuffer[] {arrivals, departures, stopIndexes, sequences}) {
+							final int previousValue = column.getInt((current - 1) * Integer.BYTES);
+							column.putInt((current - 1) * Integer.BYTES, column.getInt(current * Integer.BYTES));
+							column.putInt(current * Integer.BYTES, previousValue);
+						}
+					}
+				}
+			}
+			
+			arrivals.force();
+			departures.force();
+			stopIndexes.force();
+			sequences.force();
+		}
+		
+		private static void write(final FileChannel channel, final ByteBuffer buffer, final long position) throws IOException {
+			long written = 0;
+			while (buffer.hasRemaining()) {
+				written += channel.write(buffer, position + written);
+			}
+		}
+		
+	}
+	
+}
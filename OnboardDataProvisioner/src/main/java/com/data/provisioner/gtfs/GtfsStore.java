@@ -0,0 +1,387 @@
+package com.data.provisioner.gtfs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Read access to a static GTFS feed compiled by {@link GtfsCompiler}.
+ * <p>
+ * The file is memory-mapped, nothing is loaded into heap and the operating system pages in only what is read.
+ * Stops, routes and trips are addressed by their index in the file. A stop, route or trip is found by its id with
+ * a binary search, the trips of a route and the stop times of a trip are contiguous ranges found in constant time.
+ * Stop times are stored in columns, ordered by trip and stop sequence.
+ * <p>
+ * The file is never modified after it's compiled, so all methods may be called from any thread. Strings are decoded
+ * on every call.
+ */
+public final class GtfsStore {
+	
+	/**
+	 * File magic, "GTFB".
+	 */
+	static final int MAGIC = 0x47544642;
+	
+	static final int FORMAT_VERSION = 1;
+	
+	static final int STRING_OFFSETS = 0;
+	
+	static final int STRING_BYTES = 1;
+	
+	/**
+	 * Stops sorted by id: id, name (string indexes), parent station index, latitude, longitude.
+	 */
+	static final int STOPS = 2;
+	
+	/**
+	 * Routes sorted by id: id, short name, long name (string indexes), route type.
+	 */
+	static final int ROUTES = 3;
+	
+	/**
+	 * Trips sorted by route index and id: id (string index), route index, service id, headsign (string indexes),
+	 * direction id.
+	 */
+	static final int TRIPS = 4;
+	
+	/**
+	 * Trip indexes sorted by trip id.
+	 */
+	static final int TRIPS_BY_ID = 5;
+	
+	/**
+	 * Index of the first trip of each route, followed by the trip count.
+	 */
+	static final int ROUTE_TRIPS = 6;
+	
+	/**
+	 * Index of the first stop time of each trip, followed by the stop time count.
+	 */
+	static final int TRIP_STOP_TIMES = 7;
+	
+	static final int ARRIVAL_TIMES = 8;
+	
+	static final int DEPARTURE_TIMES = 9;
+	
+	static final int STOP_INDEXES = 10;
+	
+	static final int STOP_SEQUENCES = 11;
+	
+	static final int SECTION_COUNT = 12;
+	
+	/**
+	 * Magic, format version, feed version string index, section count, then offset and length of each section.
+	 */
+	static final int HEADER_SIZE = 16 + GtfsStore.SECTION_COUNT * 16;
+	
+	static final int STOP_RECORD_SIZE = 20;
+	
+	static final int ROUTE_RECORD_SIZE = 16;
+	
+	static final int TRIP_RECORD_SIZE = 20;
+	
+	/**
+	 * Value of empty time, sequence and numeric fields and index of missing references.
+	 */
+	public static final int MISSING = CsvReader.MISSING;
+	
+	private final Path file;
+	
+	private final String version;
+	
+	private final ByteBuffer[] sections = new ByteBuffer[GtfsStore.SECTION_COUNT];
+	
+	private GtfsStore(final Path file) throws IOException {
+		this.file = file;
+		try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			final ByteBuffer header = ByteBuffer.allocate(GtfsStore.HEADER_SIZE);
+			while (header.hasRemaining() && channel.read(header) >= 0) {
+				// read the whole header
+			}
+			header.flip();
+			if (header.remaining() < GtfsStore.HEADER_SIZE || header.getInt() != GtfsStore.MAGIC) {
+				throw new IOException("File " + file + " isn't a compiled GTFS feed.");
+			}
+			final int formatVersion = header.getInt();
+			if (formatVersion != GtfsStore.FORMAT_VERSION) {
+				throw new IOException("File " + file + " has unsupported format version " + formatVersion + ".");
+			}
+			final int versionString = header.getInt();
+			if (header.getInt() != GtfsStore.SECTION_COUNT) {
+				throw new IOException("File " + file + " has unexpected number of sections.");
+			}
+			for (int section = 0; section < GtfsStore.SECTION_COUNT; section++) {
+				final long offset = header.getLong();
+				final long length = header.getLong();
+				if (offset < GtfsStore.HEADER_SIZE || length > Integer.MAX_VALUE || offset + length > channel.size()) {
+					throw new IOException("File " + file + " is truncated or corrupted.");
+				}
+				this.sections[section] = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+			}
+			this.version = versionString < 0 ? "" : this.getString(versionString);
+		}
+	}
+	
+	/**
+	 * Maps compiled feed. The mapping stays valid after the file is replaced or deleted.
+	 * @param file the compiled feed.
+	 * @return the store.
+	 * @throws IOException when the file can't be read or isn't a compiled feed.
+	 */
+	public static GtfsStore open(final Path file) throws IOException {
+		return new GtfsStore(file);
+	}
+	
+	/**
+	 * @return the feed version, empty when it's unknown.
+	 */
+	public String getVersion() {
+		return this.version;
+	}
+	
+	public int getStopCount() {
+		return this.sections[GtfsStore.STOPS].capacity() / GtfsStore.STOP_RECORD_SIZE;
+	}
+	
+	public int getRouteCount() {
+		return this.sections[GtfsStore.ROUTES].capacity() / GtfsStore.ROUTE_RECORD_SIZE;
+	}
+	
+	public int getTripCount() {
+		return this.sections[GtfsStore.TRIPS].capacity() / GtfsStore.TRIP_RECORD_SIZE;
+	}
+	
+	public int getStopTimeCount() {
+		return this.sections[GtfsStore.STOP_SEQUENCES].capacity() / Integer.BYTES;
+	}
+	
+	/**
+	 * @param stopId the stop id.
+	 * @return index of the stop or {@link #MISSING} when the feed doesn't have it.
+	 */
+	public int findStop(final String stopId) {
+		final byte[] key = stopId.getBytes(StandardCharsets.UTF_8);
+		final ByteBuffer stops = this.sections[GtfsStore.STOPS];
+		int low = 0;
+		int high = this.getStopCount() - 1;
+		while (low <= high) {
+			final int middle = (low + high) >>> 1;
+			final int comparison = this.compareString(stops.getInt(middle * GtfsStore.STOP_RECORD_SIZE), key);
+			if (comparison < 0) {
+				low = middle + 1;
+			} else if (comparison > 0) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+		return GtfsStore.MISSING;
+	}
+	
+	public String getStopId(final int stop) {
+		return this.getString(this.stopField(stop, 0));
+	}
+	
+	public String getStopName(final int stop) {
+		return this.getString(this.stopField(stop, 4));
+	}
+	
+	/**
+	 * @return index of the parent station or {@link #MISSING}.
+	 */
+	public int getStopParentStation(final int stop) {
+		return this.stopField(stop, 8);
+	}
+	
+	public float getStopLatitude(final int stop) {
+		return Float.intBitsToFloat(this.stopField(stop, 12));
+	}
+	
+	public float getStopLongitude(final int stop) {
+		return Float.intBitsToFloat(this.stopField(stop, 16));
+	}
+	
+	/**
+	 * @param routeId the route id.
+	 * @return index of the route or {@link #MISSING} when the feed doesn't have it.
+	 */
+	public int findRoute(final String routeId) {
+		final byte[] key = routeId.getBytes(StandardCharsets.UTF_8);
+		final ByteBuffer routes = this.sections[GtfsStore.ROUTES];
+		int low = 0;
+		int high = this.getRouteCount() - 1;
+		while (low <= high) {
+			final int middle = (low + high) >>> 1;
+			final int comparison = this.compareString(routes.getInt(middle * GtfsStore.ROUTE_RECORD_SIZE), key);
+			if (comparison < 0) {
+				low = middle + 1;
+			} else if (comparison > 0) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+		return GtfsStore.MISSING;
+	}
+	
+	public String getRouteId(final int route) {
+		return this.getString(this.routeField(route, 0));
+	}
+	
+	public String getRouteShortName(final int route) {
+		return this.getString(this.routeField(route, 4));
+	}
+	
+	public String getRouteLongName(final int route) {
+		return this.getString(this.routeField(route, 8));
+	}
+	
+	public int getRouteType(final int route) {
+		return this.routeField(route, 12);
+	}
+	
+	/**
+	 * @return index of the first trip of the route, its trips are contiguous.
+	 */
+	public int getFirstTripOfRoute(final int route) {
+		return this.sections[GtfsStore.ROUTE_TRIPS].getInt(route * Integer.BYTES);
+	}
+	
+	public int getTripCountOfRoute(final int route) {
+		final ByteBuffer routeTrips = this.sections[GtfsStore.ROUTE_TRIPS];
+		return routeTrips.getInt((route + 1) * Integer.BYTES) - routeTrips.getInt(route * Integer.BYTES);
+	}
+	
+	/**
+	 * @param tripId the trip id.
+	 * @return index of the trip or {@link #MISSING} when the feed doesn't have it.
+	 */
+	public int findTrip(final String tripId) {
+		final byte[] key = tripId.getBytes(StandardCharsets.UTF_8);
+		final ByteBuffer tripsById = this.sections[GtfsStore.TRIPS_BY_ID];
+		int low = 0;
+		int high = this.getTripCount() - 1;
+		while (low <= high) {
+			final int middle = (low + high) >>> 1;
+			final int trip = tripsById.getInt(middle * Integer.BYTES);
+			final int comparison = this.compareString(this.tripField(trip, 0), key);
+			if (comparison < 0) {
+				low = middle + 1;
+			} else if (comparison > 0) {
+				high = middle - 1;
+			} else {
+				return trip;
+			}
+		}
+		return GtfsStore.MISSING;
+	}
+	
+	public String getTripId(final int trip) {
+		return this.getString(this.tripField(trip, 0));
+	}
+	
+	public int getTripRoute(final int trip) {
+		return this.tripField(trip, 4);
+	}
+	
+	public String getTripServiceId(final int trip) {
+		return this.getString(this.tripField(trip, 8));
+	}
+	
+	public String getTripHeadsign(final int trip) {
+		return this.getString(this.tripField(trip, 12));
+	}
+	
+	public int getTripDirection(final int trip) {
+		return this.tripField(trip, 16);
+	}
+	
+	/**
+	 * @return index of the first stop time of the trip, its stop times are contiguous and ordered by stop sequence.
+	 */
+	public int getFirstStopTimeOfTrip(final int trip) {
+		return this.sections[GtfsStore.TRIP_STOP_TIMES].getInt(trip * Integer.BYTES);
+	}
+	
+	public int getStopTimeCountOfTrip(final int trip) {
+		final ByteBuffer tripStopTimes = this.sections[GtfsStore.TRIP_STOP_TIMES];
+		return tripStopTimes.getInt((trip + 1) * Integer.BYTES) - tripStopTimes.getInt(trip * Integer.BYTES);
+	}
+	
+	/**
+	 * @return arrival in seconds since the start of the service day or {@link #MISSING}.
+	 */
+	public int getArrivalTime(final int stopTime) {
+		return this.sections[GtfsStore.ARRIVAL_TIMES].getInt(stopTime * Integer.BYTES);
+	}
+	
+	/**
+	 * @return departure in seconds since the start of the service day or {@link #MISSING}.
+	 */
+	public int getDepartureTime(final int stopTime) {
+		return this.sections[GtfsStore.DEPARTURE_TIMES].getInt(stopTime * Integer.BYTES);
+	}
+	
+	/**
+	 * @return index of the stop or {@link #MISSING} when the feed doesn't have it.
+	 */
+	public int getStopTimeStop(final int stopTime) {
+		return this.sections[GtfsStore.STOP_INDEXES].getInt(stopTime * Integer.BYTES);
+	}
+	
+	public int getStopSequence(final int stopTime) {
+		return this.sections[GtfsStore.STOP_SEQUENCES].getInt(stopTime * Integer.BYTES);
+	}
+	
+	private int stopField(final int stop, final int offset) {
+		return this.sections[GtfsStore.STOPS].getInt(stop * GtfsStore.STOP_RECORD_SIZE + offset);
+	}
+	
+	private int routeField(final int route, final int offset) {
+		return this.sections[GtfsStore.ROUTES].getInt(route * GtfsStore.ROUTE_RECORD_SIZE + offset);
+	}
+	
+	private int tripField(final int trip, final int offset) {
+		return this.sections[GtfsStore.TRIPS].getInt(trip * GtfsStore.TRIP_RECORD_SIZE + offset);
+	}
+	
+	private String getString(final int index) {
+		if (index < 0) {
+			return "";
+		}
+		final ByteBuffer offsets = this.sections[GtfsStore.STRING_OFFSETS];
+		final int start = offsets.getInt(index * Integer.BYTES);
+		final byte[] bytes = new byte[offsets.getInt((index + 1) * Integer.BYTES) - start];
+		final ByteBuffer stringBytes = this.sections[GtfsStore.STRING_BYTES].duplicate();
+		stringBytes.position(start);
+		stringBytes.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * Compares the stored string with the key as unsigned bytes, the order used by the compiler.
+	 */
+	private int compareString(final int index, final byte[] key) {
+		final ByteBuffer offsets = this.sections[GtfsStore.STRING_OFFSETS];
+		final ByteBuffer stringBytes = this.sections[GtfsStore.STRING_BYTES];
+		final int start = offsets.getInt(index * Integer.BYTES);
+		final int length = offsets.getInt((index + 1) * Integer.BYTES) - start;
+		final int common = Math.min(length, key.length);
+		for (int position = 0; position < common; position++) {
+			final int comparison = (stringBytes.get(start + position) & 0xFF) - (key[position] & 0xFF);
+			if (comparison != 0) {
+				return comparison;
+			}
+		}
+		return length - key.length;
+	}
+	
+	@Override
+	public String toString() {
+		return this.file.getFileName() + " (version " + this.version + ", " + this.getTripCount() + " trips, " + this.getStopTimeCount() + " stop times)";
+	}
+	
+}
@@ -0,0 +1,134 @@
+package com.data.provisioner.logging;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+
+/**
+ * Handler which hands the records to a writer thread through a bounded ring buffer.
+ * <p>
+ * The logging thread only enqueues the record: it never formats it and never waits on I/O. The writer thread takes
+ * the records in batches, publishes them to the target handlers and flushes the targets once per batch. When the
+ * buffer is full, the record is dropped and counted instead of blocking the caller, so a slow disk can't stall
+ * the MQ listeners.
+ */
+public final class AsyncLogHandler extends Handler {
+	
+	/**
+	 * Time (in milliseconds) given to the writer thread to write the buffered records on close.
+	 */
+	private static final long CLOSE_TIMEOUT = 5000L;
+	
+	private final BlockingQueue<LogRecord> buffer;
+	
+	private final int batchSize;
+	
+	private final Handler[] targets;
+	
+	private final AtomicLong droppedRecords = new AtomicLong();
+	
+	private final Thread writer;
+	
+	private volatile boolean closed = false;
+	
+	/**
+	 * Starts the writer thread.
+	 * @param capacity maximum number of records waiting to be written.
+	 * @param batchSize maximum number of records written before the targets are flushed.
+	 * @param targets the handlers writing the records.
+	 */
+	public AsyncLogHandler(final int capacity, final int batchSize, final Handler... targets) {
+		this.buffer = new ArrayBlockingQueue<>(capacity);
+		this.batchSize = batchSize;
+		this.targets = targets.clone();
+		this.writer = new Thread(this::write, "log-writer");
+		this.writer.setDaemon(true);
+		this.writer.start();
+	}
+	
+	/**
+	 * Enqueues the record. The parameters are formatted later on the writer thread, so they must not be modified
+	 * after they are logged.
+	 */
+	@Override
+	public void publish(final LogRecord record) {
+		if (this.closed || !this.isLoggable(record)) {
+			return;
+		}
+		if (!this.buffer.offer(record)) {
+			this.droppedRecords.incrementAndGet();
+		}
+	}
+	
+	/**
+	 * @return number of records dropped because the buffer was full.
+	 */
+	public long getDroppedRecords() {
+		return this.droppedRecords.get();
+	}
+	
+	/**
+	 * Does nothing, the targets are flushed after every batch.
+	 */
+	@Override
+	public void flush() {
+		
+	}
+	
+	/**
+	 * Writes the buffered records and closes the targets.
+	 */
+	@Override
+	public void close() {
+		this.closed = true;
+		this.writer.interrupt();
+		try {
+			this.writer.join(AsyncLogHandler.CLOSE_TIMEOUT);
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+		}
+		for (final Handler target : this.targets) {
+			target.close();
+		}
+	}
+	
+	private void write() {
+		final List<LogRecord> batch = new ArrayList<>(this.batchSize);
+		while (!this.closed || !this.buffer.isEmpty()) {
+			try {
+				final LogRecord first = this.closed ? this.buffer.poll() : this.buffer.poll(1L, TimeUnit.SECONDS);
+				if (first == null) {
+					continue;
+				}
+				batch.add(first);
+				this.buffer.drainTo(batch, this.batchSize - 1);
+			} catch (InterruptedException exception) {
+				continue;
+			}
+			for (final LogRecord record : batch) {
+				for (final Handler target : this.targets) {
+					target.publish(record);
+				}
+			}
+			batch.clear();
+			this.flushTargets();
+		}
+		final long dropped = this.droppedRecords.get();
+		if (dropped > 0L) {
+			this.reportError(dropped + " log records were dropped because the buffer was full.", null, ErrorManager.WRITE_FAILURE);
+		}
+	}
+	
+	private void flushTargets() {
+		for (final Handler target : this.targets) {
+			target.flush();
+		}
+	}
+	
+}
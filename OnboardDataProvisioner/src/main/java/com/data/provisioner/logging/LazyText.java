@@ -0,0 +1,35 @@
+package com.data.provisioner.logging;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Log parameter decoded to text only when the record is formatted, on the writer thread of {@link AsyncLogHandler}.
+ * The wrapped bytes must not be modified afterwards.
+ */
+public final class LazyText {
+	
+	private final byte[] bytes;
+	
+	private final int offset;
+	
+	private final int length;
+	
+	private LazyText(final byte[] bytes, final int offset, final int length) {
+		this.bytes = bytes;
+		this.offset = offset;
+		this.length = length;
+	}
+	
+	/**
+	 * @return parameter with the UTF-8 text of the bytes.
+	 */
+	public static LazyText utf8(final byte[] bytes, final int offset, final int length) {
+		return new LazyText(bytes, offset, length);
+	}
+	
+	@Override
+	public String toString() {
+		return new String(this.bytes, this.offset, this.length, StandardCharsets.UTF_8);
+	}
+	
+}
@@ -0,0 +1,187 @@
+package com.data.provisioner.logging;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.logging.FileHandler;
+import java.util.logging.Formatter;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import java.util.logging.StreamHandler;
+
+/**
+ * Sets up the provisioner logging from the {@code log4j.properties} on the classpath.
+ * <p>
+ * The root level, the console appender {@code stdout} and the rolling file appender {@code file} (its file,
+ * maximum file size and number of backups) are mapped to {@code java.util.logging} handlers. Both are put behind
+ * one {@link AsyncLogHandler}, so logging never waits on the console or the disk. The log files are numbered by
+ * {@link FileHandler}: the current one is {@code <File>.0} and the oldest backup {@code <File>.<MaxBackupIndex>}.
+ */
+public final class LogConfiguration {
+	
+	/**
+	 * Logging configuration location on the classpath.
+	 */
+	public static final String CONFIGURATION = "/log4j.properties";
+	
+	/**
+	 * Maximum number of records waiting to be written.
+	 */
+	private static final int BUFFER_CAPACITY = 8192;
+	
+	/**
+	 * Maximum number of records written before the handlers are flushed.
+	 */
+	private static final int BATCH_SIZE = 256;
+	
+	private LogConfiguration() {
+		
+	}
+	
+	/**
+	 * Replaces the handlers of the root logger with the asynchronous handler configured from the classpath.
+	 * The default console handler is kept when the configuration is missing.
+	 * @return the installed handler, null when the configuration is missing.
+	 * @throws IOException when the configuration or the log file can't be opened.
+	 */
+	public static AsyncLogHandler install() throws IOException {
+		final Properties properties = new Properties();
+		try (final InputStream input = LogConfiguration.class.getResourceAsStream(LogConfiguration.CONFIGURATION)) {
+			if (input == null) {
+				return null;
+			}
+			properties.load(input);
+		}
+		
+		final String[] rootLogger = properties.getProperty("log4j.rootLogger", "INFO").split("\\s*,\\s*");
+		final Formatter formatter = new PatternFormatter();
+		final List<Handler> targets = new ArrayList<>();
+		for (int index = 1; index < rootLogger.length; index++) {
+			final String appender = "log4j.appender." + rootLogger[index];
+			final String type = properties.getProperty(appender, "");
+			if (type.endsWith("ConsoleAppender")) {
+				targets.add(new StreamHandler("System.err".equals(properties.getProperty(appender + ".Target")) ? System.err : System.out, formatter));
+			} else if (type.endsWith("FileAppender")) {
+				final Path file = Paths.get(properties.getProperty(appender + ".File", "logs/provisioner.log")).toAbsolutePath();
+				Files.createDirectories(file.getParent());
+				final FileHandler fileHandler = new FileHandler(
+					file.toString(),
+					LogConfiguration.parseSize(properties.getProperty(appender + ".MaxFileSize", "10MB")),
+					Integer.parseInt(properties.getProperty(appender + ".MaxBackupIndex", "1")) + 1,
+					true
+				);
+				fileHandler.setFormatter(formatter);
+				targets.add(fileHandler);
+			}
+		}
+		
+		final Level level = LogConfiguration.parseLevel(rootLogger[0]);
+		for (final Handler target : targets) {
+			target.setLevel(level);
+		}
+		final AsyncLogHandler asyncLogHandler = new AsyncLogHandler(
+			LogConfiguration.BUFFER_CAPACITY, LogConfiguration.BATCH_SIZE, targets.toArray(new Handler[targets.size()])
+		);
+		asyncLogHandler.setLevel(level);
+		final Logger root = Logger.getLogger("");
+		for (final Handler handler : root.getHandlers()) {
+			root.removeHandler(handler);
+			handler.close();
+		}
+		root.setLevel(level);
+		root.addHandler(asyncLogHandler);
+		return asyncLogHandler;
+	}
+	
+	/**
+	 * @return the log4j level as level of {@code java.util.logging}.
+	 */
+	static Level parseLevel(final String level) {
+		switch (level.toUpperCase(Locale.ROOT)) {
+			case "ALL":
+			case "TRACE":
+				return Level.FINEST;
+			case "DEBUG":
+				return Level.FINE;
+			case "WARN":
+				return Level.WARNING;
+			case "ERROR":
+			case "FATAL":
+				return Level.SEVERE;
+			case "OFF":
+				return Level.OFF;
+			default:
+				return Level.INFO;
+		}
+	}
+	
+	/**
+	 * @return the size with an optional KB, MB or GB suffix in bytes, limited to the range of int.
+	 */
+	static int parseSize(final String size) {
+		final String value = size.trim().toUpperCase(Locale.ROOT);
+		long multiplier = 1L;
+		int end = value.length();
+		if (value.endsWith("KB")) {
+			multiplier = 1024L;
+			end -= 2;
+		} else if (value.endsWith("MB")) {
+			multiplier = 1024L * 1024L;
+			end -= 2;
+		} else if (value.endsWith("GB")) {
+			multiplier = 1024L * 1024L * 1024L;
+			end -= 2;
+		}
+		return (int) Math.min(Integer.MAX_VALUE, Long.parseLong(value.substring(0, end).trim()) * multiplier);
+	}
+	
+	/**
+	 * Formats the records like the log4j pattern {@code %d{yyyy-MM-dd HH:mm:ss} %-5p %c{1} - %m%n}. The source line
+	 * isn't known: the caller is never inferred, because it would walk the stack of the logging thread.
+	 */
+	private static final class PatternFormatter extends Formatter {
+		
+		@Override
+		public String format(final LogRecord record) {
+			final String loggerName = record.getLoggerName() == null ? "" : record.getLoggerName();
+			final String line = String.format(
+				"%1$tF %1$tT %2$-5s %3$s - %4$s%n",
+				record.getMillis(),
+				PatternFormatter.levelName(record.getLevel()),
+				loggerName.substring(loggerName.lastIndexOf('.') + 1),
+				this.formatMessage(record)
+			);
+			if (record.getThrown() == null) {
+				return line;
+			}
+			final StringWriter stackTrace = new StringWriter();
+			record.getThrown().printStackTrace(new PrintWriter(stackTrace));
+			return line + stackTrace;
+		}
+		
+		private static String levelName(final Level level) {
+			if (level.intValue() >= Level.SEVERE.intValue()) {
+				return "ERROR";
+			} else if (level.intValue() >= Level.WARNING.intValue()) {
+				return "WARN";
+			} else if (level.intValue() >= Level.INFO.intValue()) {
+				return "INFO";
+			} else if (level.intValue() >= Level.FINE.intValue()) {
+				return "DEBUG";
+			}
+			return "TRACE";
+		}
+		
+	}
+	
+}
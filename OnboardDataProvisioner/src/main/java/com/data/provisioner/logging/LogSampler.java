@@ -0,0 +1,31 @@
+package com.data.provisioner.logging;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lets through every n-th event, for logs which would be too verbose at full rate.
+ */
+public final class LogSampler {
+	
+	private final int rate;
+	
+	private final AtomicLong events = new AtomicLong();
+	
+	/**
+	 * @param rate every how many events one is sampled, 1 samples every event.
+	 */
+	public LogSampler(final int rate) {
+		if (rate < 1) {
+			throw new IllegalArgumentException("Invalid sampling rate " + rate + ".");
+		}
+		this.rate = rate;
+	}
+	
+	/**
+	 * @return whether the current event is sampled.
+	 */
+	public boolean sample() {
+		return this.rate == 1 || this.events.getAndIncrement() % this.rate == 0L;
+	}
+	
+}
@@ -1,12 +1,22 @@
 package com.data.provisioner.main;
 
+import java.io.IOException;
+
+import com.data.provisioner.logging.AsyncLogHandler;
+import com.data.provisioner.logging.LogConfiguration;
 import com.data.provisioner.train.impl.Train;
+import com.data.provisioner.util.PropertyUtil;
 
 public class Application {
 
-	public static void main(final String[] arguments) throws InterruptedException {
+	public static void main(final String[] arguments) throws IOException, InterruptedException {
+		final AsyncLogHandler asyncLogHandler = LogConfiguration.install();
 		final Train train = new Train();
+		if (asyncLogHandler != null) {
+			train.getMetrics().gauge("log.droppedRecords", asyncLogHandler::getDroppedRecords);
+		}
 		train.start();
+		PropertyUtil.listenForChanges(Train.CONFIGURATION, train);
 //		Thread.sleep(15000);
 //		train.stop();
 	}
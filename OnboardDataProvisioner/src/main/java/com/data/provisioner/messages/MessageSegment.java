@@ -0,0 +1,368 @@
+package com.data.provisioner.messages;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Segment of the message log: a preallocated, memory-mapped file of records with a sparse in-memory index.
+ * <p>
+ * A record is {@code [int length][int crc][long offset][long timestamp][payload]}, the CRC-32 covers everything after
+ * itself. The unwritten rest of the file is zero-filled and doesn't pass the check, so the end of the segment is found
+ * by scanning after a crash and a torn record is cut off. The index has an entry (offset, timestamp, position) for the
+ * first record after every {@link #INDEX_INTERVAL} bytes. It's written to a {@code .idx} file when the segment is
+ * sealed and rebuilt by scanning when that file is missing.
+ * <p>
+ * Only one thread appends. Readers see the records up to {@link #getEnd()}, which is published after the record
+ * is written.
+ */
+final class MessageSegment {
+	
+	static final String LOG_SUFFIX = ".log";
+	
+	static final String INDEX_SUFFIX = ".idx";
+	
+	static final int HEADER_SIZE = 24;
+	
+	/**
+	 * Minimum number of bytes between two index entries.
+	 */
+	static final int INDEX_INTERVAL = 4096;
+	
+	private static final int INDEX_MAGIC = 0x4D534958;
+	
+	private static final int INDEX_ENTRY_SIZE = 20;
+	
+	private final Path path;
+	
+	private final long baseOffset;
+	
+	private final MappedByteBuffer buffer;
+	
+	/**
+	 * View of the mapping used by the appending thread.
+	 */
+	private final ByteBuffer writeBuffer;
+	
+	private final CRC32 crc = new CRC32();
+	
+	private long[] indexOffsets = new long[64];
+	
+	private long[] indexTimestamps = new long[64];
+	
+	private int[] indexPositions = new int[64];
+	
+	private int indexSize = 0;
+	
+	private int lastIndexedPosition = -MessageSegment.INDEX_INTERVAL;
+	
+	private long nextOffset;
+	
+	private long firstTimestamp = 0L;
+	
+	private long lastTimestamp = 0L;
+	
+	private volatile int end = 0;
+	
+	private MessageSegment(final Path path, final long baseOffset, final MappedByteBuffer buffer) {
+		this.path = path;
+		this.baseOffset = baseOffset;
+		this.nextOffset = baseOffset;
+		this.buffer = buffer;
+		this.writeBuffer = buffer.duplicate();
+	}
+	
+	/**
+	 * Creates empty segment of the given size.
+	 */
+	static MessageSegment create(final Path directory, final long baseOffset, final int size) throws IOException {
+		final Path path = directory.resolve(MessageSegment.fileName(baseOffset) + MessageSegment.LOG_SUFFIX);
+		try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			return new MessageSegment(path, baseOffset, channel.map(FileChannel.MapMode.READ_WRITE, 0L, size));
+		}
+	}
+	
+	/**
+	 * Opens existing segment. The index is loaded from its file when the segment is sealed and the file is valid,
+	 * otherwise the records are scanned.
+	 */
+	static MessageSegment open(final Path path, final boolean sealed) throws IOException {
+		final String fileName = path.getFileName().toString();
+		final long baseOffset = Long.parseLong(fileName.substring(0, fileName.length() - MessageSegment.LOG_SUFFIX.length()));
+		final MessageSegment segment;
+		if (sealed) {
+			try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+				segment = new MessageSegment(path, baseOffset, channel.map(FileChannel.MapMode.READ_ONLY, 0L, channel.size()));
+			}
+		} else {
+			try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+				segment = new MessageSegment(path, baseOffset, channel.map(FileChannel.MapMode.READ_WRITE, 0L, channel.size()));
+			}
+		}
+		if (!sealed || !segment.loadIndex()) {
+			segment.scan();
+		}
+		return segment;
+	}
+	
+	/**
+	 * @return whether the record with the payload fits in the rest of the segment.
+	 */
+	boolean fits(final int length) {
+		return this.end + MessageSegment.HEADER_SIZE + (long) length <= this.buffer.capacity();
+	}
+	
+	/**
+	 * Writes the record, the caller checks that it {@link #fits(int)}.
+	 * @return offset of the record.
+	 */
+	long append(final long timestamp, final byte[] payload, final int payloadOffset, final int length) {
+		final int position = this.end;
+		final long offset = this.nextOffset;
+		final long recordTimestamp = Math.max(timestamp, this.lastTimestamp);
+		this.writeBuffer.clear().position(position);
+		this.writeBuffer.putInt(length).putInt(0).putLong(offset).putLong(recordTimestamp).put(payload, payloadOffset, length);
+		this.writeBuffer.position(position + 8).limit(position + MessageSegment.HEADER_SIZE + length);
+		this.crc.reset();
+		this.crc.update(this.writeBuffer);
+		this.writeBuffer.putInt(position + 4, (int) this.crc.getValue());
+		this.added(offset, recordTimestamp, position);
+		this.end = position + MessageSegment.HEADER_SIZE + length;
+		return offset;
+	}
+	
+	/**
+	 * Flushes the written records to the disk.
+	 */
+	void force() {
+		this.buffer.force();
+	}
+	
+	/**
+	 * Flushes the segment and writes its index. No more records are appended afterwards.
+	 */
+	void seal() throws IOException {
+		this.buffer.force();
+		final ByteBuffer index;
+		synchronized (this) {
+			index = ByteBuffer.allocate(4 + 8 + 8 + 4 + this.indexSize * MessageSegment.INDEX_ENTRY_SIZE);
+			index.putInt(MessageSegment.INDEX_MAGIC).putLong(this.nextOffset).putLong(this.lastTimestamp).putInt(this.end);
+			for (int entry = 0; entry < this.indexSize; entry++) {
+				index.putLong(this.indexOffsets[entry]).putLong(this.indexTimestamps[entry]).putInt(this.indexPositions[entry]);
+			}
+		}
+		index.flip();
+		final Path indexPath = this.indexPath();
+		final Path temporaryPath = indexPath.resolveSibling(indexPath.getFileName() + ".tmp");
+		try (final FileChannel channel = FileChannel.open(temporaryPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (index.hasRemaining()) {
+				channel.write(index);
+			}
+			channel.force(true);
+		}
+		Files.move(temporaryPath, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+	
+	/**
+	 * Deletes the segment files. Readers holding records of the segment can still read them.
+	 */
+	void delete() throws IOException {
+		Files.deleteIfExists(this.indexPath());
+		Files.deleteIfExists(this.path);
+	}
+	
+	long getBaseOffset() {
+		return this.baseOffset;
+	}
+	
+	/**
+	 * @return offset of the next record appended to the segment.
+	 */
+	synchronized long getNextOffset() {
+		return this.nextOffset;
+	}
+	
+	synchronized long getFirstTimestamp() {
+		return this.firstTimestamp;
+	}
+	
+	synchronized long getLastTimestamp() {
+		return this.lastTimestamp;
+	}
+	
+	/**
+	 * @return position after the last record.
+	 */
+	int getEnd() {
+		return this.end;
+	}
+	
+	/**
+	 * @return position of the first record at or after the offset, {@link #getEnd()} when there is none.
+	 */
+	int positionOfOffset(final long offset) {
+		final int end = this.end;
+		final int from;
+		synchronized (this) {
+			final int entry = MessageSegment.floor(this.indexOffsets, this.indexSize, offset);
+			from = entry < 0 ? 0 : this.indexPositions[entry];
+		}
+		int position = from;
+		while (position < end && this.buffer.getLong(position + 8) < offset) {
+			position += MessageSegment.HEADER_SIZE + this.buffer.getInt(position);
+		}
+		return position;
+	}
+	
+	/**
+	 * @return position of the first record with the timestamp or a later one, {@link #getEnd()} when there is none.
+	 */
+	int positionOfTimestamp(final long timestamp) {
+		final int end = this.end;
+		final int from;
+		synchronized (this) {
+			final int entry = MessageSegment.floor(this.indexTimestamps, this.indexSize, timestamp - 1);
+			from = entry < 0 ? 0 : this.indexPositions[entry];
+		}
+		int position = from;
+		while (position < end && this.buffer.getLong(position + 16) < timestamp) {
+			position += MessageSegment.HEADER_SIZE + this.buffer.getInt(position);
+		}
+		return position;
+	}
+	
+	/**
+	 * Adds the records from the position to the list, the payloads are read-only views of the mapping.
+	 * @return position after the last added record.
+	 */
+	int read(final int position, final int maxMessages, final List<StoredMessage> messages) {
+		final int end = this.end;
+		int current = position;
+		for (int count = 0; count < maxMessages && current < end; count++) {
+			final int length = this.buffer.getInt(current);
+			final ByteBuffer payload = this.buffer.asReadOnlyBuffer();
+			payload.limit(current + MessageSegment.HEADER_SIZE + length).position(current + MessageSegment.HEADER_SIZE);
+			messages.add(new StoredMessage(this.buffer.getLong(current + 8), this.buffer.getLong(current + 16), payload.slice()));
+			current += MessageSegment.HEADER_SIZE + length;
+		}
+		return current;
+	}
+	
+	@Override
+	public String toString() {
+		return this.path.getFileName() + " (offsets " + this.baseOffset + "-" + (this.getNextOffset() - 1) + ")";
+	}
+	
+	/**
+	 * Finds the valid records, the end of the segment is the first record which doesn't pass the check.
+	 */
+	private void scan() {
+		final ByteBuffer scanBuffer = this.buffer.duplicate();
+		int position = 0;
+		while (position + MessageSegment.HEADER_SIZE <= scanBuffer.capacity()) {
+			final int length = scanBuffer.getInt(position);
+			if (length < 0 || position + MessageSegment.HEADER_SIZE + (long) length > scanBuffer.capacity()
+				|| scanBuffer.getLong(position + 8) != this.nextOffset) {
+				break;
+			}
+			scanBuffer.clear().position(position + 8).limit(position + MessageSegment.HEADER_SIZE + length);
+			this.crc.reset();
+			this.crc.update(scanBuffer);
+			scanBuffer.clear();
+			if ((int) this.crc.getValue() != scanBuffer.getInt(position + 4)) {
+				break;
+			}
+			this.added(scanBuffer.getLong(position + 8), scanBuffer.getLong(position + 16), position);
+			position += MessageSegment.HEADER_SIZE + length;
+		}
+		this.end = position;
+	}
+	
+	/**
+	 * @return whether the index file was loaded.
+	 */
+	private boolean loadIndex() throws IOException {
+		final Path indexPath = this.indexPath();
+		if (!Files.exists(indexPath)) {
+			return false;
+		}
+		final ByteBuffer index = ByteBuffer.wrap(Files.readAllBytes(indexPath));
+		if (index.remaining() < 24 || index.getInt() != MessageSegment.INDEX_MAGIC || (index.remaining() - 20) % MessageSegment.INDEX_ENTRY_SIZE != 0) {
+			return false;
+		}
+		final long indexNextOffset = index.getLong();
+		final long indexLastTimestamp = index.getLong();
+		final int indexEnd = index.getInt();
+		if (indexEnd > this.buffer.capacity()) {
+			return false;
+		}
+		synchronized (this) {
+			while (index.hasRemaining()) {
+				this.addIndexEntry(index.getLong(), index.getLong(), index.getInt());
+			}
+			this.nextOffset = indexNextOffset;
+			this.firstTimestamp = indexEnd == 0 ? 0L : this.buffer.getLong(16);
+			this.lastTimestamp = indexLastTimestamp;
+		}
+		this.end = indexEnd;
+		return true;
+	}
+	
+	private synchronized void added(final long offset, final long timestamp, final int position) {
+		if (offset == this.baseOffset) {
+			this.firstTimestamp = timestamp;
+		}
+		if (position - this.lastIndexedPosition >= MessageSegment.INDEX_INTERVAL) {
+			this.addIndexEntry(offset, timestamp, position);
+		}
+		this.nextOffset = offset + 1;
+		this.lastTimestamp = timestamp;
+	}
+	
+	private void addIndexEntry(final long offset, final long timestamp, final int position) {
+		if (this.indexSize == this.indexOffsets.length) {
+			this.indexOffsets = Arrays.copyOf(this.indexOffsets, this.indexSize * 2);
+			this.indexTimestamps = Arrays.copyOf(this.indexTimestamps, this.indexSize * 2);
+			this.indexPositions = Arrays.copyOf(this.indexPositions, this.indexSize * 2);
+		}
+		this.indexOffsets[this.indexSize] = offset;
+		this.indexTimestamps[this.indexSize] = timestamp;
+		this.indexPositions[this.indexSize] = position;
+		this.indexSize++;
+		this.lastIndexedPosition = position;
+	}
+	
+	private Path indexPath() {
+		return this.path.resolveSibling(MessageSegment.fileName(this.baseOffset) + MessageSegment.INDEX_SUFFIX);
+	}
+	
+	static String fileName(final long baseOffset) {
+		return String.format("%020d", baseOffset);
+	}
+	
+	/**
+	 * @return index of the last entry with the value at or below the key, -1 when there is none.
+	 */
+	private static int floor(final long[] values, final int size, final long key) {
+		int low = 0;
+		int high = size - 1;
+		while (low <= high) {
+			final int middle = (low + high) >>> 1;
+			if (values[middle] <= key) {
+				low = middle + 1;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return high;
+	}
+	
+}
@@ -0,0 +1,245 @@
+package com.data.provisioner.messages;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Append-only log of the messages received on the messages topic, kept for the onboard displays.
+ * <p>
+ * The log is a sequence of {@link MessageSegment}s named by the offset of their first message. Appending copies
+ * the message into the mapped active segment and never waits for the disk: the written segment is flushed by
+ * a background thread every sync interval, so all the messages appended in the meantime share one flush
+ * (group commit). A crash loses at most the messages of the last interval. Reads locate the first message through
+ * the sparse index of the segment and return views of the mapped segments without copying. Whole segments are
+ * deleted once their newest message is older than the retention.
+ */
+public final class MessageStore implements Closeable {
+	
+	/**
+	 * The logger.
+	 */
+	private static final Logger LOGGER = Logger.getLogger(MessageStore.class.getName());
+	
+	/**
+	 * Default size (in bytes) of a segment, 16 MiB.
+	 */
+	public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+	
+	/**
+	 * Default retention (in hours) of the messages.
+	 */
+	public static final long DEFAULT_RETENTION = 72L;
+	
+	/**
+	 * Default time (in milliseconds) between the flushes of the written messages.
+	 */
+	public static final long DEFAULT_SYNC_INTERVAL = 100L;
+	
+	/**
+	 * Time (in milliseconds) between the retention checks.
+	 */
+	private static final long RETENTION_CHECK_INTERVAL = 60_000L;
+	
+	private final Path directory;
+	
+	private final int segmentSize;
+	
+	private final long retention;
+	
+	/**
+	 * Segments by their base offset.
+	 */
+	private final ConcurrentSkipListMap<Long, MessageSegment> segments = new ConcurrentSkipListMap<>();
+	
+	private final AtomicBoolean dirty = new AtomicBoolean(false);
+	
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		final Thread thread = new Thread(runnable, "message-store-sync");
+		thread.setDaemon(true);
+		return thread;
+	});
+	
+	/**
+	 * The segment appended to.
+	 */
+	private volatile MessageSegment active;
+	
+	/**
+	 * Opens the store, recovering the messages written before a crash.
+	 * @param directory the store directory.
+	 * @param segmentSize size (in bytes) of a new segment, which limits the size of a message.
+	 * @param retention time (in milliseconds) the messages are kept at least.
+	 * @param syncInterval time (in milliseconds) between the flushes of the written messages.
+	 * @throws IOException when the directory or a segment can't be read.
+	 */
+	public MessageStore(final Path directory, final int segmentSize, final long retention, final long syncInterval) throws IOException {
+		if (segmentSize <= MessageSegment.HEADER_SIZE || retention <= 0L || syncInterval <= 0L) {
+			throw new IllegalArgumentException("Invalid segment size " + segmentSize + ", retention " + retention + " or sync interval " + syncInterval + ".");
+		}
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.retention = retention;
+		Files.createDirectories(directory);
+		
+		final List<Path> segmentFiles = new ArrayList<>();
+		try (final DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + MessageSegment.LOG_SUFFIX)) {
+			for (final Path file : files) {
+				segmentFiles.add(file);
+			}
+		}
+		Collections.sort(segmentFiles);
+		for (int index = 0; index < segmentFiles.size(); index++) {
+			final MessageSegment segment = MessageSegment.open(segmentFiles.get(index), index < segmentFiles.size() - 1);
+			this.segments.put(segment.getBaseOffset(), segment);
+		}
+		this.active = this.segments.isEmpty() ? this.createSegment(0L) : this.segments.lastEntry().getValue();
+		MessageStore.LOGGER.log(Level.INFO, "Message store opened with {0}", this.segments.size() + " segments, next offset " + this.active.getNextOffset() + ".");
+		this.deleteExpiredSegments(System.currentTimeMillis());
+		
+		this.scheduler.scheduleWithFixedDelay(this::sync, syncInterval, syncInterval, TimeUnit.MILLISECONDS);
+		this.scheduler.scheduleWithFixedDelay(
+			() -> this.deleteExpiredSegments(System.currentTimeMillis()),
+			MessageStore.RETENTION_CHECK_INTERVAL, MessageStore.RETENTION_CHECK_INTERVAL, TimeUnit.MILLISECONDS
+		);
+	}
+	
+	/**
+	 * Appends the message. It's durable after the next sync.
+	 * @param timestamp time (in milliseconds) of the message. It's raised to the timestamp of the previous message
+	 * when it's older, so that the timestamps in the store never decrease.
+	 * @param payload the array with the message.
+	 * @param offset the start of the message in the array.
+	 * @param length the length of the message.
+	 * @return offset of the message.
+	 * @throws IOException when a new segment can't be created.
+	 */
+	public synchronized long append(final long timestamp, final byte[] payload, final int offset, final int length) throws IOException {
+		if (!this.active.fits(length)) {
+			if (this.active.getEnd() == 0) {
+				throw new IllegalArgumentException("Message of " + length + " bytes doesn't fit in a segment.");
+			}
+			this.active.seal();
+			this.active = this.createSegment(this.active.getNextOffset());
+		}
+		final long messageOffset = this.active.append(timestamp, payload, offset, length);
+		this.dirty.set(true);
+		return messageOffset;
+	}
+	
+	/**
+	 * Flushes the messages appended since the last sync to the disk.
+	 */
+	public void sync() {
+		if (this.dirty.getAndSet(false)) {
+			this.active.force();
+		}
+	}
+	
+	/**
+	 * @return offset of the next appended message.
+	 */
+	public long getNextOffset() {
+		return this.active.getNextOffset();
+	}
+	
+	/**
+	 * @return offset of the oldest stored message.
+	 */
+	public long getFirstOffset() {
+		return this.segments.firstKey();
+	}
+	
+	/**
+	 * @param offset offset of the first message.
+	 * @param maxMessages maximum number of returned messages.
+	 * @return the messages from the offset on, from the oldest stored message when the offset was deleted.
+	 */
+	public List<StoredMessage> readFrom(final long offset, final int maxMessages) {
+		final Map.Entry<Long, MessageSegment> entry = this.segments.floorEntry(offset);
+		final MessageSegment segment = entry == null ? this.segments.firstEntry().getValue() : entry.getValue();
+		return this.read(segment, segment.positionOfOffset(offset), maxMessages);
+	}
+	
+	/**
+	 * @param timestamp time (in milliseconds) of the first message.
+	 * @param maxMessages maximum number of returned messages.
+	 * @return the messages stored at or after the time.
+	 */
+	public List<StoredMessage> readSince(final long timestamp, final int maxMessages) {
+		for (final MessageSegment segment : this.segments.values()) {
+			if (segment.getLastTimestamp() >= timestamp || segment == this.active) {
+				return this.read(segment, segment.positionOfTimestamp(timestamp), maxMessages);
+			}
+		}
+		return Collections.emptyList();
+	}
+	
+	/**
+	 * @param count number of the messages.
+	 * @return the newest messages, oldest first.
+	 */
+	public List<StoredMessage> readLast(final int count) {
+		return this.readFrom(Math.max(this.getFirstOffset(), this.getNextOffset() - count), count);
+	}
+	
+	/**
+	 * Deletes the segments whose newest message is older than the retention. The active segment is kept.
+	 */
+	synchronized void deleteExpiredSegments(final long now) {
+		for (final MessageSegment segment : this.segments.values()) {
+			if (segment == this.active || segment.getLastTimestamp() >= now - this.retention) {
+				return;
+			}
+			try {
+				this.segments.remove(segment.getBaseOffset());
+				segment.delete();
+				MessageStore.LOGGER.log(Level.INFO, "Deleted expired message segment {0}", segment);
+			} catch (IOException exception) {
+				MessageStore.LOGGER.log(Level.WARNING, "Expired message segment {0}", segment + " can't be deleted. Reason: " + exception.toString());
+			}
+		}
+	}
+	
+	/**
+	 * Stops the background sync and flushes the appended messages.
+	 */
+	@Override
+	public synchronized void close() {
+		this.scheduler.shutdownNow();
+		this.sync();
+	}
+	
+	private List<StoredMessage> read(final MessageSegment first, final int position, final int maxMessages) {
+		final List<StoredMessage> messages = new ArrayList<>(Math.min(maxMessages, 1024));
+		int segmentPosition = position;
+		for (final MessageSegment segment : this.segments.tailMap(first.getBaseOffset(), true).values()) {
+			segment.read(segmentPosition, maxMessages - messages.size(), messages);
+			if (messages.size() >= maxMessages) {
+				break;
+			}
+			segmentPosition = 0;
+		}
+		return messages;
+	}
+	
+	private MessageSegment createSegment(final long baseOffset) throws IOException {
+		final MessageSegment segment = MessageSegment.create(this.directory, baseOffset, this.segmentSize);
+		this.segments.put(baseOffset, segment);
+		return segment;
+	}
+	
+}
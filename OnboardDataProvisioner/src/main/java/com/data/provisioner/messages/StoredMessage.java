@@ -0,0 +1,56 @@
+package com.data.provisioner.messages;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Message read from the {@link MessageStore}.
+ */
+public final class StoredMessage {
+	
+	private final long offset;
+	
+	private final long timestamp;
+	
+	private final ByteBuffer payload;
+	
+	StoredMessage(final long offset, final long timestamp, final ByteBuffer payload) {
+		this.offset = offset;
+		this.timestamp = timestamp;
+		this.payload = payload;
+	}
+	
+	/**
+	 * @return position of the message in the store, consecutive messages have consecutive offsets.
+	 */
+	public long getOffset() {
+		return this.offset;
+	}
+	
+	/**
+	 * @return time (in milliseconds) when the message was stored.
+	 */
+	public long getTimestamp() {
+		return this.timestamp;
+	}
+	
+	/**
+	 * @return read-only view of the payload in the mapped segment, it isn't copied.
+	 */
+	public ByteBuffer getPayload() {
+		return this.payload.duplicate();
+	}
+	
+	/**
+	 * @return the payload decoded as UTF-8.
+	 */
+	public String getText() {
+		return StandardCharsets.UTF_8.decode(this.payload.duplicate()).toString();
+	}
+	
+	@Override
+	public String toString() {
+		return "Message " + this.offset + " stored at " + this.timestamp;
+	}
+	
+}
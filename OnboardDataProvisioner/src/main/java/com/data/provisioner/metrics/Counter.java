@@ -0,0 +1,24 @@
+package com.data.provisioner.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Monotonic counter. Increments from many threads don't contend, they are summed only when the counter is read.
+ */
+public final class Counter {
+	
+	private final LongAdder value = new LongAdder();
+	
+	public void increment() {
+		this.value.increment();
+	}
+	
+	public void add(final long amount) {
+		this.value.add(amount);
+	}
+	
+	public long get() {
+		return this.value.sum();
+	}
+	
+}
@@ -0,0 +1,134 @@
+package com.data.provisioner.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Distribution of non-negative values in log-linear buckets, in the manner of HdrHistogram.
+ * <p>
+ * Values below 128 have a bucket each. Every higher power of two range is split into 64 buckets, so a value is
+ * reported with less than 1.6% error over the whole range of long. Recording is a few atomic increments on
+ * preallocated counters: it never locks nor allocates and can be done on the listener threads. Reading takes
+ * a {@link #snapshot()}, which may be slightly torn while values are recorded, but never loses them.
+ */
+public final class Histogram {
+	
+	private static final int PRECISION_BITS = 7;
+	
+	private static final int LINEAR_BUCKETS = 1 << Histogram.PRECISION_BITS;
+	
+	private static final int SUB_BUCKETS = Histogram.LINEAR_BUCKETS >> 1;
+	
+	static final int BUCKET_COUNT = Histogram.LINEAR_BUCKETS + (63 - Histogram.PRECISION_BITS) * Histogram.SUB_BUCKETS;
+	
+	private final AtomicLongArray counts = new AtomicLongArray(Histogram.BUCKET_COUNT);
+	
+	private final LongAdder sum = new LongAdder();
+	
+	private final AtomicLong max = new AtomicLong();
+	
+	/**
+	 * @param value the value, negative values are recorded as zero.
+	 */
+	public void record(final long value) {
+		final long recorded = Math.max(0L, value);
+		this.counts.incrementAndGet(Histogram.bucket(recorded));
+		this.sum.add(recorded);
+		long currentMax = this.max.get();
+		while (recorded > currentMax && !this.max.compareAndSet(currentMax, recorded)) {
+			currentMax = this.max.get();
+		}
+	}
+	
+	/**
+	 * @return copy of the recorded distribution.
+	 */
+	public Snapshot snapshot() {
+		final long[] bucketCounts = new long[Histogram.BUCKET_COUNT];
+		long count = 0L;
+		for (int bucket = 0; bucket < bucketCounts.length; bucket++) {
+			bucketCounts[bucket] = this.counts.get(bucket);
+			count += bucketCounts[bucket];
+		}
+		return new Snapshot(bucketCounts, count, this.sum.sum(), this.max.get());
+	}
+	
+	static int bucket(final long value) {
+		if (value < Histogram.LINEAR_BUCKETS) {
+			return (int) value;
+		}
+		final int shift = 64 - Long.numberOfLeadingZeros(value) - Histogram.PRECISION_BITS;
+		return Histogram.LINEAR_BUCKETS + (shift - 1) * Histogram.SUB_BUCKETS + (int) (value >>> shift) - Histogram.SUB_BUCKETS;
+	}
+	
+	/**
+	 * @return the highest value recorded in the bucket.
+	 */
+	static long highestValue(final int bucket) {
+		if (bucket < Histogram.LINEAR_BUCKETS) {
+			return bucket;
+		}
+		final int shift = (bucket - Histogram.LINEAR_BUCKETS) / Histogram.SUB_BUCKETS + 1;
+		final long lowestValue = (long) ((bucket - Histogram.LINEAR_BUCKETS) % Histogram.SUB_BUCKETS + Histogram.SUB_BUCKETS) << shift;
+		return lowestValue + (1L << shift) - 1L;
+	}
+	
+	/**
+	 * Recorded distribution at the time of the snapshot.
+	 */
+	public static final class Snapshot {
+		
+		private final long[] bucketCounts;
+		
+		private final long count;
+		
+		private final long sum;
+		
+		private final long max;
+		
+		private Snapshot(final long[] bucketCounts, final long count, final long sum, final long max) {
+			this.bucketCounts = bucketCounts;
+			this.count = count;
+			this.sum = sum;
+			this.max = max;
+		}
+		
+		public long getCount() {
+			return this.count;
+		}
+		
+		public long getSum() {
+			return this.sum;
+		}
+		
+		public long getMax() {
+			return this.max;
+		}
+		
+		public double getMean() {
+			return this.count == 0L ? 0.0 : (double) this.sum / this.count;
+		}
+		
+		/**
+		 * @param percentile the percentile, from 0 to 100.
+		 * @return the value below or at which the percentile of the values is, 0 when nothing was recorded.
+		 */
+		public long getValueAtPercentile(final double percentile) {
+			if (this.count == 0L) {
+				return 0L;
+			}
+			final long rank = Math.max(1L, (long) Math.ceil(Math.min(100.0, percentile) / 100.0 * this.count));
+			long seen = 0L;
+			for (int bucket = 0; bucket < this.bucketCounts.length; bucket++) {
+				seen += this.bucketCounts[bucket];
+				if (seen >= rank) {
+					return Math.min(Histogram.highestValue(bucket), this.max);
+				}
+			}
+			return this.max;
+		}
+		
+	}
+	
+}
@@ -0,0 +1,127 @@
+package com.data.provisioner.metrics;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local HTTP endpoint serving the {@link MetricsRegistry} in the Prometheus text format on {@code /metrics}.
+ * <p>
+ * It listens only on the loopback interface and is meant for a scraping agent running on the train. The rates
+ * (messages and bytes per second) are computed by the scraper from the counters.
+ */
+public final class MetricsEndpoint implements Closeable {
+	
+	/**
+	 * The logger.
+	 */
+	private static final Logger LOGGER = Logger.getLogger(MetricsEndpoint.class.getName());
+	
+	/**
+	 * Prefix of the exported metric names.
+	 */
+	private static final String PREFIX = "provisioner_";
+	
+	private final MetricsRegistry metricsRegistry;
+	
+	private final HttpServer httpServer;
+	
+	private final ExecutorService executor;
+	
+	/**
+	 * Starts the endpoint.
+	 * @param metricsRegistry the exported metrics.
+	 * @param port the port on the loopback interface.
+	 * @throws IOException when the port can't be bound.
+	 */
+	public MetricsEndpoint(final MetricsRegistry metricsRegistry, final int port) throws IOException {
+		this.metricsRegistry = metricsRegistry;
+		this.httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		this.executor = Executors.newSingleThreadExecutor(runnable -> {
+			final Thread thread = new Thread(runnable, "metrics-endpoint");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.httpServer.setExecutor(this.executor);
+		this.httpServer.createContext("/metrics", this::handle);
+		this.httpServer.start();
+		MetricsEndpoint.LOGGER.log(Level.INFO, "Metrics are served on {0}", "http://" + this.httpServer.getAddress().getHostString() + ":" + this.getPort() + "/metrics");
+	}
+	
+	/**
+	 * @return the bound port.
+	 */
+	public int getPort() {
+		return this.httpServer.getAddress().getPort();
+	}
+	
+	private void handle(final HttpExchange exchange) throws IOException {
+		try {
+			if (!"GET".equals(exchange.getRequestMethod())) {
+				exchange.getResponseHeaders().set("Allow", "GET");
+				exchange.sendResponseHeaders(405, -1);
+				return;
+			}
+			final byte[] body = this.format().getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+			exchange.sendResponseHeaders(200, body.length);
+			try (final OutputStream output = exchange.getResponseBody()) {
+				output.write(body);
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+	
+	/**
+	 * @return the metrics in the Prometheus text format. Histograms are exported as summaries.
+	 */
+	String format() {
+		final StringBuilder text = new StringBuilder(4096);
+		this.metricsRegistry.counters().forEach((name, counter) -> {
+			final String metricName = MetricsEndpoint.metricName(name);
+			text.append("# TYPE ").append(metricName).append(" counter\n");
+			text.append(metricName).append(' ').append(counter.get()).append('\n');
+		});
+		this.metricsRegistry.gauges().forEach((name, gauge) -> {
+			final String metricName = MetricsEndpoint.metricName(name);
+			text.append("# TYPE ").append(metricName).append(" gauge\n");
+			text.append(metricName).append(' ').append(gauge.getAsLong()).append('\n');
+		});
+		this.metricsRegistry.histograms().forEach((name, histogram) -> {
+			final String metricName = MetricsEndpoint.metricName(name);
+			final Histogram.Snapshot snapshot = histogram.snapshot();
+			text.append("# TYPE ").append(metricName).append(" summary\n");
+			for (final double percentile : MetricsRegistry.PERCENTILES) {
+				text.append(metricName).append("{quantile=\"").append(percentile / 100.0).append("\"} ").append(snapshot.getValueAtPercentile(percentile)).append('\n');
+			}
+			text.append(metricName).append("_sum ").append(snapshot.getSum()).append('\n');
+			text.append(metricName).append("_count ").append(snapshot.getCount()).append('\n');
+		});
+		return text.toString();
+	}
+	
+	private static String metricName(final String name) {
+		return MetricsEndpoint.PREFIX + name.replaceAll("[^a-zA-Z0-9_]", "_");
+	}
+	
+	/**
+	 * Stops the endpoint, the requests in progress are cut off.
+	 */
+	@Override
+	public void close() {
+		this.httpServer.stop(0);
+		this.executor.shutdownNow();
+	}
+	
+}
@@ -0,0 +1,26 @@
+package com.data.provisioner.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of the {@link MetricsRegistry}.
+ */
+public interface MetricsMXBean {
+	
+	/**
+	 * @return value of each counter by name.
+	 */
+	public Map<String, Long> getCounters();
+	
+	/**
+	 * @return value of each gauge by name.
+	 */
+	public Map<String, Long> getGauges();
+	
+	/**
+	 * @return count, mean, max and the 50th, 90th, 99th and 99.9th percentiles of each histogram,
+	 * by histogram name followed by the statistic, e.g. {@code topic.train.content.processingNanos.p99}.
+	 */
+	public Map<String, Long> getHistograms();
+	
+}
@@ -0,0 +1,120 @@
+package com.data.provisioner.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.LongSupplier;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Named counters, histograms and gauges of the provisioner.
+ * <p>
+ * Metrics are created on first use and live as long as the registry. The components look them up once and keep
+ * the reference, so recording doesn't touch the registry. The registry is published over JMX and read by
+ * {@link MetricsEndpoint}.
+ */
+public class MetricsRegistry implements MetricsMXBean {
+	
+	/**
+	 * Name of the registry in the platform MBean server.
+	 */
+	public static final String OBJECT_NAME = "com.data.provisioner:type=Metrics";
+	
+	/**
+	 * Percentiles exposed for every histogram.
+	 */
+	static final double[] PERCENTILES = {50.0, 90.0, 99.0, 99.9};
+	
+	private final Map<String, Counter> counters = new ConcurrentSkipListMap<>();
+	
+	private final Map<String, Histogram> histograms = new ConcurrentSkipListMap<>();
+	
+	private final Map<String, LongSupplier> gauges = new ConcurrentSkipListMap<>();
+	
+	/**
+	 * @return the counter with the name, created when it doesn't exist.
+	 */
+	public Counter counter(final String name) {
+		return this.counters.computeIfAbsent(name, key -> new Counter());
+	}
+	
+	/**
+	 * @return the histogram with the name, created when it doesn't exist.
+	 */
+	public Histogram histogram(final String name) {
+		return this.histograms.computeIfAbsent(name, key -> new Histogram());
+	}
+	
+	/**
+	 * Registers gauge, replacing the previous gauge with the same name. It's called whenever the metrics are read,
+	 * from the reading thread.
+	 */
+	public void gauge(final String name, final LongSupplier gauge) {
+		this.gauges.put(name, gauge);
+	}
+	
+	/**
+	 * Registers the registry in the platform MBean server, unless it's registered already.
+	 * @throws JMException when the registration fails.
+	 */
+	public void registerMBean() throws JMException {
+		final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+		final ObjectName objectName = new ObjectName(MetricsRegistry.OBJECT_NAME);
+		if (!mBeanServer.isRegistered(objectName)) {
+			mBeanServer.registerMBean(this, objectName);
+		}
+	}
+	
+	Map<String, Counter> counters() {
+		return this.counters;
+	}
+	
+	Map<String, Histogram> histograms() {
+		return this.histograms;
+	}
+	
+	Map<String, LongSupplier> gauges() {
+		return this.gauges;
+	}
+	
+	@Override
+	public Map<String, Long> getCounters() {
+		final Map<String, Long> values = new TreeMap<>();
+		this.counters.forEach((name, counter) -> values.put(name, counter.get()));
+		return values;
+	}
+	
+	@Override
+	public Map<String, Long> getGauges() {
+		final Map<String, Long> values = new TreeMap<>();
+		this.gauges.forEach((name, gauge) -> values.put(name, gauge.getAsLong()));
+		return values;
+	}
+	
+	@Override
+	public Map<String, Long> getHistograms() {
+		final Map<String, Long> values = new TreeMap<>();
+		this.histograms.forEach((name, histogram) -> {
+			final Histogram.Snapshot snapshot = histogram.snapshot();
+			values.put(name + ".count", snapshot.getCount());
+			values.put(name + ".mean", Math.round(snapshot.getMean()));
+			values.put(name + ".max", snapshot.getMax());
+			for (final double percentile : MetricsRegistry.PERCENTILES) {
+				values.put(name + ".p" + MetricsRegistry.percentileName(percentile), snapshot.getValueAtPercentile(percentile));
+			}
+		});
+		return values;
+	}
+	
+	/**
+	 * @return the percentile without the decimal point, e.g. 999 for 99.9.
+	 */
+	private static String percentileName(final double percentile) {
+		return percentile == Math.rint(percentile) ? String.valueOf((long) percentile) : String.valueOf(percentile).replace(".", "");
+	}
+	
+}
@@ -0,0 +1,93 @@
+package com.data.provisioner.realtime;
+
+import com.data.provisioner.util.ByteString;
+
+/**
+ * Active service alert. Only the first active period and the first translation of the texts are kept.
+ * <p>
+ * Entries are updated in place by the decoder, so they may only be read inside {@link RealtimeState} read callbacks.
+ */
+public final class AlertEntry {
+	
+	final ByteString entityId = new ByteString();
+	
+	final ByteString headerText = new ByteString();
+	
+	final ByteString descriptionText = new ByteString();
+	
+	long activeStart = RealtimeState.NOT_SET;
+	
+	long activeEnd = RealtimeState.NOT_SET;
+	
+	int cause = RealtimeState.NOT_SET;
+	
+	int effect = RealtimeState.NOT_SET;
+	
+	int informedEntityCount = 0;
+	
+	/**
+	 * Number of the feed that updated the entry last.
+	 */
+	long feedSequence = 0L;
+	
+	public String getId() {
+		return this.entityId.toString();
+	}
+	
+	public String getHeaderText() {
+		return this.headerText.toString();
+	}
+	
+	public String getDescriptionText() {
+		return this.descriptionText.toString();
+	}
+	
+	/**
+	 * @return start of the active period (POSIX time in seconds).
+	 */
+	public long getActiveStart() {
+		return this.activeStart;
+	}
+	
+	/**
+	 * @return end of the active period (POSIX time in seconds).
+	 */
+	public long getActiveEnd() {
+		return this.activeEnd;
+	}
+	
+	public int getCause() {
+		return this.cause;
+	}
+	
+	public int getEffect() {
+		return this.effect;
+	}
+	
+	public int getInformedEntityCount() {
+		return this.informedEntityCount;
+	}
+	
+	void clear() {
+		this.entityId.clear();
+		this.headerText.clear();
+		this.descriptionText.clear();
+		this.activeStart = RealtimeState.NOT_SET;
+		this.activeEnd = RealtimeState.NOT_SET;
+		this.cause = RealtimeState.NOT_SET;
+		this.effect = RealtimeState.NOT_SET;
+		this.informedEntityCount = 0;
+	}
+	
+	void copyFrom(final AlertEntry source) {
+		this.entityId.set(source.entityId);
+		this.headerText.set(source.headerText);
+		this.descriptionText.set(source.descriptionText);
+		this.activeStart = source.activeStart;
+		this.activeEnd = source.activeEnd;
+		this.cause = source.cause;
+		this.effect = source.effect;
+		this.informedEntityCount = source.informedEntityCount;
+	}
+	
+}
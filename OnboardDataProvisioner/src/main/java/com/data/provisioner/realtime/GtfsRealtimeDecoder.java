@@ -0,0 +1,441 @@
+package com.data.provisioner.realtime;
+
+import java.io.IOException;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+
+import com.data.provisioner.util.ByteString;
+
+/**
+ * Decodes GTFS-Realtime {@code FeedMessage}s and applies their trip updates, vehicle positions and alerts to the {@link RealtimeState}.
+ * <p>
+ * The decoder reads the protocol buffers wire format directly and keeps a reusable body buffer and one scratch entry
+ * per entity type, so decoding a feed in steady state allocates only for entities seen for the first time.
+ * Unknown fields and extensions are skipped.
+ * <p>
+ * Not thread safe - one decoder per consumer session.
+ */
+public class GtfsRealtimeDecoder {
+	
+	/**
+	 * {@code FeedHeader.Incrementality.DIFFERENTIAL}.
+	 */
+	private static final int DIFFERENTIAL = 1;
+	
+	private final RealtimeState realtimeState;
+	
+	private final ProtobufReader reader = new ProtobufReader();
+	
+	/**
+	 * The reusable message body buffer.
+	 */
+	private byte[] body = new byte[64 * 1024];
+	
+	private final ByteString entityId = new ByteString();
+	
+	private final TripUpdateEntry tripUpdate = new TripUpdateEntry();
+	
+	private final VehiclePositionEntry vehiclePosition = new VehiclePositionEntry();
+	
+	private final AlertEntry alert = new AlertEntry();
+	
+	/**
+	 * Field skipped in place when it isn't needed.
+	 */
+	private final ByteString ignored = new ByteString();
+	
+	public GtfsRealtimeDecoder(final RealtimeState realtimeState) {
+		this.realtimeState = realtimeState;
+	}
+	
+	/**
+	 * Reads the message body into the reusable buffer and decodes it.
+	 * @param message bytes message with a serialized {@code FeedMessage}.
+	 * @throws JMSException when the body can't be read.
+	 * @throws IOException when the body isn't a valid feed.
+	 */
+	public void decode(final BytesMessage message) throws JMSException, IOException {
+		final long bodyLength = message.getBodyLength();
+		if (bodyLength > Integer.MAX_VALUE - 8) {
+			throw new IOException("Realtime feed of " + bodyLength + " bytes is too large.");
+		}
+		if (bodyLength > this.body.length) {
+			this.body = new byte[(int) Math.max(bodyLength, this.body.length * 2L)];
+		}
+		final int length = bodyLength == 0L ? 0 : message.readBytes(this.body, (int) bodyLength);
+		if (length != bodyLength) {
+			throw new IOException("Realtime feed was read partially, " + length + " of " + bodyLength + " bytes.");
+		}
+		this.decode(this.body, 0, length);
+	}
+	
+	/**
+	 * Decodes the feed and applies it to the state.
+	 * @param buffer the serialized {@code FeedMessage}.
+	 * @param offset offset of the feed in the buffer.
+	 * @param length length of the feed.
+	 * @throws IOException when the feed isn't valid. Entities decoded before the error stay applied.
+	 */
+	public void decode(final byte[] buffer, final int offset, final int length) throws IOException {
+		this.reader.reset(buffer, offset, length);
+		long timestamp = RealtimeState.NOT_SET;
+		boolean fullDataset = true;
+		this.realtimeState.beginUpdate();
+		try {
+			while (this.reader.hasRemaining()) {
+				final int tag = this.reader.readTag();
+				switch (ProtobufReader.fieldNumber(tag)) {
+					case 1:
+						final int headerLimit = this.reader.pushLimit();
+						while (this.reader.hasRemaining()) {
+							final int headerTag = this.reader.readTag();
+							switch (ProtobufReader.fieldNumber(headerTag)) {
+								case 2:
+									fullDataset = this.reader.readVarint32() != GtfsRealtimeDecoder.DIFFERENTIAL;
+									break;
+								case 3:
+									timestamp = this.reader.readVarint64();
+									break;
+								default:
+									this.reader.skip(headerTag);
+							}
+						}
+						this.reader.popLimit(headerLimit);
+						break;
+					case 2:
+						this.decodeEntity();
+						break;
+					default:
+						this.reader.skip(tag);
+				}
+			}
+			this.realtimeState.completeUpdate(timestamp, fullDataset);
+		} finally {
+			this.realtimeState.endUpdate();
+		}
+	}
+	
+	private void decodeEntity() throws IOException {
+		final int limit = this.reader.pushLimit();
+		this.entityId.clear();
+		boolean deleted = false;
+		boolean hasTripUpdate = false;
+		boolean hasVehiclePosition = false;
+		boolean hasAlert = false;
+		while (this.reader.hasRemaining()) {
+			final int tag = this.reader.readTag();
+			switch (ProtobufReader.fieldNumber(tag)) {
+				case 1:
+					this.reader.readBytes(this.entityId);
+					break;
+				case 2:
+					deleted = this.reader.readBool();
+					break;
+				case 3:
+					this.tripUpdate.clear();
+					this.decodeTripUpdate();
+					hasTripUpdate = true;
+					break;
+				case 4:
+					this.vehiclePosition.clear();
+					this.decodeVehiclePosition();
+					hasVehiclePosition = true;
+					break;
+				case 5:
+					this.alert.clear();
+					this.decodeAlert();
+					hasAlert = true;
+					break;
+				default:
+					this.reader.skip(tag);
+			}
+		}
+		this.reader.popLimit(limit);
+		
+		if (deleted) {
+			this.realtimeState.removeEntity(this.entityId);
+			return;
+		}
+		if (hasTripUpdate) {
+			this.tripUpdate.entityId.set(this.entityId);
+			this.realtimeState.applyTripUpdate(this.tripUpdate);
+		}
+		if (hasVehiclePosition) {
+			this.vehiclePosition.entityId.set(this.entityId);
+			if (this.vehiclePosition.vehicleId.isEmpty()) {
+				this.vehiclePosition.vehicleId.set(this.entityId);
+			}
+			this.realtimeState.applyVehiclePosition(this.vehiclePosition);
+		}
+		if (hasAlert) {
+			this.alert.entityId.set(this.entityId);
+			this.realtimeState.applyAlert(this.alert);
+		}
+	}
+	
+	private void decodeTripUpdate() throws IOException {
+		final int limit = this.reader.pushLimit();
+		while (this.reader.hasRemaining()) {
+			final int tag = this.reader.readTag();
+			switch (ProtobufReader.fieldNumber(tag)) {
+				case 1:
+					this.decodeTripDescriptor(this.tripUpdate.tripId, this.tripUpdate.routeId);
+					break;
+				case 2:
+					this.decodeStopTimeUpdate();
+					break;
+				case 3:
+					this.decodeVehicleDescriptor(this.tripUpdate.vehicleId, this.ignored);
+					break;
+				case 4:
+					this.tripUpdate.timestamp = this.reader.readVarint64();
+					break;
+				case 5:
+					this.tripUpdate.delay = this.reader.readVarint32();
+					break;
+				default:
+					this.reader.skip(tag);
+			}
+		}
+		this.reader.popLimit(limit);
+	}
+	
+	private void decodeStopTimeUpdate() throws IOException {
+		final int limit = this.reader.pushLimit();
+		final int index = this.tripUpdate.addStopTimeUpdate();
+		while (this.reader.hasRemaining()) {
+			final int tag = this.reader.readTag();
+			switch (ProtobufReader.fieldNumber(tag)) {
+				case 1:
+					this.tripUpdate.setStopSequence(index, this.reader.readVarint32());
+					break;
+				case 2:
+					this.decodeStopTimeEvent(index, true);
+					break;
+				case 3:
+					this.decodeStopTimeEvent(index, false);
+					break;
+				case 4:
+					this.reader.readBytes(this.tripUpdate.stopId(index));
+					break;
+				case 5:
+					this.tripUpdate.setScheduleRelationship(index, this.reader.readVarint32());
+					break;
+				default:
+					this.reader.skip(tag);
+			}
+		}
+		this.reader.popLimit(limit);
+	}
+	
+	private void decodeStopTimeEvent(final int index, final boolean arrival) throws IOException {
+		final int limit = this.reader.pushLimit();
+		int delay = RealtimeState.NOT_SET;
+		long time = RealtimeState.NOT_SET;
+		while (this.reader.hasRemaining()) {
+			final int tag = this.reader.readTag();
+			switch (ProtobufReader.fieldNumber(tag)) {
+				case 1:
+					delay = this.reader.readVarint32();
+					break;
+				case 2:
+					time = this.reader.readVarint64();
+					break;
+				default:
+					this.reader.skip(tag);
+			}
+		}
+		this.reader.popLimit(limit);
+		if (arrival) {
+			this.tripUpdate.setArrival(index, delay, time);
+		} else {
+			this.tripUpdate.setDeparture(index, delay, time);
+		}
+	}
+	
+	private void decodeVehiclePosition() throws IOException {
+		final int limit = this.reader.pushLimit();
+		while (this.reader.hasRemaining()) {
+			final int tag = this.reader.readTag();
+			switch (ProtobufReader.fieldNumber(tag)) {
+				case 1:
+					this.decodeTripDescriptor(this.vehiclePosition.tripId, this.vehiclePosition.routeId);
+					break;
+				case 2:
+					this.decodePosition();
+					break;
+				case 3:
+					this.vehiclePosition.currentStopSequence = this.reader.readVarint32();
+					break;
+				case 4:
+					this.vehiclePosition.currentStatus = this.reader.readVarint32();
+					break;
+				case 5:
+					this.vehiclePosition.timestamp = this.reader.readVarint64();
+					break;
+				case 6:
+					this.vehiclePosition.congestionLevel = this.reader.readVarint32();
+					break;
+				case 7:
+					this.reader.readBytes(this.vehiclePosition.stopId);
+					break;
+				case 8:
+					this.decodeVehicleDescriptor(this.vehiclePosition.vehicleId, this.vehiclePosition.label);
+					break;
+				case 9:
+					this.vehiclePosition.occupancyStatus = this.reader.readVarint32();
+					break;
+				default:
+					this.reader.skip(tag);
+			}
+		}
+		this.reader.popLimit(limit);
+	}
+	
+	private void decodePosition() throws IOException {
+		final int limit = this.reader.pushLimit();
+		while (this.reader.hasRemaining()) {
+			final int tag = this.reader.readTag();
+			switch (ProtobufReader.fieldNumber(tag)) {
+				case 1:
+					this.vehiclePosition.latitude = this.reader.readFloat();
+					break;
+				case 2:
+					this.vehiclePosition.longitude = this.reader.readFloat();
+					break;
+				case 3:
+					this.vehiclePosition.bearing = this.reader.readFloat();
+					break;
+				case 4:
+					this.vehiclePosition.odometer = this.reader.readDouble();
+					break;
+				case 5:
+					this.vehiclePosition.speed = this.reader.readFloat();
+					break;
+				default:
+					this.reader.skip(tag);
+			}
+		}
+		this.reader.popLimit(limit);
+	}
+	
+	private void decodeAlert() throws IOException {
+		final int limit = this.reader.pushLimit();
+		boolean firstPeriod = true;
+		while (this.reader.hasRemaining()) {
+			final int tag = this.reader.readTag();
+			switch (ProtobufReader.fieldNumber(tag)) {
+				case 1:
+					if (firstPeriod) {
+						this.decodeActivePeriod();
+						firstPeriod = false;
+					} else {
+						this.reader.skip(tag);
+					}
+					break;
+				case 5:
+					this.alert.informedEntityCount++;
+					this.reader.skip(tag);
+					break;
+				case 6:
+					this.alert.cause = this.reader.readVarint32();
+					break;
+				case 7:
+					this.alert.effect = this.reader.readVarint32();
+					break;
+				case 10:
+					this.decodeTranslatedString(this.alert.headerText);
+					break;
+				case 11:
+					this.decodeTranslatedString(this.alert.descriptionText);
+					break;
+				default:
+					this.reader.skip(tag);
+			}
+		}
+		this.reader.popLimit(limit);
+	}
+	
+	private void decodeActivePeriod() throws IOException {
+		final int limit = this.reader.pushLimit();
+		while (this.reader.hasRemaining()) {
+			final int tag = this.reader.readTag();
+			switch (ProtobufReader.fieldNumber(tag)) {
+				case 1:
+					this.alert.activeStart = this.reader.readVarint64();
+					break;
+				case 2:
+					this.alert.activeEnd = this.reader.readVarint64();
+					break;
+				default:
+					this.reader.skip(tag);
+			}
+		}
+		this.reader.popLimit(limit);
+	}
+	
+	/**
+	 * Reads the text of the first translation.
+	 */
+	private void decodeTranslatedString(final ByteString text) throws IOException {
+		final int limit = this.reader.pushLimit();
+		boolean firstTranslation = true;
+		while (this.reader.hasRemaining()) {
+			final int tag = this.reader.readTag();
+			if (ProtobufReader.fieldNumber(tag) == 1 && firstTranslation) {
+				final int translationLimit = this.reader.pushLimit();
+				while (this.reader.hasRemaining()) {
+					final int translationTag = this.reader.readTag();
+					if (ProtobufReader.fieldNumber(translationTag) == 1) {
+						this.reader.readBytes(text);
+					} else {
+						this.reader.skip(translationTag);
+					}
+				}
+				this.reader.popLimit(translationLimit);
+				firstTranslation = false;
+			} else {
+				this.reader.skip(tag);
+			}
+		}
+		this.reader.popLimit(limit);
+	}
+	
+	private void decodeTripDescriptor(final ByteString tripId, final ByteString routeId) throws IOException {
+		final int limit = this.reader.pushLimit();
+		while (this.reader.hasRemaining()) {
+			final int tag = this.reader.readTag();
+			switch (ProtobufReader.fieldNumber(tag)) {
+				case 1:
+					this.reader.readBytes(tripId);
+					break;
+				case 5:
+					this.reader.readBytes(routeId);
+					break;
+				default:
+					this.reader.skip(tag);
+			}
+		}
+		this.reader.popLimit(limit);
+	}
+	
+	private void decodeVehicleDescriptor(final ByteString vehicleId, final ByteString label) throws IOException {
+		final int limit = this.reader.pushLimit();
+		while (this.reader.hasRemaining()) {
+			final int tag = this.reader.readTag();
+			switch (ProtobufReader.fieldNumber(tag)) {
+				case 1:
+					this.reader.readBytes(vehicleId);
+					break;
+				case 2:
+					this.reader.readBytes(label);
+					break;
+				default:
+					this.reader.skip(tag);
+			}
+		}
+		this.reader.popLimit(limit);
+	}
+	
+}
@@ -0,0 +1,189 @@
+package com.data.provisioner.realtime;
+
+import java.io.IOException;
+
+import com.data.provisioner.util.ByteString;
+
+/**
+ * Minimal reader of the protocol buffers wire format working directly on a byte array.
+ * <p>
+ * Nested messages are read in place by narrowing the limit with {@link #pushLimit(int)} and restoring it with
+ * {@link #popLimit(int)}, so no reader or message objects are created while decoding.
+ */
+public final class ProtobufReader {
+	
+	public static final int WIRE_TYPE_VARINT = 0;
+	
+	public static final int WIRE_TYPE_FIXED64 = 1;
+	
+	public static final int WIRE_TYPE_LENGTH_DELIMITED = 2;
+	
+	public static final int WIRE_TYPE_FIXED32 = 5;
+	
+	private byte[] buffer = new byte[0];
+	
+	private int position = 0;
+	
+	private int limit = 0;
+	
+	/**
+	 * Starts reading a new message.
+	 * @param source the encoded message.
+	 * @param offset offset of the message in the array.
+	 * @param length length of the message.
+	 */
+	public void reset(final byte[] source, final int offset, final int length) {
+		this.buffer = source;
+		this.position = offset;
+		this.limit = offset + length;
+	}
+	
+	/**
+	 * @return true until the current message (or nested message) is fully read.
+	 */
+	public boolean hasRemaining() {
+		return this.position < this.limit;
+	}
+	
+	/**
+	 * @return the next field tag (field number and wire type).
+	 * @throws IOException
+	 */
+	public int readTag() throws IOException {
+		final int tag = this.readVarint32();
+		if (tag >>> 3 == 0) {
+			throw new IOException("Invalid protocol buffer tag " + tag + " at position " + this.position + ".");
+		}
+		return tag;
+	}
+	
+	public static int fieldNumber(final int tag) {
+		return tag >>> 3;
+	}
+	
+	public static int wireType(final int tag) {
+		return tag & 7;
+	}
+	
+	public long readVarint64() throws IOException {
+		long value = 0L;
+		for (int shift = 0; shift < 64; shift += 7) {
+			if (this.position >= this.limit) {
+				throw this.truncated();
+			}
+			final byte current = this.buffer[this.position++];
+			value |= (long) (current & 0x7F) << shift;
+			if (current >= 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed protocol buffer varint at position " + this.position + ".");
+	}
+	
+	/**
+	 * Reads varint truncated to 32 bits, which is also how negative int32 values (encoded as 64 bit) are read.
+	 */
+	public int readVarint32() throws IOException {
+		return (int) this.readVarint64();
+	}
+	
+	public int readFixed32() throws IOException {
+		this.require(4);
+		final int value = (this.buffer[this.position] & 0xFF)
+			| (this.buffer[this.position + 1] & 0xFF) << 8
+			| (this.buffer[this.position + 2] & 0xFF) << 16
+			| (this.buffer[this.position + 3] & 0xFF) << 24;
+		this.position += 4;
+		return value;
+	}
+	
+	public long readFixed64() throws IOException {
+		return (this.readFixed32() & 0xFFFFFFFFL) | (long) this.readFixed32() << 32;
+	}
+	
+	public float readFloat() throws IOException {
+		return Float.intBitsToFloat(this.readFixed32());
+	}
+	
+	public double readDouble() throws IOException {
+		return Double.longBitsToDouble(this.readFixed64());
+	}
+	
+	public boolean readBool() throws IOException {
+		return this.readVarint64() != 0L;
+	}
+	
+	/**
+	 * Reads length delimited field into the target.
+	 */
+	public void readBytes(final ByteString target) throws IOException {
+		final int length = this.readLength();
+		target.set(this.buffer, this.position, length);
+		this.position += length;
+	}
+	
+	/**
+	 * Narrows the limit to the nested message that follows.
+	 * @return the previous limit, to be passed to {@link #popLimit(int)}.
+	 * @throws IOException
+	 */
+	public int pushLimit() throws IOException {
+		final int length = this.readLength();
+		final int previousLimit = this.limit;
+		this.limit = this.position + length;
+		return previousLimit;
+	}
+	
+	/**
+	 * Skips what's left of the nested message and restores the previous limit.
+	 */
+	public void popLimit(final int previousLimit) {
+		this.position = this.limit;
+		this.limit = previousLimit;
+	}
+	
+	/**
+	 * Skips the value of the field with the given tag.
+	 */
+	public void skip(final int tag) throws IOException {
+		switch (ProtobufReader.wireType(tag)) {
+			case WIRE_TYPE_VARINT:
+				this.readVarint64();
+				break;
+			case WIRE_TYPE_FIXED64:
+				this.require(8);
+				this.position += 8;
+				break;
+			case WIRE_TYPE_LENGTH_DELIMITED:
+				final int length = this.readLength();
+				this.position += length;
+				break;
+			case WIRE_TYPE_FIXED32:
+				this.require(4);
+				this.position += 4;
+				break;
+			default:
+				throw new IOException("Unsupported protocol buffer wire type " + ProtobufReader.wireType(tag) + " at position " + this.position + ".");
+		}
+	}
+	
+	private int readLength() throws IOException {
+		final int length = this.readVarint32();
+		if (length < 0) {
+			throw new IOException("Negative protocol buffer length at position " + this.position + ".");
+		}
+		this.require(length);
+		return length;
+	}
+	
+	private void require(final int count) throws IOException {
+		if (this.limit - this.position < count) {
+			throw this.truncated();
+		}
+	}
+	
+	private IOException truncated() {
+		return new IOException("Truncated protocol buffer message at position " + this.position + ".");
+	}
+	
+}
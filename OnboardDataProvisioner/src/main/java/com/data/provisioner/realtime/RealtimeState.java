@@ -0,0 +1,192 @@
+package com.data.provisioner.realtime;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+import com.data.provisioner.util.ByteString;
+
+/**
+ * In-memory state built from the GTFS-Realtime feeds - the latest trip updates by trip id,
+ * vehicle positions by vehicle id and service alerts by id.
+ * <p>
+ * A feed is applied under the write lock, readers see either the state before or after a feed. Entries are mutable and
+ * reused between feeds, so they are only handed to read callbacks running under the read lock and must not escape them.
+ */
+public class RealtimeState {
+	
+	/**
+	 * Value of the numeric fields missing from the feed.
+	 */
+	public static final int NOT_SET = Integer.MIN_VALUE;
+	
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	
+	private final Map<ByteString, TripUpdateEntry> tripUpdates = new HashMap<>();
+	
+	private final Map<ByteString, VehiclePositionEntry> vehiclePositions = new HashMap<>();
+	
+	private final Map<ByteString, AlertEntry> alerts = new HashMap<>();
+	
+	/**
+	 * Number of the feeds applied so far.
+	 */
+	private long feedSequence = 0L;
+	
+	/**
+	 * Header timestamp of the last applied feed (POSIX time in seconds).
+	 */
+	private long feedTimestamp = RealtimeState.NOT_SET;
+	
+	public long getFeedSequence() {
+		this.lock.readLock().lock();
+		try {
+			return this.feedSequence;
+		} finally {
+			this.lock.readLock().unlock();
+		}
+	}
+	
+	public long getFeedTimestamp() {
+		this.lock.readLock().lock();
+		try {
+			return this.feedTimestamp;
+		} finally {
+			this.lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Passes the trip update of the trip to the reader.
+	 * @return false when there is no update for the trip.
+	 */
+	public boolean readTripUpdate(final String tripId, final Consumer<TripUpdateEntry> reader) {
+		return this.read(this.tripUpdates, tripId, reader);
+	}
+	
+	/**
+	 * Passes the position of the vehicle to the reader.
+	 * @return false when the position of the vehicle isn't known.
+	 */
+	public boolean readVehiclePosition(final String vehicleId, final Consumer<VehiclePositionEntry> reader) {
+		return this.read(this.vehiclePositions, vehicleId, reader);
+	}
+	
+	/**
+	 * Passes the alert to the reader.
+	 * @return false when there is no such alert.
+	 */
+	public boolean readAlert(final String alertId, final Consumer<AlertEntry> reader) {
+		return this.read(this.alerts, alertId, reader);
+	}
+	
+	public void forEachTripUpdate(final Consumer<TripUpdateEntry> reader) {
+		this.forEach(this.tripUpdates, reader);
+	}
+	
+	public void forEachVehiclePosition(final Consumer<VehiclePositionEntry> reader) {
+		this.forEach(this.vehiclePositions, reader);
+	}
+	
+	public void forEachAlert(final Consumer<AlertEntry> reader) {
+		this.forEach(this.alerts, reader);
+	}
+	
+	/**
+	 * Takes the write lock for applying a feed. Must be followed by {@link #endUpdate()}.
+	 * @return number of the feed being applied.
+	 */
+	long beginUpdate() {
+		this.lock.writeLock().lock();
+		return ++this.feedSequence;
+	}
+	
+	/**
+	 * Records the feed header and, for full datasets, removes everything the feed didn't mention.
+	 */
+	void completeUpdate(final long timestamp, final boolean fullDataset) {
+		this.feedTimestamp = timestamp;
+		if (fullDataset) {
+			final long sequence = this.feedSequence;
+			this.tripUpdates.values().removeIf(entry -> entry.feedSequence != sequence);
+			this.vehiclePositions.values().removeIf(entry -> entry.feedSequence != sequence);
+			this.alerts.values().removeIf(entry -> entry.feedSequence != sequence);
+		}
+	}
+	
+	void endUpdate() {
+		this.lock.writeLock().unlock();
+	}
+	
+	/**
+	 * Copies the decoded trip update into the entry of its trip. Trip updates without trip id are kept by entity id.
+	 */
+	void applyTripUpdate(final TripUpdateEntry decoded) {
+		final ByteString key = decoded.tripId.isEmpty() ? decoded.entityId : decoded.tripId;
+		TripUpdateEntry entry = this.tripUpdates.get(key);
+		if (entry == null) {
+			entry = new TripUpdateEntry();
+			this.tripUpdates.put(key.copy(), entry);
+		}
+		entry.copyFrom(decoded);
+		entry.feedSequence = this.feedSequence;
+	}
+	
+	/**
+	 * Copies the decoded position into the entry of its vehicle.
+	 */
+	void applyVehiclePosition(final VehiclePositionEntry decoded) {
+		VehiclePositionEntry entry = this.vehiclePositions.get(decoded.vehicleId);
+		if (entry == null) {
+			entry = new VehiclePositionEntry();
+			this.vehiclePositions.put(decoded.vehicleId.copy(), entry);
+		}
+		entry.copyFrom(decoded);
+		entry.feedSequence = this.feedSequence;
+	}
+	
+	void applyAlert(final AlertEntry decoded) {
+		AlertEntry entry = this.alerts.get(decoded.entityId);
+		if (entry == null) {
+			entry = new AlertEntry();
+			this.alerts.put(decoded.entityId.copy(), entry);
+		}
+		entry.copyFrom(decoded);
+		entry.feedSequence = this.feedSequence;
+	}
+	
+	/**
+	 * Removes everything that came from the feed entity (differential feeds only).
+	 */
+	void removeEntity(final ByteString entityId) {
+		this.alerts.remove(entityId);
+		this.tripUpdates.values().removeIf(entry -> entry.entityId.equals(entityId));
+		this.vehiclePositions.values().removeIf(entry -> entry.entityId.equals(entityId));
+	}
+	
+	private <T> boolean read(final Map<ByteString, T> entries, final String id, final Consumer<T> reader) {
+		final ByteString key = ByteString.of(id);
+		this.lock.readLock().lock();
+		try {
+			final T entry = entries.get(key);
+			if (entry == null) {
+				return false;
+			}
+			reader.accept(entry);
+			return true;
+		} finally {
+			this.lock.readLock().unlock();
+		}
+	}
+	
+	private <T> void forEach(final Map<ByteString, T> entries, final Consumer<T> reader) {
+		this.lock.readLock().lock();
+		try {
+			entries.values().forEach(reader);
+		} finally {
+			this.lock.readLock().unlock();
+		}
+	}
+	
+}
@@ -0,0 +1,196 @@
+package com.data.provisioner.realtime;
+
+import java.util.Arrays;
+
+import com.data.provisioner.util.ByteString;
+
+/**
+ * Latest trip update of a trip. Values missing from the feed are {@link RealtimeState#NOT_SET}.
+ * <p>
+ * Entries are updated in place by the decoder, so they may only be read inside {@link RealtimeState} read callbacks.
+ */
+public final class TripUpdateEntry {
+	
+	final ByteString entityId = new ByteString();
+	
+	final ByteString tripId = new ByteString();
+	
+	final ByteString routeId = new ByteString();
+	
+	final ByteString vehicleId = new ByteString();
+	
+	int delay = RealtimeState.NOT_SET;
+	
+	long timestamp = RealtimeState.NOT_SET;
+	
+	private int stopTimeUpdateCount = 0;
+	
+	private int[] stopSequences = new int[8];
+	
+	private ByteString[] stopIds = new ByteString[8];
+	
+	private int[] arrivalDelays = new int[8];
+	
+	private long[] arrivalTimes = new long[8];
+	
+	private int[] departureDelays = new int[8];
+	
+	private long[] departureTimes = new long[8];
+	
+	private int[] scheduleRelationships = new int[8];
+	
+	/**
+	 * Number of the feed that updated the entry last.
+	 */
+	long feedSequence = 0L;
+	
+	public String getTripId() {
+		return this.tripId.toString();
+	}
+	
+	public String getRouteId() {
+		return this.routeId.toString();
+	}
+	
+	public String getVehicleId() {
+		return this.vehicleId.toString();
+	}
+	
+	/**
+	 * @return trip delay (in seconds).
+	 */
+	public int getDelay() {
+		return this.delay;
+	}
+	
+	/**
+	 * @return time of the update (POSIX time in seconds).
+	 */
+	public long getTimestamp() {
+		return this.timestamp;
+	}
+	
+	public int getStopTimeUpdateCount() {
+		return this.stopTimeUpdateCount;
+	}
+	
+	public int getStopSequence(final int index) {
+		return this.stopSequences[this.check(index)];
+	}
+	
+	public String getStopId(final int index) {
+		return this.stopIds[this.check(index)].toString();
+	}
+	
+	public int getArrivalDelay(final int index) {
+		return this.arrivalDelays[this.check(index)];
+	}
+	
+	public long getArrivalTime(final int index) {
+		return this.arrivalTimes[this.check(index)];
+	}
+	
+	public int getDepartureDelay(final int index) {
+		return this.departureDelays[this.check(index)];
+	}
+	
+	public long getDepartureTime(final int index) {
+		return this.departureTimes[this.check(index)];
+	}
+	
+	/**
+	 * @return the GTFS-Realtime schedule relationship (0 - scheduled, 1 - skipped, 2 - no data).
+	 */
+	public int getScheduleRelationship(final int index) {
+		return this.scheduleRelationships[this.check(index)];
+	}
+	
+	/**
+	 * Appends empty stop time update, growing the columns when they are full.
+	 * @return index of the update.
+	 */
+	int addStopTimeUpdate() {
+		if (this.stopTimeUpdateCount == this.stopSequences.length) {
+			final int capacity = this.stopSequences.length * 2;
+			this.stopSequences = Arrays.copyOf(this.stopSequences, capacity);
+			this.stopIds = Arrays.copyOf(this.stopIds, capacity);
+			this.arrivalDelays = Arrays.copyOf(this.arrivalDelays, capacity);
+			this.arrivalTimes = Arrays.copyOf(this.arrivalTimes, capacity);
+			this.departureDelays = Arrays.copyOf(this.departureDelays, capacity);
+			this.departureTimes = Arrays.copyOf(this.departureTimes, capacity);
+			this.scheduleRelationships = Arrays.copyOf(this.scheduleRelationships, capacity);
+		}
+		final int index = this.stopTimeUpdateCount++;
+		if (this.stopIds[index] == null) {
+			this.stopIds[index] = new ByteString();
+		}
+		this.stopSequences[index] = RealtimeState.NOT_SET;
+		this.stopIds[index].clear();
+		this.arrivalDelays[index] = RealtimeState.NOT_SET;
+		this.arrivalTimes[index] = RealtimeState.NOT_SET;
+		this.departureDelays[index] = RealtimeState.NOT_SET;
+		this.departureTimes[index] = RealtimeState.NOT_SET;
+		this.scheduleRelationships[index] = 0;
+		return index;
+	}
+	
+	void setStopSequence(final int index, final int stopSequence) {
+		this.stopSequences[index] = stopSequence;
+	}
+	
+	ByteString stopId(final int index) {
+		return this.stopIds[index];
+	}
+	
+	void setArrival(final int index, final int arrivalDelay, final long arrivalTime) {
+		this.arrivalDelays[index] = arrivalDelay;
+		this.arrivalTimes[index] = arrivalTime;
+	}
+	
+	void setDeparture(final int index, final int departureDelay, final long departureTime) {
+		this.departureDelays[index] = departureDelay;
+		this.departureTimes[index] = departureTime;
+	}
+	
+	void setScheduleRelationship(final int index, final int scheduleRelationship) {
+		this.scheduleRelationships[index] = scheduleRelationship;
+	}
+	
+	void clear() {
+		this.entityId.clear();
+		this.tripId.clear();
+		this.routeId.clear();
+		this.vehicleId.clear();
+		this.delay = RealtimeState.NOT_SET;
+		this.timestamp = RealtimeState.NOT_SET;
+		this.stopTimeUpdateCount = 0;
+	}
+	
+	void copyFrom(final TripUpdateEntry source) {
+		this.entityId.set(source.entityId);
+		this.tripId.set(source.tripId);
+		this.routeId.set(source.routeId);
+		this.vehicleId.set(source.vehicleId);
+		this.delay = source.delay;
+		this.timestamp = source.timestamp;
+		this.stopTimeUpdateCount = 0;
+		for (int index = 0; index < source.stopTimeUpdateCount; index++) {
+			final int copyIndex = this.addStopTimeUpdate();
+			this.stopSequences[copyIndex] = source.stopSequences[index];
+			this.stopIds[copyIndex].set(source.stopIds[index]);
+			this.arrivalDelays[copyIndex] = source.arrivalDelays[index];
+			this.arrivalTimes[copyIndex] = source.arrivalTimes[index];
+			this.departureDelays[copyIndex] = source.departureDelays[index];
+			this.departureTimes[copyIndex] = source.departureTimes[index];
+			this.scheduleRelationships[copyIndex] = source.scheduleRelationships[index];
+		}
+	}
+	
+	private int check(final int index) {
+		if (index < 0 || index >= this.stopTimeUpdateCount) {
+			throw new IndexOutOfBoundsException("Stop time update " + index + " of " + this.stopTimeUpdateCount + ".");
+		}
+		return index;
+	}
+	
+}
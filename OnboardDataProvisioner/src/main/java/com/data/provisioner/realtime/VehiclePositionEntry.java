@@ -0,0 +1,159 @@
+package com.data.provisioner.realtime;
+
+import com.data.provisioner.util.ByteString;
+
+/**
+ * Latest position of a vehicle. Values missing from the feed are {@link RealtimeState#NOT_SET}, or NaN for coordinates.
+ * <p>
+ * Entries are updated in place by the decoder, so they may only be read inside {@link RealtimeState} read callbacks.
+ */
+public final class VehiclePositionEntry {
+	
+	final ByteString entityId = new ByteString();
+	
+	final ByteString vehicleId = new ByteString();
+	
+	final ByteString label = new ByteString();
+	
+	final ByteString tripId = new ByteString();
+	
+	final ByteString routeId = new ByteString();
+	
+	final ByteString stopId = new ByteString();
+	
+	float latitude = Float.NaN;
+	
+	float longitude = Float.NaN;
+	
+	float bearing = Float.NaN;
+	
+	float speed = Float.NaN;
+	
+	double odometer = Double.NaN;
+	
+	int currentStopSequence = RealtimeState.NOT_SET;
+	
+	int currentStatus = RealtimeState.NOT_SET;
+	
+	int congestionLevel = RealtimeState.NOT_SET;
+	
+	int occupancyStatus = RealtimeState.NOT_SET;
+	
+	long timestamp = RealtimeState.NOT_SET;
+	
+	/**
+	 * Number of the feed that updated the entry last.
+	 */
+	long feedSequence = 0L;
+	
+	/**
+	 * @return the vehicle id, or the feed entity id when the feed doesn't identify the vehicle.
+	 */
+	public String getVehicleId() {
+		return this.vehicleId.toString();
+	}
+	
+	public String getLabel() {
+		return this.label.toString();
+	}
+	
+	public String getTripId() {
+		return this.tripId.toString();
+	}
+	
+	public String getRouteId() {
+		return this.routeId.toString();
+	}
+	
+	public String getStopId() {
+		return this.stopId.toString();
+	}
+	
+	public float getLatitude() {
+		return this.latitude;
+	}
+	
+	public float getLongitude() {
+		return this.longitude;
+	}
+	
+	public float getBearing() {
+		return this.bearing;
+	}
+	
+	/**
+	 * @return speed (in meters per second).
+	 */
+	public float getSpeed() {
+		return this.speed;
+	}
+	
+	public double getOdometer() {
+		return this.odometer;
+	}
+	
+	public int getCurrentStopSequence() {
+		return this.currentStopSequence;
+	}
+	
+	/**
+	 * @return the GTFS-Realtime vehicle stop status (0 - incoming at, 1 - stopped at, 2 - in transit to).
+	 */
+	public int getCurrentStatus() {
+		return this.currentStatus;
+	}
+	
+	public int getCongestionLevel() {
+		return this.congestionLevel;
+	}
+	
+	public int getOccupancyStatus() {
+		return this.occupancyStatus;
+	}
+	
+	/**
+	 * @return time of the position (POSIX time in seconds).
+	 */
+	public long getTimestamp() {
+		return this.timestamp;
+	}
+	
+	void clear() {
+		this.entityId.clear();
+		this.vehicleId.clear();
+		this.label.clear();
+		this.tripId.clear();
+		this.routeId.clear();
+		this.stopId.clear();
+		this.latitude = Float.NaN;
+		this.longitude = Float.NaN;
+		this.bearing = Float.NaN;
+		this.speed = Float.NaN;
+		this.odometer = Double.NaN;
+		this.currentStopSequence = RealtimeState.NOT_SET;
+		this.currentStatus = RealtimeState.NOT_SET;
+		this.congestionLevel = RealtimeState.NOT_SET;
+		this.occupancyStatus = RealtimeState.NOT_SET;
+		this.timestamp = RealtimeState.NOT_SET;
+	}
+	
+	void copyFrom(final VehiclePositionEntry source) {
+		this.entityId.set(source.entityId);
+		this.vehicleId.set(source.vehicleId);
+		this.label.set(source.label);
+		this.tripId.set(source.tripId);
+		this.routeId.set(source.routeId);
+		this.stopId.set(source.stopId);
+		this.latitude = source.latitude;
+		this.longitude = source.longitude;
+		this.bearing = source.bearing;
+		this.speed = source.speed;
+		this.odometer = source.odometer;
+		this.currentStopSequence = source.currentStopSequence;
+		this.currentStatus = source.currentStatus;
+		this.congestionLevel = source.congestionLevel;
+		this.occupancyStatus = source.occupancyStatus;
+		this.timestamp = source.timestamp;
+	}
+	
+}
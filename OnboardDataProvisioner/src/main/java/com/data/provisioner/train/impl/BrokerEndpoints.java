@@ -0,0 +1,226 @@
+package com.data.provisioner.train.impl;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.UnresolvedAddressException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.StringJoiner;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Broker nodes the train connects to, listed in mqConnectionAddress separated by commas.
+ * <p>
+ * With more than one node the connection uses the ActiveMQ failover transport over the nodes ordered by the connect
+ * latency measured by {@link #probe()}, so the train prefers the nearest regional broker. When the connected node is
+ * lost, the transport connects to the next node and resumes the sessions and subscriptions without a restart. Only when
+ * no node is reached in the failover attempts, the connection fails and the train falls back to its reconnect backoff.
+ * The nodes are probed again every rebalance interval and the connection moves to a node which became faster.
+ */
+final class BrokerEndpoints {
+	
+	/**
+	 * The logger.
+	 */
+	private static final Logger LOGGER = Logger.getLogger(BrokerEndpoints.class.getName());
+	
+	/**
+	 * Port of the endpoints without one, the ActiveMQ OpenWire port.
+	 */
+	static final int DEFAULT_PORT = 61616;
+	
+	private final List<URI> endpoints;
+	
+	private final long probeTimeout;
+	
+	private final int failoverAttempts;
+	
+	private final long rebalanceInterval;
+	
+	private final long rebalanceMinimumGain;
+	
+	BrokerEndpoints(final List<URI> endpoints, final long probeTimeout, final int failoverAttempts, final long rebalanceInterval, final long rebalanceMinimumGain) {
+		if (endpoints.isEmpty() || probeTimeout <= 0L || failoverAttempts <= 0 || rebalanceInterval < 0L || rebalanceMinimumGain < 0L) {
+			throw new IllegalArgumentException("Invalid broker endpoints " + endpoints + ".");
+		}
+		this.endpoints = Collections.unmodifiableList(new ArrayList<>(endpoints));
+		this.probeTimeout = probeTimeout;
+		this.failoverAttempts = failoverAttempts;
+		this.rebalanceInterval = rebalanceInterval;
+		this.rebalanceMinimumGain = rebalanceMinimumGain;
+	}
+	
+	/**
+	 * Reads the endpoints and the failover settings.
+	 * <ul>
+	 * <li>mqConnectionAddress - the broker endpoints separated by commas, the first one is preferred when the latencies
+	 * are equal.</li>
+	 * <li>mqProbeTimeout - time (in milliseconds) given to the endpoints to accept the probe connection. Default 2000.</li>
+	 * <li>mqFailoverAttempts - number of passes over the endpoints before the connection fails. Default 3.</li>
+	 * <li>mqRebalanceInterval - time (in seconds) between the probes of the connected train, 0 disables them. Default 300.</li>
+	 * <li>mqRebalanceMinimumGain - latency (in milliseconds) another endpoint must save to move the connection to it,
+	 * so that the train doesn't move between endpoints of similar latency. Default 20.</li>
+	 * </ul>
+	 * @param properties the configuration.
+	 * @return the endpoints.
+	 * @throws NullPointerException when the address is missing.
+	 * @throws IllegalArgumentException when an endpoint or a numeric value is invalid.
+	 */
+	static BrokerEndpoints of(final Properties properties) {
+		final List<URI> endpoints = new ArrayList<>();
+		for (final String endpoint : Objects.requireNonNull(properties.getProperty("mqConnectionAddress"), "MQ Connection address is missing.").split(",")) {
+			if (!endpoint.trim().isEmpty()) {
+				try {
+					endpoints.add(new URI(endpoint.trim()));
+				} catch (URISyntaxException exception) {
+					throw new IllegalArgumentException("Invalid broker endpoint " + endpoint.trim() + ".", exception);
+				}
+			}
+		}
+		return new BrokerEndpoints(
+			endpoints,
+			Long.parseLong(properties.getProperty("mqProbeTimeout", "2000")),
+			Integer.parseInt(properties.getProperty("mqFailoverAttempts", "3")),
+			Long.parseLong(properties.getProperty("mqRebalanceInterval", "300")),
+			Long.parseLong(properties.getProperty("mqRebalanceMinimumGain", "20"))
+		);
+	}
+	
+	List<URI> getEndpoints() {
+		return this.endpoints;
+	}
+	
+	/**
+	 * @return whether the connection uses the failover transport.
+	 */
+	boolean isFailover() {
+		return this.endpoints.size() > 1;
+	}
+	
+	/**
+	 * @return time (in seconds) between the probes of the connected train, 0 when they are disabled.
+	 */
+	long getRebalanceInterval() {
+		return this.isFailover() ? this.rebalanceInterval : 0L;
+	}
+	
+	/**
+	 * Opens TCP connections to all the endpoints at once and measures how long they take to be accepted.
+	 * The probe takes at most the probe timeout, whatever the number of endpoints.
+	 * @return latency (in nanoseconds) by endpoint, the endpoints not reached in the timeout are missing.
+	 */
+	Map<URI, Long> probe() {
+		final Map<URI, Long> latencies = new HashMap<>();
+		final Map<SocketChannel, URI> channels = new HashMap<>();
+		final Map<SocketChannel, Long> starts = new HashMap<>();
+		try (final Selector selector = Selector.open()) {
+			int connecting = 0;
+			for (final URI endpoint : this.endpoints) {
+				if (endpoint.getHost() == null) {
+					latencies.put(endpoint, 0L);
+					continue;
+				}
+				try {
+					final SocketChannel channel = SocketChannel.open();
+					channels.put(channel, endpoint);
+					channel.configureBlocking(false);
+					starts.put(channel, System.nanoTime());
+					if (channel.connect(new InetSocketAddress(endpoint.getHost(), endpoint.getPort() < 0 ? BrokerEndpoints.DEFAULT_PORT : endpoint.getPort()))) {
+						latencies.put(endpoint, System.nanoTime() - starts.get(channel));
+					} else {
+						channel.register(selector, SelectionKey.OP_CONNECT);
+						connecting++;
+					}
+				} catch (IOException | UnresolvedAddressException exception) {
+					BrokerEndpoints.LOGGER.log(Level.FINE, "Broker endpoint {0}", endpoint + " can't be reached. Reason: " + exception.toString());
+				}
+			}
+			final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.probeTimeout);
+			for (long remaining = deadline - System.nanoTime(); connecting > 0 && remaining > 0L; remaining = deadline - System.nanoTime()) {
+				selector.select(Math.max(1L, TimeUnit.NANOSECONDS.toMillis(remaining)));
+				for (final Iterator<SelectionKey> keys = selector.selectedKeys().iterator(); keys.hasNext();) {
+					final SelectionKey key = keys.next();
+					keys.remove();
+					key.cancel();
+					connecting--;
+					final SocketChannel channel = (SocketChannel) key.channel();
+					try {
+						if (channel.finishConnect()) {
+							latencies.put(channels.get(channel), System.nanoTime() - starts.get(channel));
+						}
+					} catch (IOException exception) {
+						BrokerEndpoints.LOGGER.log(Level.FINE, "Broker endpoint {0}", channels.get(channel) + " can't be reached. Reason: " + exception.toString());
+					}
+				}
+			}
+		} catch (IOException exception) {
+			BrokerEndpoints.LOGGER.log(Level.WARNING, "Broker endpoints can't be probed. Reason: {0}", exception.toString());
+		} finally {
+			for (final SocketChannel channel : channels.keySet()) {
+				try {
+					channel.close();
+				} catch (IOException exception) {
+					BrokerEndpoints.LOGGER.log(Level.FINE, "Probe connection can't be closed. Reason: {0}", exception.toString());
+				}
+			}
+		}
+		return latencies;
+	}
+	
+	/**
+	 * @param latencies the latencies from {@link #probe()}.
+	 * @return the endpoints from the fastest to the slowest, followed by the unreached ones in the configured order.
+	 */
+	List<URI> rank(final Map<URI, Long> latencies) {
+		final List<URI> ranked = new ArrayList<>(this.endpoints);
+		ranked.sort(Comparator.comparingLong(endpoint -> latencies.getOrDefault(endpoint, Long.MAX_VALUE)));
+		return ranked;
+	}
+	
+	/**
+	 * @param ranked the endpoints in the order of preference.
+	 * @return the address of the connection factory: the endpoint itself when there is only one, otherwise
+	 * the failover transport trying the endpoints in the given order.
+	 */
+	String connectionAddress(final List<URI> ranked) {
+		if (!this.isFailover()) {
+			return ranked.get(0).toString();
+		}
+		final StringJoiner address = new StringJoiner(",", "failover:(", ")");
+		for (final URI endpoint : ranked) {
+			address.add(endpoint.toString());
+		}
+		return address + "?randomize=false&startupMaxReconnectAttempts=" + this.failoverAttempts + "&maxReconnectAttempts=" + this.failoverAttempts;
+	}
+	
+	/**
+	 * @param connected the endpoint of the connection.
+	 * @param latencies the latencies from {@link #probe()}.
+	 * @return whether the fastest endpoint saves at least the minimum gain compared to the connected one.
+	 * The connection is always moved away from an endpoint the probe didn't reach.
+	 */
+	boolean shouldRebalance(final URI connected, final Map<URI, Long> latencies) {
+		final URI fastest = this.rank(latencies).get(0);
+		final Long fastestLatency = latencies.get(fastest);
+		if (fastestLatency == null || fastest.equals(connected)) {
+			return false;
+		}
+		final Long connectedLatency = latencies.get(connected);
+		return connectedLatency == null || connectedLatency - fastestLatency >= TimeUnit.MILLISECONDS.toNanos(this.rebalanceMinimumGain);
+	}
+	
+}
@@ -0,0 +1,72 @@
+package com.data.provisioner.train.impl;
+
+import java.util.Properties;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+
+/**
+ * Flow control and delivery settings of the MQ connection. Settings missing from the configuration keep
+ * the ActiveMQ defaults, which are tuned for servers: for example the topic prefetch of 32766 messages lets
+ * the broker push the whole backlog of a durable subscription into the heap of the train.
+ */
+final class ConnectionConfiguration {
+	
+	private final Properties properties;
+	
+	private ConnectionConfiguration(final Properties properties) {
+		this.properties = properties;
+	}
+	
+	/**
+	 * Reads the settings and checks their values.
+	 * @param properties the configuration.
+	 * @return the settings.
+	 * @throws NumberFormatException when a numeric value is invalid.
+	 */
+	static ConnectionConfiguration of(final Properties properties) {
+		for (final String key : new String[] {"mqPrefetch", "mqMaximumPendingMessages", "mqProducerWindowSize"}) {
+			if (properties.getProperty(key) != null) {
+				Integer.parseInt(properties.getProperty(key).trim());
+			}
+		}
+		return new ConnectionConfiguration(properties);
+	}
+	
+	/**
+	 * Applies the settings to the connection factory.
+	 * <ul>
+	 * <li>mqPrefetch - number of messages the broker sends ahead to a topic consumer, durable or not. Topics override it
+	 * with {@link TopicConfiguration#PREFETCH}.</li>
+	 * <li>mqMaximumPendingMessages - number of messages the broker keeps for a slow non-durable consumer on top of
+	 * the prefetch, older messages are discarded. -1 keeps all of them.</li>
+	 * <li>mqProducerWindowSize - number of bytes sent asynchronously before the producer waits for the broker.</li>
+	 * <li>mqUseAsyncSend - whether the persistent messages are sent without waiting for the broker.</li>
+	 * <li>mqAlwaysSessionAsync - whether the messages are dispatched to the listeners on a session thread instead of
+	 * the transport thread.</li>
+	 * <li>mqCopyMessageOnSend - whether a sent message is copied, so that it can be changed afterwards. The provisioner
+	 * never changes a sent message.</li>
+	 * <li>mqOptimizeAcknowledge - whether the acknowledges of the AUTO acknowledge mode are sent in batches.</li>
+	 * </ul>
+	 * @param connectionFactory the connection factory.
+	 */
+	void configure(final ActiveMQConnectionFactory connectionFactory) {
+		final String prefetch = this.properties.getProperty("mqPrefetch");
+		if (prefetch != null) {
+			connectionFactory.getPrefetchPolicy().setTopicPrefetch(Integer.parseInt(prefetch.trim()));
+			connectionFactory.getPrefetchPolicy().setDurableTopicPrefetch(Integer.parseInt(prefetch.trim()));
+		}
+		final String maximumPendingMessages = this.properties.getProperty("mqMaximumPendingMessages");
+		if (maximumPendingMessages != null) {
+			connectionFactory.getPrefetchPolicy().setMaximumPendingMessageLimit(Integer.parseInt(maximumPendingMessages.trim()));
+		}
+		final String producerWindowSize = this.properties.getProperty("mqProducerWindowSize");
+		if (producerWindowSize != null) {
+			connectionFactory.setProducerWindowSize(Integer.parseInt(producerWindowSize.trim()));
+		}
+		connectionFactory.setUseAsyncSend(Boolean.parseBoolean(this.properties.getProperty("mqUseAsyncSend", "false")));
+		connectionFactory.setAlwaysSessionAsync(Boolean.parseBoolean(this.properties.getProperty("mqAlwaysSessionAsync", "true")));
+		connectionFactory.setCopyMessageOnSend(Boolean.parseBoolean(this.properties.getProperty("mqCopyMessageOnSend", "true")));
+		connectionFactory.setOptimizeAcknowledge(Boolean.parseBoolean(this.properties.getProperty("mqOptimizeAcknowledge", "false")));
+	}
+	
+}
@@ -0,0 +1,28 @@
+package com.data.provisioner.train.impl;
+
+/**
+ * State of the train's MQ connection.
+ */
+public enum ConnectionState {
+	
+	/**
+	 * Not connected and no attempt is scheduled, the train is stopped.
+	 */
+	DISCONNECTED,
+	
+	/**
+	 * Connection and topic listeners are being established.
+	 */
+	CONNECTING,
+	
+	/**
+	 * Connection and all topic listeners are established.
+	 */
+	CONNECTED,
+	
+	/**
+	 * Connection was lost or couldn't be established, the next attempt is scheduled.
+	 */
+	WAITING_TO_RECONNECT
+	
+}
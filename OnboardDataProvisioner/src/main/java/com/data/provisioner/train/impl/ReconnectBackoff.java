@@ -0,0 +1,66 @@
+package com.data.provisioner.train.impl;
+
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Delays of consecutive reconnect attempts: capped exponential backoff with full jitter.
+ * <p>
+ * The n-th delay is drawn uniformly between zero and {@code min(maximumDelay, baseDelay * 2^n)}. When the broker
+ * restarts, the whole fleet loses the connection at the same moment. Without the jitter every train would retry at
+ * the same moments and the broker would be hit by all of them at once on every attempt.
+ */
+final class ReconnectBackoff {
+	
+	private final long baseDelay;
+	
+	private final long maximumDelay;
+	
+	private final Random random;
+	
+	private int attempt = 0;
+	
+	/**
+	 * @param baseDelay the delay ceiling (in milliseconds) of the first attempt.
+	 * @param maximumDelay the maximum delay ceiling (in milliseconds).
+	 */
+	ReconnectBackoff(final long baseDelay, final long maximumDelay) {
+		this(baseDelay, maximumDelay, null);
+	}
+	
+	ReconnectBackoff(final long baseDelay, final long maximumDelay, final Random random) {
+		if (baseDelay <= 0 || maximumDelay < baseDelay) {
+			throw new IllegalArgumentException("Invalid reconnect delays " + baseDelay + " and " + maximumDelay + ".");
+		}
+		this.baseDelay = baseDelay;
+		this.maximumDelay = maximumDelay;
+		this.random = random;
+	}
+	
+	/**
+	 * @return delay (in milliseconds) before the next attempt.
+	 */
+	synchronized long nextDelay() {
+		final long ceiling = this.attempt < Long.numberOfLeadingZeros(this.baseDelay) - 1
+			? Math.min(this.maximumDelay, this.baseDelay << this.attempt)
+			: this.maximumDelay;
+		this.attempt++;
+		final double fraction = this.random == null ? ThreadLocalRandom.current().nextDouble() : this.random.nextDouble();
+		return (long) (fraction * (ceiling + 1));
+	}
+	
+	/**
+	 * @return number of delays given since the last reset.
+	 */
+	synchronized int getAttempt() {
+		return this.attempt;
+	}
+	
+	/**
+	 * Starts again from the base delay, called once connected.
+	 */
+	synchronized void reset() {
+		this.attempt = 0;
+	}
+	
+}
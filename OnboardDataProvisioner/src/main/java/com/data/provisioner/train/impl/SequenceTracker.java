@@ -0,0 +1,234 @@
+package com.data.provisioner.train.impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+
+/**
+ * High-water mark of the messages received on a topic, used to drop the messages delivered again.
+ * <p>
+ * The offboard publishers stamp every message with the start time of the publisher (its epoch) and a sequence
+ * number increasing by one with every message. A message at or below the mark was already processed: the broker
+ * delivered it again after a reconnect or the publisher sent it twice. A publisher restart starts a higher epoch.
+ * Messages without the sequence are always accepted.
+ * <p>
+ * The mark is raised by {@link #commit(Message)} once the message is processed, never when it's only received,
+ * so a message lost by a crash or reported by {@link #fail(Message)} is processed when it's delivered again.
+ * The mark only covers a contiguous run of the received messages: a message committed out of order by another
+ * dispatch thread is kept in memory and raises the mark once every message received before it is committed too.
+ * Until then it's dropped when delivered again, like a message still being processed. The publisher may skip
+ * sequence numbers sent to other trains, so the run is contiguous in the received messages, not in the numbers.
+ * <p>
+ * The messages above the mark are lost by a restart, they are processed again when they're delivered again.
+ * A failed message the broker never delivers again (for example moved to the dead letter queue) is given up once
+ * {@value #MAXIMUM_OUT_OF_ORDER} messages are committed after it, so that the mark keeps up.
+ * <p>
+ * The mark is kept in a memory-mapped file of 16 bytes, so it survives restarts at the cost of a memory write
+ * per message.
+ * <p>
+ * The property names are the same as in the offboard {@code MessageSequence}, so they must be kept in sync.
+ */
+final class SequenceTracker implements Closeable {
+	
+	/**
+	 * Start time (in milliseconds) of the publisher (long).
+	 */
+	static final String PUBLISHER_EPOCH = "publisherEpoch";
+	
+	/**
+	 * Sequence number of the message within the publisher epoch, starting from 1 (long).
+	 */
+	static final String SEQUENCE = "sequence";
+	
+	/**
+	 * The logger.
+	 */
+	private static final Logger LOGGER = Logger.getLogger(SequenceTracker.class.getName());
+	
+	/**
+	 * Maximum number of messages committed above the mark before the oldest failed message is given up.
+	 */
+	static final int MAXIMUM_OUT_OF_ORDER = 10000;
+	
+	private static final int SIZE = 16;
+	
+	/**
+	 * Orders the positions (epoch and sequence number pairs) like the messages of the publishers.
+	 */
+	private static final Comparator<long[]> ORDER = Comparator.<long[]>comparingLong(position -> position[0]).thenComparingLong(position -> position[1]);
+	
+	private final MappedByteBuffer state;
+	
+	/**
+	 * Positions of the received messages being processed.
+	 */
+	private final NavigableSet<long[]> inFlight = new TreeSet<>(SequenceTracker.ORDER);
+	
+	/**
+	 * Positions of the messages which failed and wait to be delivered again.
+	 */
+	private final NavigableSet<long[]> failed = new TreeSet<>(SequenceTracker.ORDER);
+	
+	/**
+	 * Positions of the messages committed above the mark.
+	 */
+	private final NavigableSet<long[]> committed = new TreeSet<>(SequenceTracker.ORDER);
+	
+	private volatile long epoch;
+	
+	private volatile long sequence;
+	
+	private SequenceTracker(final MappedByteBuffer state) {
+		this.state = state;
+		this.epoch = state.getLong(0);
+		this.sequence = state.getLong(8);
+	}
+	
+	/**
+	 * Opens the mark stored in the file, a new file starts with no messages received.
+	 * @param path the file.
+	 * @return the tracker.
+	 * @throws IOException when the file can't be opened.
+	 */
+	static SequenceTracker open(final Path path) throws IOException {
+		Files.createDirectories(path.getParent());
+		try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			return new SequenceTracker(channel.map(FileChannel.MapMode.READ_WRITE, 0L, SequenceTracker.SIZE));
+		}
+	}
+	
+	/**
+	 * Checks the received message against the mark and the messages above it. A message to be processed is
+	 * remembered as being processed until it's committed or failed.
+	 * @param message the received message.
+	 * @return true when the message is at or below the mark, committed or still being processed and must be dropped.
+	 * @throws JMSException when the properties can't be read.
+	 */
+	boolean isDuplicate(final Message message) throws JMSException {
+		if (!message.propertyExists(SequenceTracker.SEQUENCE)) {
+			return false;
+		}
+		return this.isDuplicate(SequenceTracker.position(message));
+	}
+	
+	private synchronized boolean isDuplicate(final long[] position) {
+		if (this.isAtOrBelow(position) || this.committed.contains(position) || this.inFlight.contains(position)) {
+			return true;
+		}
+		this.failed.remove(position);
+		this.inFlight.add(position);
+		return false;
+	}
+	
+	/**
+	 * Commits the processed message, which raises the mark when no message received before it is left.
+	 * A message at or below the mark leaves it unchanged.
+	 * @param message the processed message.
+	 * @throws JMSException when the properties can't be read.
+	 */
+	void commit(final Message message) throws JMSException {
+		if (message.propertyExists(SequenceTracker.SEQUENCE)) {
+			this.commit(SequenceTracker.position(message));
+		}
+	}
+	
+	private synchronized void commit(final long[] position) {
+		this.inFlight.remove(position);
+		this.failed.remove(position);
+		if (this.isAtOrBelow(position)) {
+			return;
+		}
+		this.committed.add(position);
+		while (this.committed.size() > SequenceTracker.MAXIMUM_OUT_OF_ORDER && !this.failed.isEmpty()) {
+			final long[] givenUp = this.failed.pollFirst();
+			SequenceTracker.LOGGER.log(Level.WARNING, "Message {0}", givenUp[1] + " of publisher epoch " + givenUp[0] + " wasn't delivered again, it's given up.");
+		}
+		this.raise();
+	}
+	
+	/**
+	 * Remembers the message which wasn't processed, the mark stays below it until it's delivered again and committed.
+	 * @param message the failed message.
+	 * @throws JMSException when the properties can't be read.
+	 */
+	void fail(final Message message) throws JMSException {
+		if (message.propertyExists(SequenceTracker.SEQUENCE)) {
+			this.fail(SequenceTracker.position(message));
+		}
+	}
+	
+	private synchronized void fail(final long[] position) {
+		this.inFlight.remove(position);
+		if (!this.isAtOrBelow(position)) {
+			this.failed.add(position);
+		}
+	}
+	
+	/**
+	 * Raises the mark to the highest committed message below the oldest message being processed or failed.
+	 */
+	private void raise() {
+		final long[] oldestPending = this.oldestPending();
+		long[] mark = null;
+		while (!this.committed.isEmpty() && (oldestPending == null || SequenceTracker.ORDER.compare(this.committed.first(), oldestPending) < 0)) {
+			mark = this.committed.pollFirst();
+		}
+		if (mark != null) {
+			this.epoch = mark[0];
+			this.sequence = mark[1];
+			this.state.putLong(0, mark[0]);
+			this.state.putLong(8, mark[1]);
+		}
+	}
+	
+	private long[] oldestPending() {
+		if (this.inFlight.isEmpty()) {
+			return this.failed.isEmpty() ? null : this.failed.first();
+		}
+		if (this.failed.isEmpty()) {
+			return this.inFlight.first();
+		}
+		return SequenceTracker.ORDER.compare(this.inFlight.first(), this.failed.first()) < 0 ? this.inFlight.first() : this.failed.first();
+	}
+	
+	private boolean isAtOrBelow(final long[] position) {
+		return position[0] < this.epoch || position[0] == this.epoch && position[1] <= this.sequence;
+	}
+	
+	private static long[] position(final Message message) throws JMSException {
+		return new long[] {SequenceTracker.epoch(message), message.getLongProperty(SequenceTracker.SEQUENCE)};
+	}
+	
+	private static long epoch(final Message message) throws JMSException {
+		return message.propertyExists(SequenceTracker.PUBLISHER_EPOCH) ? message.getLongProperty(SequenceTracker.PUBLISHER_EPOCH) : 0L;
+	}
+	
+	long getEpoch() {
+		return this.epoch;
+	}
+	
+	long getSequence() {
+		return this.sequence;
+	}
+	
+	/**
+	 * Flushes the mark to the disk.
+	 */
+	@Override
+	public void close() {
+		this.state.force();
+	}
+	
+}
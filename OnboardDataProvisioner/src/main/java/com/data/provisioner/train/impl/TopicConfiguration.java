@@ -0,0 +1,209 @@
+package com.data.provisioner.train.impl;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Set;
+
+import javax.jms.Session;
+
+/**
+ * Settings of a topic subscription, read from the configuration keys made of the topic key and a suffix,
+ * for example {@code mqTopicRealtimeAckMode}.
+ */
+final class TopicConfiguration {
+	
+	/**
+	 * Number of dispatch threads, 0 for delivery on the session thread. Default value is 0. Only the topics which aren't
+	 * in {@link #SESSION_THREAD_TOPIC_KEYS} can have dispatch threads.
+	 */
+	static final String DISPATCH_THREADS = "DispatchThreads";
+	
+	/**
+	 * Whether the subscription is durable. Default value is true.
+	 */
+	static final String DURABLE = "Durable";
+	
+	/**
+	 * Acknowledge mode, see {@link AckMode}. Default value is AUTO. A subscription with dispatch threads always uses
+	 * the CLIENT mode, so that a message isn't acknowledged before it's processed.
+	 */
+	static final String ACK_MODE = "AckMode";
+	
+	/**
+	 * Number of messages acknowledged at once in the CLIENT mode. Default value is 100. With dispatch threads a full batch
+	 * waits for the messages being processed, so it's also the largest number of unacknowledged messages.
+	 */
+	static final String ACK_BATCH_SIZE = "AckBatchSize";
+	
+	/**
+	 * Time (in milliseconds) after which the batch is acknowledged with the next message in the CLIENT mode.
+	 * Default value is 1000.
+	 */
+	static final String ACK_INTERVAL = "AckInterval";
+	
+	/**
+	 * Number of messages the broker sends ahead to the consumer, the connection default is used when it's missing.
+	 */
+	static final String PREFETCH = "Prefetch";
+	
+	/**
+	 * Number of messages the broker keeps for the consumer on top of the prefetch when it's slow, only for non-durable
+	 * subscriptions. Older messages are discarded. The connection default is used when it's missing.
+	 */
+	static final String MAXIMUM_PENDING_MESSAGES = "MaximumPendingMessages";
+	
+	/**
+	 * Keys of the topics whose listeners must run on the session thread. They keep the state of the topic (the content
+	 * streamer and assembler, the realtime decoder) and the content listener replies through the session.
+	 */
+	static final Set<String> SESSION_THREAD_TOPIC_KEYS = Collections.unmodifiableSet(
+		new HashSet<>(Arrays.asList("mqTopicContent", "mqTopicGTFS", "mqTopicRealtime"))
+	);
+	
+	static final String[] SUFFIXES = {
+		TopicConfiguration.DISPATCH_THREADS, TopicConfiguration.DURABLE, TopicConfiguration.ACK_MODE, TopicConfiguration.ACK_BATCH_SIZE,
+		TopicConfiguration.ACK_INTERVAL, TopicConfiguration.PREFETCH, TopicConfiguration.MAXIMUM_PENDING_MESSAGES
+	};
+	
+	/**
+	 * How the received messages are acknowledged.
+	 */
+	enum AckMode {
+		
+		/**
+		 * Every message is acknowledged after it's processed, unless the connection optimizes the acknowledges.
+		 */
+		AUTO(Session.AUTO_ACKNOWLEDGE),
+		
+		/**
+		 * The messages are acknowledged lazily in batches by the client library. Messages can be delivered again
+		 * after a failure.
+		 */
+		DUPS_OK(Session.DUPS_OK_ACKNOWLEDGE),
+		
+		/**
+		 * The messages are acknowledged by the subscription every {@link TopicConfiguration#ACK_BATCH_SIZE} messages
+		 * or with the first message received {@link TopicConfiguration#ACK_INTERVAL} milliseconds after the batch began,
+		 * whichever comes first.
+		 */
+		CLIENT(Session.CLIENT_ACKNOWLEDGE);
+		
+		private final int sessionMode;
+		
+		private AckMode(final int sessionMode) {
+			this.sessionMode = sessionMode;
+		}
+		
+		int getSessionMode() {
+			return this.sessionMode;
+		}
+		
+	}
+	
+	private final int dispatchThreads;
+	
+	private final boolean durable;
+	
+	private final AckMode ackMode;
+	
+	private final int ackBatchSize;
+	
+	private final long ackInterval;
+	
+	private final int prefetch;
+	
+	private final Integer maximumPendingMessages;
+	
+	private TopicConfiguration(
+		final int dispatchThreads, final boolean durable, final AckMode ackMode, final int ackBatchSize, final long ackInterval,
+		final int prefetch, final Integer maximumPendingMessages
+	) {
+		if (dispatchThreads < 0 || ackBatchSize < 1 || ackInterval < 1) {
+			throw new IllegalArgumentException("Invalid dispatch threads " + dispatchThreads + ", ack batch size " + ackBatchSize + " or ack interval " + ackInterval + ".");
+		}
+		this.dispatchThreads = dispatchThreads;
+		this.durable = durable;
+		this.ackMode = ackMode;
+		this.ackBatchSize = ackBatchSize;
+		this.ackInterval = ackInterval;
+		this.prefetch = prefetch;
+		this.maximumPendingMessages = maximumPendingMessages;
+	}
+	
+	/**
+	 * Reads the settings of the topic.
+	 * @param properties the configuration.
+	 * @param topicKey the configuration key of the topic name.
+	 * @return the settings.
+	 * @throws IllegalArgumentException when a value is invalid or the topic can't have dispatch threads.
+	 */
+	static TopicConfiguration of(final Properties properties, final String topicKey) {
+		final int dispatchThreads = Integer.parseInt(properties.getProperty(topicKey + TopicConfiguration.DISPATCH_THREADS, "0"));
+		if (dispatchThreads > 0 && TopicConfiguration.SESSION_THREAD_TOPIC_KEYS.contains(topicKey)) {
+			throw new IllegalArgumentException("Topic " + topicKey + " can't have dispatch threads, its listener must run on the session thread.");
+		}
+		return new TopicConfiguration(
+			dispatchThreads,
+			Boolean.parseBoolean(properties.getProperty(topicKey + TopicConfiguration.DURABLE, "true")),
+			AckMode.valueOf(properties.getProperty(topicKey + TopicConfiguration.ACK_MODE, AckMode.AUTO.name()).trim().toUpperCase(Locale.ROOT)),
+			Integer.parseInt(properties.getProperty(topicKey + TopicConfiguration.ACK_BATCH_SIZE, "100")),
+			Long.parseLong(properties.getProperty(topicKey + TopicConfiguration.ACK_INTERVAL, "1000")),
+			Integer.parseInt(properties.getProperty(topicKey + TopicConfiguration.PREFETCH, "-1")),
+			properties.getProperty(topicKey + TopicConfiguration.MAXIMUM_PENDING_MESSAGES) == null
+				? null
+				: Integer.valueOf(properties.getProperty(topicKey + TopicConfiguration.MAXIMUM_PENDING_MESSAGES).trim())
+		);
+	}
+	
+	/**
+	 * @return the topic key of the configuration key with a topic setting suffix, the key itself when it has none.
+	 */
+	static String topicKeyOf(final String key) {
+		for (final String suffix : TopicConfiguration.SUFFIXES) {
+			if (key.endsWith(suffix)) {
+				return key.substring(0, key.length() - suffix.length());
+			}
+		}
+		return key;
+	}
+	
+	int getDispatchThreads() {
+		return this.dispatchThreads;
+	}
+	
+	boolean isDurable() {
+		return this.durable;
+	}
+	
+	AckMode getAckMode() {
+		return this.ackMode;
+	}
+	
+	int getAckBatchSize() {
+		return this.ackBatchSize;
+	}
+	
+	long getAckInterval() {
+		return this.ackInterval;
+	}
+	
+	/**
+	 * @return the destination name of the topic with the consumer options.
+	 */
+	String destination(final String topicName) {
+		final StringBuilder destination = new StringBuilder(topicName);
+		char separator = '?';
+		if (this.prefetch >= 0) {
+			destination.append(separator).append("consumer.prefetchSize=").append(this.prefetch);
+			separator = '&';
+		}
+		if (this.maximumPendingMessages != null && !this.durable) {
+			destination.append(separator).append("consumer.maximumPendingMessageLimit=").append(this.maximumPendingMessages);
+		}
+		return destination.toString();
+	}
+	
+}
@@ -0,0 +1,446 @@
+package com.data.provisioner.train.impl;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.jms.Connection;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageListener;
+import javax.jms.Session;
+import javax.jms.Topic;
+
+import org.apache.activemq.command.ActiveMQMessage;
+
+import com.data.provisioner.metrics.Counter;
+import com.data.provisioner.metrics.Histogram;
+import com.data.provisioner.metrics.MetricsRegistry;
+
+/**
+ * Subscription to a single MQ topic with its own session.
+ * <p>
+ * JMS delivers messages of a session one at a time, so a dedicated session per topic keeps a slow listener
+ * (for example a large content write) from delaying the other topics. Optionally the listener runs on a dispatch
+ * executor instead of the session thread. The session then uses the CLIENT acknowledge mode whatever the configured one
+ * and acknowledges a batch only when no dispatched message is being processed, so a message is never acknowledged
+ * before its processing ends. A full batch makes the session thread wait for the dispatched messages, so the batch never
+ * grows over the ack batch size under a steady load. With more than one dispatch thread the messages can be processed
+ * out of order.
+ * <p>
+ * A durable subscription is named by the topic and the broker keeps its messages while the train is offline.
+ * Messages delivered again are dropped by the {@link SequenceTracker} on the session thread, before they are dispatched.
+ * A message is committed to the tracker only once the listener returned normally, so a message not processed because
+ * of a crash isn't dropped when it's delivered again.
+ * <p>
+ * A listener reports a message it failed to process, for example because the storage isn't available, by throwing
+ * a runtime exception. The message is then failed in the tracker instead of committed and the session recovers:
+ * in the CLIENT acknowledge mode the session thread waits for the dispatched messages and recovers the session,
+ * which delivers again every unacknowledged message, the processed ones are dropped as duplicates. In the other modes
+ * the exception is thrown back to the MQ client, which delivers the message again according to its redelivery policy.
+ * <p>
+ * In the CLIENT acknowledge mode the subscription acknowledges the messages in batches, which saves a broker round trip
+ * per message. A batch is acknowledged when it's full or with the first message received after the ack interval,
+ * always on the session thread, as JMS allows a single thread per session. The batch left when the topic goes quiet
+ * or the subscription is closed is delivered again after a reconnect and dropped as duplicates.
+ * <p>
+ * Every message is recorded in the metrics of the topic, named {@code topic.<topicName>.<metric>}: the messages,
+ * bytes, dropped duplicates, failures and acknowledges counters, the listener processing time and the lag from the broker
+ * timestamp to the end of the processing.
+ */
+final class TopicSubscription {
+	
+	/**
+	 * The logger.
+	 */
+	private static final Logger LOGGER = Logger.getLogger(TopicSubscription.class.getName());
+	
+	/**
+	 * Time (in seconds) given to the dispatch executor to finish the queued messages on close.
+	 */
+	private static final long DISPATCH_SHUTDOWN_TIMEOUT = 5L;
+	
+	private final String topicName;
+	
+	private final Session session;
+	
+	/**
+	 * Runs the listener, null when the listener runs on the session thread.
+	 */
+	private final ExecutorService dispatchExecutor;
+	
+	private final TopicConfiguration topicConfiguration;
+	
+	/**
+	 * Whether the subscription acknowledges the messages itself.
+	 */
+	private final boolean clientAcknowledge;
+	
+	/**
+	 * Drops the messages delivered again, null when they aren't dropped.
+	 */
+	private final SequenceTracker sequenceTracker;
+	
+	private final Counter messages;
+	
+	private final Counter bytes;
+	
+	private final Counter duplicates;
+	
+	private final Counter failures;
+	
+	private final Counter acks;
+	
+	/**
+	 * Time (in nanoseconds) spent in the listener.
+	 */
+	private final Histogram processingTime;
+	
+	/**
+	 * Time (in milliseconds) from the broker timestamp of the message to the end of the processing.
+	 */
+	private final Histogram lag;
+	
+	private MessageConsumer messageConsumer = null;
+	
+	/**
+	 * Number of the messages handed to the dispatch executor and not processed yet.
+	 */
+	private final AtomicInteger dispatched = new AtomicInteger();
+	
+	/**
+	 * Whether a dispatched message failed and the session must be recovered by the session thread.
+	 */
+	private volatile boolean recoverPending = false;
+	
+	/**
+	 * Last received message which isn't acknowledged, null when there is none. Used by the session thread only,
+	 * like the count and the time of the batch.
+	 */
+	private Message unacknowledged = null;
+	
+	private int unacknowledgedCount = 0;
+	
+	/**
+	 * Time (in milliseconds) when the oldest unacknowledged message was received.
+	 */
+	private long unacknowledgedSince = 0L;
+	
+	/**
+	 * Creates the session for the topic.
+	 * @param connection the MQ connection.
+	 * @param topicName the topic name.
+	 * @param topicConfiguration the topic settings. A durable subscription needs the client id set on the connection.
+	 * @param dispatchQueueSize maximum number of messages waiting for a dispatch thread. When it's reached,
+	 * the session thread processes the message itself, which slows down the delivery.
+	 * @param sequenceTracker the tracker dropping the messages delivered again, null to process them.
+	 * @param metricsRegistry the registry of the topic metrics.
+	 * @throws JMSException when the session can't be created.
+	 */
+	TopicSubscription(
+		final Connection connection, final String topicName, final TopicConfiguration topicConfiguration, final int dispatchQueueSize,
+		final SequenceTracker sequenceTracker, final MetricsRegistry metricsRegistry
+	) throws JMSException {
+		this.topicName = topicName;
+		this.topicConfiguration = topicConfiguration;
+		this.sequenceTracker = sequenceTracker;
+		this.messages = metricsRegistry.counter("topic." + topicName + ".messages");
+		this.bytes = metricsRegistry.counter("topic." + topicName + ".bytes");
+		this.duplicates = metricsRegistry.counter("topic." + topicName + ".duplicates");
+		this.failures = metricsRegistry.counter("topic." + topicName + ".failures");
+		this.acks = metricsRegistry.counter("topic." + topicName + ".acks");
+		this.processingTime = metricsRegistry.histogram("topic." + topicName + ".processingNanos");
+		this.lag = metricsRegistry.histogram("topic." + topicName + ".lagMillis");
+		final int dispatchThreads = topicConfiguration.getDispatchThreads();
+		this.clientAcknowledge = dispatchThreads > 0 || topicConfiguration.getAckMode() == TopicConfiguration.AckMode.CLIENT;
+		this.session = connection.createSession(
+			false, this.clientAcknowledge ? TopicConfiguration.AckMode.CLIENT.getSessionMode() : topicConfiguration.getAckMode().getSessionMode()
+		);
+		if (dispatchThreads > 0) {
+			final AtomicInteger threadNumber = new AtomicInteger();
+			this.dispatchExecutor = new ThreadPoolExecutor(
+				dispatchThreads, dispatchThreads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(dispatchQueueSize),
+				runnable -> {
+					final Thread thread = new Thread(runnable, topicName + "-dispatch-" + threadNumber.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				},
+				new ThreadPoolExecutor.CallerRunsPolicy()
+			);
+		} else {
+			this.dispatchExecutor = null;
+		}
+	}
+	
+	/**
+	 * @return the topic session. Only the session thread may use it while the subscription is listening, the listeners
+	 * of the topics with dispatch threads must not use it.
+	 */
+	Session getSession() {
+		return this.session;
+	}
+	
+	/**
+	 * Creates the topic consumer and attaches the listener to it.
+	 * @param listener the message listener.
+	 * @throws JMSException when the consumer can't be created.
+	 */
+	void listen(final MessageListener listener) throws JMSException {
+		this.listen(listener, null);
+	}
+	
+	/**
+	 * Creates the topic consumer receiving only the selected messages and attaches the listener to it.
+	 * The broker evaluates the selector, the other messages aren't sent to the train. Changing the selector
+	 * of a durable subscription makes the broker drop the messages it kept for the previous one.
+	 * @param listener the message listener.
+	 * @param messageSelector the message selector, null to receive all messages.
+	 * @throws JMSException when the consumer can't be created.
+	 */
+	void listen(final MessageListener listener, final String messageSelector) throws JMSException {
+		final Topic topic = this.session.createTopic(this.topicConfiguration.destination(this.topicName));
+		this.messageConsumer = this.topicConfiguration.isDurable()
+			? this.session.createDurableSubscriber(topic, this.topicName, messageSelector, false)
+			: this.session.createConsumer(topic, messageSelector);
+		this.messageConsumer.setMessageListener(message -> {
+			if (this.isDuplicate(message)) {
+				this.duplicates.increment();
+			} else if (this.dispatchExecutor == null) {
+				final RuntimeException failure = this.process(listener, message);
+				if (failure != null) {
+					if (!this.clientAcknowledge) {
+						throw failure;
+					}
+					this.recover();
+					return;
+				}
+			} else {
+				this.dispatched.incrementAndGet();
+				this.dispatchExecutor.execute(() -> {
+					try {
+						if (this.process(listener, message) != null) {
+							this.recoverPending = true;
+						}
+					} finally {
+						this.finished();
+					}
+				});
+			}
+			if (this.clientAcknowledge) {
+				this.received(message);
+			}
+		});
+	}
+	
+	/**
+	 * Counts the dispatched message as processed and wakes up the session thread waiting for the last one.
+	 */
+	private void finished() {
+		if (this.dispatched.decrementAndGet() == 0) {
+			synchronized (this.dispatched) {
+				this.dispatched.notifyAll();
+			}
+		}
+	}
+	
+	/**
+	 * Waits until the dispatched messages are processed. Runs on the session thread.
+	 * @return false when the wait was interrupted before.
+	 */
+	private boolean awaitDispatched() {
+		synchronized (this.dispatched) {
+			while (this.dispatched.get() > 0) {
+				try {
+					this.dispatched.wait();
+				} catch (InterruptedException exception) {
+					Thread.currentThread().interrupt();
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Recovers the session once the dispatched messages are processed, so that the broker delivers again the failed
+	 * message with the rest of the unacknowledged batch. Runs on the session thread.
+	 */
+	private void recover() {
+		this.awaitDispatched();
+		this.recoverPending = false;
+		try {
+			this.session.recover();
+		} catch (JMSException exception) {
+			TopicSubscription.LOGGER.log(Level.WARNING, "Session for topic {0}", this.topicName + " can't be recovered, failed messages will be delivered after a reconnect. Reason: " + exception.toString());
+		} finally {
+			this.unacknowledged = null;
+			this.unacknowledgedCount = 0;
+		}
+	}
+	
+	/**
+	 * Adds the message to the unacknowledged batch and acknowledges the batch when it's too old and none of its messages
+	 * is still being processed, or when it's full once the dispatched messages are processed. Recovers the session instead
+	 * when a dispatched message failed. Runs on the session thread.
+	 */
+	private void received(final Message message) {
+		if (this.recoverPending) {
+			this.recover();
+			return;
+		}
+		final long now = System.currentTimeMillis();
+		if (this.unacknowledged == null) {
+			this.unacknowledgedSince = now;
+		}
+		this.unacknowledged = message;
+		this.unacknowledgedCount++;
+		final boolean full = this.unacknowledgedCount >= this.topicConfiguration.getAckBatchSize();
+		if (full && !this.awaitDispatched()) {
+			return;
+		}
+		if (full || now - this.unacknowledgedSince >= this.topicConfiguration.getAckInterval() && this.dispatched.get() == 0) {
+			// read after the dispatched messages are done, a failed one set it before it was counted as processed
+			if (this.recoverPending) {
+				this.recover();
+			} else {
+				this.acknowledge();
+			}
+		}
+	}
+	
+	/**
+	 * Acknowledges all the messages received by the session up to the last one. Runs on the session thread.
+	 */
+	private void acknowledge() {
+		try {
+			this.unacknowledged.acknowledge();
+			this.acks.increment();
+		} catch (JMSException exception) {
+			TopicSubscription.LOGGER.log(Level.WARNING, "Messages for topic {0}", this.topicName + " can't be acknowledged, they will be delivered again. Reason: " + exception.toString());
+		} finally {
+			this.unacknowledged = null;
+			this.unacknowledgedCount = 0;
+		}
+	}
+	
+	/**
+	 * Closes the subscription and removes the durable subscription from the broker, so that it stops keeping
+	 * messages for the train.
+	 */
+	void unsubscribe() {
+		try {
+			if (this.messageConsumer != null) {
+				this.messageConsumer.close();
+			}
+			if (this.topicConfiguration.isDurable()) {
+				this.session.unsubscribe(this.topicName);
+			}
+		} catch (JMSException exception) {
+			TopicSubscription.LOGGER.log(Level.WARNING, "Durable subscription for topic {0}", this.topicName + " can't be removed. Reason: " + exception.toString());
+		}
+		this.close();
+	}
+	
+	private boolean isDuplicate(final Message message) {
+		if (this.sequenceTracker == null) {
+			return false;
+		}
+		try {
+			return this.sequenceTracker.isDuplicate(message);
+		} catch (JMSException exception) {
+			TopicSubscription.LOGGER.log(Level.WARNING, "Sequence of message for topic {0}", this.topicName + " can't be read. Reason: " + exception.toString());
+			return false;
+		}
+	}
+	
+	/**
+	 * Raises the mark of the sequence tracker to the processed message.
+	 */
+	private void commit(final Message message) {
+		if (this.sequenceTracker == null) {
+			return;
+		}
+		try {
+			this.sequenceTracker.commit(message);
+		} catch (JMSException exception) {
+			TopicSubscription.LOGGER.log(Level.WARNING, "Sequence of message for topic {0}", this.topicName + " can't be read. Reason: " + exception.toString());
+		}
+	}
+	
+	/**
+	 * Fails the message in the sequence tracker, so that it's processed when it's delivered again.
+	 */
+	private void fail(final Message message) {
+		if (this.sequenceTracker == null) {
+			return;
+		}
+		try {
+			this.sequenceTracker.fail(message);
+		} catch (JMSException exception) {
+			TopicSubscription.LOGGER.log(Level.WARNING, "Sequence of message for topic {0}", this.topicName + " can't be read. Reason: " + exception.toString());
+		}
+	}
+	
+	/**
+	 * Runs the listener, commits the message to the sequence tracker when the listener returns normally or fails it
+	 * when the listener throws, and records the message in the topic metrics.
+	 * @return the failure of the listener, null when the message is processed.
+	 */
+	private RuntimeException process(final MessageListener listener, final Message message) {
+		final long start = System.nanoTime();
+		try {
+			listener.onMessage(message);
+			this.commit(message);
+			return null;
+		} catch (RuntimeException exception) {
+			this.fail(message);
+			this.failures.increment();
+			TopicSubscription.LOGGER.log(Level.WARNING, "Message for topic {0}", this.topicName + " failed, it will be delivered again. Reason: " + exception.toString());
+			return exception;
+		} finally {
+			this.processingTime.record(System.nanoTime() - start);
+			this.messages.increment();
+			if (message instanceof ActiveMQMessage) {
+				this.bytes.add(((ActiveMQMessage) message).getSize());
+			}
+			try {
+				final long timestamp = message.getJMSTimestamp();
+				if (timestamp > 0L) {
+					this.lag.record(System.currentTimeMillis() - timestamp);
+				}
+			} catch (JMSException exception) {
+				TopicSubscription.LOGGER.log(Level.FINE, "Timestamp of message for topic {0}", this.topicName + " can't be read. Reason: " + exception.toString());
+			}
+		}
+	}
+	
+	/**
+	 * Closes the session and lets the dispatch executor finish the messages already handed to it. The pending batch
+	 * isn't acknowledged, the session may be delivering a message.
+	 */
+	void close() {
+		try {
+			this.session.close();
+		} catch (JMSException exception) {
+			TopicSubscription.LOGGER.log(Level.WARNING, "Session for topic {0}", this.topicName + " can't be closed. Reason: " + exception.toString());
+		}
+		if (this.dispatchExecutor != null) {
+			this.dispatchExecutor.shutdown();
+			try {
+				if (!this.dispatchExecutor.awaitTermination(TopicSubscription.DISPATCH_SHUTDOWN_TIMEOUT, TimeUnit.SECONDS)) {
+					this.dispatchExecutor.shutdownNow();
+				}
+			} catch (InterruptedException exception) {
+				this.dispatchExecutor.shutdownNow();
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+	
+}
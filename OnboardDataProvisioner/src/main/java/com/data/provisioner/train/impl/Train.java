@@ -1,29 +1,79 @@
 package com.data.provisioner.train.impl;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
 import java.net.URI;
-import java.nio.file.FileSystem;
-import java.nio.file.FileSystems;
+import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.jms.BytesMessage;
 import javax.jms.Connection;
+import javax.jms.DeliveryMode;
 import javax.jms.ExceptionListener;
 import javax.jms.JMSException;
-import javax.jms.MessageConsumer;
+import javax.jms.Message;
+import javax.jms.MessageProducer;
 import javax.jms.Session;
+import javax.management.JMException;
 
+import org.apache.activemq.ActiveMQConnection;
 import org.apache.activemq.ActiveMQConnectionFactory;
 import org.apache.activemq.command.ActiveMQBytesMessage;
+import org.apache.activemq.transport.TransportListener;
+import org.apache.activemq.transport.failover.FailoverTransport;
+import org.apache.activemq.util.ByteSequence;
 
+import com.data.provisioner.codec.PayloadCodec;
+import com.data.provisioner.codec.PayloadDecoder;
+import com.data.provisioner.content.AssembledTransfer;
+import com.data.provisioner.content.ContentAssembler;
+import com.data.provisioner.content.ContentDelta;
+import com.data.provisioner.content.ContentDownloader;
+import com.data.provisioner.content.ContentGeneration;
+import com.data.provisioner.content.ContentServer;
+import com.data.provisioner.content.ContentStore;
+import com.data.provisioner.content.ContentStreamer;
+import com.data.provisioner.content.ContentTransfer;
+import com.data.provisioner.gtfs.GtfsCompiler;
+import com.data.provisioner.gtfs.GtfsStore;
+import com.data.provisioner.logging.LazyText;
+import com.data.provisioner.logging.LogSampler;
+import com.data.provisioner.messages.MessageStore;
+import com.data.provisioner.metrics.Counter;
+import com.data.provisioner.metrics.Histogram;
+import com.data.provisioner.metrics.MetricsEndpoint;
+import com.data.provisioner.metrics.MetricsRegistry;
+import com.data.provisioner.realtime.GtfsRealtimeDecoder;
+import com.data.provisioner.realtime.RealtimeState;
 import com.data.provisioner.util.PropertyUtil;
 import com.data.provisioner.vehicle.api.Vehicle;
 
@@ -37,13 +87,33 @@ public class Train implements Vehicle, ExceptionListener {
 	/**
 	 * Vehicle configuration location.
 	 */
-	private static final String CONFIGURATION = "conf/provisioning.properties";
+	public static final String CONFIGURATION = "conf/provisioning.properties";
+	
+	/**
+	 * Location of the preset dictionaries of the encoded payloads.
+	 */
+	private static final String PAYLOAD_DICTIONARIES = "conf/dictionaries";
 	
 	/**
 	 * Vehicle workdir.
 	 */
 	private static final String WORK_DIRECTORY = "workdir";
 	
+	/**
+	 * Configuration keys of the topic names.
+	 */
+	private static final String[] TOPIC_KEYS = {"mqTopicContent", "mqTopicMessages", "mqTopicRealtime", "mqTopicGTFS"};
+	
+	/**
+	 * Last received static GTFS feed, kept for the files that aren't compiled.
+	 */
+	private static final String GTFS_FEED = "feed.zip";
+	
+	/**
+	 * Static GTFS feed compiled for {@link GtfsStore}.
+	 */
+	private static final String GTFS_STORE = "gtfs.bin";
+	
 	/**
 	 * Message for missing value in the configuration.
 	 */
@@ -54,188 +124,1440 @@ public class Train implements Vehicle, ExceptionListener {
 	 */
 	private static final String ACTIVEMQ_WARNING_MESSAGE = "Skipping message for topic {0}, because it's not instance of ActiveMQBytesMessage.";
 	
+	/**
+	 * Message shown when the message received from MQ on the content or GTFS topic can't be streamed.
+	 */
+	private static final String CONTENT_WARNING_MESSAGE = "Skipping message for topic {0}, because it's not a bytes, stream or blob message.";
+	
 	/**
 	 * Message for successfully established MQ listener.
 	 */
 	private static final String ESTABLISHED_LISTENER_MESSAGE = "MQ listener successfully established for topic: {0}";
 	
 	/**
-	 * The train unique id.
+	 * The train unique id.
+	 */
+	private String trainId = "";
+	
+	/**
+	 * Groups of the train, the content parts addressed to them are received as well. Optional.
+	 */
+	private List<String> trainGroups = Collections.emptyList();
+	
+	/**
+	 * Connection to activeMQ.
+	 */
+	private String mqConnectionAddress = "";
+	
+	/**
+	 * Broker nodes parsed from the connection address.
+	 */
+	private volatile BrokerEndpoints brokerEndpoints = null;
+	
+	/**
+	 * The configuration currently applied.
+	 */
+	private Properties configuration = new Properties();
+	
+	/**
+	 * Reconnect timeout (in seconds) used when connection is lost, doubled with every failed attempt.
+	 * Default value is 10 seconds.
+	 */
+	private long reconnectTimeoutOnConnectionFailure = 10L;
+	
+	/**
+	 * Maximum reconnect timeout (in seconds) reached by the doubling. Default value is 300 seconds.
+	 */
+	private long reconnectMaxTimeoutOnConnectionFailure = 300L;
+	
+	/**
+	 * Chunk size (in bytes) used when streaming content to disk. Default value is 64 KiB.
+	 */
+	private int contentChunkSize = ContentStreamer.DEFAULT_CHUNK_SIZE;
+	
+	/**
+	 * Number of content generations kept on disk for rollback, including the current one. Default value is 3.
+	 */
+	private int contentGenerationsToKeep = ContentStore.DEFAULT_GENERATIONS_TO_KEEP;
+	
+	/**
+	 * Size (in bytes) of a segment of the message store. Default value is 16 MiB.
+	 */
+	private int messageSegmentSize = MessageStore.DEFAULT_SEGMENT_SIZE;
+	
+	/**
+	 * Time (in hours) the received messages are kept. Default value is 72 hours.
+	 */
+	private long messageRetentionHours = MessageStore.DEFAULT_RETENTION;
+	
+	/**
+	 * Time (in milliseconds) between the flushes of the message store. Default value is 100 milliseconds.
+	 */
+	private long messageSyncInterval = MessageStore.DEFAULT_SYNC_INTERVAL;
+	
+	/**
+	 * Every how many messages received on the messages topic one is logged. Default value is 1 (every message).
+	 */
+	private int messagesLogSampling = 1;
+	
+	/**
+	 * Port of the local metrics endpoint, 0 disables the endpoint. Default value is 0.
+	 */
+	private int metricsPort = 0;
+	
+	/**
+	 * Port of the content server for the passenger devices, 0 disables the server. Default value is 0.
+	 * It must differ from the port of the servlet container on the same host, the sample configuration uses 8081
+	 * next to the 8080 of Tomcat.
+	 */
+	private int contentServerPort = 0;
+	
+	/**
+	 * Address the content server is bound to. Default value is 0.0.0.0 (all interfaces).
+	 */
+	private String contentServerAddress = "0.0.0.0";
+	
+	/**
+	 * Maximum number of connections of the content server. Default value is 512.
+	 */
+	private int contentServerMaximumConnections = ContentServer.DEFAULT_MAXIMUM_CONNECTIONS;
+	
+	/**
+	 * Time (in seconds) the content server keeps an idle connection open. Default value is 15.
+	 */
+	private long contentServerIdleTimeout = ContentServer.DEFAULT_IDLE_TIMEOUT;
+	
+	/**
+	 * Address of the current content archive of the offboard provisioner, pulled over HTTP while the MQ connection is down
+	 * and after a content delta which can't be applied, for example
+	 * {@code http://<offboard host>:8080/OffboardDataProvisioner/download/current}.
+	 * Empty disables the pulls. Default value is empty, like in the sample configuration, which has no offboard host.
+	 */
+	private String contentPullUrl = "";
+	
+	/**
+	 * Time (in seconds) between the content pulls. Default value is 300 seconds.
+	 */
+	private long contentPullInterval = 300L;
+	
+	/**
+	 * Maximum rate (in bytes per second) of a content pull, 0 for unlimited. Default value is 1 MiB/s.
+	 */
+	private long contentPullRate = ContentDownloader.DEFAULT_RATE;
+	
+	/**
+	 * MQ topic name for content.
+	 */
+	private String mqTopicContent = "";
+	
+	/**
+	 * MQ topic name used to request missing parts of a content transfer. Optional.
+	 */
+	private String mqTopicContentResend = "";
+	
+	/**
+	 * MQ topic name used to acknowledge the committed and rejected content transfers. Optional.
+	 */
+	private String mqTopicContentAck = "";
+	
+	/**
+	 * MQ topic name the status heartbeats are published to. Optional.
+	 */
+	private String mqTopicStatus = "";
+	
+	/**
+	 * Time (in seconds) between the status heartbeats. Default value is 60.
+	 */
+	private long statusInterval = 60L;
+	
+	/**
+	 * MQ topic name for messages.
+	 */
+	private String mqTopicMessages = "";
+	
+	/**
+	 * MQ topic name for realtime.
+	 */
+	private String mqTopicRealtime = "";
+	
+	/**
+	 * MQ topic name for gtfs.
+	 */
+	private String mqTopicGTFS = "";
+	
+	/**
+	 * MQ connection instance.
+	 */
+	private volatile Connection connection = null;
+	
+	/**
+	 * Subscriptions of the topics by topic name. Every topic has its own session.
+	 */
+	private final Map<String, TopicSubscription> topicSubscriptions = new LinkedHashMap<>();
+	
+	/**
+	 * Settings of the subscriptions by topic name. The subscriptions are durable unless configured otherwise,
+	 * the train id is used as the client id.
+	 */
+	private final Map<String, TopicConfiguration> topicConfigurations = new HashMap<>();
+	
+	/**
+	 * Flow control and delivery settings of the MQ connection.
+	 */
+	private ConnectionConfiguration connectionConfiguration = ConnectionConfiguration.of(new Properties());
+	
+	/**
+	 * Trackers dropping the messages delivered again by topic name. They outlive reconnects.
+	 */
+	private final Map<String, SequenceTracker> sequenceTrackers = new HashMap<>();
+	
+	/**
+	 * Keys of the topics reloaded with changes which must be subscribed again once the connection is established.
+	 */
+	private final Set<String> pendingTopicKeys = new LinkedHashSet<>();
+	
+	/**
+	 * Subscriptions left by the reloaded topic changes by topic name, with whether they are durable. They are removed
+	 * once the connection is established, they outlive restarts.
+	 */
+	private final Map<String, Boolean> staleSubscriptions = new LinkedHashMap<>();
+	
+	/**
+	 * Whether the status heartbeat was reloaded with changes and must be established again once the connection is established.
+	 */
+	private boolean statusHeartbeatPending = false;
+	
+	/**
+	 * Maximum number of messages waiting for a dispatch thread of a topic. Default value is 1000.
+	 */
+	private int dispatchQueueSize = 1000;
+	
+	/**
+	 * MQ producer for content resend requests. Null when resend requests are disabled.
+	 */
+	private MessageProducer contentResendProducer = null;
+	
+	/**
+	 * MQ producer for content acknowledgements. Null when acknowledgements are disabled.
+	 */
+	private MessageProducer contentAckProducer = null;
+	
+	/**
+	 * Session of the status heartbeats, used on the reconnect thread. Null when the heartbeats are disabled.
+	 */
+	private Session statusSession = null;
+	
+	/**
+	 * MQ producer for the status heartbeats. Null when the heartbeats are disabled.
+	 */
+	private MessageProducer statusProducer = null;
+	
+	/**
+	 * Publishes the status heartbeats, null when they are disabled.
+	 */
+	private ScheduledFuture<?> statusTimer = null;
+	
+	/**
+	 * Generations of the received content. Null when the content storage can't be initialized.
+	 */
+	private volatile ContentStore contentStore = null;
+	
+	/**
+	 * Reassembles multi-part content transfers. Null when the content storage can't be initialized.
+	 */
+	private ContentAssembler contentAssembler = null;
+	
+	/**
+	 * Applies delta content archives. Null when the content storage can't be initialized.
+	 */
+	private ContentDelta contentDelta = null;
+	
+	/**
+	 * Messages received on the messages topic. Null when the message storage can't be initialized.
+	 */
+	private volatile MessageStore messageStore = null;
+	
+	/**
+	 * State decoded from the realtime topic. It outlives reconnects and restarts.
+	 */
+	private final RealtimeState realtimeState = new RealtimeState();
+	
+	/**
+	 * Static GTFS feed received on the GTFS topic. Null until the first feed is compiled.
+	 */
+	private volatile GtfsStore gtfsStore = null;
+	
+	/**
+	 * State of the MQ connection.
+	 */
+	private volatile ConnectionState connectionState = ConnectionState.DISCONNECTED;
+	
+	/**
+	 * Listeners notified about the changes of the {@link #connectionState}.
+	 */
+	private final List<Consumer<ConnectionState>> connectionStateListeners = new CopyOnWriteArrayList<>();
+	
+	/**
+	 * Runs the connection attempts. Neither the caller of {@link #start()} nor the ActiveMQ transport thread
+	 * reporting a failure is blocked during an outage.
+	 */
+	private final ScheduledExecutorService reconnectScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		final Thread thread = new Thread(runnable, "mq-reconnect");
+		thread.setDaemon(true);
+		return thread;
+	});
+	
+	/**
+	 * Delays of the reconnect attempts, created from the configured timeouts.
+	 */
+	private volatile ReconnectBackoff reconnectBackoff = new ReconnectBackoff(
+		TimeUnit.SECONDS.toMillis(this.reconnectTimeoutOnConnectionFailure), TimeUnit.SECONDS.toMillis(this.reconnectMaxTimeoutOnConnectionFailure)
+	);
+	
+	/**
+	 * The flag used for checking if a connection attempt is already scheduled.
+	 */
+	private final AtomicBoolean reconnectScheduled = new AtomicBoolean(false);
+	
+	/**
+	 * Probes the broker endpoints of the connected train, null when the rebalancing is disabled.
+	 */
+	private ScheduledFuture<?> rebalanceTimer = null;
+	
+	/**
+	 * The flag used for checking if the train is started. Scheduled connection attempts are skipped when it's not.
+	 */
+	private volatile boolean running = false;
+	
+	/**
+	 * Metrics of the topics and the connection, they outlive reconnects and restarts.
+	 */
+	private final MetricsRegistry metrics = new MetricsRegistry();
+	
+	/**
+	 * Number of connection attempts scheduled after a failure.
+	 */
+	private final Counter reconnects = this.metrics.counter("connection.reconnects");
+	
+	/**
+	 * Durations (in milliseconds) of the finished outages, from the loss of the connection to the next successful attempt.
+	 */
+	private final Histogram outageDuration = this.metrics.histogram("connection.outageMillis");
+	
+	/**
+	 * Number of times the failover transport lost the connected broker endpoint, including the rebalances.
+	 */
+	private final Counter failovers = this.metrics.counter("connection.failovers");
+	
+	/**
+	 * Number of times the connection was moved to a faster broker endpoint.
+	 */
+	private final Counter rebalances = this.metrics.counter("connection.rebalances");
+	
+	/**
+	 * Time (in milliseconds) when the connection was lost, 0 when it's not lost.
+	 */
+	private volatile long disconnectedSince = 0L;
+	
+	/**
+	 * Decodes the encoded payloads of all the topics. It outlives reconnects and restarts.
+	 */
+	private final PayloadDecoder payloadDecoder = new PayloadDecoder();
+	
+	/**
+	 * Serves the metrics locally. Null when it's disabled.
+	 */
+	private MetricsEndpoint metricsEndpoint = null;
+	
+	/**
+	 * Serves the current content to the passenger devices. Null when it's disabled.
+	 */
+	private ContentServer contentServer = null;
+	
+	/**
+	 * Runs the content pulls, null when they are disabled. A pull may take minutes, so it doesn't run on the reconnect thread.
+	 */
+	private volatile ScheduledExecutorService contentPullScheduler = null;
+	
+	/**
+	 * Pulls the content, null when the pulls are disabled.
+	 */
+	private volatile ContentDownloader contentDownloader = null;
+	
+	/**
+	 * Held during a content pull. The pull of a scheduler which didn't terminate in time never runs alongside
+	 * the pull of its replacement, they share the partial download.
+	 */
+	private final Object contentPullLock = new Object();
+	
+	
+	
+	public Train() {
+		this.metrics.gauge("connection.state", () -> this.connectionState.ordinal());
+		this.metrics.gauge("connection.currentOutageMillis", () -> {
+			final long since = this.disconnectedSince;
+			return since == 0L ? 0L : System.currentTimeMillis() - since;
+		});
+	}
+	
+	@Override
+	public void start() {
+		try {
+			this.loadConfiguration();
+			this.loadPayloadDictionaries();
+			this.initializeContentStorage();
+			this.initializeMessageStorage();
+			this.initializeGtfsStorage();
+			this.initializeMetrics();
+			this.initializeContentServer();
+			this.initializeContentPull();
+			this.running = true;
+			this.reconnectBackoff.reset();
+			this.reconnectScheduler.execute(this::initializeMQProvisioning);
+			final long rebalanceInterval = this.brokerEndpoints.getRebalanceInterval();
+			if (rebalanceInterval > 0L) {
+				this.rebalanceTimer = this.reconnectScheduler.scheduleWithFixedDelay(this::rebalanceMQConnection, rebalanceInterval, rebalanceInterval, TimeUnit.SECONDS);
+			}
+			Train.LOGGER.log(Level.INFO, "Train {0}", trainId + " started.");
+		} catch (IOException exception) {
+			Train.LOGGER.log(Level.SEVERE, "Vehicle configuration can't be loaded. Reason: " + exception.toString());
+		} catch (RuntimeException exception) {
+			Train.LOGGER.log(Level.SEVERE, "Vehicle configuration is invalid, the train isn't started. Reason: " + exception.toString());
+		}
+	}
+	
+	@Override
+	public synchronized void stop() {
+		this.running = false;
+		if (this.rebalanceTimer != null) {
+			this.rebalanceTimer.cancel(false);
+			this.rebalanceTimer = null;
+		}
+		this.destroyMQConnection();
+		this.setConnectionState(ConnectionState.DISCONNECTED);
+		this.destroySequenceTrackers();
+		this.destroyContentStorage();
+		this.destroyMessageStorage();
+		this.destroyMetricsEndpoint();
+		this.destroyContentServer();
+		this.destroyContentPull();
+		this.pendingTopicKeys.clear();
+		this.statusHeartbeatPending = false;
+		Train.LOGGER.log(Level.INFO, "Train {0}", trainId + " stopped.");
+	}
+	
+	@Override
+	public void restart(final String reason) {
+		Train.LOGGER.log(Level.INFO, "Train {0}", trainId + " is restarting. " + reason);
+		this.stop();
+		this.start();
+	}
+	
+	/**
+	 * Applies only the changed configuration values. The subscriptions of the topics affected by the changes are
+	 * created again, the other subscriptions and the connection keep running. While the connection is down the other
+	 * values are applied at once and the subscriptions are changed when it's established. The train is restarted when
+	 * a value which can't be applied alone is changed. The configuration is validated before either, an invalid one
+	 * is ignored and the train keeps running with the current one.
+	 */
+	@Override
+	public synchronized void reload(final String reason) {
+		final Properties properties;
+		try {
+			properties = PropertyUtil.loadProperties(Train.CONFIGURATION);
+		} catch (IOException exception) {
+			Train.LOGGER.log(Level.SEVERE, "Vehicle configuration can't be reloaded, keeping the current one. Reason: {0}", exception.toString());
+			return;
+		}
+		final Set<String> changedKeys = PropertyUtil.changedKeys(this.configuration, properties);
+		if (changedKeys.isEmpty()) {
+			Train.LOGGER.log(Level.INFO, "Vehicle configuration reloaded without changes.");
+			return;
+		}
+		final Properties previousConfiguration = this.configuration;
+		final Map<String, TopicConfiguration> previousTopicConfigurations = new HashMap<>(this.topicConfigurations);
+		try {
+			this.applyConfiguration(properties);
+		} catch (RuntimeException exception) {
+			this.restoreConfiguration(previousConfiguration);
+			Train.LOGGER.log(Level.SEVERE, "Vehicle configuration is invalid, keeping the current one. Reason: {0}", exception.toString());
+			return;
+		}
+		final Set<String> topicKeys = Train.topicKeysAffectedBy(changedKeys);
+		if (topicKeys == null || !this.running) {
+			this.restoreConfiguration(previousConfiguration);
+			this.restart(reason + " Changed " + changedKeys + ".");
+			return;
+		}
+		Train.LOGGER.log(Level.INFO, "Train {0}", this.trainId + " applies changed " + changedKeys + ". " + reason);
+		
+		if (changedKeys.contains("metricsPort")) {
+			this.destroyMetricsEndpoint();
+			this.initializeMetrics();
+		}
+		if (changedKeys.stream().anyMatch(changedKey -> changedKey.startsWith("contentServer"))) {
+			this.destroyContentServer();
+			this.initializeContentServer();
+		}
+		if (changedKeys.contains("contentChunkSize") || changedKeys.stream().anyMatch(changedKey -> changedKey.startsWith("contentPull"))) {
+			this.destroyContentPull();
+			this.initializeContentPull();
+		}
+		if (changedKeys.contains("mqTopicStatus") || changedKeys.contains("statusInterval") || changedKeys.contains("trainGroups")) {
+			this.statusHeartbeatPending = true;
+		}
+		for (final String topicKey : topicKeys) {
+			final String previousTopicName = previousConfiguration.getProperty(topicKey);
+			final String topicName = properties.getProperty(topicKey);
+			final boolean durable = this.topicConfigurations.get(topicName).isDurable();
+			if (!previousTopicName.equals(topicName) || !durable) {
+				this.staleSubscriptions.putIfAbsent(previousTopicName, previousTopicConfigurations.get(previousTopicName).isDurable());
+			}
+			if (durable) {
+				this.staleSubscriptions.remove(topicName);
+			}
+			this.pendingTopicKeys.add(topicKey);
+		}
+		if (this.connectionState == ConnectionState.CONNECTED) {
+			this.applyPendingTopicChanges();
+		} else {
+			Train.LOGGER.log(Level.INFO, "Changed subscriptions of {0}", this.pendingTopicKeys + " are applied once the MQ connection is established.");
+		}
+	}
+	
+	/**
+	 * Applies the reloaded topic changes to the established connection, the train is restarted when they can't be applied.
+	 * Runs on the reload thread or on the reconnect thread when the interrupted connection resumes.
+	 */
+	private synchronized void applyPendingTopicChanges() {
+		if (this.connectionState != ConnectionState.CONNECTED
+				|| this.pendingTopicKeys.isEmpty() && this.staleSubscriptions.isEmpty() && !this.statusHeartbeatPending) {
+			return;
+		}
+		try {
+			this.resubscribePendingTopics(true);
+		} catch (JMSException exception) {
+			Train.LOGGER.log(Level.SEVERE, "Error occurred while trying to establish topic listener after reload. Reason: {0}", exception.toString());
+			this.restart("Changed topic subscriptions can't be applied.");
+		}
+	}
+	
+	/**
+	 * Removes the subscriptions left by the reloaded topic changes and closes the subscriptions of the changed topics.
+	 * @param subscribe whether to establish the listeners of the changed topics and the status heartbeat, false when
+	 *        the connection is being established and all of them follow.
+	 * @throws JMSException
+	 */
+	private void resubscribePendingTopics(final boolean subscribe) throws JMSException {
+		for (final Map.Entry<String, Boolean> staleSubscription : this.staleSubscriptions.entrySet()) {
+			final TopicSubscription topicSubscription = this.topicSubscriptions.remove(staleSubscription.getKey());
+			if (topicSubscription != null) {
+				topicSubscription.unsubscribe();
+			} else if (staleSubscription.getValue()) {
+				this.removeDurableSubscription(staleSubscription.getKey());
+			}
+			final SequenceTracker sequenceTracker = this.sequenceTrackers.remove(staleSubscription.getKey());
+			if (sequenceTracker != null) {
+				sequenceTracker.close();
+			}
+		}
+		this.staleSubscriptions.clear();
+		final Set<String> topicKeys = new LinkedHashSet<>(this.pendingTopicKeys);
+		this.pendingTopicKeys.clear();
+		for (final String topicKey : topicKeys) {
+			final TopicSubscription topicSubscription = this.topicSubscriptions.remove(this.configuration.getProperty(topicKey));
+			if (topicSubscription != null) {
+				topicSubscription.close();
+			}
+		}
+		if (topicKeys.contains("mqTopicContent")) {
+			this.contentResendProducer = null;
+			this.contentAckProducer = null;
+			this.destroyContentStorage();
+			this.initializeContentStorage();
+		}
+		if (topicKeys.contains("mqTopicMessages")) {
+			this.destroyMessageStorage();
+			this.initializeMessageStorage();
+		}
+		if (!subscribe) {
+			this.statusHeartbeatPending = false;
+			return;
+		}
+		for (final String topicKey : topicKeys) {
+			this.establishListener(topicKey);
+		}
+		if (this.statusHeartbeatPending) {
+			this.statusHeartbeatPending = false;
+			this.destroyStatusHeartbeat();
+			try {
+				this.establishStatusHeartbeat();
+			} catch (JMSException exception) {
+				Train.LOGGER.log(Level.WARNING, "Status heartbeats can't be established after reload. Reason: {0}", exception.toString());
+			}
+		}
+	}
+	
+	/**
+	 * Removes the durable subscription of the topic which isn't subscribed any more.
+	 * @param topicName the topic name.
+	 * @throws JMSException when the session can't be created.
+	 */
+	private void removeDurableSubscription(final String topicName) throws JMSException {
+		final Session session = this.connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+		try {
+			session.unsubscribe(topicName);
+		} catch (JMSException exception) {
+			Train.LOGGER.log(Level.WARNING, "Durable subscription for topic {0}", topicName + " can't be removed. Reason: " + exception.toString());
+		} finally {
+			session.close();
+		}
+	}
+	
+	/**
+	 * @return the state of the MQ connection.
+	 */
+	public ConnectionState getConnectionState() {
+		return this.connectionState;
+	}
+	
+	/**
+	 * Adds listener notified about the changes of the connection state. It's called on the thread changing
+	 * the state and must not block.
+	 * @param listener the listener.
+	 */
+	public void addConnectionStateListener(final Consumer<ConnectionState> listener) {
+		this.connectionStateListeners.add(listener);
+	}
+	
+	public void removeConnectionStateListener(final Consumer<ConnectionState> listener) {
+		this.connectionStateListeners.remove(listener);
+	}
+	
+	/**
+	 * @return the metrics of the topics and the connection.
+	 */
+	public MetricsRegistry getMetrics() {
+		return this.metrics;
+	}
+	
+	/**
+	 * @return the messages received on the messages topic, null when the message storage isn't available.
+	 */
+	public MessageStore getMessageStore() {
+		return this.messageStore;
+	}
+	
+	/**
+	 * @return the trip updates, vehicle positions and alerts received on the realtime topic.
+	 */
+	public RealtimeState getRealtimeState() {
+		return this.realtimeState;
+	}
+	
+	/**
+	 * @return the static GTFS feed received on the GTFS topic, null until the first feed is compiled.
+	 */
+	public GtfsStore getGtfsStore() {
+		return this.gtfsStore;
+	}
+	
+	private void loadConfiguration() throws IOException {
+		Train.LOGGER.log(Level.INFO, "Loading train configuration...");
+		this.applyConfiguration(PropertyUtil.loadProperties(Train.CONFIGURATION));
+	}
+	
+	/**
+	 * Sets the configuration values from the properties.
+	 * @throws NullPointerException when a required value is missing.
+	 * @throws IllegalArgumentException when a numeric or enumerated value is invalid.
+	 */
+	private void applyConfiguration(final Properties properties) {
+		this.trainId = Objects.requireNonNull(properties.getProperty("trainId"), "Train id " + Train.MISSING_CONFIGURATION_VALUE_MESSAGE);
+		this.trainGroups = new ArrayList<>();
+		for (final String trainGroup : properties.getProperty("trainGroups", "").split(",")) {
+			if (!trainGroup.trim().isEmpty()) {
+				this.trainGroups.add(trainGroup.trim());
+			}
+		}
+		this.mqConnectionAddress = Objects.requireNonNull(properties.getProperty("mqConnectionAddress"), "MQ Connection address " + Train.MISSING_CONFIGURATION_VALUE_MESSAGE);
+		this.brokerEndpoints = BrokerEndpoints.of(properties);
+		this.mqTopicContent = Objects.requireNonNull(properties.getProperty("mqTopicContent"), "MQ topic for content " + Train.MISSING_CONFIGURATION_VALUE_MESSAGE);
+		this.mqTopicContentResend = properties.getProperty("mqTopicContentResend", "");
+		this.mqTopicContentAck = properties.getProperty("mqTopicContentAck", "");
+		this.mqTopicStatus = properties.getProperty("mqTopicStatus", "");
+		this.statusInterval = Long.parseLong(properties.getProperty("statusInterval", "60"));
+		if (this.statusInterval <= 0L) {
+			throw new IllegalArgumentException("Status interval must be positive, but was " + this.statusInterval + ".");
+		}
+		this.mqTopicMessages = Objects.requireNonNull(properties.getProperty("mqTopicMessages"), "MQ topic for messages " + Train.MISSING_CONFIGURATION_VALUE_MESSAGE);
+		this.mqTopicRealtime = Objects.requireNonNull(properties.getProperty("mqTopicRealtime"), " MQ topic for realtime " + Train.MISSING_CONFIGURATION_VALUE_MESSAGE);
+		this.mqTopicGTFS = Objects.requireNonNull(properties.getProperty("mqTopicGTFS"), "MQ topic for GTFS " + Train.MISSING_CONFIGURATION_VALUE_MESSAGE);
+		this.reconnectTimeoutOnConnectionFailure = Long.parseLong(
+			properties.getProperty("reconnectTimeoutOnConnectionFailure", String.valueOf(this.reconnectTimeoutOnConnectionFailure))
+		);
+		this.reconnectMaxTimeoutOnConnectionFailure = Long.parseLong(
+			properties.getProperty("reconnectMaxTimeoutOnConnectionFailure", String.valueOf(this.reconnectMaxTimeoutOnConnectionFailure))
+		);
+		this.reconnectBackoff = new ReconnectBackoff(
+			TimeUnit.SECONDS.toMillis(this.reconnectTimeoutOnConnectionFailure), TimeUnit.SECONDS.toMillis(this.reconnectMaxTimeoutOnConnectionFailure)
+		);
+		this.contentChunkSize = Integer.parseInt(
+			properties.getProperty("contentChunkSize", String.valueOf(ContentStreamer.DEFAULT_CHUNK_SIZE))
+		);
+		this.dispatchQueueSize = Integer.parseInt(properties.getProperty("dispatchQueueSize", String.valueOf(this.dispatchQueueSize)));
+		this.topicConfigurations.clear();
+		for (final String topicKey : Train.TOPIC_KEYS) {
+			this.topicConfigurations.put(properties.getProperty(topicKey), TopicConfiguration.of(properties, topicKey));
+		}
+		this.connectionConfiguration = ConnectionConfiguration.of(properties);
+		this.contentGenerationsToKeep = Integer.parseInt(
+			properties.getProperty("contentGenerationsToKeep", String.valueOf(ContentStore.DEFAULT_GENERATIONS_TO_KEEP))
+		);
+		this.messageSegmentSize = Integer.parseInt(properties.getProperty("messageSegmentSize", String.valueOf(MessageStore.DEFAULT_SEGMENT_SIZE)));
+		this.messageRetentionHours = Long.parseLong(properties.getProperty("messageRetentionHours", String.valueOf(MessageStore.DEFAULT_RETENTION)));
+		this.messageSyncInterval = Long.parseLong(properties.getProperty("messageSyncInterval", String.valueOf(MessageStore.DEFAULT_SYNC_INTERVAL)));
+		this.messagesLogSampling = Integer.parseInt(properties.getProperty("messagesLogSampling", "1"));
+		this.metricsPort = Integer.parseInt(properties.getProperty("metricsPort", "0"));
+		this.contentServerPort = Integer.parseInt(properties.getProperty("contentServerPort", "0"));
+		this.contentServerAddress = properties.getProperty("contentServerAddress", "0.0.0.0");
+		this.contentServerMaximumConnections = Integer.parseInt(
+			properties.getProperty("contentServerMaximumConnections", String.valueOf(ContentServer.DEFAULT_MAXIMUM_CONNECTIONS))
+		);
+		this.contentServerIdleTimeout = Long.parseLong(properties.getProperty("contentServerIdleTimeout", String.valueOf(ContentServer.DEFAULT_IDLE_TIMEOUT)));
+		this.contentPullUrl = properties.getProperty("contentPullUrl", "").trim();
+		this.contentPullInterval = Long.parseLong(properties.getProperty("contentPullInterval", "300"));
+		if (this.contentPullInterval <= 0L) {
+			throw new IllegalArgumentException("Content pull interval must be positive, but was " + this.contentPullInterval + ".");
+		}
+		this.contentPullRate = Long.parseLong(properties.getProperty("contentPullRate", String.valueOf(ContentDownloader.DEFAULT_RATE)));
+		this.configuration = properties;
+	}
+	
+	/**
+	 * Applies the previous configuration again. A train which never started has none, its configuration is only cleared,
+	 * the next start applies the whole configuration anyway.
+	 */
+	private void restoreConfiguration(final Properties previousConfiguration) {
+		if (previousConfiguration.isEmpty()) {
+			this.configuration = previousConfiguration;
+		} else {
+			this.applyConfiguration(previousConfiguration);
+		}
+	}
+	
+	/**
+	 * @param changedKeys the changed configuration keys.
+	 * @return keys of the topics which must be subscribed again to apply the changes, null when the train must be restarted.
+	 */
+	static Set<String> topicKeysAffectedBy(final Set<String> changedKeys) {
+		final Set<String> topicKeys = new LinkedHashSet<>();
+		for (final String changedKey : changedKeys) {
+			if ("reconnectTimeoutOnConnectionFailure".equals(changedKey) || "reconnectMaxTimeoutOnConnectionFailure".equals(changedKey)
+				|| "metricsPort".equals(changedKey) || changedKey.startsWith("contentServer") || changedKey.startsWith("contentPull")
+				|| "mqTopicStatus".equals(changedKey) || "statusInterval".equals(changedKey)) {
+				continue;
+			} else if ("dispatchQueueSize".equals(changedKey)) {
+				topicKeys.addAll(Arrays.asList(Train.TOPIC_KEYS));
+			} else if ("contentChunkSize".equals(changedKey)) {
+				topicKeys.add("mqTopicContent");
+				topicKeys.add("mqTopicGTFS");
+			} else if ("mqTopicContentResend".equals(changedKey) || "mqTopicContentAck".equals(changedKey) || "trainGroups".equals(changedKey)
+				|| "contentGenerationsToKeep".equals(changedKey)) {
+				topicKeys.add("mqTopicContent");
+			} else if ("messagesLogSampling".equals(changedKey) || "messageSegmentSize".equals(changedKey)
+				|| "messageRetentionHours".equals(changedKey) || "messageSyncInterval".equals(changedKey)) {
+				topicKeys.add("mqTopicMessages");
+			} else {
+				final String topicKey = TopicConfiguration.topicKeyOf(changedKey);
+				if (!Arrays.asList(Train.TOPIC_KEYS).contains(topicKey)) {
+					return null;
+				}
+				topicKeys.add(topicKey);
+			}
+		}
+		return topicKeys;
+	}
+	
+	/**
+	 * Adds the preset dictionaries from the configuration directory to the payload decoder. Payloads compressed with
+	 * a missing dictionary can't be decoded, the others are decoded regardless.
+	 */
+	private void loadPayloadDictionaries() {
+		try {
+			final int loaded = this.payloadDecoder.loadDictionaries(Paths.get(Train.PAYLOAD_DICTIONARIES));
+			Train.LOGGER.log(Level.INFO, "Payload dictionaries loaded: {0}", loaded);
+		} catch (IOException exception) {
+			Train.LOGGER.log(Level.WARNING, "Payload dictionaries can't be loaded. Reason: {0}", exception.toString());
+		}
+	}
+	
+	/**
+	 * Opens the content store and the content assembler, resuming the transfer left by the previous run.
+	 * An archive written by a previous version of the provisioner is imported as the first generation.
+	 */
+	private void initializeContentStorage() {
+		try {
+			final Path contentDirectory = Paths.get(Train.WORK_DIRECTORY, "content");
+			this.contentStore = new ContentStore(contentDirectory.resolve(this.mqTopicContent), this.contentGenerationsToKeep);
+			final Path legacyVersion = contentDirectory.resolve(this.mqTopicContent + ".zip.version");
+			this.contentStore.importLegacyArchive(
+				contentDirectory.resolve(this.mqTopicContent + ".zip"),
+				Files.exists(legacyVersion) ? new String(Files.readAllBytes(legacyVersion), StandardCharsets.UTF_8).trim() : null
+			);
+			Files.deleteIfExists(legacyVersion);
+			
+			this.contentAssembler = new ContentAssembler(this.contentStore.getDirectory(), "transfer", new ContentStreamer(this.contentChunkSize, this.payloadDecoder));
+			this.contentDelta = new ContentDelta(this.contentChunkSize);
+			Train.LOGGER.log(Level.INFO, "Current content is {0}", this.contentStore.getCurrent());
+		} catch (IOException exception) {
+			Train.LOGGER.log(Level.SEVERE, "Content storage can't be initialized, content updates are disabled. Reason: {0}", exception.toString());
+			this.contentStore = null;
+		}
+	}
+	
+	/**
+	 * Opens the message store, recovering the messages received by the previous run.
+	 */
+	private void initializeMessageStorage() {
+		try {
+			this.messageStore = new MessageStore(
+				Paths.get(Train.WORK_DIRECTORY, "messages"), this.messageSegmentSize, TimeUnit.HOURS.toMillis(this.messageRetentionHours), this.messageSyncInterval
+			);
+		} catch (IOException | IllegalArgumentException exception) {
+			Train.LOGGER.log(Level.SEVERE, "Message storage can't be initialized, messages aren't stored. Reason: {0}", exception.toString());
+			this.messageStore = null;
+		}
+	}
+	
+	/**
+	 * Flushes and closes the message store.
+	 */
+	private void destroyMessageStorage() {
+		if (this.messageStore != null) {
+			this.messageStore.close();
+			this.messageStore = null;
+		}
+	}
+	
+	/**
+	 * Opens the GTFS feed compiled by a previous run.
 	 */
-	private String trainId = "";
+	private void initializeGtfsStorage() {
+		final Path storePath = Paths.get(Train.WORK_DIRECTORY, "gtfs", Train.GTFS_STORE);
+		if (this.gtfsStore != null || !Files.exists(storePath)) {
+			return;
+		}
+		try {
+			this.gtfsStore = GtfsStore.open(storePath);
+			Train.LOGGER.log(Level.INFO, "Current GTFS feed is {0}", this.gtfsStore);
+		} catch (IOException exception) {
+			Train.LOGGER.log(Level.WARNING, "Compiled GTFS feed can't be opened, waiting for a new feed. Reason: {0}", exception.toString());
+		}
+	}
 	
 	/**
-	 * Connection to activeMQ.
+	 * Closes the content assembler. The transfer in progress stays on disk.
 	 */
-	private String mqConnectionAddress = "";
+	private void destroyContentStorage() {
+		try {
+			if (this.contentAssembler != null) {
+				this.contentAssembler.close();
+			}
+		} catch (IOException exception) {
+			Train.LOGGER.log(Level.SEVERE, "Error occurred while trying to close content storage. Reason: {0}", exception.toString());
+		} finally {
+			this.contentAssembler = null;
+			this.contentDelta = null;
+			this.contentStore = null;
+		}
+	}
 	
 	/**
-	 * Reconnect timeout (in seconds) used when connection is lost. Default value is 10 seconds.
+	 * Publishes the metrics over JMX and starts the local metrics endpoint, when it's enabled.
+	 * The train runs without them when they can't be started.
 	 */
-	private long reconnectTimeoutOnConnectionFailure = 10L;
+	private void initializeMetrics() {
+		try {
+			this.metrics.registerMBean();
+		} catch (JMException exception) {
+			Train.LOGGER.log(Level.WARNING, "Metrics can't be published over JMX. Reason: {0}", exception.toString());
+		}
+		if (this.metricsPort > 0 && this.metricsEndpoint == null) {
+			try {
+				this.metricsEndpoint = new MetricsEndpoint(this.metrics, this.metricsPort);
+			} catch (IOException exception) {
+				Train.LOGGER.log(Level.WARNING, "Metrics endpoint can't be started on port {0}", this.metricsPort + ". Reason: " + exception.toString());
+			}
+		}
+	}
+	
+	private void destroyMetricsEndpoint() {
+		if (this.metricsEndpoint != null) {
+			this.metricsEndpoint.close();
+			this.metricsEndpoint = null;
+		}
+	}
 	
 	/**
-	 * MQ topic name for content.
+	 * Starts the content server, when it's enabled. It serves the current generation of whichever content store
+	 * is open, so it keeps running while the content storage is initialized again. The train runs without it
+	 * when it can't be started.
 	 */
-	private String mqTopicContent = "";
+	private void initializeContentServer() {
+		if (this.contentServerPort > 0 && this.contentServer == null) {
+			try {
+				this.contentServer = new ContentServer(
+					() -> this.contentStore, new InetSocketAddress(this.contentServerAddress, this.contentServerPort),
+					this.contentServerMaximumConnections, this.contentServerIdleTimeout, this.metrics
+				);
+			} catch (IOException | IllegalArgumentException exception) {
+				Train.LOGGER.log(Level.WARNING, "Content server can't be started on port {0}", this.contentServerPort + ". Reason: " + exception.toString());
+			}
+		}
+	}
+	
+	private void destroyContentServer() {
+		if (this.contentServer != null) {
+			this.contentServer.close();
+			this.contentServer = null;
+		}
+	}
 	
 	/**
-	 * MQ topic name for messages.
+	 * Schedules the content pulls over HTTP, when they are enabled. The train runs without them when the address
+	 * is invalid.
 	 */
-	private String mqTopicMessages = "";
+	private void initializeContentPull() {
+		if (this.contentPullUrl.isEmpty() || this.contentPullScheduler != null) {
+			return;
+		}
+		final ContentDownloader contentDownloader;
+		try {
+			contentDownloader = new ContentDownloader(new URL(this.contentPullUrl), this.contentPullRate, this.contentChunkSize);
+		} catch (MalformedURLException | IllegalArgumentException exception) {
+			Train.LOGGER.log(Level.WARNING, "Content pulls can't be scheduled from {0}", this.contentPullUrl + ". Reason: " + exception.toString());
+			return;
+		}
+		this.contentPullScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			final Thread thread = new Thread(runnable, "content-pull");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.contentDownloader = contentDownloader;
+		this.contentPullScheduler.scheduleWithFixedDelay(() -> this.pullContent(contentDownloader, false), this.contentPullInterval, this.contentPullInterval, TimeUnit.SECONDS);
+	}
 	
 	/**
-	 * MQ topic name for realtime.
+	 * Stops the content pulls, a pull in progress is interrupted and resumed by the next one. Waits until a pull blocked
+	 * on the network fails.
 	 */
-	private String mqTopicRealtime = "";
+	private void destroyContentPull() {
+		this.contentDownloader = null;
+		if (this.contentPullScheduler != null) {
+			this.contentPullScheduler.shutdownNow();
+			try {
+				if (!this.contentPullScheduler.awaitTermination(ContentDownloader.TIMEOUT * 2L, TimeUnit.MILLISECONDS)) {
+					Train.LOGGER.log(Level.WARNING, "Content pull from {0} didn't stop in time.", this.contentPullUrl);
+				}
+			} catch (InterruptedException exception) {
+				Thread.currentThread().interrupt();
+			}
+			this.contentPullScheduler = null;
+		}
+	}
 	
 	/**
-	 * MQ topic name for gtfs.
+	 * Pulls the full content archive over HTTP right away, e.g. after a delta which can't be applied. Does nothing when
+	 * the pulls are disabled.
 	 */
-	private String mqTopicGTFS = "";
+	private void requestContentPull() {
+		final ScheduledExecutorService scheduler = this.contentPullScheduler;
+		final ContentDownloader downloader = this.contentDownloader;
+		if (scheduler == null || downloader == null) {
+			return;
+		}
+		try {
+			scheduler.execute(() -> this.pullContent(downloader, true));
+		} catch (RejectedExecutionException exception) {
+			Train.LOGGER.log(Level.FINE, "Content pull from {0} isn't scheduled, the pulls are stopping.", this.contentPullUrl);
+		}
+	}
 	
 	/**
-	 * MQ connection instance.
+	 * Pulls the current content over HTTP, when the MQ connection is down. The content topic delivers the content
+	 * while it's connected. Runs on the content pull thread.
+	 * @param contentDownloader the downloader.
+	 * @param connected true to pull even while connected.
 	 */
-	private Connection connection = null;
+	private void pullContent(final ContentDownloader contentDownloader, final boolean connected) {
+		final ContentStore contentStore = this.contentStore;
+		if ((!connected && this.connectionState == ConnectionState.CONNECTED) || contentStore == null) {
+			return;
+		}
+		synchronized (this.contentPullLock) {
+			if (Thread.currentThread().isInterrupted()) {
+				return;
+			}
+			try {
+				final ContentGeneration generation = contentDownloader.pull(contentStore);
+				if (generation == null) {
+					Train.LOGGER.log(Level.FINE, "Content pulled from {0} is unchanged.", this.contentPullUrl);
+				} else {
+					Train.LOGGER.log(Level.INFO, "Content switched to {0}", generation + ", pulled from " + this.contentPullUrl + ".");
+				}
+			} catch (IOException exception) {
+				Train.LOGGER.log(Level.WARNING, "Content can't be pulled from {0}", this.contentPullUrl + ". Reason: " + exception.toString());
+			}
+		}
+	}
 	
 	/**
-	 * MQ session instance.
+	 * Initializes MQ connection, session and topic listeners, replacing the previous connection.
+	 * Runs on the reconnect thread, a failed attempt schedules the next one.
 	 */
-	private Session session = null;
+	private synchronized void initializeMQProvisioning() {
+		this.reconnectScheduled.set(false);
+		if (!this.running) {
+			return;
+		}
+		this.destroyMQConnection();
+		this.setConnectionState(ConnectionState.CONNECTING);
+		try {
+			final BrokerEndpoints brokerEndpoints = this.brokerEndpoints;
+			this.establishMQConnection(brokerEndpoints.connectionAddress(
+				brokerEndpoints.isFailover() ? brokerEndpoints.rank(brokerEndpoints.probe()) : brokerEndpoints.getEndpoints()
+			));
+			
+			this.resubscribePendingTopics(false);
+			Train.LOGGER.log(Level.INFO, "Establishing MQ topic listeners.");
+			this.establishListenerForMQTopicContent();
+			this.establishListenerForMQTopicMessages();
+			this.establishListenerForMQTopicRealtime();
+			this.establishListenerForMQTopicGTFS();
+			this.establishStatusHeartbeat();
+			this.reconnectBackoff.reset();
+			this.setConnectionState(ConnectionState.CONNECTED);
+		} catch (JMSException exception) {
+			Train.LOGGER.log(Level.SEVERE, "Error occurred while trying to establish MQ connection or topic listener. Reason: {0}", exception.toString());
+			this.destroyMQConnection();
+			this.scheduleReconnect();
+		}
+	}
 	
 	/**
-	 * The flag used for checking if connection is available.
+	 * Schedules the next connection attempt after the backoff delay, unless one is already scheduled.
 	 */
-	private boolean connectionAvailable = false;
-	
-	
-	
-	public Train() {
-		
+	private void scheduleReconnect() {
+		if (!this.running || !this.reconnectScheduled.compareAndSet(false, true)) {
+			return;
+		}
+		final ReconnectBackoff backoff = this.reconnectBackoff;
+		final long delay = backoff.nextDelay();
+		this.reconnects.increment();
+		this.setConnectionState(ConnectionState.WAITING_TO_RECONNECT);
+		Train.LOGGER.log(Level.INFO, "Trying to reconnect again after {0}", delay + " ms (attempt " + backoff.getAttempt() + ").");
+		this.reconnectScheduler.schedule(this::initializeMQProvisioning, delay, TimeUnit.MILLISECONDS);
 	}
 	
-	@Override
-	public void start() {
+	/**
+	 * Moves the connection to the fastest broker endpoint when it saves at least the minimum gain. The failover transport
+	 * closes the current transport and connects to the endpoints in the new order, the sessions and subscriptions are
+	 * resumed without a restart. Runs on the reconnect thread.
+	 */
+	private void rebalanceMQConnection() {
+		final BrokerEndpoints brokerEndpoints = this.brokerEndpoints;
+		final Connection connection = this.connection;
+		if (!this.running || this.connectionState != ConnectionState.CONNECTED || !(connection instanceof ActiveMQConnection)) {
+			return;
+		}
+		final FailoverTransport failoverTransport = ((ActiveMQConnection) connection).getTransport().narrow(FailoverTransport.class);
+		if (failoverTransport == null) {
+			return;
+		}
+		final Map<URI, Long> latencies = brokerEndpoints.probe();
+		final URI connected = failoverTransport.getConnectedTransportURI();
+		if (!brokerEndpoints.shouldRebalance(connected, latencies)) {
+			return;
+		}
+		final List<URI> ranked = brokerEndpoints.rank(latencies);
+		Train.LOGGER.log(Level.INFO, "Moving MQ connection from {0}", connected + " to the faster broker endpoint " + ranked.get(0) + ".");
 		try {
-			this.loadConfiguration();
-			this.initializeMQProvisioning();
-			Train.LOGGER.log(Level.INFO, "Train {0}", trainId + " started.");
+			this.rebalances.increment();
+			failoverTransport.updateURIs(true, ranked.toArray(new URI[ranked.size()]));
 		} catch (IOException exception) {
-			Train.LOGGER.log(Level.SEVERE, "Vehicle configuration can't be loaded. Reason: " + exception.toString());
+			Train.LOGGER.log(Level.WARNING, "MQ connection can't be moved to the faster broker endpoint. Reason: {0}", exception.toString());
 		}
 	}
 	
-	@Override
-	public void stop() {
-		this.destroyMQConnection();
-		Train.LOGGER.log(Level.INFO, "Train {0}", trainId + " stopped.");
-	}
-	
-	@Override
-	public void restart(final String reason) {
-		Train.LOGGER.log(Level.INFO, "Train {0}", trainId + " is restarting. " + reason);
-		this.stop();
-		this.start();
+	/**
+	 * Follows the failover transport of the connection: the connection state shows the loss of the connected endpoint
+	 * until the transport resumes on another one. A connection to a single endpoint isn't interrupted, it fails.
+	 * The state is changed on the reconnect thread, so the ActiveMQ transport thread returns at once.
+	 */
+	private TransportListener failoverListener(final Connection connection) {
+		return new TransportListener() {
+			
+			@Override
+			public void onCommand(final Object command) {
+				
+			}
+			
+			@Override
+			public void onException(final IOException exception) {
+				
+			}
+			
+			@Override
+			public void transportInterrupted() {
+				Train.this.reconnectScheduler.execute(() -> {
+					if (Train.this.running && Train.this.connection == connection && Train.this.connectionState == ConnectionState.CONNECTED) {
+						Train.LOGGER.log(Level.WARNING, "Connection to MQ broker endpoint has been lost, failing over to the next endpoint.");
+						Train.this.failovers.increment();
+						Train.this.setConnectionState(ConnectionState.WAITING_TO_RECONNECT);
+					}
+				});
+			}
+			
+			@Override
+			public void transportResumed() {
+				Train.this.reconnectScheduler.execute(() -> {
+					if (Train.this.running && Train.this.connection == connection && Train.this.connectionState == ConnectionState.WAITING_TO_RECONNECT) {
+						Train.LOGGER.log(Level.INFO, "Connection to MQ has been resumed.");
+						Train.this.setConnectionState(ConnectionState.CONNECTED);
+						Train.this.applyPendingTopicChanges();
+					}
+				});
+			}
+			
+		};
 	}
 	
-	private void loadConfiguration() throws IOException {
-		Train.LOGGER.log(Level.INFO, "Loading train configuration...");
-		final Properties properties = PropertyUtil.loadProperties(Train.CONFIGURATION);
-		
-		this.trainId = Objects.requireNonNull(properties.getProperty("trainId"), "Train id " + Train.MISSING_CONFIGURATION_VALUE_MESSAGE);
-		this.mqConnectionAddress = Objects.requireNonNull(properties.getProperty("mqConnectionAddress"), "MQ Connection address " + Train.MISSING_CONFIGURATION_VALUE_MESSAGE);
-		this.mqTopicContent = Objects.requireNonNull(properties.getProperty("mqTopicContent"), "MQ topic for content " + Train.MISSING_CONFIGURATION_VALUE_MESSAGE);
-		this.mqTopicMessages = Objects.requireNonNull(properties.getProperty("mqTopicMessages"), "MQ topic for messages " + Train.MISSING_CONFIGURATION_VALUE_MESSAGE);
-		this.mqTopicRealtime = Objects.requireNonNull(properties.getProperty("mqTopicRealtime"), " MQ topic for realtime " + Train.MISSING_CONFIGURATION_VALUE_MESSAGE);
-		this.mqTopicGTFS = Objects.requireNonNull(properties.getProperty("mqTopicGTFS"), "MQ topic for GTFS " + Train.MISSING_CONFIGURATION_VALUE_MESSAGE);
-		this.reconnectTimeoutOnConnectionFailure = Long.parseLong(
-			properties.getProperty("reconnectTimeoutOnConnectionFailure", String.valueOf(this.reconnectTimeoutOnConnectionFailure))
-		);
+	/**
+	 * Sets the connection state, records the outages and notifies the listeners when the state has changed.
+	 * An outage starts when the established connection is lost and ends when it's established again.
+	 */
+	private void setConnectionState(final ConnectionState connectionState) {
+		if (this.connectionState == connectionState) {
+			return;
+		}
+		if (connectionState == ConnectionState.CONNECTED && this.disconnectedSince != 0L) {
+			this.outageDuration.record(System.currentTimeMillis() - this.disconnectedSince);
+			this.disconnectedSince = 0L;
+		} else if (connectionState == ConnectionState.DISCONNECTED) {
+			this.disconnectedSince = 0L;
+		} else if (this.connectionState == ConnectionState.CONNECTED) {
+			this.disconnectedSince = System.currentTimeMillis();
+		}
+		this.connectionState = connectionState;
+		for (final Consumer<ConnectionState> listener : this.connectionStateListeners) {
+			try {
+				listener.accept(connectionState);
+			} catch (RuntimeException exception) {
+				Train.LOGGER.log(Level.WARNING, "Connection state listener failed. Reason: {0}", exception.toString());
+			}
+		}
 	}
 	
 	/**
-	 * Initializes MQ connection, session and topic listeners.
+	 * Establishes listener for the topic with the configuration key.
+	 * @param topicKey the configuration key of the topic name.
+	 * @throws JMSException
 	 */
-	private void initializeMQProvisioning() {
-		while (!this.connectionAvailable) {
-			try {
-				this.establishMQConnection(this.mqConnectionAddress);
-				
-				Train.LOGGER.log(Level.INFO, "Establishing MQ topic listeners.");
+	private void establishListener(final String topicKey) throws JMSException {
+		switch (topicKey) {
+			case "mqTopicContent":
 				this.establishListenerForMQTopicContent();
+				break;
+			case "mqTopicMessages":
 				this.establishListenerForMQTopicMessages();
-				//this.establishListenerForMQTopicRealtime();
-				//this.establishListenerForMQTopicGTFS();
-			} catch (JMSException exception) {
-				Train.LOGGER.log(Level.SEVERE, "Error occurred while trying to establish MQ connection or topic listener. Reason: {0}", exception.toString());
-				try {
-					Train.LOGGER.log(Level.INFO, "Trying to reconnect again after {0}", this.reconnectTimeoutOnConnectionFailure + " seconds.");
-					Thread.sleep(this.reconnectTimeoutOnConnectionFailure * 1000L);
-				} catch (InterruptedException exception2) {
-					Train.LOGGER.log(Level.SEVERE, "Error occurred while waiting to reconnect. Reason: {0}", exception2.toString());
-					Thread.currentThread().interrupt();
-				}
-			}
+				break;
+			case "mqTopicRealtime":
+				this.establishListenerForMQTopicRealtime();
+				break;
+			case "mqTopicGTFS":
+				this.establishListenerForMQTopicGTFS();
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown topic key " + topicKey + ".");
 		}
 	}
 	
 	/**
-	 * Creates connection using connection factory and after that creates session from it.
+	 * Creates connection using connection factory.
 	 * @param connectionAddress the connection address used to establish the connection (protocol://ipaddress:port).
 	 * @throws JMSException
 	 */
 	private void establishMQConnection(final String connectionAddress) throws JMSException {
-		Train.LOGGER.log(Level.INFO, "Establishing MQ connection to {0}", this.mqConnectionAddress);
+		Train.LOGGER.log(Level.INFO, "Establishing MQ connection to {0}", connectionAddress);
 		final ActiveMQConnectionFactory connectionFactory = new ActiveMQConnectionFactory(connectionAddress);
+		this.connectionConfiguration.configure(connectionFactory);
 		this.connection = connectionFactory.createConnection();
-		this.session = this.connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+		this.connection.setClientID(this.trainId);
 		this.connection.setExceptionListener(this);
+		if (this.connection instanceof ActiveMQConnection) {
+			((ActiveMQConnection) this.connection).addTransportListener(this.failoverListener(this.connection));
+		}
 		this.connection.start();
-		this.connectionAvailable = true;
 		Train.LOGGER.log(Level.INFO, "MQ connection successfully established.");
 	}
 	
 	/**
-	 * Establishes listener for MQ topic content for the current session.
+	 * Creates subscription with its own session for the topic.
+	 * @param topicName the topic name.
+	 * @return the subscription.
+	 * @throws JMSException
+	 */
+	private TopicSubscription subscribe(final String topicName) throws JMSException {
+		final TopicSubscription topicSubscription = new TopicSubscription(
+			this.connection, topicName, this.topicConfigurations.get(topicName), this.dispatchQueueSize, this.sequenceTracker(topicName), this.metrics
+		);
+		this.topicSubscriptions.put(topicName, topicSubscription);
+		return topicSubscription;
+	}
+	
+	/**
+	 * @return the tracker of the topic stored in the workdir, null when it can't be opened.
+	 */
+	private SequenceTracker sequenceTracker(final String topicName) {
+		SequenceTracker sequenceTracker = this.sequenceTrackers.get(topicName);
+		if (sequenceTracker == null) {
+			try {
+				sequenceTracker = SequenceTracker.open(Paths.get(Train.WORK_DIRECTORY, "subscriptions", topicName + ".seq"));
+				this.sequenceTrackers.put(topicName, sequenceTracker);
+			} catch (IOException exception) {
+				Train.LOGGER.log(Level.WARNING, "Sequence of topic {0}", topicName + " can't be tracked, duplicates aren't dropped. Reason: " + exception.toString());
+			}
+		}
+		return sequenceTracker;
+	}
+	
+	/**
+	 * Flushes and closes the sequence trackers, called once the subscriptions are closed.
+	 */
+	private void destroySequenceTrackers() {
+		for (final SequenceTracker sequenceTracker : this.sequenceTrackers.values()) {
+			sequenceTracker.close();
+		}
+		this.sequenceTrackers.clear();
+	}
+	
+	/**
+	 * Establishes listener for MQ topic content in its own session.
+	 * Only the parts addressed to the whole fleet, the train or one of its {@link #trainGroups} are received.
+	 * Single message archives are streamed to the content archive in chunks of {@link #contentChunkSize} bytes,
+	 * multi-part transfers are handed to the {@link ContentAssembler}. A part which can't be written is reported
+	 * to the subscription, which delivers it again.
 	 * @throws JMSException
 	 */
 	private void establishListenerForMQTopicContent() throws JMSException {
-		final MessageConsumer messageConsumer = this.session.createConsumer(this.session.createTopic(this.mqTopicContent));
-		messageConsumer.setMessageListener(message -> {
-			if (message instanceof ActiveMQBytesMessage) {
-				final byte[] content = ((ActiveMQBytesMessage) message).getContent().getData();
-				
-				final Map<String, String> zipProperties = new HashMap<>();
-				zipProperties.put("create", "true");
-				zipProperties.put("encoding", "UTF-8");
-				
-				final Path zipPath = Paths.get(Train.WORK_DIRECTORY,  "content",  this.mqTopicContent + ".zip");
-				final URI zipUri = URI.create("jar:" + zipPath.toUri());
-				
-				try (final FileSystem zipFileSystem = FileSystems.newFileSystem(zipUri, zipProperties)) {
-					Files.write(zipPath, content, StandardOpenOption.CREATE);
-					Train.LOGGER.log(Level.INFO, "MQ content received and assembled correctly.");
-		        } catch (IOException exception) {
+		final ContentStreamer contentStreamer = new ContentStreamer(this.contentChunkSize, this.payloadDecoder);
+		final TopicSubscription topicSubscription = this.subscribe(this.mqTopicContent);
+		final Session session = topicSubscription.getSession();
+		if (!this.mqTopicContentResend.isEmpty()) {
+			this.contentResendProducer = session.createProducer(session.createTopic(this.mqTopicContentResend));
+		}
+		if (!this.mqTopicContentAck.isEmpty()) {
+			this.contentAckProducer = session.createProducer(session.createTopic(this.mqTopicContentAck));
+		}
+		topicSubscription.listen(message -> {
+			if (this.contentStore == null) {
+				Train.LOGGER.log(Level.WARNING, "Skipping message for topic {0}, because content storage isn't available.", this.mqTopicContent);
+			} else if (ContentStreamer.isSupported(message)) {
+				try {
+					if (ContentAssembler.isPart(message)) {
+						this.assembleContentPart(message);
+					} else {
+						this.writeContent(contentStreamer, message);
+					}
+				} catch (IOException exception) {
+					this.countError(this.mqTopicContent);
+					throw new UncheckedIOException("Content from MQ can't be assembled", exception);
+				} catch (JMSException exception) {
+					this.countError(this.mqTopicContent);
 					Train.LOGGER.log(Level.SEVERE, "Something went wrong while trying to assemble content from MQ. Reason: {0}", exception.toString());
 				}
 			} else {
-				Train.LOGGER.log(Level.WARNING, Train.ACTIVEMQ_WARNING_MESSAGE, this.mqTopicContent);
+				Train.LOGGER.log(Level.WARNING, Train.CONTENT_WARNING_MESSAGE, this.mqTopicContent);
 			}
-		});
+		}, ContentTransfer.targetSelector(this.trainId, this.trainGroups));
 		Train.LOGGER.log(Level.INFO, Train.ESTABLISHED_LISTENER_MESSAGE, this.mqTopicContent);
+		this.requestMissingContentParts();
+	}
+	
+	/**
+	 * Streams single message archive to a temporary file and commits it as the new content generation.
+	 * Delta archives are applied to the current generation instead.
+	 */
+	private void writeContent(final ContentStreamer contentStreamer, final Message message) throws IOException, JMSException {
+		final Path temporaryPath = this.contentStore.createTemporaryFile();
+		try {
+			try (final FileChannel temporaryChannel = FileChannel.open(temporaryPath, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				final long size = contentStreamer.transfer(message, temporaryChannel);
+				Train.LOGGER.log(Level.INFO, "MQ content received and assembled correctly ({0} bytes).", size);
+			}
+			this.commitContent(
+				temporaryPath, message.getStringProperty(ContentTransfer.TRANSFER_ID),
+				message.getStringProperty(ContentTransfer.CONTENT_VERSION), message.getStringProperty(ContentTransfer.CONTENT_BASE_VERSION)
+			);
+		} finally {
+			Files.deleteIfExists(temporaryPath);
+		}
+	}
+	
+	/**
+	 * Writes a part of multi-part transfer and commits the new content generation once all parts are received.
+	 * When the last part arrives with gaps before it, the missing parts of its transfer are requested again.
+	 */
+	private void assembleContentPart(final Message message) throws IOException, JMSException {
+		final AssembledTransfer assembled = this.contentAssembler.accept(message);
+		if (assembled != null) {
+			Train.LOGGER.log(Level.INFO, "MQ content transfer {0} received and assembled correctly.", assembled.getTransferId());
+			try {
+				this.commitContent(assembled.getArchive(), assembled.getTransferId(), assembled.getVersion(), assembled.getBaseVersion());
+			} finally {
+				Files.deleteIfExists(assembled.getArchive());
+			}
+		} else if (message.getIntProperty(ContentTransfer.PART_INDEX) == message.getIntProperty(ContentTransfer.PART_COUNT) - 1) {
+			this.requestMissingContentParts(message.getStringProperty(ContentTransfer.TRANSFER_ID));
+		}
+	}
+	
+	/**
+	 * Commits the received archive as the new content generation. A delta is first applied to the current generation,
+	 * a delta computed against another version than the current one is discarded and the full archive is pulled over HTTP
+	 * when a pull URL is set. The outcome is acknowledged, the publisher answers a rejected delta with the full archive.
+	 * @param receivedPath the received archive.
+	 * @param transferId id of the transfer, null for a single message archive without one.
+	 * @param version the content version, null when it's unknown.
+	 * @param baseVersion the version a delta archive was computed against, null for a full archive.
+	 */
+	private void commitContent(final Path receivedPath, final String transferId, final String version, final String baseVersion) throws IOException {
+		if (baseVersion == null) {
+			final ContentGeneration generation;
+			try {
+				generation = this.contentStore.commit(receivedPath, version);
+			} catch (IOException exception) {
+				this.acknowledgeContent(transferId, ContentTransfer.STATUS_REJECTED, null);
+				throw exception;
+			}
+			Train.LOGGER.log(Level.INFO, "Content switched to {0}", generation);
+			this.acknowledgeContent(transferId, ContentTransfer.STATUS_COMMITTED, generation.getVersion());
+			return;
+		}
+		
+		final ContentGeneration base = this.contentStore.getCurrent();
+		final Path patchedPath = this.contentStore.createTemporaryFile();
+		try {
+			if (base == null) {
+				throw new IOException("There is no content to apply the delta to.");
+			}
+			final String patchedVersion = this.contentDelta.apply(base.getArchive(), base.getVersion(), receivedPath, patchedPath);
+			Train.LOGGER.log(Level.INFO, "MQ content delta applied, content switched to {0}", this.contentStore.commit(patchedPath, patchedVersion));
+			this.acknowledgeContent(transferId, ContentTransfer.STATUS_COMMITTED, patchedVersion);
+		} catch (IOException exception) {
+			this.countError(this.mqTopicContent);
+			Train.LOGGER.log(Level.WARNING, "Content delta {0}", version + " can't be applied, a full archive is needed. Reason: " + exception.toString());
+			this.acknowledgeContent(transferId, ContentTransfer.STATUS_REJECTED, base == null ? null : base.getVersion());
+			this.requestContentPull();
+		} finally {
+			Files.deleteIfExists(patchedPath);
+		}
+	}
+	
+	/**
+	 * Tells the offboard side the outcome of the received transfer, so that it can follow the rollout.
+	 * @param transferId id of the transfer, null for a single message archive without one.
+	 * @param status the outcome.
+	 * @param version the content version the train has now, null when it's unknown.
+	 */
+	private void acknowledgeContent(final String transferId, final String status, final String version) {
+		if (this.contentAckProducer == null) {
+			return;
+		}
+		try {
+			final Message acknowledgement = this.topicSubscriptions.get(this.mqTopicContent).getSession().createMessage();
+			acknowledgement.setStringProperty(ContentTransfer.TRAIN_ID, this.trainId);
+			if (transferId != null) {
+				acknowledgement.setStringProperty(ContentTransfer.TRANSFER_ID, transferId);
+			}
+			if (version != null) {
+				acknowledgement.setStringProperty(ContentTransfer.CONTENT_VERSION, version);
+			}
+			acknowledgement.setStringProperty(ContentTransfer.STATUS, status);
+			this.contentAckProducer.send(acknowledgement);
+		} catch (JMSException exception) {
+			Train.LOGGER.log(Level.WARNING, "Content transfer can't be acknowledged. Reason: {0}", exception.toString());
+		}
+	}
+	
+	/**
+	 * Asks the offboard side to send again the parts of the incomplete transfers, if there are any.
+	 */
+	private void requestMissingContentParts() {
+		if (this.contentAssembler == null) {
+			return;
+		}
+		for (final String transferId : this.contentAssembler.getTransferIds()) {
+			this.requestMissingContentParts(transferId);
+		}
+	}
+	
+	/**
+	 * Asks the offboard side to send again the parts of the incomplete transfer.
+	 * @param transferId id of the transfer.
+	 */
+	private void requestMissingContentParts(final String transferId) {
+		if (this.contentResendProducer == null || this.contentAssembler == null || !this.contentAssembler.getTransferIds().contains(transferId)) {
+			return;
+		}
+		final String missingParts = ContentTransfer.formatRanges(this.contentAssembler.getMissingParts(transferId));
+		try {
+			final Message request = this.topicSubscriptions.get(this.mqTopicContent).getSession().createMessage();
+			request.setStringProperty(ContentTransfer.TRAIN_ID, this.trainId);
+			request.setStringProperty(ContentTransfer.TRANSFER_ID, transferId);
+			request.setStringProperty(ContentTransfer.MISSING_PARTS, missingParts);
+			this.contentResendProducer.send(request);
+			Train.LOGGER.log(Level.INFO, "Requested missing parts {0}", missingParts + " of transfer " + transferId + ".");
+		} catch (JMSException exception) {
+			Train.LOGGER.log(Level.WARNING, "Missing content parts can't be requested. Reason: {0}", exception.toString());
+		}
 	}
 	
 	/**
-	 * Establishes listener for MQ topic messages for the current session.
+	 * Establishes listener for MQ topic messages in its own session.
+	 * The messages are appended to the {@link #messageStore}. Every {@link #messagesLogSampling}-th message is logged,
+	 * its text is decoded only when the log is written. A message which can't be stored is reported to the subscription,
+	 * which delivers it again.
 	 * @throws JMSException
 	 */
 	private void establishListenerForMQTopicMessages() throws JMSException {
-		final MessageConsumer messageConsumer = this.session.createConsumer(this.session.createTopic(this.mqTopicMessages));
-		messageConsumer.setMessageListener(message -> {
+		final LogSampler logSampler = new LogSampler(this.messagesLogSampling);
+		this.subscribe(this.mqTopicMessages).listen(message -> {
 			if (message instanceof ActiveMQBytesMessage) {
-				final byte[] content = ((ActiveMQBytesMessage) message).getContent().getData();
-				Train.LOGGER.log(Level.INFO, "Message received from MQ topic: {0}", new String(content));
+				final ByteSequence content;
+				try {
+					content = this.payloadDecoder.payload((ActiveMQBytesMessage) message);
+				} catch (IOException | JMSException exception) {
+					this.countError(this.mqTopicMessages);
+					Train.LOGGER.log(Level.SEVERE, "Message from MQ can't be decoded. Reason: {0}", exception.toString());
+					return;
+				}
+				final MessageStore messageStore = this.messageStore;
+				if (messageStore != null) {
+					try {
+						messageStore.append(System.currentTimeMillis(), content.getData(), content.getOffset(), content.getLength());
+					} catch (IOException exception) {
+						this.countError(this.mqTopicMessages);
+						throw new UncheckedIOException("Message from MQ can't be stored", exception);
+					} catch (IllegalArgumentException exception) {
+						this.countError(this.mqTopicMessages);
+						Train.LOGGER.log(Level.SEVERE, "Message from MQ can't be stored. Reason: {0}", exception.toString());
+					}
+				}
+				if (logSampler.sample() && Train.LOGGER.isLoggable(Level.INFO)) {
+					Train.LOGGER.log(Level.INFO, "Message received from MQ topic: {0}", LazyText.utf8(content.getData(), content.getOffset(), content.getLength()));
+				}
 			} else {
 				Train.LOGGER.log(Level.WARNING, Train.ACTIVEMQ_WARNING_MESSAGE, this.mqTopicMessages);
 			}
@@ -244,15 +1566,25 @@ public class Train implements Vehicle, ExceptionListener {
 	}
 	
 	/**
-	 * Establishes listener for MQ topic realtime for the current session.
+	 * Establishes listener for MQ topic realtime in its own session.
+	 * The GTFS-Realtime feeds are decoded into the {@link #realtimeState}.
 	 * @throws JMSException
 	 */
 	private void establishListenerForMQTopicRealtime() throws JMSException {
-		final MessageConsumer messageConsumer = this.session.createConsumer(this.session.createTopic(this.mqTopicRealtime));
-		messageConsumer.setMessageListener(message -> {
-			if (message instanceof ActiveMQBytesMessage) {
-				//final byte[] content = ((ActiveMQBytesMessage) message).getContent().getData();
-				//TODO
+		final GtfsRealtimeDecoder gtfsRealtimeDecoder = new GtfsRealtimeDecoder(this.realtimeState);
+		this.subscribe(this.mqTopicRealtime).listen(message -> {
+			if (message instanceof BytesMessage) {
+				try {
+					if (PayloadCodec.of(message) == PayloadCodec.NONE) {
+						gtfsRealtimeDecoder.decode((BytesMessage) message);
+					} else {
+						final byte[] feed = this.payloadDecoder.decode((BytesMessage) message);
+						gtfsRealtimeDecoder.decode(feed, 0, feed.length);
+					}
+				} catch (IOException | JMSException exception) {
+					this.countError(this.mqTopicRealtime);
+					Train.LOGGER.log(Level.SEVERE, "Realtime feed from MQ can't be decoded. Reason: {0}", exception.toString());
+				}
 			} else {
 				Train.LOGGER.log(Level.WARNING, Train.ACTIVEMQ_WARNING_MESSAGE, this.mqTopicRealtime);
 			}
@@ -261,32 +1593,151 @@ public class Train implements Vehicle, ExceptionListener {
 	}
 	
 	/**
-	 * Establishes listener for MQ topic gtfs for the current session.
+	 * Establishes listener for MQ topic gtfs in its own session.
+	 * The static GTFS feeds are compiled into the memory-mapped {@link #gtfsStore}. A feed which can't be compiled
+	 * is reported to the subscription, which delivers it again.
 	 * @throws JMSException
 	 */
 	private void establishListenerForMQTopicGTFS() throws JMSException {
-		final MessageConsumer messageConsumer = this.session.createConsumer(this.session.createTopic(this.mqTopicGTFS));
-		messageConsumer.setMessageListener(message -> {
-			if (message instanceof ActiveMQBytesMessage) {
-				//final byte[] content = ((ActiveMQBytesMessage) message).getContent().getData();
-				//TODO
+		final ContentStreamer contentStreamer = new ContentStreamer(this.contentChunkSize, this.payloadDecoder);
+		final GtfsCompiler gtfsCompiler = new GtfsCompiler();
+		this.subscribe(this.mqTopicGTFS).listen(message -> {
+			if (ContentStreamer.isSupported(message)) {
+				try {
+					this.compileGtfsFeed(contentStreamer, gtfsCompiler, message);
+				} catch (IOException exception) {
+					this.countError(this.mqTopicGTFS);
+					throw new UncheckedIOException("GTFS feed from MQ can't be compiled", exception);
+				} catch (JMSException exception) {
+					this.countError(this.mqTopicGTFS);
+					Train.LOGGER.log(Level.SEVERE, "GTFS feed from MQ can't be compiled. Reason: {0}", exception.toString());
+				}
 			} else {
-				Train.LOGGER.log(Level.WARNING, Train.ACTIVEMQ_WARNING_MESSAGE, this.mqTopicGTFS);
+				Train.LOGGER.log(Level.WARNING, Train.CONTENT_WARNING_MESSAGE, this.mqTopicGTFS);
 			}
 		});
 		Train.LOGGER.log(Level.INFO, Train.ESTABLISHED_LISTENER_MESSAGE, this.mqTopicGTFS);
 	}
 	
 	/**
-	 * Closes the session and the connection.
+	 * Streams the feed archive to a temporary file, compiles it and switches to the compiled feed.
+	 * The previous feed stays current when the new one can't be compiled.
+	 */
+	private void compileGtfsFeed(final ContentStreamer contentStreamer, final GtfsCompiler gtfsCompiler, final Message message) throws IOException, JMSException {
+		final Path gtfsDirectory = Files.createDirectories(Paths.get(Train.WORK_DIRECTORY, "gtfs"));
+		final Path temporaryPath = gtfsDirectory.resolve(Train.GTFS_FEED + ".tmp");
+		try {
+			try (final FileChannel temporaryChannel = FileChannel.open(temporaryPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				final long size = contentStreamer.transfer(message, temporaryChannel);
+				Train.LOGGER.log(Level.INFO, "MQ GTFS feed received ({0} bytes).", size);
+			}
+			this.gtfsStore = gtfsCompiler.compile(temporaryPath, message.getStringProperty(ContentTransfer.CONTENT_VERSION), gtfsDirectory.resolve(Train.GTFS_STORE));
+			Files.move(temporaryPath, gtfsDirectory.resolve(Train.GTFS_FEED), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			Train.LOGGER.log(Level.INFO, "GTFS feed switched to {0}", this.gtfsStore);
+		} finally {
+			Files.deleteIfExists(temporaryPath);
+		}
+	}
+	
+	/**
+	 * Counts the message of the topic which couldn't be processed.
+	 */
+	private void countError(final String topicName) {
+		this.metrics.counter("topic." + topicName + ".errors").increment();
+	}
+	
+	/**
+	 * Starts publishing the status heartbeats every {@link #statusInterval}, when the status topic is configured.
+	 * The heartbeats are non-persistent and expire after three intervals.
+	 * @throws JMSException
+	 */
+	private void establishStatusHeartbeat() throws JMSException {
+		if (this.mqTopicStatus.isEmpty()) {
+			return;
+		}
+		this.statusSession = this.connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+		this.statusProducer = this.statusSession.createProducer(this.statusSession.createTopic(this.mqTopicStatus));
+		this.statusProducer.setDeliveryMode(DeliveryMode.NON_PERSISTENT);
+		this.statusProducer.setTimeToLive(TimeUnit.SECONDS.toMillis(this.statusInterval * 3L));
+		this.statusTimer = this.reconnectScheduler.scheduleWithFixedDelay(this::sendStatusHeartbeat, 0L, this.statusInterval, TimeUnit.SECONDS);
+		Train.LOGGER.log(Level.INFO, "Publishing status heartbeats to {0}", this.mqTopicStatus + " every " + this.statusInterval + " s.");
+	}
+	
+	/**
+	 * Stops the status heartbeats and closes their session.
+	 */
+	private void destroyStatusHeartbeat() {
+		if (this.statusTimer != null) {
+			this.statusTimer.cancel(false);
+			this.statusTimer = null;
+		}
+		try {
+			if (this.statusSession != null) {
+				this.statusSession.close();
+			}
+		} catch (JMSException exception) {
+			Train.LOGGER.log(Level.WARNING, "Status session can't be closed. Reason: {0}", exception.toString());
+		} finally {
+			this.statusSession = null;
+			this.statusProducer = null;
+		}
+	}
+	
+	/**
+	 * Publishes the status of the train (see {@link TrainStatus}). Runs on the reconnect thread, the heartbeat is skipped
+	 * while the connection is interrupted.
+	 */
+	private synchronized void sendStatusHeartbeat() {
+		if (this.statusProducer == null || this.connectionState != ConnectionState.CONNECTED) {
+			return;
+		}
+		try {
+			final Message heartbeat = this.statusSession.createMessage();
+			heartbeat.setStringProperty(TrainStatus.TRAIN_ID, this.trainId);
+			heartbeat.setStringProperty(TrainStatus.TRAIN_GROUPS, String.join(",", this.trainGroups));
+			heartbeat.setLongProperty(TrainStatus.INTERVAL, TimeUnit.SECONDS.toMillis(this.statusInterval));
+			
+			final ContentStore contentStore = this.contentStore;
+			final ContentGeneration generation = contentStore == null ? null : contentStore.getCurrent();
+			heartbeat.setLongProperty(TrainStatus.CONTENT_GENERATION, generation == null ? 0L : generation.getNumber());
+			if (generation != null && !generation.getVersion().isEmpty()) {
+				heartbeat.setStringProperty(TrainStatus.CONTENT_VERSION, generation.getVersion());
+			}
+			final GtfsStore gtfsStore = this.gtfsStore;
+			if (gtfsStore != null && gtfsStore.getVersion() != null) {
+				heartbeat.setStringProperty(TrainStatus.GTFS_VERSION, gtfsStore.getVersion());
+			}
+			
+			final SequenceTracker realtimeTracker = this.sequenceTrackers.get(this.mqTopicRealtime);
+			heartbeat.setLongProperty(TrainStatus.REALTIME_EPOCH, realtimeTracker == null ? 0L : realtimeTracker.getEpoch());
+			heartbeat.setLongProperty(TrainStatus.REALTIME_SEQUENCE, realtimeTracker == null ? 0L : realtimeTracker.getSequence());
+			final long feedTimestamp = this.realtimeState.getFeedTimestamp();
+			heartbeat.setLongProperty(
+				TrainStatus.REALTIME_LAG, feedTimestamp == RealtimeState.NOT_SET ? -1L : System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(feedTimestamp)
+			);
+			
+			heartbeat.setLongProperty(TrainStatus.CONTENT_ERRORS, this.metrics.counter("topic." + this.mqTopicContent + ".errors").get());
+			heartbeat.setLongProperty(TrainStatus.MESSAGES_ERRORS, this.metrics.counter("topic." + this.mqTopicMessages + ".errors").get());
+			heartbeat.setLongProperty(TrainStatus.REALTIME_ERRORS, this.metrics.counter("topic." + this.mqTopicRealtime + ".errors").get());
+			heartbeat.setLongProperty(TrainStatus.GTFS_ERRORS, this.metrics.counter("topic." + this.mqTopicGTFS + ".errors").get());
+			heartbeat.setLongProperty(TrainStatus.RECONNECTS, this.reconnects.get());
+			this.statusProducer.send(heartbeat);
+		} catch (JMSException exception) {
+			Train.LOGGER.log(Level.WARNING, "Status heartbeat can't be sent. Reason: {0}", exception.toString());
+		}
+	}
+	
+	/**
+	 * Closes the topic sessions and the connection.
 	 * @throws JMSException
 	 */
 	private void destroyMQConnection() {
+		this.destroyStatusHeartbeat();
 		try {
-			if (this.connectionAvailable) {
+			if (this.connection != null || !this.topicSubscriptions.isEmpty()) {
 				Train.LOGGER.log(Level.INFO, "Trying to close MQ connection.");
-				if (this.session != null) {
-					this.session.close();
+				for (final TopicSubscription topicSubscription : this.topicSubscriptions.values()) {
+					topicSubscription.close();
 				}
 				if (this.connection != null) {
 					this.connection.close();
@@ -296,21 +1747,21 @@ public class Train implements Vehicle, ExceptionListener {
 		} catch (JMSException exception) {
 			Train.LOGGER.log(Level.SEVERE, "Error occurred while trying to destroy MQ connection. Reason: {0}", exception.toString());
 		} finally {
-			this.session = null;
+			this.contentResendProducer = null;
+			this.contentAckProducer = null;
+			this.topicSubscriptions.clear();
 			this.connection = null;
-			this.connectionAvailable = false;
 		}
 	}
 	
 	/**
-	 * Recovers the connection when it's disrupted.
+	 * Schedules the recovery of the disrupted connection. The ActiveMQ transport thread calling it returns at once,
+	 * the connection is closed and established again on the reconnect thread.
 	 */
 	@Override
-	public synchronized void onException(final JMSException exception) {
+	public void onException(final JMSException exception) {
 		Train.LOGGER.log(Level.SEVERE, "Connection to MQ has been disrupted. Reason: {0}", exception.toString());
-		Train.LOGGER.log(Level.INFO, "Trying to reconnect...");
-		this.destroyMQConnection();
-		this.initializeMQProvisioning();
+		this.scheduleReconnect();
 	}
 	
 }
@@ -0,0 +1,81 @@
+package com.data.provisioner.train.impl;
+
+/**
+ * Message properties of the status heartbeat the train publishes to the status topic.
+ * <p>
+ * A heartbeat is an empty message carrying the whole status of the train in its properties: the applied content
+ * and GTFS versions, the position in the realtime topic and the error counts since the start. It's sent every
+ * status interval instead of on every change, non-persistent and expiring after a few intervals, so a train
+ * out of coverage doesn't leave a backlog on the broker. The offboard side detects a silent train by the missing
+ * heartbeats.
+ * <p>
+ * The same names are used by the offboard fleet state table, so they must be kept in sync.
+ */
+final class TrainStatus {
+	
+	/**
+	 * Id of the train (String).
+	 */
+	static final String TRAIN_ID = "trainId";
+	
+	/**
+	 * Groups of the train, separated by commas (String).
+	 */
+	static final String TRAIN_GROUPS = "trainGroups";
+	
+	/**
+	 * Time (in milliseconds) between the heartbeats of the train (long).
+	 */
+	static final String INTERVAL = "statusInterval";
+	
+	/**
+	 * Number of the current content generation, 0 when there is none (long).
+	 */
+	static final String CONTENT_GENERATION = "contentGeneration";
+	
+	/**
+	 * Version of the current content (String). Missing when it's unknown.
+	 */
+	static final String CONTENT_VERSION = "contentVersion";
+	
+	/**
+	 * Version of the current GTFS feed (String). Missing when there is no feed or its version is unknown.
+	 */
+	static final String GTFS_VERSION = "gtfsVersion";
+	
+	/**
+	 * Publisher epoch of the last realtime message received (long).
+	 */
+	static final String REALTIME_EPOCH = "realtimeEpoch";
+	
+	/**
+	 * Sequence number of the last realtime message received, 0 when none was received (long).
+	 */
+	static final String REALTIME_SEQUENCE = "realtimeSequence";
+	
+	/**
+	 * Age (in milliseconds) of the applied realtime feed, -1 when no feed was applied (long).
+	 */
+	static final String REALTIME_LAG = "realtimeLagMillis";
+	
+	/**
+	 * Number of the messages of the content, messages, realtime and GTFS topics which couldn't be processed (long).
+	 */
+	static final String CONTENT_ERRORS = "contentErrors";
+	
+	static final String MESSAGES_ERRORS = "messagesErrors";
+	
+	static final String REALTIME_ERRORS = "realtimeErrors";
+	
+	static final String GTFS_ERRORS = "gtfsErrors";
+	
+	/**
+	 * Number of the connection attempts after a failure (long).
+	 */
+	static final String RECONNECTS = "reconnects";
+	
+	private TrainStatus() {
+		
+	}
+	
+}
@@ -0,0 +1,122 @@
+package com.data.provisioner.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Growable byte sequence used for identifiers and texts decoded from feeds.
+ * <p>
+ * The same instance is reused for every decoded value, so steady-state decoding doesn't allocate. It's also used
+ * as a map key - a key put into a map is a {@link #copy()} and must never be modified afterwards.
+ */
+public final class ByteString {
+	
+	private byte[] bytes;
+	
+	private int length = 0;
+	
+	private int hash = 1;
+	
+	public ByteString() {
+		this(16);
+	}
+	
+	private ByteString(final int capacity) {
+		this.bytes = new byte[capacity];
+	}
+	
+	/**
+	 * Creates byte string with the UTF-8 bytes of the value.
+	 * @param value the value.
+	 * @return the byte string.
+	 */
+	public static ByteString of(final String value) {
+		final byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+		final ByteString byteString = new ByteString(encoded.length);
+		byteString.set(encoded, 0, encoded.length);
+		return byteString;
+	}
+	
+	/**
+	 * Replaces the content, growing the backing array only when it's too small.
+	 */
+	public void set(final byte[] source, final int offset, final int count) {
+		if (count > this.bytes.length) {
+			this.bytes = new byte[Math.max(count, this.bytes.length * 2)];
+		}
+		System.arraycopy(source, offset, this.bytes, 0, count);
+		this.length = count;
+		int computedHash = 1;
+		for (int index = 0; index < count; index++) {
+			computedHash = 31 * computedHash + source[offset + index];
+		}
+		this.hash = computedHash;
+	}
+	
+	public void set(final ByteString source) {
+		this.set(source.bytes, 0, source.length);
+	}
+	
+	public void clear() {
+		this.length = 0;
+		this.hash = 1;
+	}
+	
+	public boolean isEmpty() {
+		return this.length == 0;
+	}
+	
+	public int length() {
+		return this.length;
+	}
+	
+	/**
+	 * @return a copy that owns its bytes.
+	 */
+	public ByteString copy() {
+		final ByteString copy = new ByteString(Math.max(1, this.length));
+		copy.set(this.bytes, 0, this.length);
+		return copy;
+	}
+	
+	@Override
+	public int hashCode() {
+		return this.hash;
+	}
+	
+	@Override
+	public boolean equals(final Object other) {
+		if (this == other) {
+			return true;
+		}
+		if (!(other instanceof ByteString)) {
+			return false;
+		}
+		final ByteString that = (ByteString) other;
+		if (this.length != that.length || this.hash != that.hash) {
+			return false;
+		}
+		for (int index = 0; index < this.length; index++) {
+			if (this.bytes[index] != that.bytes[index]) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * @return the content decoded as UTF-8. Allocates, so it's meant for readers of the state, not for decoding.
+	 */
+	@Override
+	public String toString() {
+		return new String(this.bytes, 0, this.length, StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * @return copy of the content.
+	 */
+	public byte[] toByteArray() {
+		return Arrays.copyOf(this.bytes, this.length);
+	}
+	
+}
@@ -3,49 +3,80 @@ package com.data.provisioner.util;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
 import java.nio.file.FileSystems;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardWatchEventKinds;
 import java.nio.file.WatchEvent;
-import java.nio.file.WatchEvent.Kind;
 import java.nio.file.WatchKey;
 import java.nio.file.WatchService;
 import java.util.Objects;
 import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import com.data.provisioner.vehicle.api.Vehicle;
 
 public class PropertyUtil {
 	
+	/**
+	 * The logger.
+	 */
+	private static final Logger LOGGER = Logger.getLogger(PropertyUtil.class.getName());
+	
 	private static WatchService watchService = null;
 	
+	/**
+	 * Time (in milliseconds) without further events after which a change of the watched file is reported.
+	 * Editors usually write a file in several steps, each firing an event.
+	 */
+	private static final long DEBOUNCE_TIMEOUT = 500;
+	
 	private PropertyUtil() {
 		
 	}
 	
-	public static void listenForChanges(final String directoryPath, final Vehicle vehicle) throws IOException, InterruptedException {
+	/**
+	 * Watches the configuration file and reloads the vehicle configuration once per save.
+	 * Events of the other files in the directory are ignored. Blocks until the watching is stopped, a failing reload
+	 * is logged and the watching goes on.
+	 * @param configurationPath the watched configuration file.
+	 * @param vehicle the vehicle to reload.
+	 */
+	public static void listenForChanges(final String configurationPath, final Vehicle vehicle) throws IOException, InterruptedException {
+ 		final Path configuration = Paths.get(configurationPath).toAbsolutePath();
  		try {
  			PropertyUtil.watchService = FileSystems.getDefault().newWatchService();
- 			Paths.get(directoryPath).register(
+ 			configuration.getParent().register(
  					PropertyUtil.watchService, 
 				StandardWatchEventKinds.ENTRY_CREATE,
-				StandardWatchEventKinds.ENTRY_DELETE,
 				StandardWatchEventKinds.ENTRY_MODIFY
  			);
  			
  			WatchKey key;
  			while ((key = PropertyUtil.watchService.take()) != null) {
- 				for (final WatchEvent<?> event : key.pollEvents()) {
- 					final Kind eventKind = event.kind();
- 					if (eventKind == StandardWatchEventKinds.ENTRY_MODIFY) {
- 						vehicle.restart("Configuration values were altered. Applying the new ones.");
+ 				boolean changed = false;
+ 				while (key != null) {
+ 					for (final WatchEvent<?> event : key.pollEvents()) {
+ 						changed |= configuration.getFileName().equals(event.context());
+ 					}
+ 					key.reset();
+ 					key = PropertyUtil.watchService.poll(PropertyUtil.DEBOUNCE_TIMEOUT, TimeUnit.MILLISECONDS);
+ 				}
+ 				if (changed) {
+ 					try {
+ 						vehicle.reload("Configuration values were altered. Applying the new ones.");
+ 					} catch (RuntimeException exception) {
+ 						PropertyUtil.LOGGER.log(Level.SEVERE, "Vehicle configuration can't be reloaded. Reason: {0}", exception.toString());
  					}
-//	               System.out.println(
-//	                 "Event kind:" + event.kind() 
-//	                   + ". File affected: " + event.context() + ".");
  				}
- 				key.reset();
  			}
+ 		} catch (ClosedWatchServiceException exception) {
+ 			// stopped by stopListeningForChanges
  		} finally {
  			PropertyUtil.stopListeningForChanges();
  		}
@@ -66,5 +97,23 @@ public class PropertyUtil {
 		}
 		return properties;
 	}
+	
+	/**
+	 * @return the keys which were added, removed or have different value in the new properties.
+	 */
+	public static Set<String> changedKeys(final Properties oldProperties, final Properties newProperties) {
+		final Set<String> changedKeys = new TreeSet<>();
+		for (final String key : oldProperties.stringPropertyNames()) {
+			if (!Objects.equals(oldProperties.getProperty(key), newProperties.getProperty(key))) {
+				changedKeys.add(key);
+			}
+		}
+		for (final String key : newProperties.stringPropertyNames()) {
+			if (oldProperties.getProperty(key) == null) {
+				changedKeys.add(key);
+			}
+		}
+		return changedKeys;
+	}
 
 }
@@ -7,5 +7,10 @@ public interface Vehicle {
 	public void stop();
 	
 	public void restart(final String reason);
+	
+	/**
+	 * Applies the changed configuration, restarting only what the changes affect.
+	 */
+	public void reload(final String reason);
 
 }
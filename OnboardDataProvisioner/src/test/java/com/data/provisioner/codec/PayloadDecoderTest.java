@@ -0,0 +1,124 @@
+package com.data.provisioner.codec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import javax.jms.JMSException;
+import javax.jms.MessageFormatException;
+
+import org.apache.activemq.command.ActiveMQBytesMessage;
+
+import com.data.provisioner.content.ContentStreamer;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for {@link PayloadDecoder}.
+ */
+public class PayloadDecoderTest extends TestCase {
+	
+	private static final byte[] DICTIONARY = "{\"line\":\"\",\"stop\":\"Central Station\",\"text\":\"Next stop: \"}".getBytes(StandardCharsets.UTF_8);
+	
+	private static byte[] deflate(final byte[] payload, final byte[] dictionary) {
+		final Deflater deflater = new Deflater();
+		if (dictionary != null) {
+			deflater.setDictionary(dictionary);
+		}
+		deflater.setInput(payload);
+		deflater.finish();
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[512];
+		while (!deflater.finished()) {
+			output.write(buffer, 0, deflater.deflate(buffer));
+		}
+		deflater.end();
+		return output.toByteArray();
+	}
+	
+	private static ActiveMQBytesMessage message(final byte[] body, final String codec, final int decodedSize) throws JMSException {
+		final ActiveMQBytesMessage message = new ActiveMQBytesMessage();
+		message.writeBytes(body);
+		message.reset();
+		if (codec != null) {
+			message.setStringProperty(PayloadCodec.CODEC, codec);
+			message.setIntProperty(PayloadCodec.DECODED_SIZE, decodedSize);
+		}
+		return message;
+	}
+	
+	public void testPlainPayloadIsReturnedAsItIs() throws Exception {
+		final byte[] payload = "Next stop: Central Station".getBytes(StandardCharsets.UTF_8);
+		assertTrue(Arrays.equals(payload, new PayloadDecoder().payload(PayloadDecoderTest.message(payload, null, 0)).getData()));
+	}
+	
+	public void testDeflatedPayloadIsDecoded() throws Exception {
+		final byte[] payload = "{\"line\":\"7\",\"stop\":\"Central Station\",\"text\":\"Next stop: Central Station\"}".getBytes(StandardCharsets.UTF_8);
+		final PayloadDecoder payloadDecoder = new PayloadDecoder();
+		for (int round = 0; round < 3; round++) {
+			final byte[] decoded = payloadDecoder.decode(PayloadDecoderTest.message(PayloadDecoderTest.deflate(payload, null), "deflate", payload.length));
+			assertTrue(Arrays.equals(payload, decoded));
+		}
+	}
+	
+	public void testDictionaryIsPickedByItsId() throws Exception {
+		final byte[] payload = "{\"line\":\"7\",\"stop\":\"Central Station\",\"text\":\"Next stop: Central Station\"}".getBytes(StandardCharsets.UTF_8);
+		final byte[] encoded = PayloadDecoderTest.deflate(payload, PayloadDecoderTest.DICTIONARY);
+		assertTrue(encoded.length < PayloadDecoderTest.deflate(payload, null).length);
+		
+		final PayloadDecoder payloadDecoder = new PayloadDecoder();
+		try {
+			payloadDecoder.decode(encoded, 0, encoded.length, payload.length);
+			fail();
+		} catch (IOException expected) {
+			assertTrue(expected.getMessage().contains("dictionary"));
+		}
+		payloadDecoder.addDictionary(PayloadDecoderTest.DICTIONARY);
+		assertTrue(Arrays.equals(payload, payloadDecoder.decode(encoded, 0, encoded.length, payload.length)));
+	}
+	
+	public void testPayloadMustMatchItsDeclaredSize() throws Exception {
+		final byte[] payload = new byte[1000];
+		final byte[] encoded = PayloadDecoderTest.deflate(payload, null);
+		final PayloadDecoder payloadDecoder = new PayloadDecoder();
+		for (final int declaredSize : new int[] {999, 1001}) {
+			try {
+				payloadDecoder.decode(encoded, 0, encoded.length, declaredSize);
+				fail();
+			} catch (IOException expected) {
+				
+			}
+		}
+		try {
+			payloadDecoder.decode(encoded, 0, encoded.length / 2, payload.length);
+			fail();
+		} catch (IOException expected) {
+			
+		}
+		try {
+			payloadDecoder.decode(PayloadDecoderTest.message(encoded, "zstd", payload.length));
+			fail();
+		} catch (MessageFormatException expected) {
+			
+		}
+	}
+	
+	public void testContentIsDecodedWhileStreamed() throws Exception {
+		final byte[] content = new byte[300 * 1024];
+		final Random random = new Random(3L);
+		for (int index = 0; index < content.length; index++) {
+			content[index] = (byte) (random.nextInt(16) + 'a');
+		}
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		final long written = new ContentStreamer(4096, new PayloadDecoder()).transfer(
+			PayloadDecoderTest.message(PayloadDecoderTest.deflate(content, null), "deflate", content.length), Channels.newChannel(output)
+		);
+		assertEquals(content.length, written);
+		assertTrue(Arrays.equals(content, output.toByteArray()));
+	}
+	
+}
@@ -0,0 +1,185 @@
+package com.data.provisioner.content;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.zip.CRC32;
+
+import javax.jms.JMSException;
+
+import org.apache.activemq.command.ActiveMQBytesMessage;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for {@link ContentAssembler}.
+ */
+public class ContentAssemblerTest extends TestCase {
+	
+	private static final int PART_SIZE = 1000;
+	
+	private Path directory;
+	
+	private byte[] archive;
+	
+	@Override
+	protected void setUp() throws IOException {
+		this.directory = Files.createTempDirectory("assembler");
+		this.archive = new byte[PART_SIZE * 4 + 123];
+		for (int i = 0; i < this.archive.length; i++) {
+			this.archive[i] = (byte) (i * 31);
+		}
+	}
+	
+	@Override
+	protected void tearDown() throws IOException {
+		Files.walk(this.directory).sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+	}
+	
+	public void testAssemblesPartsReceivedOutOfOrder() throws Exception {
+		try (final ContentAssembler assembler = new ContentAssembler(this.directory, "content.zip", new ContentStreamer(64))) {
+			for (final int partIndex : new int[] {3, 0, 4, 2}) {
+				assertNull(assembler.accept(this.part("t1", partIndex)));
+			}
+			final Path assembled = assembler.accept(this.part("t1", 1)).getArchive();
+			assertNotNull(assembled);
+			assertTrue(Arrays.equals(this.archive, Files.readAllBytes(assembled)));
+			assertTrue(assembler.getTransferIds().isEmpty());
+		}
+	}
+	
+	public void testResumesTransferAfterReopening() throws Exception {
+		try (final ContentAssembler assembler = new ContentAssembler(this.directory, "content.zip", new ContentStreamer())) {
+			assembler.accept(this.part("t1", 0));
+			assembler.accept(this.part("t1", 2));
+		}
+		try (final ContentAssembler assembler = new ContentAssembler(this.directory, "content.zip", new ContentStreamer())) {
+			assertEquals(Collections.singleton("t1"), assembler.getTransferIds());
+			assertEquals("1,3-4", ContentTransfer.formatRanges(assembler.getMissingParts("t1")));
+			assembler.accept(this.part("t1", 1));
+			assembler.accept(this.part("t1", 3));
+			final Path assembled = assembler.accept(this.part("t1", 4)).getArchive();
+			assertTrue(Arrays.equals(this.archive, Files.readAllBytes(assembled)));
+		}
+	}
+	
+	public void testKeepsVersionsOfFirstPart() throws Exception {
+		try (final ContentAssembler assembler = new ContentAssembler(this.directory, "content.zip", new ContentStreamer())) {
+			assertNull(assembler.accept(this.part("t1", 0, "8", "7")));
+		}
+		try (final ContentAssembler assembler = new ContentAssembler(this.directory, "content.zip", new ContentStreamer())) {
+			for (final int partIndex : new int[] {1, 2, 3}) {
+				assertNull(assembler.accept(this.part("t1", partIndex)));
+			}
+			final AssembledTransfer assembled = assembler.accept(this.part("t1", 4));
+			assertEquals("t1", assembled.getTransferId());
+			assertEquals("8", assembled.getVersion());
+			assertEquals("7", assembled.getBaseVersion());
+		}
+	}
+	
+	public void testCorruptedPartStaysMissing() throws Exception {
+		try (final ContentAssembler assembler = new ContentAssembler(this.directory, "content.zip", new ContentStreamer())) {
+			final ActiveMQBytesMessage corrupted = this.part("t1", 2);
+			corrupted.setLongProperty(ContentTransfer.PART_CHECKSUM, 0L);
+			assertNull(assembler.accept(corrupted));
+			assertTrue(assembler.getMissingParts("t1").get(2));
+		}
+	}
+	
+	public void testOversizedPartDoesNotOverwriteNextPart() throws Exception {
+		try (final ContentAssembler assembler = new ContentAssembler(this.directory, "content.zip", new ContentStreamer(64))) {
+			assertNull(assembler.accept(this.part("t1", 2)));
+			final ActiveMQBytesMessage oversized = new ActiveMQBytesMessage();
+			oversized.writeBytes(new byte[PART_SIZE * 2]);
+			oversized.setStringProperty(ContentTransfer.TRANSFER_ID, "t1");
+			oversized.setIntProperty(ContentTransfer.PART_INDEX, 1);
+			oversized.setIntProperty(ContentTransfer.PART_COUNT, 5);
+			oversized.setIntProperty(ContentTransfer.PART_SIZE, PART_SIZE);
+			oversized.setLongProperty(ContentTransfer.TOTAL_SIZE, this.archive.length);
+			oversized.setLongProperty(ContentTransfer.PART_CHECKSUM, 0L);
+			oversized.reset();
+			assertNull(assembler.accept(oversized));
+			assertTrue(assembler.getMissingParts("t1").get(1));
+			for (final int partIndex : new int[] {0, 1, 3}) {
+				assertNull(assembler.accept(this.part("t1", partIndex)));
+			}
+			assertTrue(Arrays.equals(this.archive, Files.readAllBytes(assembler.accept(this.part("t1", 4)).getArchive())));
+		}
+	}
+	
+	public void testAssemblesInterleavedTransfers() throws Exception {
+		try (final ContentAssembler assembler = new ContentAssembler(this.directory, "content.zip", new ContentStreamer())) {
+			for (final int partIndex : new int[] {0, 1, 2}) {
+				assertNull(assembler.accept(this.part("t1", partIndex)));
+				assertNull(assembler.accept(this.part("t2", partIndex)));
+			}
+			assertEquals(Arrays.asList("t1", "t2"), new ArrayList<>(assembler.getTransferIds()));
+			assertNull(assembler.accept(this.part("t1", 3)));
+			assertTrue(Arrays.equals(this.archive, Files.readAllBytes(assembler.accept(this.part("t1", 4)).getArchive())));
+			assertEquals("3-4", ContentTransfer.formatRanges(assembler.getMissingParts("t2")));
+		}
+	}
+	
+	public void testCompletedTransferAbandonsOlderOnes() throws Exception {
+		try (final ContentAssembler assembler = new ContentAssembler(this.directory, "content.zip", new ContentStreamer())) {
+			assertNull(assembler.accept(this.part("t1", 0)));
+			for (final int partIndex : new int[] {0, 1, 2, 3}) {
+				assertNull(assembler.accept(this.part("t2", partIndex)));
+			}
+			assertNotNull(assembler.accept(this.part("t2", 4)));
+			assertTrue(assembler.getTransferIds().isEmpty());
+		}
+	}
+	
+	public void testRangesRoundTrip() {
+		final BitSet parts = ContentTransfer.parseRanges("0-3,7,9-12");
+		assertEquals(9, parts.cardinality());
+		assertEquals("0-3,7,9-12", ContentTransfer.formatRanges(parts));
+	}
+	
+	public void testTargetSelectorEscapesTargets() {
+		assertEquals(
+			"contentTargets IS NULL OR contentTargets LIKE '%,Northern-001,%' ESCAPE '\\'",
+			ContentTransfer.targetSelector("Northern-001", Arrays.<String>asList())
+		);
+		assertEquals(
+			"contentTargets IS NULL OR contentTargets LIKE '%,O''Hare\\_1\\%,%' ESCAPE '\\' OR contentTargets LIKE '%,@north,%' ESCAPE '\\'",
+			ContentTransfer.targetSelector("O'Hare_1%", Arrays.asList("north"))
+		);
+	}
+	
+	private ActiveMQBytesMessage part(final String transferId, final int partIndex) throws JMSException {
+		return this.part(transferId, partIndex, null, null);
+	}
+	
+	private ActiveMQBytesMessage part(final String transferId, final int partIndex, final String version, final String baseVersion) throws JMSException {
+		final int offset = partIndex * PART_SIZE;
+		final int length = Math.min(PART_SIZE, this.archive.length - offset);
+		final CRC32 checksum = new CRC32();
+		checksum.update(this.archive, offset, length);
+		
+		final ActiveMQBytesMessage message = new ActiveMQBytesMessage();
+		message.writeBytes(this.archive, offset, length);
+		message.setStringProperty(ContentTransfer.TRANSFER_ID, transferId);
+		message.setIntProperty(ContentTransfer.PART_INDEX, partIndex);
+		message.setIntProperty(ContentTransfer.PART_COUNT, 5);
+		message.setIntProperty(ContentTransfer.PART_SIZE, PART_SIZE);
+		message.setLongProperty(ContentTransfer.TOTAL_SIZE, this.archive.length);
+		message.setLongProperty(ContentTransfer.PART_CHECKSUM, checksum.getValue());
+		if (version != null) {
+			message.setStringProperty(ContentTransfer.CONTENT_VERSION, version);
+		}
+		if (baseVersion != null) {
+			message.setStringProperty(ContentTransfer.CONTENT_BASE_VERSION, baseVersion);
+		}
+		message.reset();
+		return message;
+	}
+	
+}
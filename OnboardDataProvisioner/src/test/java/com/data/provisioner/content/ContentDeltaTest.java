@@ -0,0 +1,77 @@
+package com.data.provisioner.content;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for {@link ContentDelta}.
+ */
+public class ContentDeltaTest extends TestCase {
+	
+	private Path directory;
+	
+	@Override
+	protected void setUp() throws IOException {
+		this.directory = Files.createTempDirectory("delta");
+	}
+	
+	@Override
+	protected void tearDown() throws IOException {
+		Files.walk(this.directory).sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+	}
+	
+	public void testAppliesChangedAddedAndRemovedEntries() throws IOException {
+		final Path base = this.zip("base.zip", "a.txt", "a1", "b.txt", "b1", "c.txt", "c1");
+		final Path delta = this.zip("delta.zip", "b.txt", "b2", "d.txt", "d1",
+			ContentDelta.REMOVED_ENTRY, "c.txt\n", ContentDelta.MANIFEST_ENTRY, "baseVersion=1\nversion=2\n");
+		final Path target = this.directory.resolve("target.zip");
+		
+		assertEquals("2", new ContentDelta(1024).apply(base, "1", delta, target));
+		try (final ZipFile zipFile = new ZipFile(target.toFile())) {
+			final List<String> names = new ArrayList<>();
+			final Enumeration<? extends ZipEntry> entries = zipFile.entries();
+			while (entries.hasMoreElements()) {
+				names.add(entries.nextElement().getName());
+			}
+			assertEquals("[a.txt, b.txt, d.txt]", names.toString());
+			final byte[] b = new byte[2];
+			zipFile.getInputStream(zipFile.getEntry("b.txt")).read(b);
+			assertEquals("b2", new String(b, StandardCharsets.UTF_8));
+		}
+	}
+	
+	public void testRejectsDeltaForAnotherVersion() throws IOException {
+		final Path base = this.zip("base.zip", "a.txt", "a1");
+		final Path delta = this.zip("delta.zip", ContentDelta.MANIFEST_ENTRY, "baseVersion=1\nversion=2\n");
+		try {
+			new ContentDelta(1024).apply(base, "7", delta, this.directory.resolve("target.zip"));
+			fail("Delta for another version was applied.");
+		} catch (IOException expected) {
+			assertTrue(expected.getMessage().contains("version 1"));
+		}
+	}
+	
+	private Path zip(final String name, final String... entries) throws IOException {
+		final Path path = this.directory.resolve(name);
+		try (final ZipOutputStream output = new ZipOutputStream(Files.newOutputStream(path))) {
+			for (int i = 0; i < entries.length; i += 2) {
+				output.putNextEntry(new ZipEntry(entries[i]));
+				output.write(entries[i + 1].getBytes(StandardCharsets.UTF_8));
+				output.closeEntry();
+			}
+		}
+		return path;
+	}
+	
+}
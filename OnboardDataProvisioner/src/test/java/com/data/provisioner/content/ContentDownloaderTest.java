@@ -0,0 +1,112 @@
+package com.data.provisioner.content;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for {@link ContentDownloader}.
+ */
+public class ContentDownloaderTest extends TestCase {
+	
+	private static final String ENTITY_TAG = "\"transfer-1\"";
+	
+	private Path directory;
+	
+	private byte[] archive;
+	
+	private HttpServer server;
+	
+	private final List<String> requests = new CopyOnWriteArrayList<>();
+	
+	@Override
+	protected void setUp() throws IOException {
+		this.directory = Files.createTempDirectory("downloader");
+		final ByteArrayOutputStream archive = new ByteArrayOutputStream();
+		try (final ZipOutputStream output = new ZipOutputStream(archive)) {
+			output.putNextEntry(new ZipEntry("index.html"));
+			output.write("<html><body>Welcome aboard</body></html>".getBytes(StandardCharsets.UTF_8));
+			output.closeEntry();
+		}
+		this.archive = archive.toByteArray();
+		this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		this.server.createContext("/download/current", this::serve);
+		this.server.start();
+	}
+	
+	@Override
+	protected void tearDown() throws IOException {
+		this.server.stop(0);
+		Files.walk(this.directory).sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+	}
+	
+	public void testPullsOnceAndThenGetsNotModified() throws IOException {
+		final ContentStore store = new ContentStore(this.directory, 2);
+		final ContentDownloader downloader = new ContentDownloader(this.url(), 0L, 16);
+		assertEquals("7", downloader.pull(store).getVersion());
+		assertTrue(Arrays.equals(this.archive, Files.readAllBytes(store.getCurrent().getArchive())));
+		
+		assertNull(downloader.pull(store));
+		assertEquals(ContentDownloaderTest.ENTITY_TAG + ", W/\"7\"", this.requests.get(1));
+		assertEquals(1L, store.getCurrent().getNumber());
+	}
+	
+	public void testResumesPartialDownload() throws IOException {
+		final ContentStore store = new ContentStore(this.directory, 2);
+		Files.write(this.directory.resolve("download.part"), Arrays.copyOf(this.archive, 10));
+		Files.write(this.directory.resolve("download.etag"), ContentDownloaderTest.ENTITY_TAG.getBytes(StandardCharsets.UTF_8));
+		
+		assertEquals("7", new ContentDownloader(this.url(), 1024L * 1024L, 16).pull(store).getVersion());
+		assertEquals("bytes=10-", this.requests.get(0));
+		assertTrue(Arrays.equals(this.archive, Files.readAllBytes(store.getCurrent().getArchive())));
+		assertFalse(Files.exists(this.directory.resolve("download.part")));
+	}
+	
+	private URL url() throws IOException {
+		return new URL("http://127.0.0.1:" + this.server.getAddress().getPort() + "/download/current");
+	}
+	
+	/**
+	 * Serves the archive like the offboard download endpoint, recording the Range or If-None-Match header of the request.
+	 */
+	private void serve(final HttpExchange exchange) throws IOException {
+		final String range = exchange.getRequestHeaders().getFirst("Range");
+		final String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+		this.requests.add(range != null ? range : String.valueOf(ifNoneMatch));
+		exchange.getResponseHeaders().set("ETag", ContentDownloaderTest.ENTITY_TAG);
+		exchange.getResponseHeaders().set(ContentDownloader.CONTENT_VERSION_HEADER, "7");
+		if (ifNoneMatch != null && ifNoneMatch.contains(ContentDownloaderTest.ENTITY_TAG)) {
+			exchange.sendResponseHeaders(304, -1L);
+			exchange.close();
+			return;
+		}
+		final int first = range != null && ContentDownloaderTest.ENTITY_TAG.equals(exchange.getRequestHeaders().getFirst("If-Range"))
+			? Integer.parseInt(range.substring("bytes=".length(), range.length() - 1))
+			: 0;
+		if (first > 0) {
+			exchange.getResponseHeaders().set("Content-Range", "bytes " + first + "-" + (this.archive.length - 1) + "/" + this.archive.length);
+		}
+		exchange.sendResponseHeaders(first > 0 ? 206 : 200, this.archive.length - first);
+		try (final OutputStream body = exchange.getResponseBody()) {
+			body.write(this.archive, first, this.archive.length - first);
+		}
+	}
+	
+}
@@ -0,0 +1,110 @@
+package com.data.provisioner.content;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for {@link ContentIndex}.
+ */
+public class ContentIndexTest extends TestCase {
+	
+	private static final int ENTRIES = 1000;
+	
+	private Path directory;
+	
+	private Path archive;
+	
+	@Override
+	protected void setUp() throws IOException {
+		this.directory = Files.createTempDirectory("index");
+		this.archive = this.directory.resolve("content.zip");
+		try (final ZipOutputStream output = new ZipOutputStream(Files.newOutputStream(this.archive))) {
+			for (int entry = 0; entry < ContentIndexTest.ENTRIES; entry++) {
+				final byte[] data = ContentIndexTest.data(entry);
+				final ZipEntry zipEntry = new ZipEntry("pages/" + entry + ".html");
+				if (entry % 2 == 0) {
+					final CRC32 crc = new CRC32();
+					crc.update(data);
+					zipEntry.setMethod(ZipEntry.STORED);
+					zipEntry.setSize(data.length);
+					zipEntry.setCrc(crc.getValue());
+				}
+				output.putNextEntry(zipEntry);
+				output.write(data);
+				output.closeEntry();
+			}
+		}
+	}
+	
+	@Override
+	protected void tearDown() throws IOException {
+		Files.walk(this.directory).sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+	}
+	
+	public void testFindsAndReadsStoredAndDeflatedEntries() throws IOException {
+		final ContentIndex index = ContentIndex.open(this.archive, this.directory.resolve("content.idx"));
+		assertEquals(ContentIndexTest.ENTRIES, index.getEntryCount());
+		for (int entry = 0; entry < ContentIndexTest.ENTRIES; entry++) {
+			final ContentEntry contentEntry = index.find("pages/" + entry + ".html");
+			assertEquals(entry % 2 == 0, contentEntry.isStored());
+			final byte[] expected = ContentIndexTest.data(entry);
+			final CRC32 crc = new CRC32();
+			crc.update(expected);
+			assertEquals((int) crc.getValue(), contentEntry.getCrc());
+			
+			final ByteBuffer buffer = index.read(contentEntry);
+			final byte[] read = new byte[buffer.remaining()];
+			buffer.get(read);
+			assertEquals(new String(expected, StandardCharsets.UTF_8), new String(read, StandardCharsets.UTF_8));
+			
+			try (final InputStream inputStream = index.openStream(contentEntry)) {
+				final ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+				final byte[] chunk = new byte[100];
+				for (int length = inputStream.read(chunk); length >= 0; length = inputStream.read(chunk)) {
+					streamed.write(chunk, 0, length);
+				}
+				assertEquals(new String(expected, StandardCharsets.UTF_8), streamed.toString("UTF-8"));
+			}
+		}
+		assertNull(index.find("pages/missing.html"));
+		assertNull(index.find("pages/1.htm"));
+	}
+	
+	public void testRebuildsIndexOfAnotherArchive() throws IOException {
+		final Path indexPath = this.directory.resolve("content.idx");
+		Files.write(indexPath, new byte[] {'C', 'I', 'D', 'X'});
+		assertNotNull(ContentIndex.open(this.archive, indexPath).find("pages/0.html"));
+		assertTrue(Files.size(indexPath) > 4L);
+	}
+	
+	public void testRejectsArchiveWithoutCentralDirectory() throws IOException {
+		final Path truncated = this.directory.resolve("truncated.zip");
+		Files.write(truncated, new byte[] {'P', 'K', 3, 4, 0});
+		try {
+			ContentIndex.write(truncated, this.directory.resolve("truncated.idx"));
+			fail("Index of an invalid archive was written.");
+		} catch (IOException expected) {
+			assertFalse(Files.exists(this.directory.resolve("truncated.idx")));
+		}
+	}
+	
+	private static byte[] data(final int entry) {
+		final StringBuilder data = new StringBuilder();
+		for (int line = 0; line <= entry % 50; line++) {
+			data.append("<p>Page ").append(entry).append(", line ").append(line).append("</p>\n");
+		}
+		return data.toString().getBytes(StandardCharsets.UTF_8);
+	}
+	
+}
@@ -0,0 +1,169 @@
+package com.data.provisioner.content;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import com.data.provisioner.metrics.MetricsRegistry;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for {@link ContentServer}.
+ */
+public class ContentServerTest extends TestCase {
+	
+	private static final String INDEX = "<html><body>Welcome aboard</body></html>";
+	
+	private static final String SCRIPT;
+	
+	static {
+		final StringBuilder script = new StringBuilder();
+		for (int line = 0; line < 200; line++) {
+			script.append("console.log('line ").append(line).append("');\n");
+		}
+		SCRIPT = script.toString();
+	}
+	
+	private Path directory;
+	
+	private ContentServer server;
+	
+	@Override
+	protected void setUp() throws IOException {
+		this.directory = Files.createTempDirectory("server");
+		final ContentStore store = new ContentStore(this.directory, 2);
+		final Path archive = store.createTemporaryFile();
+		try (final ZipOutputStream output = new ZipOutputStream(Files.newOutputStream(archive))) {
+			ContentServerTest.stored(output, "index.html", ContentServerTest.INDEX.getBytes(StandardCharsets.UTF_8));
+			ContentServerTest.stored(output, "index.html.br", new byte[] {1, 2, 3});
+			output.putNextEntry(new ZipEntry("js/app.js"));
+			output.write(ContentServerTest.SCRIPT.getBytes(StandardCharsets.UTF_8));
+			output.closeEntry();
+		}
+		store.commit(archive, "1");
+		this.server = new ContentServer(() -> store, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 16, 5L, new MetricsRegistry());
+	}
+	
+	@Override
+	protected void tearDown() throws IOException {
+		this.server.close();
+		Files.walk(this.directory).sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+	}
+	
+	public void testServesIndexAndRevalidatesByEntityTag() throws IOException {
+		final String response = this.exchange("GET / HTTP/1.1\r\nHost: train\r\nConnection: close\r\n\r\n");
+		assertTrue(response, response.startsWith("HTTP/1.1 200 OK\r\n"));
+		assertTrue(response, response.contains("Content-Type: text/html; charset=utf-8\r\n"));
+		assertTrue(response, response.endsWith("\r\n\r\n" + ContentServerTest.INDEX));
+		
+		final CRC32 crc = new CRC32();
+		crc.update(ContentServerTest.INDEX.getBytes(StandardCharsets.UTF_8));
+		final String entityTag = "\"" + Integer.toHexString((int) crc.getValue()) + "-" + Integer.toHexString(ContentServerTest.INDEX.length()) + "\"";
+		assertTrue(response, response.contains("ETag: " + entityTag + "\r\n"));
+		final String revalidated = this.exchange("GET /index.html HTTP/1.1\r\nIf-None-Match: " + entityTag + "\r\nConnection: close\r\n\r\n");
+		assertTrue(revalidated, revalidated.startsWith("HTTP/1.1 304 Not Modified\r\n"));
+		assertTrue(revalidated, revalidated.endsWith("\r\n\r\n"));
+		
+		assertTrue(this.exchange("GET /missing.html HTTP/1.1\r\nConnection: close\r\n\r\n").startsWith("HTTP/1.1 404 "));
+		assertTrue(this.exchange("POST / HTTP/1.1\r\nConnection: close\r\n\r\n").startsWith("HTTP/1.1 405 "));
+	}
+	
+	public void testServesRanges() throws IOException {
+		final String response = this.exchange("GET /index.html HTTP/1.1\r\nRange: bytes=6-11\r\nConnection: close\r\n\r\n");
+		assertTrue(response, response.startsWith("HTTP/1.1 206 Partial Content\r\n"));
+		assertTrue(response, response.contains("Content-Range: bytes 6-11/" + ContentServerTest.INDEX.length() + "\r\n"));
+		assertTrue(response, response.endsWith("\r\n\r\n<body>"));
+		
+		final String suffix = this.exchange("GET /index.html HTTP/1.1\r\nRange: bytes=-7\r\nConnection: close\r\n\r\n");
+		assertTrue(suffix, suffix.endsWith("\r\n\r\n</html>"));
+		final String unsatisfiable = this.exchange("GET /index.html HTTP/1.1\r\nRange: bytes=1000-\r\nConnection: close\r\n\r\n");
+		assertTrue(unsatisfiable, unsatisfiable.startsWith("HTTP/1.1 416 "));
+		
+		final String inflated = this.exchange("GET /js/app.js HTTP/1.1\r\nRange: bytes=8-\r\nConnection: close\r\n\r\n");
+		assertTrue(inflated, inflated.endsWith("\r\n\r\n" + ContentServerTest.SCRIPT.substring(8)));
+	}
+	
+	public void testSelectsPrecompressedRepresentations() throws IOException {
+		final String brotli = this.exchange("GET / HTTP/1.1\r\nAccept-Encoding: gzip, br\r\nConnection: close\r\n\r\n");
+		assertTrue(brotli, brotli.contains("Content-Encoding: br\r\n"));
+		assertTrue(brotli, brotli.endsWith("\r\n\r\n\u0001\u0002\u0003"));
+		
+		final byte[] gzip = this.exchangeBytes("GET /js/app.js HTTP/1.1\r\nAccept-Encoding: gzip, br;q=0\r\nConnection: close\r\n\r\n");
+		final String head = ContentServerTest.head(gzip);
+		assertTrue(head, head.contains("Content-Encoding: gzip\r\n"));
+		assertTrue(head, head.contains("Content-Type: application/javascript; charset=utf-8\r\n"));
+		final ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+		try (final InputStream inputStream = new GZIPInputStream(new ByteArrayInputStream(gzip, head.length(), gzip.length - head.length()))) {
+			final byte[] buffer = new byte[1024];
+			for (int read = inputStream.read(buffer); read >= 0; read = inputStream.read(buffer)) {
+				decoded.write(buffer, 0, read);
+			}
+		}
+		assertEquals(ContentServerTest.SCRIPT, decoded.toString("UTF-8"));
+		
+		final String plain = this.exchange("GET /js/app.js HTTP/1.1\r\nConnection: close\r\n\r\n");
+		assertFalse(plain, plain.contains("Content-Encoding"));
+		assertTrue(plain, plain.endsWith("\r\n\r\n" + ContentServerTest.SCRIPT));
+	}
+	
+	public void testKeepsConnectionAliveForPipelinedRequests() throws IOException {
+		final String responses = this.exchange("HEAD / HTTP/1.1\r\n\r\nGET /index.html HTTP/1.1\r\n\r\nGET /index.html HTTP/1.1\r\nConnection: close\r\n\r\n");
+		assertEquals(3, responses.split("HTTP/1.1 200 OK\r\n", -1).length - 1);
+		assertTrue(responses, responses.endsWith("Connection: close\r\n\r\n" + ContentServerTest.INDEX));
+	}
+	
+	private String exchange(final String request) throws IOException {
+		return new String(this.exchangeBytes(request), StandardCharsets.ISO_8859_1);
+	}
+	
+	/**
+	 * @return everything read until the server closes the connection.
+	 */
+	private byte[] exchangeBytes(final String request) throws IOException {
+		try (final Socket socket = new Socket(InetAddress.getLoopbackAddress(), this.server.getPort())) {
+			socket.setSoTimeout(5000);
+			final OutputStream output = socket.getOutputStream();
+			output.write(request.getBytes(StandardCharsets.ISO_8859_1));
+			output.flush();
+			final ByteArrayOutputStream response = new ByteArrayOutputStream();
+			final InputStream input = socket.getInputStream();
+			final byte[] buffer = new byte[4096];
+			for (int read = input.read(buffer); read >= 0; read = input.read(buffer)) {
+				response.write(buffer, 0, read);
+			}
+			return response.toByteArray();
+		}
+	}
+	
+	private static String head(final byte[] response) {
+		final String text = new String(response, StandardCharsets.ISO_8859_1);
+		return text.substring(0, text.indexOf("\r\n\r\n") + 4);
+	}
+	
+	private static void stored(final ZipOutputStream output, final String name, final byte[] data) throws IOException {
+		final CRC32 crc = new CRC32();
+		crc.update(data);
+		final ZipEntry entry = new ZipEntry(name);
+		entry.setMethod(ZipEntry.STORED);
+		entry.setSize(data.length);
+		entry.setCrc(crc.getValue());
+		output.putNextEntry(entry);
+		output.write(data);
+		output.closeEntry();
+	}
+	
+}
@@ -0,0 +1,81 @@
+package com.data.provisioner.content;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for {@link ContentStore}.
+ */
+public class ContentStoreTest extends TestCase {
+	
+	private Path directory;
+	
+	@Override
+	protected void setUp() throws IOException {
+		this.directory = Files.createTempDirectory("store");
+	}
+	
+	@Override
+	protected void tearDown() throws IOException {
+		Files.walk(this.directory).sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+	}
+	
+	public void testCommitsGenerationsAndKeepsOnlyTheNewest() throws IOException {
+		final ContentStore store = new ContentStore(this.directory, 2);
+		for (int version = 1; version <= 3; version++) {
+			store.commit(this.archive(store), String.valueOf(version));
+		}
+		assertEquals(3L, store.getCurrent().getNumber());
+		assertEquals("3", store.getCurrentVersion());
+		assertFalse(Files.exists(this.directory.resolve("gen-0000000001.zip")));
+		assertTrue(Files.exists(this.directory.resolve("gen-0000000002.zip")));
+		assertFalse(Files.exists(this.directory.resolve("gen-0000000001.idx")));
+		assertTrue(Files.exists(this.directory.resolve("gen-0000000003.idx")));
+		assertNotNull(store.getCurrentIndex().find("index.html"));
+		
+		final ContentStore reopened = new ContentStore(this.directory, 2);
+		assertEquals(3L, reopened.getCurrent().getNumber());
+		assertEquals("3", reopened.getCurrentVersion());
+	}
+	
+	public void testRollsBackToPreviousGeneration() throws IOException {
+		final ContentStore store = new ContentStore(this.directory, 3);
+		store.commit(this.archive(store), "1");
+		store.commit(this.archive(store), "2");
+		assertEquals("1", store.rollback().getVersion());
+		assertEquals("1", new ContentStore(this.directory, 3).getCurrentVersion());
+		
+		assertEquals(3L, store.commit(this.archive(store), "3").getNumber());
+	}
+	
+	public void testRejectsInvalidArchive() throws IOException {
+		final ContentStore store = new ContentStore(this.directory, 3);
+		store.commit(this.archive(store), "1");
+		final Path truncated = store.createTemporaryFile();
+		Files.write(truncated, new byte[] {'P', 'K', 3, 4, 0});
+		try {
+			store.commit(truncated, "2");
+			fail("Invalid archive was committed.");
+		} catch (IOException expected) {
+			assertEquals("1", store.getCurrentVersion());
+			assertFalse(Files.exists(truncated));
+		}
+	}
+	
+	private Path archive(final ContentStore store) throws IOException {
+		final Path archive = store.createTemporaryFile();
+		try (final ZipOutputStream output = new ZipOutputStream(Files.newOutputStream(archive))) {
+			output.putNextEntry(new ZipEntry("index.html"));
+			output.write(new byte[] {'<', 'p', '>'});
+			output.closeEntry();
+		}
+		return archive;
+	}
+	
+}
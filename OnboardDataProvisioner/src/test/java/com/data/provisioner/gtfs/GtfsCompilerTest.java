@@ -0,0 +1,100 @@
+package com.data.provisioner.gtfs;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for {@link GtfsCompiler} and {@link GtfsStore}.
+ */
+public class GtfsCompilerTest extends TestCase {
+	
+	private Path directory;
+	
+	@Override
+	protected void setUp() throws IOException {
+		this.directory = Files.createTempDirectory("gtfs");
+	}
+	
+	@Override
+	protected void tearDown() throws IOException {
+		Files.walk(this.directory).sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+	}
+	
+	public void testCompilesIndexedFeed() throws IOException {
+		final Path feed = this.feed(
+			"stops.txt", "\uFEFFstop_id,stop_name,stop_lat,stop_lon,parent_station\r\nS2,\"Central, Platform 1\",42.5,23.25,S1\r\nS1,Central,42.5,23.25,\r\nS3,North,42.75,23.5,\r\n",
+			"routes.txt", "route_id,route_short_name,route_long_name,route_type\nR2,2,Second,0\nR1,1,First,2\n",
+			"trips.txt", "route_id,service_id,trip_id,trip_headsign,direction_id\nR1,WD,T3,North,0\nR2,WD,T1,\"The \"\"Loop\"\"\",1\nR1,WE,T2,North,0\nR9,WD,T9,Nowhere,0\n",
+			"stop_times.txt", "trip_id,arrival_time,departure_time,stop_id,stop_sequence\nT2,25:10:00,25:11:00,S3,2\nT1,8:00:00,8:00:30,S2,1\nT2,25:00:00,25:01:00,S2,1\nT9,1:00:00,1:00:00,S2,1\nT3,06:00:00,,S2,1\n\nT2,25:20:00,25:20:00,S4,3\n",
+			"feed_info.txt", "feed_publisher_name,feed_version\nOperator,2024-05\n"
+		);
+		final GtfsStore store = new GtfsCompiler().compile(feed, null, this.directory.resolve("gtfs.bin"));
+		assertFalse(Files.exists(this.directory.resolve("gtfs.bin.tmp")));
+		
+		assertEquals("2024-05", store.getVersion());
+		assertEquals(3, store.getStopCount());
+		final int platform = store.findStop("S2");
+		assertEquals("Central, Platform 1", store.getStopName(platform));
+		assertEquals(store.findStop("S1"), store.getStopParentStation(platform));
+		assertEquals(42.5f, store.getStopLatitude(platform));
+		assertEquals(GtfsStore.MISSING, store.findStop("S4"));
+		
+		final int route = store.findRoute("R1");
+		assertEquals("First", store.getRouteLongName(route));
+		assertEquals(2, store.getRouteType(route));
+		assertEquals(2, store.getTripCountOfRoute(route));
+		assertEquals("T2", store.getTripId(store.getFirstTripOfRoute(route)));
+		assertEquals("T3", store.getTripId(store.getFirstTripOfRoute(route) + 1));
+		assertEquals(GtfsStore.MISSING, store.findTrip("T9"));
+		
+		final int loop = store.findTrip("T1");
+		assertEquals("The \"Loop\"", store.getTripHeadsign(loop));
+		assertEquals(1, store.getTripDirection(loop));
+		assertEquals("R2", store.getRouteId(store.getTripRoute(loop)));
+		
+		final int trip = store.findTrip("T2");
+		assertEquals("WE", store.getTripServiceId(trip));
+		assertEquals(3, store.getStopTimeCountOfTrip(trip));
+		final int first = store.getFirstStopTimeOfTrip(trip);
+		for (int index = 0; index < 3; index++) {
+			assertEquals(index + 1, store.getStopSequence(first + index));
+		}
+		assertEquals(25 * 3600, store.getArrivalTime(first));
+		assertEquals(25 * 3600 + 60, store.getDepartureTime(first));
+		assertEquals(store.findStop("S3"), store.getStopTimeStop(first + 1));
+		assertEquals(GtfsStore.MISSING, store.getStopTimeStop(first + 2));
+		assertEquals(GtfsStore.MISSING, store.getDepartureTime(store.getFirstStopTimeOfTrip(store.findTrip("T3"))));
+		assertEquals(5, store.getStopTimeCount());
+	}
+	
+	public void testRejectsFeedWithoutStopTimes() throws IOException {
+		final Path feed = this.feed("stops.txt", "stop_id\nS1\n", "routes.txt", "route_id\nR1\n", "trips.txt", "route_id,trip_id\nR1,T1\n");
+		try {
+			new GtfsCompiler().compile(feed, "1", this.directory.resolve("gtfs.bin"));
+			fail("Feed without stop_times.txt must be rejected.");
+		} catch (IOException expected) {
+			assertFalse(Files.exists(this.directory.resolve("gtfs.bin")));
+			assertFalse(Files.exists(this.directory.resolve("gtfs.bin.tmp")));
+		}
+	}
+	
+	private Path feed(final String... entries) throws IOException {
+		final Path feed = this.directory.resolve("feed.zip");
+		try (final ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(feed))) {
+			for (int index = 0; index < entries.length; index += 2) {
+				zip.putNextEntry(new ZipEntry(entries[index]));
+				zip.write(entries[index + 1].getBytes(StandardCharsets.UTF_8));
+				zip.closeEntry();
+			}
+		}
+		return feed;
+	}
+	
+}
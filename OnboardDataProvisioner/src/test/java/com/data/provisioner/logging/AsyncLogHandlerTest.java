@@ -0,0 +1,104 @@
+package com.data.provisioner.logging;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for {@link AsyncLogHandler}.
+ */
+public class AsyncLogHandlerTest extends TestCase {
+	
+	public void testRecordsAreWrittenInOrderOnClose() {
+		final RecordingHandler target = new RecordingHandler(null);
+		final AsyncLogHandler handler = new AsyncLogHandler(1000, 16, target);
+		for (int index = 0; index < 100; index++) {
+			handler.publish(new LogRecord(Level.INFO, "record " + index));
+		}
+		handler.close();
+		
+		assertEquals(100, target.records.size());
+		for (int index = 0; index < 100; index++) {
+			assertEquals("record " + index, target.records.get(index).getMessage());
+		}
+		assertTrue(target.flushes >= 100 / 16);
+		assertTrue(target.closed);
+		assertEquals(0L, handler.getDroppedRecords());
+	}
+	
+	public void testFullBufferDropsInsteadOfBlocking() throws InterruptedException {
+		final CountDownLatch release = new CountDownLatch(1);
+		final RecordingHandler target = new RecordingHandler(release);
+		final AsyncLogHandler handler = new AsyncLogHandler(4, 4, target);
+		handler.publish(new LogRecord(Level.INFO, "blocked"));
+		assertTrue(target.blocked.await(5L, TimeUnit.SECONDS));
+		for (int index = 0; index < 10; index++) {
+			handler.publish(new LogRecord(Level.INFO, "record " + index));
+		}
+		assertEquals(6L, handler.getDroppedRecords());
+		
+		release.countDown();
+		handler.close();
+		assertEquals(5, target.records.size());
+	}
+	
+	public void testSamplerLetsThroughEveryNthEvent() {
+		final LogSampler sampler = new LogSampler(3);
+		int sampled = 0;
+		for (int index = 0; index < 30; index++) {
+			if (sampler.sample()) {
+				sampled++;
+			}
+		}
+		assertEquals(10, sampled);
+		assertTrue(new LogSampler(1).sample());
+	}
+	
+	private static final class RecordingHandler extends Handler {
+		
+		private final List<LogRecord> records = new CopyOnWriteArrayList<>();
+		
+		private final CountDownLatch release;
+		
+		private final CountDownLatch blocked = new CountDownLatch(1);
+		
+		private volatile int flushes = 0;
+		
+		private volatile boolean closed = false;
+		
+		RecordingHandler(final CountDownLatch release) {
+			this.release = release;
+		}
+		
+		@Override
+		public void publish(final LogRecord record) {
+			if (this.release != null && this.blocked.getCount() > 0) {
+				this.blocked.countDown();
+				try {
+					this.release.await();
+				} catch (InterruptedException exception) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			this.records.add(record);
+		}
+		
+		@Override
+		public void flush() {
+			this.flushes++;
+		}
+		
+		@Override
+		public void close() {
+			this.closed = true;
+		}
+		
+	}
+	
+}
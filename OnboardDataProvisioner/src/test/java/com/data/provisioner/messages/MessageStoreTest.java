@@ -0,0 +1,113 @@
+package com.data.provisioner.messages;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for {@link MessageStore}.
+ */
+public class MessageStoreTest extends TestCase {
+	
+	private static final long HOUR = 3_600_000L;
+	
+	private Path directory;
+	
+	@Override
+	protected void setUp() throws IOException {
+		this.directory = Files.createTempDirectory("messages");
+	}
+	
+	@Override
+	protected void tearDown() throws IOException {
+		Files.walk(this.directory).sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+	}
+	
+	public void testReadsByOffsetTimeAndCountAcrossSegments() throws IOException {
+		final MessageStore store = new MessageStore(this.directory, 8192, MessageStoreTest.HOUR, 10L);
+		for (int index = 0; index < 1000; index++) {
+			assertEquals(index, this.append(store, 1_000_000L + index * 10L, "message " + index));
+		}
+		assertTrue(Files.list(this.directory).filter(path -> path.toString().endsWith(".log")).count() > 2);
+		
+		this.assertMessages(store.readFrom(500L, 3), 500, 3);
+		this.assertMessages(store.readLast(5), 995, 5);
+		this.assertMessages(store.readSince(1_000_000L + 4321L, 10), 433, 10);
+		this.assertMessages(store.readSince(0L, 2), 0, 2);
+		assertTrue(store.readSince(2_000_000L, 10).isEmpty());
+		assertEquals(1000L, store.getNextOffset());
+		store.close();
+	}
+	
+	public void testRecoversAfterReopenAndCutsOffTornRecord() throws IOException {
+		final long start = System.currentTimeMillis();
+		final MessageStore store = new MessageStore(this.directory, 4096, MessageStoreTest.HOUR, 10L);
+		for (int index = 0; index < 200; index++) {
+			this.append(store, start + index, "message " + index);
+		}
+		store.close();
+		final Path activeSegment = Files.list(this.directory).filter(path -> path.toString().endsWith(MessageSegment.LOG_SUFFIX)).max(Comparator.naturalOrder()).get();
+		final byte[] segmentBytes = Files.readAllBytes(activeSegment);
+		final int lastPayload = new String(segmentBytes, StandardCharsets.ISO_8859_1).lastIndexOf("message 199");
+		try (final FileChannel channel = FileChannel.open(activeSegment, StandardOpenOption.WRITE)) {
+			channel.write(ByteBuffer.wrap(new byte[] {'X'}), lastPayload);
+		}
+		Files.delete(this.directory.resolve(MessageSegment.fileName(0L) + MessageSegment.INDEX_SUFFIX));
+		
+		final MessageStore reopened = new MessageStore(this.directory, 4096, MessageStoreTest.HOUR, 10L);
+		assertEquals(199L, reopened.getNextOffset());
+		this.assertMessages(reopened.readFrom(0L, 1000), 0, 199);
+		assertEquals(199L, this.append(reopened, 0L, "message 199"));
+		assertEquals(start + 198L, reopened.readLast(1).get(0).getTimestamp());
+		reopened.close();
+	}
+	
+	public void testDeletesExpiredSegmentsButKeepsActiveOne() throws IOException {
+		final MessageStore store = new MessageStore(this.directory, 4096, MessageStoreTest.HOUR, 10L);
+		for (int index = 0; index < 300; index++) {
+			this.append(store, index < 150 ? 1_000L : 5 * MessageStoreTest.HOUR, "message " + index);
+		}
+		store.deleteExpiredSegments(5 * MessageStoreTest.HOUR + 1L);
+		assertTrue(store.getFirstOffset() > 0L);
+		assertTrue(store.getFirstOffset() <= 150L);
+		assertEquals(300L - store.getFirstOffset(), store.readFrom(0L, 1000).size());
+		assertFalse(Files.exists(this.directory.resolve(MessageSegment.fileName(0L) + MessageSegment.LOG_SUFFIX)));
+		
+		store.deleteExpiredSegments(100 * MessageStoreTest.HOUR);
+		assertEquals(299L, store.readLast(1).get(0).getOffset());
+		store.close();
+	}
+	
+	public void testRejectsMessageLargerThanSegment() throws IOException {
+		final MessageStore store = new MessageStore(this.directory, 1024, MessageStoreTest.HOUR, 10L);
+		try {
+			store.append(0L, new byte[2048], 0, 2048);
+			fail();
+		} catch (IllegalArgumentException expected) {
+			assertEquals(0L, store.getNextOffset());
+		}
+		store.close();
+	}
+	
+	private long append(final MessageStore store, final long timestamp, final String text) throws IOException {
+		final byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+		return store.append(timestamp, bytes, 0, bytes.length);
+	}
+	
+	private void assertMessages(final List<StoredMessage> messages, final int first, final int count) {
+		assertEquals(count, messages.size());
+		for (int index = 0; index < count; index++) {
+			assertEquals(first + index, messages.get(index).getOffset());
+			assertEquals("message " + (first + index), messages.get(index).getText());
+		}
+	}
+	
+}
@@ -0,0 +1,60 @@
+package com.data.provisioner.metrics;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for {@link Histogram}.
+ */
+public class HistogramTest extends TestCase {
+	
+	public void testBucketsCoverTheWholeRange() {
+		int previousBucket = -1;
+		for (final long value : new long[] {0L, 1L, 127L, 128L, 129L, 255L, 256L, 1_000_000L, Long.MAX_VALUE / 3, Long.MAX_VALUE}) {
+			final int bucket = Histogram.bucket(value);
+			assertTrue(value + " must not be in a lower bucket", bucket >= previousBucket);
+			assertTrue(value + " must be in a valid bucket", bucket < Histogram.BUCKET_COUNT);
+			assertTrue(value + " must not exceed its bucket", value <= Histogram.highestValue(bucket));
+			if (bucket > 0) {
+				assertTrue(value + " must be above the previous bucket", value > Histogram.highestValue(bucket - 1));
+			}
+			previousBucket = bucket;
+		}
+		assertEquals(Histogram.BUCKET_COUNT - 1, Histogram.bucket(Long.MAX_VALUE));
+		assertEquals(Long.MAX_VALUE, Histogram.highestValue(Histogram.BUCKET_COUNT - 1));
+	}
+	
+	public void testPercentilesAreWithinPrecision() {
+		final Histogram histogram = new Histogram();
+		final Random random = new Random(3L);
+		final long[] values = new long[10_000];
+		for (int index = 0; index < values.length; index++) {
+			values[index] = (long) (Math.exp(random.nextDouble() * 20.0));
+			histogram.record(values[index]);
+		}
+		Arrays.sort(values);
+		final Histogram.Snapshot snapshot = histogram.snapshot();
+		assertEquals(values.length, snapshot.getCount());
+		assertEquals(values[values.length - 1], snapshot.getMax());
+		for (final double percentile : new double[] {50.0, 90.0, 99.0, 99.9}) {
+			final long expected = values[(int) Math.ceil(percentile / 100.0 * values.length) - 1];
+			final long actual = snapshot.getValueAtPercentile(percentile);
+			assertTrue(percentile + ": " + actual + " must not be below " + expected, actual >= expected);
+			assertTrue(percentile + ": " + actual + " must be within 1.6% of " + expected, actual <= expected + expected / 64 + 1);
+		}
+		assertEquals(snapshot.getMax(), snapshot.getValueAtPercentile(100.0));
+	}
+	
+	public void testNegativeValuesAreRecordedAsZero() {
+		final Histogram histogram = new Histogram();
+		histogram.record(-5L);
+		final Histogram.Snapshot snapshot = histogram.snapshot();
+		assertEquals(1L, snapshot.getCount());
+		assertEquals(0L, snapshot.getMax());
+		assertEquals(0L, snapshot.getValueAtPercentile(50.0));
+		assertEquals(0L, new Histogram().snapshot().getValueAtPercentile(99.0));
+	}
+	
+}
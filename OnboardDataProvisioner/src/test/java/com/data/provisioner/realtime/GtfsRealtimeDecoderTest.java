@@ -0,0 +1,163 @@
+package com.data.provisioner.realtime;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for {@link GtfsRealtimeDecoder}. The feeds are encoded by hand following gtfs-realtime.proto.
+ */
+public class GtfsRealtimeDecoderTest extends TestCase {
+	
+	private final RealtimeState state = new RealtimeState();
+	
+	private final GtfsRealtimeDecoder decoder = new GtfsRealtimeDecoder(this.state);
+	
+	public void testAppliesTripUpdatesVehiclePositionsAndAlerts() throws IOException {
+		this.decode(feed(0, 1700000000L,
+			entity("e1", 3, tripUpdate("trip-1", -120, stopTimeUpdate(5, "stop-5", 60))),
+			entity("e2", 4, vehiclePosition("veh-7", "trip-1", 51.5f, -0.12f)),
+			entity("e3", 5, alert(7, "Lift out of order"))
+		));
+		
+		assertEquals(1700000000L, this.state.getFeedTimestamp());
+		assertTrue(this.state.readTripUpdate("trip-1", tripUpdate -> {
+			assertEquals(-120, tripUpdate.getDelay());
+			assertEquals(1, tripUpdate.getStopTimeUpdateCount());
+			assertEquals(5, tripUpdate.getStopSequence(0));
+			assertEquals("stop-5", tripUpdate.getStopId(0));
+			assertEquals(60, tripUpdate.getArrivalDelay(0));
+		}));
+		assertTrue(this.state.readVehiclePosition("veh-7", vehiclePosition -> {
+			assertEquals("trip-1", vehiclePosition.getTripId());
+			assertEquals(51.5f, vehiclePosition.getLatitude(), 0.0001f);
+			assertEquals(-0.12f, vehiclePosition.getLongitude(), 0.0001f);
+		}));
+		assertTrue(this.state.readAlert("e3", alert -> {
+			assertEquals(7, alert.getEffect());
+			assertEquals("Lift out of order", alert.getHeaderText());
+		}));
+	}
+	
+	public void testFullDatasetReplacesPreviousState() throws IOException {
+		this.decode(feed(0, 1L, entity("e1", 3, tripUpdate("trip-1", 0)), entity("e2", 3, tripUpdate("trip-2", 30))));
+		this.decode(feed(0, 2L, entity("e2", 3, tripUpdate("trip-2", 90))));
+		
+		assertFalse(this.state.readTripUpdate("trip-1", tripUpdate -> fail("Stale trip update was kept.")));
+		assertTrue(this.state.readTripUpdate("trip-2", tripUpdate -> assertEquals(90, tripUpdate.getDelay())));
+	}
+	
+	public void testDifferentialFeedKeepsStateAndRemovesDeletedEntities() throws IOException {
+		this.decode(feed(0, 1L, entity("e1", 3, tripUpdate("trip-1", 0)), entity("e2", 3, tripUpdate("trip-2", 30))));
+		this.decode(feed(1, 2L, deletedEntity("e1")));
+		
+		assertFalse(this.state.readTripUpdate("trip-1", tripUpdate -> fail("Deleted trip update was kept.")));
+		assertTrue(this.state.readTripUpdate("trip-2", tripUpdate -> assertEquals(30, tripUpdate.getDelay())));
+	}
+	
+	public void testRejectsTruncatedFeed() {
+		final byte[] feed = feed(0, 1L, entity("e1", 3, tripUpdate("trip-1", 0)));
+		try {
+			this.decoder.decode(feed, 0, feed.length - 3);
+			fail("Truncated feed was decoded.");
+		} catch (IOException expected) {
+			assertTrue(expected.getMessage().contains("Truncated"));
+		}
+	}
+	
+	private void decode(final byte[] feed) throws IOException {
+		this.decoder.decode(feed, 0, feed.length);
+	}
+	
+	private static byte[] feed(final int incrementality, final long timestamp, final byte[]... entities) {
+		final Encoder header = new Encoder().bytes(1, "2.0".getBytes(StandardCharsets.UTF_8)).varint(2, incrementality).varint(3, timestamp);
+		final Encoder feed = new Encoder().bytes(1, header.toByteArray());
+		for (final byte[] entity : entities) {
+			feed.bytes(2, entity);
+		}
+		return feed.toByteArray();
+	}
+	
+	private static byte[] entity(final String id, final int field, final byte[] payload) {
+		return new Encoder().string(1, id).bytes(field, payload).toByteArray();
+	}
+	
+	private static byte[] deletedEntity(final String id) {
+		return new Encoder().string(1, id).varint(2, 1).toByteArray();
+	}
+	
+	private static byte[] tripUpdate(final String tripId, final int delay, final byte[]... stopTimeUpdates) {
+		final Encoder tripUpdate = new Encoder().bytes(1, new Encoder().string(1, tripId).toByteArray());
+		for (final byte[] stopTimeUpdate : stopTimeUpdates) {
+			tripUpdate.bytes(2, stopTimeUpdate);
+		}
+		return tripUpdate.varint(5, delay).toByteArray();
+	}
+	
+	private static byte[] stopTimeUpdate(final int stopSequence, final String stopId, final int arrivalDelay) {
+		return new Encoder().varint(1, stopSequence).bytes(2, new Encoder().varint(1, arrivalDelay).toByteArray()).string(4, stopId).toByteArray();
+	}
+	
+	private static byte[] vehiclePosition(final String vehicleId, final String tripId, final float latitude, final float longitude) {
+		return new Encoder()
+			.bytes(1, new Encoder().string(1, tripId).toByteArray())
+			.bytes(2, new Encoder().fixed32(1, Float.floatToIntBits(latitude)).fixed32(2, Float.floatToIntBits(longitude)).toByteArray())
+			.bytes(8, new Encoder().string(1, vehicleId).toByteArray())
+			.toByteArray();
+	}
+	
+	private static byte[] alert(final int effect, final String header) {
+		final byte[] translation = new Encoder().string(1, header).string(2, "en").toByteArray();
+		return new Encoder().varint(7, effect).bytes(10, new Encoder().bytes(1, translation).toByteArray()).toByteArray();
+	}
+	
+	/**
+	 * Minimal protocol buffers encoder.
+	 */
+	private static final class Encoder {
+		
+		private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		
+		Encoder varint(final int field, final long value) {
+			this.rawVarint(field << 3);
+			this.rawVarint(value);
+			return this;
+		}
+		
+		Encoder fixed32(final int field, final int value) {
+			this.rawVarint(field << 3 | 5);
+			for (int shift = 0; shift < 32; shift += 8) {
+				this.output.write(value >>> shift);
+			}
+			return this;
+		}
+		
+		Encoder string(final int field, final String value) {
+			return this.bytes(field, value.getBytes(StandardCharsets.UTF_8));
+		}
+		
+		Encoder bytes(final int field, final byte[] value) {
+			this.rawVarint(field << 3 | 2);
+			this.rawVarint(value.length);
+			this.output.write(value, 0, value.length);
+			return this;
+		}
+		
+		byte[] toByteArray() {
+			return this.output.toByteArray();
+		}
+		
+		private void rawVarint(final long value) {
+			long remaining = value;
+			while ((remaining & ~0x7FL) != 0L) {
+				this.output.write((int) (remaining & 0x7F) | 0x80);
+				remaining >>>= 7;
+			}
+			this.output.write((int) remaining);
+		}
+		
+	}
+	
+}
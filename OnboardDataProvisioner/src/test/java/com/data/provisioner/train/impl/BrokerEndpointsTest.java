@@ -0,0 +1,90 @@
+package com.data.provisioner.train.impl;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for {@link BrokerEndpoints}.
+ */
+public class BrokerEndpointsTest extends TestCase {
+	
+	private static final URI NEAR = URI.create("tcp://near:61616");
+	
+	private static final URI FAR = URI.create("tcp://far:61616");
+	
+	private static final URI DOWN = URI.create("tcp://down:61616");
+	
+	private static BrokerEndpoints endpoints(final String connectionAddress) {
+		final Properties properties = new Properties();
+		properties.setProperty("mqConnectionAddress", connectionAddress);
+		return BrokerEndpoints.of(properties);
+	}
+	
+	public void testSingleEndpointIsUsedDirectly() {
+		final BrokerEndpoints endpoints = BrokerEndpointsTest.endpoints("tcp://127.0.0.1:61616");
+		assertFalse(endpoints.isFailover());
+		assertEquals(0L, endpoints.getRebalanceInterval());
+		assertEquals("tcp://127.0.0.1:61616", endpoints.connectionAddress(endpoints.getEndpoints()));
+	}
+	
+	public void testEndpointsAreRankedByLatency() {
+		final BrokerEndpoints endpoints = BrokerEndpointsTest.endpoints(" tcp://down:61616, tcp://far:61616 ,tcp://near:61616,");
+		assertTrue(endpoints.isFailover());
+		final Map<URI, Long> latencies = new HashMap<>();
+		latencies.put(BrokerEndpointsTest.FAR, 90_000_000L);
+		latencies.put(BrokerEndpointsTest.NEAR, 5_000_000L);
+		assertEquals(Arrays.asList(BrokerEndpointsTest.NEAR, BrokerEndpointsTest.FAR, BrokerEndpointsTest.DOWN), endpoints.rank(latencies));
+		assertEquals(
+			"failover:(tcp://near:61616,tcp://far:61616,tcp://down:61616)?randomize=false&startupMaxReconnectAttempts=3&maxReconnectAttempts=3",
+			endpoints.connectionAddress(endpoints.rank(latencies))
+		);
+	}
+	
+	public void testRebalancesOnlyForTheMinimumGain() {
+		final BrokerEndpoints endpoints = BrokerEndpointsTest.endpoints("tcp://near:61616,tcp://far:61616,tcp://down:61616");
+		final Map<URI, Long> latencies = new HashMap<>();
+		latencies.put(BrokerEndpointsTest.NEAR, 30_000_000L);
+		latencies.put(BrokerEndpointsTest.FAR, 45_000_000L);
+		assertFalse(endpoints.shouldRebalance(BrokerEndpointsTest.NEAR, latencies));
+		assertFalse(endpoints.shouldRebalance(BrokerEndpointsTest.FAR, latencies));
+		assertTrue(endpoints.shouldRebalance(BrokerEndpointsTest.DOWN, latencies));
+		
+		latencies.put(BrokerEndpointsTest.FAR, 50_000_000L);
+		assertTrue(endpoints.shouldRebalance(BrokerEndpointsTest.FAR, latencies));
+		assertFalse(endpoints.shouldRebalance(BrokerEndpointsTest.NEAR, new HashMap<>()));
+	}
+	
+	public void testProbeMeasuresTheReachableEndpoints() throws Exception {
+		final InetAddress loopback = InetAddress.getLoopbackAddress();
+		final int closedPort;
+		try (final ServerSocket closed = new ServerSocket(0, 1, loopback)) {
+			closedPort = closed.getLocalPort();
+		}
+		try (final ServerSocket listening = new ServerSocket(0, 1, loopback)) {
+			final URI reachable = URI.create("tcp://" + loopback.getHostAddress() + ":" + listening.getLocalPort());
+			final URI unreachable = URI.create("tcp://" + loopback.getHostAddress() + ":" + closedPort);
+			final BrokerEndpoints endpoints = BrokerEndpointsTest.endpoints(unreachable + "," + reachable);
+			final Map<URI, Long> latencies = endpoints.probe();
+			assertTrue(latencies.containsKey(reachable));
+			assertFalse(latencies.containsKey(unreachable));
+			assertEquals(Arrays.asList(reachable, unreachable), endpoints.rank(latencies));
+		}
+	}
+	
+	public void testInvalidEndpointIsRejected() {
+		try {
+			BrokerEndpointsTest.endpoints("tcp://near:61616,tcp://bad host");
+			fail();
+		} catch (IllegalArgumentException expected) {
+			
+		}
+	}
+	
+}
@@ -0,0 +1,49 @@
+package com.data.provisioner.train.impl;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for {@link ReconnectBackoff}.
+ */
+public class ReconnectBackoffTest extends TestCase {
+	
+	public void testDelaysGrowExponentiallyUpToTheMaximum() {
+		final ReconnectBackoff backoff = new ReconnectBackoff(1000L, 8000L, new Random(7L));
+		final long[] ceilings = {1000L, 2000L, 4000L, 8000L, 8000L, 8000L};
+		for (final long ceiling : ceilings) {
+			final long delay = backoff.nextDelay();
+			assertTrue(delay + " must be within " + ceiling, delay >= 0 && delay <= ceiling);
+		}
+		assertEquals(ceilings.length, backoff.getAttempt());
+		for (int attempt = 0; attempt < 100; attempt++) {
+			assertTrue(backoff.nextDelay() <= 8000L);
+		}
+		
+		backoff.reset();
+		assertEquals(0, backoff.getAttempt());
+		assertTrue(backoff.nextDelay() <= 1000L);
+	}
+	
+	public void testDelaysAreSpread() {
+		final ReconnectBackoff backoff = new ReconnectBackoff(1000L, 1000L, new Random(11L));
+		long minimum = Long.MAX_VALUE;
+		long maximum = Long.MIN_VALUE;
+		for (int attempt = 0; attempt < 1000; attempt++) {
+			final long delay = backoff.nextDelay();
+			minimum = Math.min(minimum, delay);
+			maximum = Math.max(maximum, delay);
+		}
+		assertTrue(minimum < 100L);
+		assertTrue(maximum > 900L);
+	}
+	
+	public void testDoesNotOverflowAfterManyAttempts() {
+		final ReconnectBackoff backoff = new ReconnectBackoff(10000L, Long.MAX_VALUE / 2, new Random(3L));
+		for (int attempt = 0; attempt < 200; attempt++) {
+			assertTrue(backoff.nextDelay() >= 0L);
+		}
+	}
+	
+}
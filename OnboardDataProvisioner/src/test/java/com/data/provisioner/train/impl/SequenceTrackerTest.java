@@ -0,0 +1,118 @@
+package com.data.provisioner.train.impl;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+
+import org.apache.activemq.command.ActiveMQMessage;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for {@link SequenceTracker}.
+ */
+public class SequenceTrackerTest extends TestCase {
+	
+	private Path directory;
+	
+	@Override
+	protected void setUp() throws IOException {
+		this.directory = Files.createTempDirectory("subscriptions");
+	}
+	
+	@Override
+	protected void tearDown() throws IOException {
+		Files.walk(this.directory).sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+	}
+	
+	public void testDropsMessagesAtOrBelowTheMark() throws IOException, JMSException {
+		final SequenceTracker tracker = SequenceTracker.open(this.directory.resolve("topic.seq"));
+		assertTrue(this.accept(tracker, this.message(100L, 1L)));
+		assertTrue(this.accept(tracker, this.message(100L, 2L)));
+		assertFalse(this.accept(tracker, this.message(100L, 2L)));
+		assertFalse(this.accept(tracker, this.message(100L, 1L)));
+		assertTrue(this.accept(tracker, this.message(100L, 5L)));
+		
+		assertTrue(this.accept(tracker, this.message(200L, 1L)));
+		assertFalse(this.accept(tracker, this.message(100L, 6L)));
+		assertTrue(this.accept(tracker, new ActiveMQMessage()));
+	}
+	
+	public void testKeepsMarkBelowMessagesBeingProcessed() throws IOException, JMSException {
+		final SequenceTracker tracker = SequenceTracker.open(this.directory.resolve("topic.seq"));
+		assertFalse(tracker.isDuplicate(this.message(100L, 1L)));
+		assertFalse(tracker.isDuplicate(this.message(100L, 2L)));
+		assertFalse(tracker.isDuplicate(this.message(100L, 4L)));
+		assertTrue(tracker.isDuplicate(this.message(100L, 1L)));
+		
+		tracker.commit(this.message(100L, 4L));
+		assertEquals(0L, tracker.getSequence());
+		assertTrue(tracker.isDuplicate(this.message(100L, 4L)));
+		tracker.commit(this.message(100L, 1L));
+		assertEquals(1L, tracker.getSequence());
+		tracker.commit(this.message(100L, 2L));
+		assertEquals(4L, tracker.getSequence());
+	}
+	
+	public void testProcessesFailedMessageAgain() throws IOException, JMSException {
+		final SequenceTracker tracker = SequenceTracker.open(this.directory.resolve("topic.seq"));
+		assertFalse(tracker.isDuplicate(this.message(100L, 1L)));
+		assertFalse(tracker.isDuplicate(this.message(100L, 2L)));
+		tracker.fail(this.message(100L, 1L));
+		tracker.commit(this.message(100L, 2L));
+		assertEquals(0L, tracker.getSequence());
+		
+		assertFalse(tracker.isDuplicate(this.message(100L, 1L)));
+		assertTrue(tracker.isDuplicate(this.message(100L, 2L)));
+		tracker.commit(this.message(100L, 1L));
+		assertEquals(2L, tracker.getSequence());
+	}
+	
+	public void testGivesUpFailedMessageNotDeliveredAgain() throws IOException, JMSException {
+		final SequenceTracker tracker = SequenceTracker.open(this.directory.resolve("topic.seq"));
+		assertFalse(tracker.isDuplicate(this.message(100L, 1L)));
+		tracker.fail(this.message(100L, 1L));
+		for (long sequence = 2L; sequence <= SequenceTracker.MAXIMUM_OUT_OF_ORDER + 1L; sequence++) {
+			assertTrue(this.accept(tracker, this.message(100L, sequence)));
+		}
+		assertEquals(0L, tracker.getSequence());
+		assertTrue(this.accept(tracker, this.message(100L, SequenceTracker.MAXIMUM_OUT_OF_ORDER + 2L)));
+		assertEquals(SequenceTracker.MAXIMUM_OUT_OF_ORDER + 2L, tracker.getSequence());
+	}
+	
+	public void testMarkSurvivesReopen() throws IOException, JMSException {
+		final SequenceTracker tracker = SequenceTracker.open(this.directory.resolve("topic.seq"));
+		tracker.commit(this.message(300L, 42L));
+		tracker.close();
+		
+		final SequenceTracker reopened = SequenceTracker.open(this.directory.resolve("topic.seq"));
+		assertEquals(300L, reopened.getEpoch());
+		assertEquals(42L, reopened.getSequence());
+		assertTrue(reopened.isDuplicate(this.message(300L, 42L)));
+		assertFalse(reopened.isDuplicate(this.message(300L, 43L)));
+	}
+	
+	/**
+	 * Receives and processes the message like the subscription does.
+	 * @return false when the message was dropped.
+	 */
+	private boolean accept(final SequenceTracker tracker, final Message message) throws JMSException {
+		if (tracker.isDuplicate(message)) {
+			return false;
+		}
+		tracker.commit(message);
+		return true;
+	}
+	
+	private Message message(final long epoch, final long sequence) throws JMSException {
+		final Message message = new ActiveMQMessage();
+		message.setLongProperty(SequenceTracker.PUBLISHER_EPOCH, epoch);
+		message.setLongProperty(SequenceTracker.SEQUENCE, sequence);
+		return message;
+	}
+	
+}
@@ -0,0 +1,44 @@
+package com.data.provisioner.train.impl;
+
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for {@link TopicConfiguration}.
+ */
+public class TopicConfigurationTest extends TestCase {
+	
+	public void testReadsSettingsOfTheTopic() {
+		final Properties properties = new Properties();
+		properties.setProperty("mqTopicMessagesDispatchThreads", "4");
+		properties.setProperty("mqTopicMessagesAckMode", "client");
+		properties.setProperty("mqTopicMessagesDurable", "false");
+		final TopicConfiguration topicConfiguration = TopicConfiguration.of(properties, "mqTopicMessages");
+		assertEquals(4, topicConfiguration.getDispatchThreads());
+		assertEquals(TopicConfiguration.AckMode.CLIENT, topicConfiguration.getAckMode());
+		assertFalse(topicConfiguration.isDurable());
+		assertEquals(100, topicConfiguration.getAckBatchSize());
+	}
+	
+	public void testRefusesDispatchThreadsOfSessionThreadTopics() {
+		for (final String topicKey : TopicConfiguration.SESSION_THREAD_TOPIC_KEYS) {
+			final Properties properties = new Properties();
+			properties.setProperty(topicKey + TopicConfiguration.DISPATCH_THREADS, "2");
+			try {
+				TopicConfiguration.of(properties, topicKey);
+				fail("Dispatch threads of " + topicKey + " must be refused.");
+			} catch (IllegalArgumentException exception) {
+				// expected
+			}
+			properties.setProperty(topicKey + TopicConfiguration.DISPATCH_THREADS, "0");
+			assertEquals(0, TopicConfiguration.of(properties, topicKey).getDispatchThreads());
+		}
+	}
+	
+	public void testFindsTopicKeyOfSetting() {
+		assertEquals("mqTopicRealtime", TopicConfiguration.topicKeyOf("mqTopicRealtimeAckInterval"));
+		assertEquals("contentChunkSize", TopicConfiguration.topicKeyOf("contentChunkSize"));
+	}
+	
+}
@@ -0,0 +1,235 @@
+package com.data.provisioner.train.impl;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jms.Connection;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageListener;
+import javax.jms.Session;
+
+import org.apache.activemq.command.ActiveMQMessage;
+
+import com.data.provisioner.metrics.MetricsRegistry;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for the acknowledgements and the dispatch of {@link TopicSubscription}.
+ */
+public class TopicSubscriptionTest extends TestCase {
+	
+	private static final String TOPIC_KEY = "mqTopicMessages";
+	
+	private static final String TOPIC_NAME = "train.messages";
+	
+	private final MetricsRegistry metrics = new MetricsRegistry();
+	
+	private Path directory;
+	
+	/**
+	 * Tracker of the subscription, null to subscribe without one.
+	 */
+	private SequenceTracker tracker = null;
+	
+	/**
+	 * Acknowledge mode of the subscription.
+	 */
+	private String ackMode = "client";
+	
+	private final AtomicInteger recovered = new AtomicInteger();
+	
+	/**
+	 * Whether the listener fails the next message.
+	 */
+	private final AtomicBoolean failNext = new AtomicBoolean(true);
+	
+	/**
+	 * Listener the subscription attached to the consumer, it's called like by the session thread.
+	 */
+	private MessageListener session;
+	
+	@Override
+	protected void setUp() throws IOException {
+		this.directory = Files.createTempDirectory("subscriptions");
+	}
+	
+	@Override
+	protected void tearDown() throws IOException {
+		if (this.tracker != null) {
+			this.tracker.close();
+		}
+		Files.walk(this.directory).sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+	}
+	
+	public void testAcknowledgesFullBatch() throws JMSException {
+		final TopicSubscription subscription = this.subscribe(0, 3);
+		subscription.listen(message -> {
+			// processed
+		});
+		for (int index = 0; index < 7; index++) {
+			this.session.onMessage(new ActiveMQMessage());
+		}
+		assertEquals(2L, this.counter("acks"));
+		assertEquals(7L, this.counter("messages"));
+		subscription.close();
+	}
+	
+	public void testFullBatchWaitsForDispatchedMessages() throws JMSException, InterruptedException {
+		final TopicSubscription subscription = this.subscribe(1, 2);
+		final CountDownLatch processing = new CountDownLatch(1);
+		subscription.listen(message -> {
+			try {
+				processing.await();
+			} catch (InterruptedException exception) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		this.session.onMessage(new ActiveMQMessage());
+		final Thread sessionThread = new Thread(() -> this.session.onMessage(new ActiveMQMessage()));
+		sessionThread.start();
+		sessionThread.join(200L);
+		assertTrue(sessionThread.isAlive());
+		assertEquals(0L, this.counter("acks"));
+		
+		processing.countDown();
+		sessionThread.join(TimeUnit.SECONDS.toMillis(10L));
+		assertFalse(sessionThread.isAlive());
+		assertEquals(1L, this.counter("acks"));
+		subscription.close();
+	}
+	
+	public void testDropsDuplicatesBeforeDispatch() throws IOException, JMSException {
+		this.tracker = SequenceTracker.open(this.directory.resolve("topic.seq"));
+		final TopicSubscription subscription = this.subscribe(2, 100);
+		final List<String> threads = new CopyOnWriteArrayList<>();
+		subscription.listen(message -> threads.add(Thread.currentThread().getName()));
+		for (final long sequence : new long[] {1L, 2L, 2L, 1L, 3L}) {
+			this.session.onMessage(this.message(sequence));
+		}
+		subscription.close();
+		
+		assertEquals(3, threads.size());
+		for (final String thread : threads) {
+			assertTrue(thread, thread.startsWith(TopicSubscriptionTest.TOPIC_NAME + "-dispatch-"));
+		}
+		assertEquals(2L, this.counter("duplicates"));
+		assertEquals(3L, this.tracker.getSequence());
+		assertEquals(0L, this.counter("acks"));
+	}
+	
+	public void testRecoversSessionAfterFailedMessage() throws IOException, JMSException {
+		this.tracker = SequenceTracker.open(this.directory.resolve("topic.seq"));
+		final TopicSubscription subscription = this.subscribe(0, 100);
+		subscription.listen(this::failOnce);
+		this.session.onMessage(this.message(1L));
+		assertEquals(1, this.recovered.get());
+		assertEquals(1L, this.counter("failures"));
+		assertEquals(0L, this.tracker.getSequence());
+		
+		this.session.onMessage(this.message(1L));
+		assertEquals(1L, this.tracker.getSequence());
+		assertEquals(1, this.recovered.get());
+		subscription.close();
+	}
+	
+	public void testRecoversSessionAfterFailedDispatchedMessage() throws IOException, JMSException {
+		this.tracker = SequenceTracker.open(this.directory.resolve("topic.seq"));
+		final TopicSubscription subscription = this.subscribe(1, 2);
+		subscription.listen(this::failOnce);
+		this.session.onMessage(this.message(1L));
+		this.session.onMessage(this.message(2L));
+		assertEquals(1, this.recovered.get());
+		assertEquals(0L, this.counter("acks"));
+		
+		this.session.onMessage(this.message(1L));
+		this.session.onMessage(this.message(2L));
+		subscription.close();
+		assertEquals(2L, this.tracker.getSequence());
+	}
+	
+	public void testThrowsFailureBackInAutoMode() throws IOException, JMSException {
+		this.tracker = SequenceTracker.open(this.directory.resolve("topic.seq"));
+		this.ackMode = "auto";
+		final TopicSubscription subscription = this.subscribe(0, 100);
+		subscription.listen(this::failOnce);
+		try {
+			this.session.onMessage(this.message(1L));
+			fail("Failure must be thrown back to the MQ client.");
+		} catch (UncheckedIOException exception) {
+			// expected
+		}
+		assertEquals(0, this.recovered.get());
+		this.session.onMessage(this.message(1L));
+		assertEquals(1L, this.tracker.getSequence());
+		subscription.close();
+	}
+	
+	/**
+	 * Fails the first message like a listener which can't store it.
+	 */
+	private void failOnce(final Message message) {
+		if (this.failNext.getAndSet(false)) {
+			throw new UncheckedIOException(new IOException("No space left on device"));
+		}
+	}
+	
+	/**
+	 * Subscribes to the topic over a connection which only records the listener and the recovers.
+	 */
+	private TopicSubscription subscribe(final int dispatchThreads, final int ackBatchSize) throws JMSException {
+		final Properties properties = new Properties();
+		properties.setProperty(TopicSubscriptionTest.TOPIC_KEY + TopicConfiguration.DISPATCH_THREADS, String.valueOf(dispatchThreads));
+		properties.setProperty(TopicSubscriptionTest.TOPIC_KEY + TopicConfiguration.DURABLE, "false");
+		properties.setProperty(TopicSubscriptionTest.TOPIC_KEY + TopicConfiguration.ACK_MODE, this.ackMode);
+		properties.setProperty(TopicSubscriptionTest.TOPIC_KEY + TopicConfiguration.ACK_BATCH_SIZE, String.valueOf(ackBatchSize));
+		properties.setProperty(TopicSubscriptionTest.TOPIC_KEY + TopicConfiguration.ACK_INTERVAL, "3600000");
+		final MessageConsumer consumer = (MessageConsumer) Proxy.newProxyInstance(
+			MessageConsumer.class.getClassLoader(), new Class<?>[] {MessageConsumer.class}, (proxy, method, arguments) -> {
+				if ("setMessageListener".equals(method.getName())) {
+					this.session = (MessageListener) arguments[0];
+				}
+				return null;
+			}
+		);
+		final Session session = (Session) Proxy.newProxyInstance(
+			Session.class.getClassLoader(), new Class<?>[] {Session.class}, (proxy, method, arguments) -> {
+				if ("recover".equals(method.getName())) {
+					this.recovered.incrementAndGet();
+				}
+				return "createConsumer".equals(method.getName()) ? consumer : null;
+			}
+		);
+		final Connection connection = (Connection) Proxy.newProxyInstance(
+			Connection.class.getClassLoader(), new Class<?>[] {Connection.class}, (proxy, method, arguments) -> "createSession".equals(method.getName()) ? session : null
+		);
+		return new TopicSubscription(
+			connection, TopicSubscriptionTest.TOPIC_NAME, TopicConfiguration.of(properties, TopicSubscriptionTest.TOPIC_KEY), 10, this.tracker, this.metrics
+		);
+	}
+	
+	private Message message(final long sequence) throws JMSException {
+		final Message message = new ActiveMQMessage();
+		message.setLongProperty(SequenceTracker.PUBLISHER_EPOCH, 100L);
+		message.setLongProperty(SequenceTracker.SEQUENCE, sequence);
+		return message;
+	}
+	
+	private long counter(final String metric) {
+		return this.metrics.getCounters().get("topic." + TopicSubscriptionTest.TOPIC_NAME + "." + metric);
+	}
+	
+}
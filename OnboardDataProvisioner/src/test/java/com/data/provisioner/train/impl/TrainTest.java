@@ -0,0 +1,45 @@
+package com.data.provisioner.train.impl;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for the topics {@link Train} subscribes again when the reloaded configuration changes.
+ */
+public class TrainTest extends TestCase {
+	
+	public void testResubscribesOnlyTopicsAffectedByTheChanges() {
+		assertEquals(
+			Collections.singleton("mqTopicMessages"), Train.topicKeysAffectedBy(this.keys("mqTopicMessagesAckBatchSize", "messageRetentionHours"))
+		);
+		assertEquals(Collections.singleton("mqTopicContent"), Train.topicKeysAffectedBy(this.keys("trainGroups", "mqTopicContentAck")));
+		assertEquals(
+			new HashSet<>(Arrays.asList("mqTopicContent", "mqTopicGTFS", "mqTopicRealtime")),
+			Train.topicKeysAffectedBy(this.keys("contentChunkSize", "mqTopicRealtime"))
+		);
+		assertEquals(
+			new HashSet<>(Arrays.asList("mqTopicContent", "mqTopicMessages", "mqTopicRealtime", "mqTopicGTFS")),
+			Train.topicKeysAffectedBy(this.keys("dispatchQueueSize"))
+		);
+	}
+	
+	public void testAppliesOtherChangesWithoutResubscribing() {
+		assertEquals(
+			Collections.emptySet(), Train.topicKeysAffectedBy(this.keys("metricsPort", "contentServerPort", "contentPullUrl", "statusInterval"))
+		);
+	}
+	
+	public void testRestartsForChangesWhichCantBeAppliedAlone() {
+		assertNull(Train.topicKeysAffectedBy(this.keys("mqConnectionAddress")));
+		assertNull(Train.topicKeysAffectedBy(this.keys("mqTopicMessagesAckMode", "trainId")));
+	}
+	
+	private Set<String> keys(final String... keys) {
+		return new HashSet<>(Arrays.asList(keys));
+	}
+	
+}
@@ -0,0 +1,103 @@
+package com.data.provisioner.benchmarks;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.JMSException;
+
+import org.apache.activemq.command.ActiveMQBytesMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.data.provisioner.content.ContentGeneration;
+import com.data.provisioner.content.ContentStore;
+import com.data.provisioner.content.ContentStreamer;
+
+/**
+ * Write path of the content listener for single message archives: the message body is streamed to a file
+ * and committed as a new content generation.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ContentWriteBenchmark {
+	
+	@Param({"65536", "1048576", "16777216"})
+	public int archiveSize;
+	
+	@Param({"65536"})
+	public int chunkSize;
+	
+	private Path directory;
+	
+	private ActiveMQBytesMessage message;
+	
+	private ContentStreamer contentStreamer;
+	
+	private ContentStore contentStore;
+	
+	private Path streamedPath;
+	
+	@Setup(Level.Trial)
+	public void setUp() throws IOException, JMSException {
+		this.directory = Files.createTempDirectory("content-benchmark");
+		this.message = Fixtures.bytesMessage(Fixtures.archive(this.archiveSize));
+		this.contentStreamer = new ContentStreamer(this.chunkSize);
+		this.contentStore = new ContentStore(this.directory.resolve("store"), 2);
+		this.streamedPath = this.directory.resolve("streamed.zip");
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		Files.walk(this.directory).sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+	}
+	
+	/**
+	 * Streams the message body to a file.
+	 */
+	@Benchmark
+	public long stream() throws IOException, JMSException {
+		this.message.reset();
+		try (final FileChannel channel = FileChannel.open(this.streamedPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			return this.contentStreamer.transfer(this.message, channel);
+		}
+	}
+	
+	/**
+	 * Streams the message body to a temporary file of the store and commits it, including the flush to disk,
+	 * the validation and the pruning of the oldest generation.
+	 */
+	@Benchmark
+	public ContentGeneration streamAndCommit() throws IOException, JMSException {
+		this.message.reset();
+		final Path temporaryPath = this.contentStore.createTemporaryFile();
+		try {
+			try (final FileChannel channel = FileChannel.open(temporaryPath, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				this.contentStreamer.transfer(this.message, channel);
+			}
+			return this.contentStore.commit(temporaryPath, "benchmark");
+		} finally {
+			Files.deleteIfExists(temporaryPath);
+		}
+	}
+	
+}
@@ -0,0 +1,211 @@
+package com.data.provisioner.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.jms.JMSException;
+
+import org.apache.activemq.command.ActiveMQBytesMessage;
+
+/**
+ * Synthetic inputs of the benchmarks. They are generated from a fixed seed, so runs before and after a change
+ * measure the same data.
+ */
+final class Fixtures {
+	
+	private static final long SEED = 20190601L;
+	
+	private Fixtures() {
+		
+	}
+	
+	/**
+	 * @return incompressible bytes, like the already compressed content archives.
+	 */
+	static byte[] randomBytes(final int size) {
+		final byte[] bytes = new byte[size];
+		new Random(Fixtures.SEED).nextBytes(bytes);
+		return bytes;
+	}
+	
+	/**
+	 * @return content archive of about the given size, made of 64 KiB stored entries of incompressible bytes.
+	 */
+	static byte[] archive(final int size) throws IOException {
+		final byte[] entry = Fixtures.randomBytes(Math.min(size, 64 * 1024));
+		final ByteArrayOutputStream archive = new ByteArrayOutputStream(size + 1024);
+		try (final ZipOutputStream zip = new ZipOutputStream(archive)) {
+			zip.setLevel(Deflater.NO_COMPRESSION);
+			for (int written = 0, index = 0; written < size; written += entry.length, index++) {
+				zip.putNextEntry(new ZipEntry("content/" + index + ".bin"));
+				zip.write(entry);
+				zip.closeEntry();
+			}
+		}
+		return archive.toByteArray();
+	}
+	
+	/**
+	 * @return UTF-8 text of the given size.
+	 */
+	static byte[] text(final int size) {
+		final StringBuilder text = new StringBuilder(size);
+		while (text.length() < size) {
+			text.append("Next stop: Central Station. Please mind the gap. ");
+		}
+		text.setLength(size);
+		return text.toString().getBytes(StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * @return bytes message as received by a consumer. Call {@link ActiveMQBytesMessage#reset()} before every read.
+	 */
+	static ActiveMQBytesMessage bytesMessage(final byte[] body) throws JMSException {
+		final ActiveMQBytesMessage message = new ActiveMQBytesMessage();
+		message.writeBytes(body);
+		message.reset();
+		return message;
+	}
+	
+	/**
+	 * @return full dataset GTFS-Realtime feed, half of the entities are trip updates with ten stop time updates
+	 * each and the other half vehicle positions.
+	 */
+	static byte[] realtimeFeed(final int entities) {
+		final Encoder feed = new Encoder();
+		feed.message(1, new Encoder().string(1, "2.0").varint(2, 0).varint(3, 1_560_000_000L));
+		for (int index = 0; index < entities; index++) {
+			final Encoder trip = new Encoder().string(1, "trip-" + index).string(5, "route-" + index % 50);
+			final Encoder entity = new Encoder().string(1, "entity-" + index);
+			if (index % 2 == 0) {
+				final Encoder tripUpdate = new Encoder().message(1, trip);
+				for (int stop = 0; stop < 10; stop++) {
+					tripUpdate.message(2, new Encoder()
+						.varint(1, stop + 1)
+						.message(2, new Encoder().varint(1, 60).varint(2, 1_560_000_000L + stop * 120))
+						.message(3, new Encoder().varint(1, 60).varint(2, 1_560_000_030L + stop * 120))
+						.string(4, "stop-" + (index + stop) % 2000)
+					);
+				}
+				entity.message(3, tripUpdate.varint(4, 1_560_000_000L));
+			} else {
+				entity.message(4, new Encoder()
+					.message(1, trip)
+					.message(2, new Encoder().fixed32(1, Float.floatToIntBits(42.7f + index * 0.0001f)).fixed32(2, Float.floatToIntBits(23.3f)))
+					.varint(3, 4)
+					.varint(4, 1)
+					.varint(5, 1_560_000_000L)
+					.string(7, "stop-" + index % 2000)
+				);
+			}
+			feed.message(2, entity);
+		}
+		return feed.toByteArray();
+	}
+	
+	/**
+	 * Writes static GTFS feed with the given number of trips, each stopping at the given number of stops.
+	 * @return the feed archive.
+	 */
+	static Path staticFeed(final Path directory, final int trips, final int stopsPerTrip) throws IOException {
+		final Path feed = directory.resolve("feed-" + trips + "x" + stopsPerTrip + ".zip");
+		final int stops = 2000;
+		final int routes = Math.max(1, trips / 100);
+		try (final ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(feed))) {
+			final Writer writer = new OutputStreamWriter(zip, StandardCharsets.UTF_8);
+			zip.putNextEntry(new ZipEntry("stops.txt"));
+			writer.write("stop_id,stop_name,stop_lat,stop_lon\n");
+			for (int stop = 0; stop < stops; stop++) {
+				writer.write("stop-" + stop + ",Stop " + stop + "," + (42.0 + stop * 0.001) + "," + (23.0 + stop * 0.001) + "\n");
+			}
+			writer.flush();
+			zip.putNextEntry(new ZipEntry("routes.txt"));
+			writer.write("route_id,route_short_name,route_long_name,route_type\n");
+			for (int route = 0; route < routes; route++) {
+				writer.write("route-" + route + "," + route + ",Route " + route + ",2\n");
+			}
+			writer.flush();
+			zip.putNextEntry(new ZipEntry("trips.txt"));
+			writer.write("route_id,service_id,trip_id,trip_headsign,direction_id\n");
+			for (int trip = 0; trip < trips; trip++) {
+				writer.write("route-" + trip % routes + ",weekday,trip-" + trip + ",Terminal " + trip % 7 + "," + trip % 2 + "\n");
+			}
+			writer.flush();
+			zip.putNextEntry(new ZipEntry("stop_times.txt"));
+			writer.write("trip_id,arrival_time,departure_time,stop_id,stop_sequence\n");
+			for (int trip = 0; trip < trips; trip++) {
+				for (int sequence = 1; sequence <= stopsPerTrip; sequence++) {
+					final String time = Fixtures.time(5 * 3600 + trip * 30 + sequence * 120);
+					writer.write("trip-" + trip + "," + time + "," + time + ",stop-" + (trip + sequence) % stops + "," + sequence + "\n");
+				}
+			}
+			writer.flush();
+		}
+		return feed;
+	}
+	
+	private static String time(final int seconds) {
+		return String.format("%02d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60);
+	}
+	
+	/**
+	 * Minimal protocol buffers writer.
+	 */
+	private static final class Encoder {
+		
+		private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		
+		Encoder varint(final int field, final long value) {
+			this.rawVarint(field << 3);
+			this.rawVarint(value);
+			return this;
+		}
+		
+		Encoder fixed32(final int field, final int value) {
+			this.rawVarint(field << 3 | 5);
+			for (int shift = 0; shift < 32; shift += 8) {
+				this.output.write(value >>> shift);
+			}
+			return this;
+		}
+		
+		Encoder string(final int field, final String value) {
+			return this.bytes(field, value.getBytes(StandardCharsets.UTF_8));
+		}
+		
+		Encoder message(final int field, final Encoder value) {
+			return this.bytes(field, value.toByteArray());
+		}
+		
+		Encoder bytes(final int field, final byte[] value) {
+			this.rawVarint(field << 3 | 2);
+			this.rawVarint(value.length);
+			this.output.write(value, 0, value.length);
+			return this;
+		}
+		
+		byte[] toByteArray() {
+			return this.output.toByteArray();
+		}
+		
+		private void rawVarint(final long value) {
+			long remaining = value;
+			while ((remaining & ~0x7FL) != 0L) {
+				this.output.write((int) (remaining & 0x7F) | 0x80);
+				remaining >>>= 7;
+			}
+			this.output.write((int) remaining);
+		}
+		
+	}
+	
+}
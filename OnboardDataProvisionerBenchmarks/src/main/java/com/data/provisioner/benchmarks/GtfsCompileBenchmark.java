@@ -0,0 +1,66 @@
+package com.data.provisioner.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.data.provisioner.gtfs.GtfsCompiler;
+import com.data.provisioner.gtfs.GtfsStore;
+
+/**
+ * Compilation of static GTFS feeds received on the GTFS topic. A single compilation takes seconds for large feeds,
+ * so every invocation is timed on its own.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GtfsCompileBenchmark {
+	
+	@Param({"10000", "100000"})
+	public int trips;
+	
+	@Param({"30"})
+	public int stopsPerTrip;
+	
+	private Path directory;
+	
+	private Path feed;
+	
+	private final GtfsCompiler compiler = new GtfsCompiler();
+	
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		this.directory = Files.createTempDirectory("gtfs-benchmark");
+		this.feed = Fixtures.staticFeed(this.directory, this.trips, this.stopsPerTrip);
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		Files.walk(this.directory).sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+	}
+	
+	@Benchmark
+	public GtfsStore compile() throws IOException {
+		return this.compiler.compile(this.feed, "benchmark", this.directory.resolve("gtfs.bin"));
+	}
+	
+}
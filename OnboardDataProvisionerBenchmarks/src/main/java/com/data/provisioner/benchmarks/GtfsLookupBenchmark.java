@@ -0,0 +1,103 @@
+package com.data.provisioner.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.data.provisioner.gtfs.GtfsCompiler;
+import com.data.provisioner.gtfs.GtfsStore;
+
+/**
+ * Lookups of the onboard applications in the compiled static GTFS feed. The ids are looked up in random order,
+ * so the binary searches don't stay in the cache.
+ */
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GtfsLookupBenchmark {
+	
+	private static final int LOOKUPS = 4096;
+	
+	@Param({"10000", "100000"})
+	public int trips;
+	
+	private Path directory;
+	
+	private GtfsStore store;
+	
+	private final String[] tripIds = new String[GtfsLookupBenchmark.LOOKUPS];
+	
+	private final String[] stopIds = new String[GtfsLookupBenchmark.LOOKUPS];
+	
+	private int next = 0;
+	
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		this.directory = Files.createTempDirectory("gtfs-benchmark");
+		this.store = new GtfsCompiler().compile(Fixtures.staticFeed(this.directory, this.trips, 30), "benchmark", this.directory.resolve("gtfs.bin"));
+		final Random random = new Random(this.trips);
+		for (int index = 0; index < GtfsLookupBenchmark.LOOKUPS; index++) {
+			this.tripIds[index] = "trip-" + random.nextInt(this.trips);
+			this.stopIds[index] = "stop-" + random.nextInt(this.store.getStopCount());
+		}
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		Files.walk(this.directory).sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+	}
+	
+	@Benchmark
+	public int findStop() {
+		return this.store.findStop(this.stopIds[this.next++ & GtfsLookupBenchmark.LOOKUPS - 1]);
+	}
+	
+	/**
+	 * Finds the trip and reads the departures of all its stop times.
+	 */
+	@Benchmark
+	public int stopTimesOfTrip() {
+		final int trip = this.store.findTrip(this.tripIds[this.next++ & GtfsLookupBenchmark.LOOKUPS - 1]);
+		final int first = this.store.getFirstStopTimeOfTrip(trip);
+		int departures = 0;
+		for (int stopTime = first; stopTime < first + this.store.getStopTimeCountOfTrip(trip); stopTime++) {
+			departures += this.store.getDepartureTime(stopTime);
+		}
+		return departures;
+	}
+	
+	/**
+	 * Reads the trips of a route.
+	 */
+	@Benchmark
+	public int tripsOfRoute() {
+		final int route = this.store.getTripRoute(this.store.findTrip(this.tripIds[this.next++ & GtfsLookupBenchmark.LOOKUPS - 1]));
+		int directions = 0;
+		final int first = this.store.getFirstTripOfRoute(route);
+		for (int trip = first; trip < first + this.store.getTripCountOfRoute(route); trip++) {
+			directions += this.store.getTripDirection(trip);
+		}
+		return directions;
+	}
+	
+}
@@ -0,0 +1,48 @@
+package com.data.provisioner.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.JMSException;
+
+import org.apache.activemq.command.ActiveMQBytesMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Decoding done by the listener of the messages topic: the body is taken out of the message and decoded as text.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class MessagesDecodeBenchmark {
+	
+	@Param({"128", "1024", "16384"})
+	public int messageSize;
+	
+	private ActiveMQBytesMessage message;
+	
+	@Setup(Level.Trial)
+	public void setUp() throws JMSException {
+		this.message = Fixtures.bytesMessage(Fixtures.text(this.messageSize));
+	}
+	
+	@Benchmark
+	public String decode() {
+		return new String(this.message.getContent().getData(), StandardCharsets.UTF_8);
+	}
+	
+}
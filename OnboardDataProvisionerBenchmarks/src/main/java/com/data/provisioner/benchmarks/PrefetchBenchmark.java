@@ -0,0 +1,101 @@
+package com.data.provisioner.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.BytesMessage;
+import javax.jms.Connection;
+import javax.jms.DeliveryMode;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Delivery of a burst of topic messages through an embedded broker with the given consumer prefetch.
+ * <p>
+ * The broker pushes up to prefetch messages to the consumer before they are received, so the heap of the train holds
+ * up to prefetch times message size bytes per subscription: with the default prefetch of 32766 and 64 KiB content
+ * chunks that is 2 GiB. A small prefetch bounds the memory, but the consumer waits for the broker to dispatch the next
+ * messages, which this benchmark shows as the lower throughput. Compare the throughput with the bounded memory
+ * and with the {@code gc.alloc.rate.norm} reported by {@code -prof gc}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class PrefetchBenchmark {
+	
+	/**
+	 * Messages sent in a burst before they are received.
+	 */
+	private static final int BURST = 1000;
+	
+	@Param({"1", "10", "100", "1000", "32766"})
+	public int prefetch;
+	
+	@Param({"1024", "65536"})
+	public int messageSize;
+	
+	private Connection connection;
+	
+	private MessageProducer producer;
+	
+	private MessageConsumer consumer;
+	
+	private BytesMessage message;
+	
+	@Setup(Level.Trial)
+	public void setUp() throws JMSException {
+		this.connection = new ActiveMQConnectionFactory("vm://benchmark?broker.persistent=false&broker.useJmx=false").createConnection();
+		this.connection.start();
+		final Session producerSession = this.connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+		this.producer = producerSession.createProducer(producerSession.createTopic("benchmark.prefetch"));
+		this.producer.setDeliveryMode(DeliveryMode.NON_PERSISTENT);
+		final Session consumerSession = this.connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+		this.consumer = consumerSession.createConsumer(consumerSession.createTopic("benchmark.prefetch?consumer.prefetchSize=" + this.prefetch));
+		this.message = producerSession.createBytesMessage();
+		this.message.writeBytes(Fixtures.randomBytes(this.messageSize));
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() throws JMSException {
+		this.connection.close();
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(PrefetchBenchmark.BURST)
+	public int burst() throws JMSException {
+		for (int index = 0; index < PrefetchBenchmark.BURST; index++) {
+			this.producer.send(this.message);
+		}
+		int received = 0;
+		for (int index = 0; index < PrefetchBenchmark.BURST; index++) {
+			final Message receivedMessage = this.consumer.receive(1000L);
+			if (receivedMessage == null) {
+				throw new IllegalStateException("Message " + index + " of the burst wasn't delivered");
+			}
+			received++;
+		}
+		return received;
+	}
+	
+}
@@ -0,0 +1,76 @@
+package com.data.provisioner.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.JMSException;
+
+import org.apache.activemq.command.ActiveMQBytesMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.data.provisioner.realtime.GtfsRealtimeDecoder;
+import com.data.provisioner.realtime.RealtimeState;
+
+/**
+ * Decoding of full dataset GTFS-Realtime feeds into the {@link RealtimeState}, as done by the listener of the
+ * realtime topic. After the first invocation every entity is updated in place, which is the steady state of
+ * the listener.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class RealtimeDecodeBenchmark {
+	
+	@Param({"100", "1000", "10000"})
+	public int entities;
+	
+	private byte[] feed;
+	
+	private ActiveMQBytesMessage message;
+	
+	private RealtimeState realtimeState;
+	
+	private GtfsRealtimeDecoder decoder;
+	
+	@Setup(Level.Trial)
+	public void setUp() throws JMSException {
+		this.feed = Fixtures.realtimeFeed(this.entities);
+		this.message = Fixtures.bytesMessage(this.feed);
+		this.realtimeState = new RealtimeState();
+		this.decoder = new GtfsRealtimeDecoder(this.realtimeState);
+	}
+	
+	/**
+	 * Decodes the feed already in memory.
+	 */
+	@Benchmark
+	public RealtimeState decode() throws IOException {
+		this.decoder.decode(this.feed, 0, this.feed.length);
+		return this.realtimeState;
+	}
+	
+	/**
+	 * Reads the body out of the message and decodes it.
+	 */
+	@Benchmark
+	public RealtimeState decodeMessage() throws IOException, JMSException {
+		this.message.reset();
+		this.decoder.decode(this.message);
+		return this.realtimeState;
+	}
+	
+}